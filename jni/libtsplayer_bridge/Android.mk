@@ -59,6 +59,7 @@ LOCAL_SRC_FILES := \
 	TsPlayer.cpp \
 	jni_main.cpp \
 	TsPlayerBridge.cpp \
+	TsFeedBuffer.cpp \
 	
 #LOCAL_LDLIBS    := -lc -llog 
 LOCAL_CFLAGS:= $(NEXUS_CFLAGS) -DANDROID  -DFEATURE_GPU_ACCEL_H264_BRCM -DFEATURE_AUDIO_HWCODEC
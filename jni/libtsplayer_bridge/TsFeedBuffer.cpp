@@ -0,0 +1,107 @@
+#define LOG_TAG "SLINGSHOT_JNI"
+
+#include "config.h"
+#include <stdlib.h>
+#include <string.h>
+#include <cutils/atomic.h>
+
+#include "TsFeedBuffer.h"
+
+TsFeedBuffer::TsFeedBuffer(size_t capacity)
+	:mBuffer(NULL),
+	 mCapacity(1),
+	 mMask(0),
+	 mHead(0),
+	 mTail(0),
+	 mHighWater(0),
+	 mOverflows(0),
+	 mUnderruns(0),
+	 mStarved(true)
+{
+	while(mCapacity < capacity)
+		mCapacity <<= 1;
+	mMask = mCapacity - 1;
+	mBuffer = (unsigned char*)malloc(mCapacity);
+	if(mBuffer == NULL){
+		SLINGSHOT_LOGE("TsFeedBuffer: no memory for %u bytes", mCapacity);
+		mCapacity = 0;
+		mMask = 0;
+	}
+}
+
+TsFeedBuffer::~TsFeedBuffer(){
+	free(mBuffer);
+}
+
+size_t TsFeedBuffer::write(const unsigned char* data, size_t size){
+	uint32_t head = (uint32_t)mHead;
+	uint32_t tail = (uint32_t)android_atomic_acquire_load(&mTail);
+	uint32_t space = mCapacity - (head - tail);
+
+	size_t n = size;
+	if(n > space){
+		n = space;
+		mOverflows++;
+	}
+	if(n == 0)
+		return 0;
+
+	uint32_t at = head & mMask;
+	uint32_t first = mCapacity - at;
+	if(first > n)
+		first = n;
+	memcpy(mBuffer + at, data, first);
+	memcpy(mBuffer, data + first, n - first);
+	android_atomic_release_store((int32_t)(head + n), &mHead);
+
+	int32_t fill = (int32_t)(head + n - tail);
+	if(fill > mHighWater)
+		mHighWater = fill;
+	return n;
+}
+
+size_t TsFeedBuffer::peek(unsigned char** data){
+	uint32_t tail = (uint32_t)mTail;
+	uint32_t head = (uint32_t)android_atomic_acquire_load(&mHead);
+	uint32_t fill = head - tail;
+	if(fill == 0)
+		return 0;
+
+	mStarved = false;
+	uint32_t at = tail & mMask;
+	uint32_t first = mCapacity - at;
+	*data = mBuffer + at;
+	return (fill < first) ? fill : first;
+}
+
+void TsFeedBuffer::consume(size_t size){
+	android_atomic_release_store((int32_t)((uint32_t)mTail + size), &mTail);
+}
+
+void TsFeedBuffer::onEmpty(){
+	if(!mStarved){
+		mStarved = true;
+		mUnderruns++;
+	}
+}
+
+void TsFeedBuffer::discard(){
+	android_atomic_release_store(android_atomic_acquire_load(&mHead), &mTail);
+	mStarved = true;
+}
+
+void TsFeedBuffer::getStats(Stats* stats){
+	uint32_t head = (uint32_t)android_atomic_acquire_load(&mHead);
+	uint32_t tail = (uint32_t)android_atomic_acquire_load(&mTail);
+	stats->capacity = (int32_t)mCapacity;
+	stats->fill = (int32_t)(head - tail);
+	stats->highWater = mHighWater;
+	stats->underruns = mUnderruns;
+	stats->overflows = mOverflows;
+}
+
+void TsFeedBuffer::resetStats(){
+	mHighWater = 0;
+	mOverflows = 0;
+	mUnderruns = 0;
+}
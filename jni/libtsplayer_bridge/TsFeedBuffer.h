@@ -0,0 +1,63 @@
+#ifndef TSFEEDBUFFER_H
+#define TSFEEDBUFFER_H
+
+#include <stdint.h>
+#include <stddef.h>
+
+/*
+ * Lock-free ring of TS data between one producer (the Java receive thread,
+ * through TsPlayer.WriteData) and one consumer (the feed thread calling
+ * ITsPlayer::WriteData).
+ *
+ * Head and tail count bytes from the start and wrap at 2^32, the capacity is
+ * a power of two so their difference is the fill. Each side only writes its
+ * own counter, the other one is read with acquire and written with release
+ * so the bytes are visible before the counter that covers them.
+ */
+class TsFeedBuffer{
+public:
+	struct Stats{
+		int32_t capacity;
+		int32_t fill;
+		int32_t highWater;	//most bytes queued at once
+		int32_t underruns;	//times the feed thread found the ring empty after data
+		int32_t overflows;	//writes cut short by a full ring
+	};
+
+	//capacity is rounded up to a power of two
+	explicit TsFeedBuffer(size_t capacity);
+	~TsFeedBuffer();
+
+	//producer: copy in as much as fits, returns the bytes taken
+	size_t write(const unsigned char* data, size_t size);
+
+	//consumer: the contiguous bytes at the tail, 0 if empty
+	size_t peek(unsigned char** data);
+	//consumer: release bytes returned by peek
+	void consume(size_t size);
+	//consumer: the ring was found empty
+	void onEmpty();
+	//consumer: drop everything queued, while the feed thread is stopped
+	void discard();
+
+	void getStats(Stats* stats);
+	void resetStats();
+
+private:
+	TsFeedBuffer(const TsFeedBuffer&);
+	TsFeedBuffer& operator=(const TsFeedBuffer&);
+
+	unsigned char*		mBuffer;
+	uint32_t			mCapacity;
+	uint32_t			mMask;
+
+	volatile int32_t	mHead;		//written by the producer
+	volatile int32_t	mTail;		//written by the consumer
+
+	volatile int32_t	mHighWater;	//producer
+	volatile int32_t	mOverflows;	//producer
+	volatile int32_t	mUnderruns;	//consumer
+	bool				mStarved;	//consumer, underrun already counted
+};
+
+#endif
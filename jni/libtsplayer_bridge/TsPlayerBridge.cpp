@@ -7,56 +7,88 @@
 #include <utils/Log.h>
 #include <pthread.h>
 #include <fcntl.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <cutils/atomic.h>
 
 
 #include "TsPlayerBridge.h"
 
 const int VIDEO_WIDTH = 640;
 const int VIDEO_HEIGHT = 480;
-const int BUFFER_LENGTH = 188 * 1000;
+//about 2s of a 3Mbps stream
+const size_t FEED_BUFFER_LENGTH = 1024 * 1024;
+//one WriteData, well under what the playpump takes at once
+const unsigned int FEED_CHUNK = 188 * 64;
+//wait of the feed thread for data
+const useconds_t FEED_IDLE_US = 2000;
+const int FILE_CHUNK = 188 * 1000;
+
+/*Drain the feed buffer into the player, straight from the ring*/
 void* TsPlayerBridge::feedData(void* arg){
-	
-    SLINGSHOT_LOGD("Start feed data...");
+	FeedDataProcess* process = (FeedDataProcess*)arg;
+	TsPlayerBridge* bridge = process->getBridge();
+	TsFeedBuffer& ring = bridge->mFeedBuffer;
+
+	SLINGSHOT_LOGD("Start feed data...");
+	while(process->isRunning()){
+		unsigned char* data = NULL;
+		size_t n = ring.peek(&data);
+		if(n == 0){
+			ring.onEmpty();
+			usleep(FEED_IDLE_US);
+			continue;
+		}
+		if(n > FEED_CHUNK)
+			n = FEED_CHUNK;
+		int written = bridge->WriteData(data, n);
+		if(written <= 0){
+			//the player took nothing, try the same bytes again
+			usleep(FEED_IDLE_US);
+			continue;
+		}
+		//what it didn't take goes first next time
+		ring.consume((size_t)written < n ? (size_t)written : n);
+	}
 
-	unsigned char buffer[BUFFER_LENGTH + 1];
-    memset(buffer, 0,BUFFER_LENGTH + 1);
-	
-    FILE *fp = NULL;
-    FILE *fp_out = NULL;
-    fp = fopen("/test3.ts","rb");
-    if(fp == NULL){
-       SLINGSHOT_LOGE("open file failed");
-    }
+	TsFeedBuffer::Stats stats;
+	ring.getStats(&stats);
+	SLINGSHOT_LOGD("stop feed data, high water %d of %d, underruns %d, overflows %d",
+			stats.highWater, stats.capacity, stats.underruns, stats.overflows);
+	return NULL;
+}
 
-    int loop = 0;
-    while(1){ 
-        SLINGSHOT_LOGD("Start loop %d", loop);
-        
-        size_t count =  fread(buffer, BUFFER_LENGTH, 1,fp);
-        SLINGSHOT_LOGD("count: %d", count);
-        SLINGSHOT_LOGD("Content buffer[0]: %x", buffer[0]);
-        SLINGSHOT_LOGD("Content buffer[1]: %x", buffer[1]);
-        SLINGSHOT_LOGD("Content buffer[2]: %x", buffer[2]);
-        SLINGSHOT_LOGD("Content buffer[3]: %x", buffer[3]);
-        SLINGSHOT_LOGD("Content buffer[4]: %x", buffer[4]);
-       
-       // fwrite(buffer,BUFFER_LENGTH,1,fp_out);
-        TsPlayerBridge::getTsPlayerBridge()->WriteData(buffer,BUFFER_LENGTH);
-        usleep(5000);
-
-		 /*
-	        if(loop >= 100){
-	            break;
-	        }
-	        loop++;
-	        */
-        
-    }
-     LOGI("stop feed data...");
-     fclose(fp);
-     pthread_exit(0);
-     return NULL;
+/*Producer of the feed buffer reading a file, for testing without a stream*/
+void* TsPlayerBridge::feedFile(void* arg){
+	FeedDataProcess* process = (FeedDataProcess*)arg;
+	TsPlayerBridge* bridge = process->getBridge();
+
+	FILE* fp = fopen(bridge->mFeedFilePath, "rb");
+	if(fp == NULL){
+		SLINGSHOT_LOGE("open file %s failed", bridge->mFeedFilePath);
+		return NULL;
+	}
 
+	unsigned char* buffer = (unsigned char*)malloc(FILE_CHUNK);
+	size_t count = 0;
+	size_t queued = 0;
+	while(buffer != NULL && process->isRunning()){
+		if(queued == count){
+			count = fread(buffer, 1, FILE_CHUNK, fp);
+			queued = 0;
+			if(count == 0){
+				rewind(fp);
+				continue;
+			}
+		}
+		queued += bridge->QueueData(buffer + queued, count - queued);
+		if(queued < count)
+			usleep(FEED_IDLE_US);
+	}
+	free(buffer);
+	fclose(fp);
+	return NULL;
 }
 
 
@@ -76,7 +108,10 @@ TsPlayerBridge::TsPlayerBridge()
 	:mDlHandle(NULL),
 	 mTsPlayer(NULL),
 	 mTsPlayer_get_func(NULL),
-	 mFeedDataProcess(NULL)
+	 mFeedDataProcess(NULL),
+	 mFeedFileProcess(NULL),
+	 mFeedFilePath(NULL),
+	 mFeedBuffer(FEED_BUFFER_LENGTH)
 
 
 {
@@ -119,11 +154,17 @@ TsPlayerBridge::~TsPlayerBridge(){
 		mTsPlayer = NULL;
 	}
 
+	if(mFeedFileProcess){
+		mFeedFileProcess->stop();
+		delete mFeedFileProcess;
+		mFeedFileProcess = NULL;
+	}
 	if(mFeedDataProcess){
 		mFeedDataProcess->stop();
 		delete mFeedDataProcess;
 		mFeedDataProcess = NULL;
 	}
+	free(mFeedFilePath);
 	
 }
 void TsPlayerBridge::tryInitTsPlayer(){
@@ -170,6 +211,26 @@ int TsPlayerBridge::WriteData(unsigned char* pBuffer, unsigned int nSize){
 	return 0;
 }
 
+size_t TsPlayerBridge::QueueData(const unsigned char* pBuffer, size_t nSize){
+	return mFeedBuffer.write(pBuffer, nSize);
+}
+
+void TsPlayerBridge::GetFeedStats(TsFeedBuffer::Stats* stats){
+	mFeedBuffer.getStats(stats);
+}
+
+bool TsPlayerBridge::FeedFile(const char* path){
+	if(mFeedFileProcess == NULL)
+		mFeedFileProcess = new FeedDataProcess(feedFile, this);
+	mFeedFileProcess->stop();
+	free(mFeedFilePath);
+	mFeedFilePath = strdup(path);
+	if(mFeedFilePath == NULL)
+		return false;
+	mFeedFileProcess->run();
+	return true;
+}
+
 bool TsPlayerBridge::SetVideoWindow(int x,int y,int width,int height){
 	if(mTsPlayer != NULL){
 		return mTsPlayer->SetVideoWindow( x, y, width, height);
@@ -185,9 +246,13 @@ bool TsPlayerBridge::StartPlay(){
 
 		mTsPlayer->StartPlay();
 		//start feed data
-		mFeedDataProcess = new FeedDataProcess(feedData);
-		mFeedDataProcess->run();
-		 
+		if(mFeedDataProcess == NULL)
+			mFeedDataProcess = new FeedDataProcess(feedData, this);
+		if(!mFeedDataProcess->isRunning()){
+			mFeedBuffer.resetStats();
+			mFeedDataProcess->run();
+		}
+		return true;
 	}
 	return false;	
 }
@@ -223,9 +288,13 @@ bool TsPlayerBridge::StopFast(){
 
 bool TsPlayerBridge::Stop(){
 	if(mTsPlayer != NULL){
-				//test
+		if(mFeedFileProcess){
+			mFeedFileProcess->stop();
+		}
 		if(mFeedDataProcess){
 			mFeedDataProcess->stop();
+			//what is left belongs to the stream just stopped
+			mFeedBuffer.discard();
 		}
 		return mTsPlayer->Stop();
 	}
@@ -290,24 +359,38 @@ void TsPlayerBridge::SetEPGSize(int w, int h){
 }
 
 
-TsPlayerBridge::FeedDataProcess::FeedDataProcess(ProcessFunc proc)
-	:mProc(proc)
+TsPlayerBridge::FeedDataProcess::FeedDataProcess(ProcessFunc proc, TsPlayerBridge* bridge)
+	:mProc(proc),
+	 mBridge(bridge),
+	 mRunning(0)
 {
 }
 
 void TsPlayerBridge::FeedDataProcess::run(){
+	if(isRunning())
+		return;
 	SLINGSHOT_LOGD("Start to feed data ...");
+	android_atomic_release_store(1, &mRunning);
 	//init pthread;
     pthread_attr_t attr;
     pthread_attr_init(&attr);
     pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_JOINABLE);
-    pthread_create(&mThread, &attr, mProc, 0);
+    if(pthread_create(&mThread, &attr, mProc, this) != 0){
+    	SLINGSHOT_LOGE("Start to feed data failed!!");
+    	android_atomic_release_store(0, &mRunning);
+    }
     pthread_attr_destroy(&attr);	
 }
 
 
 void TsPlayerBridge::FeedDataProcess::stop(){
-	
+	if(!isRunning())
+		return;
+	android_atomic_release_store(0, &mRunning);
+	pthread_join(mThread, NULL);
 }
 
-
+bool TsPlayerBridge::FeedDataProcess::isRunning(){
+	return android_atomic_acquire_load(&mRunning) != 0;
+}
+
\ No newline at end of file
@@ -35,6 +35,7 @@ typedef bool(*TsPlayer_Bridge_IsSoftFit_func)();
 typedef void(*TsPlayer_Bridge_SetEPGSize_func)(int w, int h);
 */
 #include "TsPlayer.h"
+#include "TsFeedBuffer.h"
 
 //class ITsPlayer;
 
@@ -45,6 +46,7 @@ class TsPlayerBridge{
 public:
 	static TsPlayerBridge* getTsPlayerBridge();
 	static void* feedData(void* arg);
+	static void* feedFile(void* arg);
 
 	~TsPlayerBridge();
 
@@ -65,9 +67,15 @@ public:
 	bool Stop();
 	int WriteData(unsigned char* pBuffer, unsigned int nSize);
 
+	//queue TS data for the feed thread, from one thread only, returns the bytes taken
+	size_t QueueData(const unsigned char* pBuffer, size_t nSize);
+	void GetFeedStats(TsFeedBuffer::Stats* stats);
+	
 	
 	//for test
 	void tryInitTsPlayer();
+	//queue a TS file in a loop, instead of QueueData
+	bool FeedFile(const char* path);
 
 
 private:
@@ -76,14 +84,19 @@ private:
 	class FeedDataProcess{
 		typedef void*(*ProcessFunc)(void*);
 	public:
-		FeedDataProcess(ProcessFunc proc);
+		//proc gets this process, it runs until isRunning() is false
+		FeedDataProcess(ProcessFunc proc, TsPlayerBridge* bridge);
 		void run();
 		void stop();
+		bool isRunning();
+		TsPlayerBridge* getBridge(){return mBridge;}
 	
 	private:
 		FeedDataProcess();
 		pthread_t mThread; 
 		ProcessFunc mProc;
+		TsPlayerBridge* mBridge;
+		volatile int32_t mRunning;
 		
 	};
 
@@ -92,6 +105,9 @@ private:
 	TsPlayer_get_func 	mTsPlayer_get_func;
 	ITsPlayer* 			mTsPlayer;
 	FeedDataProcess*    mFeedDataProcess;
+	FeedDataProcess*    mFeedFileProcess;
+	char*               mFeedFilePath;
+	TsFeedBuffer        mFeedBuffer;
 
 	
 	/*
@@ -3,6 +3,7 @@
 #include "config.h"
 #include <jni.h>
 #include <JNIHelp.h>
+#include <string.h>
 
 #include "TsPlayerBridge.h"
 
@@ -24,6 +25,9 @@ private native int      _GetAudioBalance();
 private native boolean  _SetAudioBalance(int nAudioBalance); 
 private native boolean  _IsSoftFit();
 private native void     _SetEPGSize(int w, int h);
+private native int      _WriteData(ByteBuffer data, int offset, int size);
+private native void     _GetFeedStats(int[] stats);
+private native boolean  _FeedFile(String path);
 */
 
 TsPlayerBridge* gTsPlayerBridge;
@@ -160,6 +164,49 @@ static void      nativeSetEPGSize(JNIEnv *env, jobject obj,jint w, jint h){
 
 }
 
+/*Called per received packet, no logging and no copy into the Java heap*/
+static jint      nativeWriteData(JNIEnv *env, jobject obj, jobject data, jint offset, jint size){
+	unsigned char* address = (unsigned char*)env->GetDirectBufferAddress(data);
+	if(address == NULL){
+		jniThrowException(env, "java/lang/IllegalArgumentException", "Not a direct buffer");
+		return 0;
+	}
+	jlong capacity = env->GetDirectBufferCapacity(data);
+	if(offset < 0 || size < 0 || offset > capacity - size){
+		jniThrowException(env, "java/lang/IndexOutOfBoundsException", NULL);
+		return 0;
+	}
+	if(gTsPlayerBridge!=NULL){
+		return gTsPlayerBridge->QueueData(address + offset, size);
+	}
+	return 0;
+}
+static void      nativeGetFeedStats(JNIEnv *env, jobject obj, jintArray stats){
+	TsFeedBuffer::Stats s;
+	memset(&s, 0, sizeof(s));
+	if(gTsPlayerBridge!=NULL){
+		gTsPlayerBridge->GetFeedStats(&s);
+	}
+	jint values[] = {s.capacity, s.fill, s.highWater, s.underruns, s.overflows};
+	if(env->GetArrayLength(stats) < (jsize)NELEM(values)){
+		jniThrowException(env, "java/lang/IndexOutOfBoundsException", NULL);
+		return;
+	}
+	env->SetIntArrayRegion(stats, 0, NELEM(values), values);
+}
+static jboolean  nativeFeedFile(JNIEnv *env, jobject obj, jstring path){
+    SLINGSHOT_LOGD("==== nativeFeedFile ====");
+	if(gTsPlayerBridge==NULL || path==NULL){
+		return false;
+	}
+	const char* file = env->GetStringUTFChars(path, NULL);
+	if(file == NULL){
+		return false;
+	}
+	bool started = gTsPlayerBridge->FeedFile(file);
+	env->ReleaseStringUTFChars(path, file);
+	return started;
+}
  
 
 
@@ -180,7 +227,10 @@ static JNINativeMethod  gJavaMethods[]  =
     { "_SetAudioBalance", "(I)Z", (void *) nativeSetAudioBalance},
     { "_IsSoftFit", "()Z", (void *) nativeIsSoftFit},
     { "_SetEPGSize", "(II)V", (void *) nativeSetEPGSize},
-	{ "_Stop", "()Z", (void *) nativeStop}
+	{ "_Stop", "()Z", (void *) nativeStop},
+	{ "_WriteData", "(Ljava/nio/ByteBuffer;II)I", (void *) nativeWriteData},
+	{ "_GetFeedStats", "([I)V", (void *) nativeGetFeedStats},
+	{ "_FeedFile", "(Ljava/lang/String;)Z", (void *) nativeFeedFile}
     
 };
  
@@ -9,6 +9,7 @@ import android.view.View;
 import android.view.Window;
 
 import com.cisco.slingshot.R;
+import com.cisco.slingshot.call.CallPrewarm;
 import com.cisco.slingshot.call.CallStatusObserver;
 import com.cisco.slingshot.receiver.EthenetHotPlugEventReceiver;
 import com.cisco.slingshot.receiver.StandbyReceiver;
@@ -134,6 +135,10 @@ public class InCallActivity extends Activity implements CallStatusObserver{
     @Override
     public void onDestroy(){
     	Util.S_Log.d(LOG_TAG, "IncallActivity========onDestroy======");
+    	if(isFinishing()){
+    		// finished before InCallView took what was opened ahead
+    		CallPrewarm.getInstance(this).release();
+    	}
     	super.onDestroy();
     }
     
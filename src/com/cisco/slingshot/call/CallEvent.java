@@ -0,0 +1,31 @@
+package com.cisco.slingshot.call;
+
+/**
+ * Events fed to the {@link CallStateMachine}.
+ */
+public enum CallEvent {
+	/** a call is offered to us, detail is the caller address */
+	INCOMING,
+	/** start a call, detail is the callee address */
+	DIAL,
+	/** the far end is ringing */
+	RINGING_BACK,
+	/** answer the incoming call */
+	ANSWER,
+	/** the SIP session is established */
+	ESTABLISHED,
+	/** put the call on hold */
+	HOLD,
+	/** take the call off hold */
+	CONTINUE,
+	/** stop sending our video */
+	HIDE,
+	/** end the call locally, or reject it if not answered */
+	HANGUP,
+	/** the SIP session is over */
+	ENDED,
+	/** the far end is busy */
+	BUSY,
+	/** the SIP session failed, detail is the error */
+	ERROR
+}
@@ -0,0 +1,200 @@
+package com.cisco.slingshot.call;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Delivers call state transitions to any number of subscribers, each one on
+ * its own executor.
+ *
+ * The subscriber list is a copy-on-write array, publishing walks it without a
+ * lock or an iterator. Every subscriber has a ring of preallocated event slots:
+ * the publisher copies the transition into a slot and schedules one drain on
+ * the subscriber's executor, so a slow subscriber only delays itself and
+ * publishing allocates nothing. Events of one subscriber are delivered in the
+ * order they were published. If a subscriber falls a whole ring behind, the
+ * newest events are dropped and counted, it can still read the current state
+ * from the CallStateMachine.
+ */
+public class CallEventBus {
+
+	private static final String TAG = "CallEventBus";
+
+	// call events come a few per second at most
+	private static final int RING_SIZE = 32;
+
+	/**
+	 * Run on the thread of a Handler, e.g. the UI thread.
+	 */
+	public static Executor handlerExecutor(final Handler handler) {
+		return new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				handler.post(command);
+			}
+		};
+	}
+
+	/**
+	 * Run on the publishing thread, for subscribers which only hand over.
+	 */
+	public static final Executor DIRECT = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	/**
+	 * Subscribe a listener, delivered on the given executor. Subscribing the
+	 * same listener again only changes its executor.
+	 */
+	public synchronized void subscribe(CallStateListener listener, Executor executor) {
+		Subscriber[] old = mSubscribers;
+		int index = indexOf(old, listener);
+		Subscriber[] subscribers;
+		if (index < 0) {
+			subscribers = new Subscriber[old.length + 1];
+			System.arraycopy(old, 0, subscribers, 0, old.length);
+			index = old.length;
+		} else {
+			subscribers = old.clone();
+		}
+		subscribers[index] = new Subscriber(listener, executor);
+		mSubscribers = subscribers;
+	}
+
+	public synchronized void unsubscribe(CallStateListener listener) {
+		Subscriber[] old = mSubscribers;
+		int index = indexOf(old, listener);
+		if (index < 0)
+			return;
+
+		Subscriber[] subscribers = new Subscriber[old.length - 1];
+		System.arraycopy(old, 0, subscribers, 0, index);
+		System.arraycopy(old, index + 1, subscribers, index, old.length - index - 1);
+		mSubscribers = subscribers;
+		old[index].mClosed = true;
+	}
+
+	public void publish(CallState from, CallState to, CallEvent event, String detail) {
+		Subscriber[] subscribers = mSubscribers;
+		for (int i = 0; i < subscribers.length; i++) {
+			subscribers[i].offer(from, to, event, detail);
+		}
+	}
+
+	private static int indexOf(Subscriber[] subscribers, CallStateListener listener) {
+		for (int i = 0; i < subscribers.length; i++) {
+			if (subscribers[i].mListener == listener)
+				return i;
+		}
+		return -1;
+	}
+
+	// -----------------------------------------------------------------
+
+	// one transition, the slots are reused round the ring
+	private static final class Slot {
+		CallState from;
+		CallState to;
+		CallEvent event;
+		String detail;
+	}
+
+	private static final class Subscriber implements Runnable {
+
+		Subscriber(CallStateListener listener, Executor executor) {
+			mListener = listener;
+			mExecutor = executor;
+			for (int i = 0; i < RING_SIZE; i++) {
+				mRing[i] = new Slot();
+			}
+		}
+
+		void offer(CallState from, CallState to, CallEvent event, String detail) {
+			synchronized (this) {
+				if (mTail - mHead == RING_SIZE) {
+					mDropped++;
+					return;
+				}
+				Slot slot = mRing[(int) (mTail % RING_SIZE)];
+				slot.from = from;
+				slot.to = to;
+				slot.event = event;
+				slot.detail = detail;
+				mTail++;
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if (!mScheduled.compareAndSet(false, true))
+				return;
+			try {
+				mExecutor.execute(this);
+			} catch (RejectedExecutionException e) {
+				// the subscriber's thread is gone, it unsubscribes on its way out
+				mScheduled.set(false);
+				Log.e(TAG, "drop events of " + mListener + " : executor shut down");
+			}
+		}
+
+		// drain on the subscriber's executor
+		@Override
+		public void run() {
+			CallState from;
+			CallState to;
+			CallEvent event;
+			String detail;
+			int dropped;
+
+			while (true) {
+				synchronized (this) {
+					if (mHead == mTail) {
+						// let the next offer schedule again, then look once more
+						// for an event which came in between
+						mScheduled.set(false);
+						if (mHead == mTail || !mScheduled.compareAndSet(false, true))
+							return;
+					}
+					Slot slot = mRing[(int) (mHead % RING_SIZE)];
+					from = slot.from;
+					to = slot.to;
+					event = slot.event;
+					detail = slot.detail;
+					slot.detail = null;
+					mHead++;
+					dropped = mDropped;
+					mDropped = 0;
+				}
+
+				if (dropped > 0)
+					Log.e(TAG, mListener + " is behind, dropped " + dropped + " events");
+				if (mClosed)
+					continue;
+				try {
+					mListener.onCallStateChanged(from, to, event, detail);
+				} catch (Throwable t) {
+					Log.e(TAG, "onCallStateChanged()", t);
+				}
+			}
+		}
+
+		final CallStateListener mListener;
+		final Executor mExecutor;
+		volatile boolean mClosed = false;
+
+		private final Slot[] mRing = new Slot[RING_SIZE];
+		private long mHead = 0;
+		private long mTail = 0;
+		private int mDropped = 0;
+		private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+	}
+
+	private volatile Subscriber[] mSubscribers = new Subscriber[0];
+}
@@ -0,0 +1,233 @@
+package com.cisco.slingshot.call;
+
+import java.net.InetAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.Context;
+import android.hardware.Camera;
+import android.media.MediaPlayer;
+import android.util.Log;
+
+import com.cisco.slingshot.net.rtp.VideoStream;
+import com.cisco.slingshot.utils.CallTrace;
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * Camera, player and video socket of the next call, made ready in parallel
+ * while the call is being set up rather than one after the other once
+ * InCallView is on the screen.
+ *
+ * start() opens the three on background threads, awaitReady() waits for all
+ * of them. InCallView and SipConfCall take each one when they get to it,
+ * waiting for it if it isn't ready yet, and fall back to making their own if
+ * it failed. Whatever the call didn't take is closed by release(), when
+ * InCallView releases its media, when AsyncCallTask is cancelled or has no
+ * call to start, and when InCallActivity finishes.
+ */
+public class CallPrewarm {
+
+	private static final String LOG_TAG = "CallPrewarm";
+
+	private static CallPrewarm mInstance = null;
+
+	public static synchronized CallPrewarm getInstance(Context context) {
+		if (mInstance == null) {
+			mInstance = new CallPrewarm(context.getApplicationContext());
+		}
+		return mInstance;
+	}
+
+	private CallPrewarm(Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * Begin opening what isn't already open or being opened. Nothing is done
+	 * during a call, the camera is in use.
+	 */
+	public synchronized void start() {
+		if (CallStateMachine.getInstance().isInCall()) {
+			Util.S_Log.d(LOG_TAG, "in a call, nothing to warm");
+			return;
+		}
+		if (mCamera == null)
+			mCamera = mExecutor.submit(new OpenCamera());
+		if (mPlayer == null)
+			mPlayer = mExecutor.submit(new CreatePlayer());
+		if (mVideoStream == null)
+			mVideoStream = mExecutor.submit(new BindVideoStream());
+	}
+
+	/**
+	 * Wait for everything started to be open, or to have failed.
+	 * @return false if the time ran out first
+	 */
+	public boolean awaitReady(long timeoutMs) {
+		Future<?>[] pending;
+		synchronized (this) {
+			pending = new Future<?>[] { mCamera, mPlayer, mVideoStream };
+		}
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		for (Future<?> f : pending) {
+			if (f == null)
+				continue;
+			try {
+				f.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				Util.S_Log.d(LOG_TAG, "not ready in " + timeoutMs + " ms");
+				return false;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (ExecutionException e) {
+				// failed, the taker makes its own
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The camera opened ahead, null if none. It has no preview yet, that
+	 * needs the surface of InCallView.
+	 */
+	public Camera takeCamera() {
+		Future<Camera> f;
+		synchronized (this) {
+			f = mCamera;
+			mCamera = null;
+		}
+		return get(f);
+	}
+
+	/**
+	 * An idle player created ahead, null if none.
+	 */
+	public MediaPlayer takePlayer() {
+		Future<MediaPlayer> f;
+		synchronized (this) {
+			f = mPlayer;
+			mPlayer = null;
+		}
+		return get(f);
+	}
+
+	/**
+	 * A video socket bound ahead on an even port, null if none.
+	 */
+	public VideoStream takeVideoStream() {
+		Future<VideoStream> f;
+		synchronized (this) {
+			f = mVideoStream;
+			mVideoStream = null;
+		}
+		return get(f);
+	}
+
+	/**
+	 * Close what no call took, in the background.
+	 */
+	public void release() {
+		final Future<Camera> camera;
+		final Future<MediaPlayer> player;
+		final Future<VideoStream> videoStream;
+		synchronized (this) {
+			camera = mCamera;
+			player = mPlayer;
+			videoStream = mVideoStream;
+			mCamera = null;
+			mPlayer = null;
+			mVideoStream = null;
+		}
+		if (camera == null && player == null && videoStream == null)
+			return;
+
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Camera c = get(camera);
+				if (c != null)
+					c.release();
+				MediaPlayer mp = get(player);
+				if (mp != null)
+					mp.release();
+				VideoStream vs = get(videoStream);
+				if (vs != null)
+					vs.release();
+				Util.S_Log.d(LOG_TAG, "released what the call didn't take");
+			}
+		});
+	}
+
+	private static <T> T get(Future<T> f) {
+		if (f == null)
+			return null;
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+			return null;
+		}
+	}
+
+	/*Camera.open, the slowest of the three*/
+	private class OpenCamera implements Callable<Camera> {
+		@Override
+		public Camera call() {
+			final long start = CallTrace.begin();
+			DevicePolicyManager dpm = (DevicePolicyManager)mContext.getSystemService(
+					Context.DEVICE_POLICY_SERVICE);
+			if (dpm.getCameraDisabled(null))
+				return null;
+			try {
+				Camera camera = Camera.open(0);
+				CallTrace.end("CallPrewarm.openCamera", start);
+				return camera;
+			} catch (RuntimeException e) {
+				// still held by the last call, InCallView opens it itself
+				Log.e(LOG_TAG, "Camera.open: " + e.getMessage());
+				return null;
+			}
+		}
+	}
+
+	private class CreatePlayer implements Callable<MediaPlayer> {
+		@Override
+		public MediaPlayer call() {
+			final long start = CallTrace.begin();
+			MediaPlayer mp = new MediaPlayer();
+			CallTrace.end("CallPrewarm.createPlayer", start);
+			return mp;
+		}
+	}
+
+	private class BindVideoStream implements Callable<VideoStream> {
+		@Override
+		public VideoStream call() {
+			final long start = CallTrace.begin();
+			try {
+				VideoStream vs = new VideoStream(InetAddress.getLocalHost());
+				CallTrace.end("CallPrewarm.bindVideoStream", start);
+				return vs;
+			} catch (Exception e) {
+				Log.e(LOG_TAG, Log.getStackTraceString(e));
+				return null;
+			}
+		}
+	}
+
+	private final Context mContext;
+	private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+	private Future<Camera> mCamera = null;
+	private Future<MediaPlayer> mPlayer = null;
+	private Future<VideoStream> mVideoStream = null;
+}
@@ -0,0 +1,41 @@
+package com.cisco.slingshot.call;
+
+/**
+ * States of the {@link CallStateMachine}.
+ */
+public enum CallState {
+	/** no call */
+	IDLE,
+	/** a call is offered to us and not answered yet */
+	INCOMING,
+	/** we are calling, no answer from the far end yet */
+	OUTGOING,
+	/** the far end is ringing */
+	ALERTING,
+	/** the incoming call is being answered */
+	ANSWERING,
+	/** established, media flowing both ways */
+	CONNECTED,
+	/** established and put on hold */
+	HELD,
+	/** established, our video is not sent */
+	INVISIBLE,
+	/** on hold after HIDE, back to INVISIBLE when continued */
+	HELD_INVISIBLE,
+	/** hung up locally, waiting for the session to end */
+	ENDING;
+
+	/**
+	 * @return true if the call is established, held or not
+	 */
+	public boolean isInCall() {
+		return CONNECTED == this || isHeld() || INVISIBLE == this;
+	}
+
+	/**
+	 * @return true if the call is on hold, our video hidden or not
+	 */
+	public boolean isHeld() {
+		return HELD == this || HELD_INVISIBLE == this;
+	}
+}
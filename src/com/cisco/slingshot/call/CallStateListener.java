@@ -0,0 +1,17 @@
+package com.cisco.slingshot.call;
+
+/**
+ * Told of every transition of a {@link CallStateMachine}, through its
+ * {@link CallEventBus}.
+ */
+public interface CallStateListener {
+	/**
+	 * Called on the executor the listener was added with, e.g. the UI thread,
+	 * only on the firing thread for {@link CallEventBus#DIRECT}. Transitions
+	 * come in the order they happened, but only for this listener: another
+	 * one may be told earlier or later. Keep it short, a slow listener
+	 * delays its own later events.
+	 * @param detail the detail the event was fired with, may be null
+	 */
+	public void onCallStateChanged(CallState from, CallState to, CallEvent event, String detail);
+}
@@ -0,0 +1,148 @@
+package com.cisco.slingshot.call;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * State of a call, driven by typed {@link CallEvent}s through a fixed
+ * transition table.
+ *
+ * A transition is a compare-and-set of the current state, so events may be
+ * fired from any thread (SIP callbacks, UI, jabber dispatcher) without taking
+ * a lock. Of two racing events each one is checked against the state the other
+ * left, an event which is not valid there is dropped. Transitions are handed
+ * to the listeners through a {@link CallEventBus}, each listener on its own
+ * executor. Two racing transitions may be published out of order; from and to
+ * tell which is which.
+ *
+ * {@link #getInstance()} tracks the call of the box and is what the rest of the
+ * application listens to, a SipConfCall keeps its own instance.
+ */
+public class CallStateMachine {
+
+	private static final String TAG = "CallStateMachine";
+
+	private static CallStateMachine mInstance = null;
+
+	/**
+	 * The machine of the current call of the box.
+	 */
+	public static synchronized CallStateMachine getInstance() {
+		if (mInstance == null) {
+			mInstance = new CallStateMachine("call");
+		}
+		return mInstance;
+	}
+
+	/**
+	 * @param name used in the log only
+	 */
+	public CallStateMachine(String name) {
+		mName = name;
+	}
+
+	public CallState getState() {
+		return mState.get();
+	}
+
+	public boolean isInCall() {
+		return mState.get().isInCall();
+	}
+
+	public boolean fire(CallEvent event) {
+		return fire(event, null);
+	}
+
+	/**
+	 * Apply an event to the current state.
+	 * @return false if the event is not valid in the current state, nothing changed
+	 */
+	public boolean fire(CallEvent event, String detail) {
+		CallState from;
+		CallState to;
+		do {
+			from = mState.get();
+			to = TRANSITIONS[from.ordinal()][event.ordinal()];
+			if (null == to) {
+				Util.S_Log.d(TAG, mName + " : ignore " + event + " in " + from);
+				return false;
+			}
+		} while (!mState.compareAndSet(from, to));
+
+		Util.S_Log.d(TAG, mName + " : " + from + " --" + event + "--> " + to);
+		mBus.publish(from, to, event, detail);
+		return true;
+	}
+
+	/**
+	 * Subscribe to the transitions, called on the given executor. Adding the
+	 * same listener twice only changes its executor.
+	 */
+	public void addListener(CallStateListener listener, Executor executor) {
+		mBus.subscribe(listener, executor);
+	}
+
+	public void removeListener(CallStateListener listener) {
+		mBus.unsubscribe(listener);
+	}
+
+	// -----------------------------------------------------------------
+
+	private static final CallState[][] TRANSITIONS =
+		new CallState[CallState.values().length][CallEvent.values().length];
+
+	private static void on(CallState from, CallEvent event, CallState to) {
+		TRANSITIONS[from.ordinal()][event.ordinal()] = to;
+	}
+
+	static {
+		on(CallState.IDLE, CallEvent.INCOMING, CallState.INCOMING);
+		on(CallState.IDLE, CallEvent.DIAL, CallState.OUTGOING);
+
+		on(CallState.INCOMING, CallEvent.ANSWER, CallState.ANSWERING);
+		on(CallState.INCOMING, CallEvent.ESTABLISHED, CallState.CONNECTED);
+		on(CallState.INCOMING, CallEvent.HANGUP, CallState.IDLE);
+
+		on(CallState.OUTGOING, CallEvent.RINGING_BACK, CallState.ALERTING);
+		on(CallState.OUTGOING, CallEvent.ESTABLISHED, CallState.CONNECTED);
+		on(CallState.OUTGOING, CallEvent.BUSY, CallState.IDLE);
+		on(CallState.OUTGOING, CallEvent.HANGUP, CallState.ENDING);
+
+		on(CallState.ALERTING, CallEvent.ESTABLISHED, CallState.CONNECTED);
+		on(CallState.ALERTING, CallEvent.BUSY, CallState.IDLE);
+		on(CallState.ALERTING, CallEvent.HANGUP, CallState.ENDING);
+
+		on(CallState.ANSWERING, CallEvent.ESTABLISHED, CallState.CONNECTED);
+		on(CallState.ANSWERING, CallEvent.HANGUP, CallState.ENDING);
+
+		on(CallState.CONNECTED, CallEvent.HOLD, CallState.HELD);
+		on(CallState.CONNECTED, CallEvent.HIDE, CallState.INVISIBLE);
+		on(CallState.CONNECTED, CallEvent.HANGUP, CallState.ENDING);
+
+		on(CallState.HELD, CallEvent.CONTINUE, CallState.CONNECTED);
+		on(CallState.HELD, CallEvent.HANGUP, CallState.ENDING);
+
+		// our video stays hidden through a hold
+		on(CallState.INVISIBLE, CallEvent.HOLD, CallState.HELD_INVISIBLE);
+		on(CallState.INVISIBLE, CallEvent.HANGUP, CallState.ENDING);
+
+		on(CallState.HELD_INVISIBLE, CallEvent.CONTINUE, CallState.INVISIBLE);
+		on(CallState.HELD_INVISIBLE, CallEvent.HANGUP, CallState.ENDING);
+
+		on(CallState.ENDING, CallEvent.BUSY, CallState.IDLE);
+
+		// the session may end or fail in any state
+		for (CallState state : CallState.values()) {
+			if (CallState.IDLE != state) {
+				on(state, CallEvent.ENDED, CallState.IDLE);
+				on(state, CallEvent.ERROR, CallState.IDLE);
+			}
+		}
+	}
+
+	private final String mName;
+	private final AtomicReference<CallState> mState = new AtomicReference<CallState>(CallState.IDLE);
+	private final CallEventBus mBus = new CallEventBus();
+}
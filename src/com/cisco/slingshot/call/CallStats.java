@@ -0,0 +1,102 @@
+package com.cisco.slingshot.call;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.os.SystemClock;
+
+/**
+ * Counts the call events of the box and the time spent in a call, for the
+ * reply to the GET STATUS debug command.
+ *
+ * Subscribed to the CallStateMachine with the direct executor: updating is a
+ * few atomic adds, reading never blocks the publisher.
+ */
+public class CallStats implements CallStateListener {
+
+	private static CallStats mInstance = null;
+
+	public static synchronized CallStats getInstance() {
+		if (mInstance == null) {
+			mInstance = new CallStats();
+		}
+		return mInstance;
+	}
+
+	private CallStats() {
+	}
+
+	/**
+	 * Start counting the transitions of the box's call.
+	 */
+	public void start() {
+		CallStateMachine.getInstance().addListener(this, CallEventBus.DIRECT);
+	}
+
+	public void stop() {
+		CallStateMachine.getInstance().removeListener(this);
+	}
+
+	@Override
+	public void onCallStateChanged(CallState from, CallState to, CallEvent event, String detail) {
+		mEvents.incrementAndGet(event.ordinal());
+
+		long now = SystemClock.elapsedRealtime();
+		if (!from.isInCall() && to.isInCall()) {
+			mConnectedSince.set(now);
+			mCalls.incrementAndGet();
+		} else if (from.isInCall() && !to.isInCall()) {
+			long since = mConnectedSince.getAndSet(0);
+			if (since > 0)
+				mInCallMs.addAndGet(now - since);
+		}
+	}
+
+	/**
+	 * How often the event changed the call state.
+	 */
+	public long getEventCount(CallEvent event) {
+		return mEvents.get(event.ordinal());
+	}
+
+	/**
+	 * Number of calls which got connected.
+	 */
+	public long getCallCount() {
+		return mCalls.get();
+	}
+
+	/**
+	 * Time spent in a call, the current one included.
+	 */
+	public long getInCallMs() {
+		long total = mInCallMs.get();
+		long since = mConnectedSince.get();
+		if (since > 0)
+			total += SystemClock.elapsedRealtime() - since;
+		return total;
+	}
+
+	/**
+	 * One line: calls, time in call and the count of each event seen.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("calls = ").append(getCallCount());
+		sb.append(", in call = ").append(getInCallMs() / 1000).append(" s, events =");
+		for (CallEvent event : CallEvent.values()) {
+			long count = getEventCount(event);
+			if (count > 0)
+				sb.append(' ').append(event).append(':').append(count);
+		}
+		return sb.toString();
+	}
+
+	// -----------------------------------------------------------------
+
+	private final AtomicLongArray mEvents = new AtomicLongArray(CallEvent.values().length);
+	private final AtomicLong mCalls = new AtomicLong(0);
+	private final AtomicLong mConnectedSince = new AtomicLong(0);
+	private final AtomicLong mInCallMs = new AtomicLong(0);
+}
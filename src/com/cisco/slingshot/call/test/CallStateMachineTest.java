@@ -0,0 +1,89 @@
+package com.cisco.slingshot.call.test;
+
+import com.cisco.slingshot.call.CallEvent;
+import com.cisco.slingshot.call.CallEventBus;
+import com.cisco.slingshot.call.CallState;
+import com.cisco.slingshot.call.CallStateListener;
+import com.cisco.slingshot.call.CallStateMachine;
+
+/**
+ * Checks transitions of the CallStateMachine table, hold and invisible in
+ * particular.
+ *
+ * Plain main() like JabberParserBenchmark, the Android.mk build has no
+ * JUnit. Run on the box or on a desktop JVM with android.util.Log and
+ * android.os.Handler on the class path. Throws on the first failure.
+ */
+public class CallStateMachineTest {
+
+	public static void main(String[] args) {
+		testHoldContinue();
+		testHideHoldContinue();
+		testHangupWhileHeldInvisible();
+		System.out.println("CallStateMachineTest: ok");
+	}
+
+	private static void testHoldContinue() {
+		CallStateMachine sm = connected();
+		fire(sm, CallEvent.HOLD, CallState.HELD);
+		fire(sm, CallEvent.CONTINUE, CallState.CONNECTED);
+	}
+
+	// SipConfCall reports onCallInvisible, not onCallEstablished, after this
+	private static void testHideHoldContinue() {
+		CallStateMachine sm = connected();
+		Recorder recorder = new Recorder();
+		sm.addListener(recorder, CallEventBus.DIRECT);
+
+		fire(sm, CallEvent.HIDE, CallState.INVISIBLE);
+		fire(sm, CallEvent.HOLD, CallState.HELD_INVISIBLE);
+		check(sm.getState().isHeld(), "held");
+		check(sm.isInCall(), "in call while held");
+		fire(sm, CallEvent.CONTINUE, CallState.INVISIBLE);
+		check(!sm.getState().isHeld(), "not held");
+
+		check(recorder.from == CallState.HELD_INVISIBLE, "from " + recorder.from);
+		check(recorder.to == CallState.INVISIBLE, "to " + recorder.to);
+
+		// a second hold keeps it hidden too
+		fire(sm, CallEvent.HOLD, CallState.HELD_INVISIBLE);
+		fire(sm, CallEvent.CONTINUE, CallState.INVISIBLE);
+	}
+
+	private static void testHangupWhileHeldInvisible() {
+		CallStateMachine sm = connected();
+		fire(sm, CallEvent.HIDE, CallState.INVISIBLE);
+		fire(sm, CallEvent.HOLD, CallState.HELD_INVISIBLE);
+		check(!sm.fire(CallEvent.HIDE), "HIDE while held");
+		fire(sm, CallEvent.HANGUP, CallState.ENDING);
+		fire(sm, CallEvent.ENDED, CallState.IDLE);
+	}
+
+	private static CallStateMachine connected() {
+		CallStateMachine sm = new CallStateMachine("test");
+		fire(sm, CallEvent.DIAL, CallState.OUTGOING);
+		fire(sm, CallEvent.ESTABLISHED, CallState.CONNECTED);
+		return sm;
+	}
+
+	private static void fire(CallStateMachine sm, CallEvent event, CallState expected) {
+		check(sm.fire(event), event + " ignored in " + sm.getState());
+		check(sm.getState() == expected, event + ": expected " + expected + ", got " + sm.getState());
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok)
+			throw new IllegalStateException(what);
+	}
+
+	private static class Recorder implements CallStateListener {
+		@Override
+		public void onCallStateChanged(CallState from, CallState to, CallEvent event, String detail) {
+			this.from = from;
+			this.to = to;
+		}
+
+		CallState from;
+		CallState to;
+	}
+}
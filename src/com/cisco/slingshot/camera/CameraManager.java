@@ -13,6 +13,7 @@ import android.media.MediaRecorder;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
+import com.cisco.slingshot.utils.CallTrace;
 import com.cisco.slingshot.utils.Util;
 
 
@@ -84,7 +85,20 @@ public class CameraManager implements MediaRecorder.OnErrorListener{
      * @throws IOException throw when can't start preview
      */
     public void openCamera()throws CameraDisabledException,CameraHardwareException{
-    	openCameraInternal();	
+    	openCamera(null);	
+    }
+    
+    /**
+     * Start preview on a camera opened ahead, see CallPrewarm.
+     * @param prepared the open device, null to open one here
+     */
+    public void openCamera(Camera prepared)throws CameraDisabledException,CameraHardwareException{
+    	final long start = CallTrace.begin();
+    	try{
+    		openCameraInternal(prepared);
+    	}finally{
+    		CallTrace.end((prepared != null) ? "CameraManager.openCamera(prepared)" : "CameraManager.openCamera", start);
+    	}
     }
     
     /**
@@ -110,7 +124,9 @@ public class CameraManager implements MediaRecorder.OnErrorListener{
      * @param needRecordAudio whether need record audio
      */
     public void startRecording(final FileDescriptor fd, final boolean needRecordAudio){    	
+    	final long start = CallTrace.begin();
     	startRecordingInternal(fd,needRecordAudio);
+    	CallTrace.end("CameraManager.startRecording", start);
     }
     
     /**
@@ -121,17 +137,21 @@ public class CameraManager implements MediaRecorder.OnErrorListener{
     }
 	
 
-    private boolean openCameraInternal()throws CameraDisabledException,CameraHardwareException{
+    private boolean openCameraInternal(Camera prepared)throws CameraDisabledException,CameraHardwareException{
     	
     	Util.S_Log.d(LOG_TAG, "=============Start initializing Camera================");
     	if(mHolder == null){
     		Log.e(LOG_TAG, "Error:Surface holder for Camera is null!!");
+    		if(prepared != null)
+    			prepared.release();
     		return false;
     	}
     	
         DevicePolicyManager dpm = (DevicePolicyManager) mContext.getSystemService(
                 Context.DEVICE_POLICY_SERVICE);
         if (dpm.getCameraDisabled(null)) {
+        	if(prepared != null)
+        		prepared.release();
             throw new CameraDisabledException();
         }
         
@@ -146,15 +166,20 @@ public class CameraManager implements MediaRecorder.OnErrorListener{
     		mCameraDevice = null;
     	}
     	
-    	int cameraCount = Camera.getNumberOfCameras();
-    	
-    	Util.S_Log.d(LOG_TAG, "Camera count: " + cameraCount);
-    	try{
-    		//mCameraDevice = Camera.open();
-    		mCameraDevice = Camera.open(0);
-    	}catch(RuntimeException e){
-    		Log.e(LOG_TAG,e.getMessage());
-    		throw new CameraHardwareException(e);
+    	if(prepared != null){
+    		Util.S_Log.d(LOG_TAG, "Camera opened ahead");
+    		mCameraDevice = prepared;
+    	}else{
+	    	int cameraCount = Camera.getNumberOfCameras();
+	    	
+	    	Util.S_Log.d(LOG_TAG, "Camera count: " + cameraCount);
+	    	try{
+	    		//mCameraDevice = Camera.open();
+	    		mCameraDevice = Camera.open(0);
+	    	}catch(RuntimeException e){
+	    		Log.e(LOG_TAG,e.getMessage());
+	    		throw new CameraHardwareException(e);
+	    	}
     	}
     	
     	if(mCameraErrorCallback!=null){
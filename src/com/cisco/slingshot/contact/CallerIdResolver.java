@@ -0,0 +1,146 @@
+package com.cisco.slingshot.contact;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * The contact of a calling address, for the ringing screen and the call.
+ *
+ * Addresses are looked up by a normalized key, lower case without the sip:
+ * scheme, display name or parameters, in a hash table of ContactIndex, then
+ * by the user part alone like findContactByAddress always did. The table is
+ * built in the background from the service start on and rebuilt on every
+ * change of the contacts; while a change is pending the database is asked
+ * instead. Callers that aren't contacts are remembered until the contacts
+ * change, so a second ring of an unknown number costs a lookup in a map.
+ */
+public class CallerIdResolver {
+
+	private static final String LOG_TAG = "CallerIdResolver";
+
+	// unknown callers remembered
+	private static final int MAX_MISSES = 256;
+
+	private static CallerIdResolver mInstance = null;
+
+	public static synchronized CallerIdResolver getInstance(Context context) {
+		if (mInstance == null) {
+			mInstance = new CallerIdResolver(context.getApplicationContext());
+		}
+		return mInstance;
+	}
+
+	private CallerIdResolver(Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * Start building the table, so the first call doesn't.
+	 */
+	public void warm() {
+		ContactIndex.getInstance(mContext);
+	}
+
+	/**
+	 * The contact of the address, null if it isn't one.
+	 * @param address sip:user@domain, user@domain or user
+	 */
+	public Contact resolve(String address) {
+		if (address == null)
+			return null;
+		final long start = System.nanoTime();
+		final String key = key(address);
+		final String userKey = userPart(key);
+
+		ContactIndex index = ContactIndex.getInstance(mContext);
+		if (!index.isCurrent()) {
+			// not built yet, or a change isn't in it yet
+			Contact user = queryDatabase(address);
+			Util.S_Log.d(LOG_TAG, "from the database in " + (System.nanoTime() - start) / 1000 + " us");
+			return user;
+		}
+
+		Misses misses = mMisses;
+		Object version = index.version();
+		if (misses.version != version) {
+			misses = new Misses(version);
+			mMisses = misses;
+		}
+		if (misses.contains(key))
+			return null;
+
+		Contact user = index.findCaller(key);
+		if (user == null && userKey != key)
+			user = index.findCaller(userKey);
+		if (user == null)
+			misses.add(key);
+		Util.S_Log.d(LOG_TAG, "resolved in " + (System.nanoTime() - start) / 1000 + " us");
+		return user;
+	}
+
+	/*The two queries of before the index, with domain and without*/
+	private Contact queryDatabase(String address) {
+		ContactDatabase db = ContactDatabase.getInstance(mContext);
+		Contact user = db.queryUserByAddress(address);
+		if (user != null)
+			return user;
+		int at = address.indexOf('@');
+		return (at < 0) ? null : db.queryUserByAddress(address.substring(0, at));
+	}
+
+	/*Lower case user@domain of a sip address as it may come in*/
+	static String key(String address) {
+		String s = address.trim();
+		int open = s.indexOf('<');
+		if (open >= 0) {
+			int close = s.indexOf('>', open);
+			s = s.substring(open + 1, (close < 0) ? s.length() : close);
+		}
+		int params = s.indexOf(';');
+		if (params >= 0)
+			s = s.substring(0, params);
+		s = s.toLowerCase();
+		if (s.startsWith("sip:"))
+			s = s.substring(4);
+		else if (s.startsWith("sips:"))
+			s = s.substring(5);
+		return s;
+	}
+
+	/*The key itself if it has no domain*/
+	private static String userPart(String key) {
+		int at = key.indexOf('@');
+		return (at < 0) ? key : key.substring(0, at);
+	}
+
+	/*Callers not found in one version of the index*/
+	private static class Misses {
+		Misses(Object version) {
+			this.version = version;
+		}
+
+		synchronized boolean contains(String key) {
+			return mKeys.containsKey(key);
+		}
+
+		synchronized void add(String key) {
+			mKeys.put(key, Boolean.TRUE);
+		}
+
+		final Object version;
+		private final LinkedHashMap<String, Boolean> mKeys =
+				new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > MAX_MISSES;
+			}
+		};
+	}
+
+	private final Context mContext;
+	private volatile Misses mMisses = new Misses(null);
+}
@@ -69,27 +69,7 @@ public class Contact {
 			return ContactDatabase.getInstance(context).queryUserByAddress(addressWithoutDomain);
 		}*/
 		
-		Contact user = null;
-		/*First search: With domain*/
-		user = ContactDatabase.getInstance(context).queryUserByAddress(address);
-		if(user != null)
-			return user;
-		/*Second search: Without domain*/
-		String addressWithoutDomain;
-		if(address.contains("@")){
-			addressWithoutDomain = address.split("@")[0];
-		}else{
-			addressWithoutDomain = address;
-		}
-		user = ContactDatabase.getInstance(context).queryUserByAddress(addressWithoutDomain);
-		
-		if(user != null)
-			return user;
-		
-		/*Can not find the address in cantact*/
-		return null;
-		
-		
+		return CallerIdResolver.getInstance(context).resolve(address);
 	}
 
 	private String _username;
@@ -0,0 +1,117 @@
+package com.cisco.slingshot.contact;
+
+/**
+ * What changed from one {@link ContactSnapshot} to the next, as positions a
+ * list can apply without reading the contacts again.
+ *
+ * Removed positions are in the old snapshot, inserted and changed ones in
+ * the new, all ascending.
+ */
+public class ContactChangeSet {
+
+	private static final int[] NONE = new int[0];
+
+	public final ContactSnapshot oldSnapshot;
+	public final ContactSnapshot newSnapshot;
+	public final int[] removed;
+	public final int[] inserted;
+	public final int[] changed;
+
+	ContactChangeSet(ContactSnapshot oldSnapshot, ContactSnapshot newSnapshot,
+			int[] removed, int[] inserted, int[] changed) {
+		this.oldSnapshot = oldSnapshot;
+		this.newSnapshot = newSnapshot;
+		this.removed = removed;
+		this.inserted = inserted;
+		this.changed = changed;
+	}
+
+	public boolean isEmpty() {
+		return removed.length == 0 && inserted.length == 0 && changed.length == 0;
+	}
+
+	/**
+	 * Only contents changed, every row is where it was.
+	 */
+	public boolean isContentOnly() {
+		return removed.length == 0 && inserted.length == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "-" + removed.length + " +" + inserted.length + " ~" + changed.length;
+	}
+
+	// -----------------------------------------------------------------
+
+	/*Both snapshots are in the same order, one merge pass over them*/
+	static ContactChangeSet diff(ContactSnapshot from, ContactSnapshot to) {
+		IntList removed = new IntList();
+		IntList inserted = new IntList();
+		IntList changed = new IntList();
+		int i = 0;
+		int j = 0;
+		while (i < from.size() || j < to.size()) {
+			int c;
+			if (i == from.size())
+				c = 1;
+			else if (j == to.size())
+				c = -1;
+			else
+				c = ContactSnapshot.compareKeys(from.getName(i), from.getId(i), to.getName(j), to.getId(j));
+
+			if (c < 0) {
+				removed.add(i++);
+			} else if (c > 0) {
+				inserted.add(j++);
+			} else {
+				if (!from.getAddress(i).equals(to.getAddress(j)))
+					changed.add(j);
+				i++;
+				j++;
+			}
+		}
+		return new ContactChangeSet(from, to, removed.toArray(), inserted.toArray(), changed.toArray());
+	}
+
+	static ContactChangeSet inserted(ContactSnapshot from, ContactSnapshot to, int position) {
+		return new ContactChangeSet(from, to, NONE, new int[]{position}, NONE);
+	}
+
+	static ContactChangeSet removed(ContactSnapshot from, ContactSnapshot to, int start, int end) {
+		return new ContactChangeSet(from, to, range(start, end), NONE, NONE);
+	}
+
+	static ContactChangeSet changed(ContactSnapshot from, ContactSnapshot to, int start, int end) {
+		return new ContactChangeSet(from, to, NONE, NONE, range(start, end));
+	}
+
+	private static int[] range(int start, int end) {
+		int[] positions = new int[end - start];
+		for (int i = 0; i < positions.length; i++)
+			positions[i] = start + i;
+		return positions;
+	}
+
+	private static class IntList {
+		void add(int value) {
+			if (mSize == mValues.length) {
+				int[] values = new int[mSize * 2];
+				System.arraycopy(mValues, 0, values, 0, mSize);
+				mValues = values;
+			}
+			mValues[mSize++] = value;
+		}
+
+		int[] toArray() {
+			if (mSize == 0)
+				return NONE;
+			int[] values = new int[mSize];
+			System.arraycopy(mValues, 0, values, 0, mSize);
+			return values;
+		}
+
+		private int[] mValues = new int[8];
+		private int mSize = 0;
+	}
+}
@@ -1,16 +1,25 @@
 package com.cisco.slingshot.contact;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
-import android.util.Log;
+import android.database.sqlite.SQLiteStatement;
 
+import com.cisco.slingshot.utils.DatabaseAccess;
 import com.cisco.slingshot.utils.Util;
 
 
-
+/**
+ * The contact table. Lookups take no lock and the ones on the call path
+ * are compiled statements, see {@link DatabaseAccess}; writes are one at a
+ * time and announced to the index and the provider's observers.
+ */
 public class ContactDatabase{
 	private static final String LOG_TAG = "ContactDatabase";
 	
@@ -21,8 +30,11 @@ public class ContactDatabase{
 	
 	/**
 	 * database version
+	 * 1: contact table
+	 * 2: index on the name, the key of setUser and of the imports
+	 * 3: index on the address, for the caller lookups and the provider
 	 */
-	private static final int DATABASE_VERSION=1;
+	private static final int DATABASE_VERSION=3;
 	
 	/**
 	 *  database table
@@ -32,68 +44,134 @@ public class ContactDatabase{
 	/**
 	 * database columns
 	 */
-	private static final String COL_ID="_id"; 			//contact id
+	public static final String COL_ID="_id"; 			//contact id
 	public static final String COL_NAME="name"; 		//contact name
 	public static final String COL_ADDRESS="address"; 	//sip address
 	
-	private static SQLiteDatabase mDb=null; 
-	// synchronize lock
-    private final Object mDbLock = new Object(); 
+	/**
+	 * what addUsers did with a contact, index into its counts
+	 */
+	public static final int ADDED = 0;
+	public static final int UPDATED = 1;
+	public static final int UNCHANGED = 2;
+	
+	/*The lookups, a scalar subquery is NULL rather than no row*/
+	private static final String SQL_NAME_OF_ADDRESS = "SELECT (SELECT IFNULL(" + COL_NAME + ",'') FROM "
+			+ TABLE_CONTACT + " WHERE " + COL_ADDRESS + "=? LIMIT 1);";
+	private static final String SQL_ADDRESS_OF_NAME = "SELECT (SELECT IFNULL(" + COL_ADDRESS + ",'') FROM "
+			+ TABLE_CONTACT + " WHERE " + COL_NAME + "=? LIMIT 1);";
+	private static final String SQL_HAS_NAME = "SELECT EXISTS(SELECT 1 FROM "
+			+ TABLE_CONTACT + " WHERE " + COL_NAME + "=?);";
+	private static final String SQL_HAS_ADDRESS = "SELECT EXISTS(SELECT 1 FROM "
+			+ TABLE_CONTACT + " WHERE " + COL_ADDRESS + "=?);";
+	
+	private final DatabaseAccess mAccess;
+	private final SQLiteDatabase mDb;
+	// synchronize lock, of the writes
+    private final Object mDbLock;
     
-    private static ContactDatabase mInstance = null;
+    /*Compiled once for addUsers, used under mDbLock. Not the cached lookups:
+      a reader holding one of those may be waiting for the transaction*/
+    private SQLiteStatement mFindAddress = null;
+    private SQLiteStatement mUpdateAddress = null;
+    private SQLiteStatement mInsert = null;
     
-    private ContactDatabase(){}
+    /*Changes inside runInTransaction are announced once at its end, if it
+      committed*/
+    private int mTransactionDepth = 0;
+    private boolean mChangedInTransaction = false;
+    private boolean mRolledBack = false;
+    /*Changes between beginBulkChange and endBulkChange, announced at the end*/
+    private int mBulkDepth = 0;
+    private boolean mChangedInBulk = false;
+    /*Counts the announced changes, see getGeneration()*/
+    private volatile long mGeneration = 0;
     
-    public synchronized static ContactDatabase getInstance(Context context){
-		if(mInstance == null){
-			mInstance = new ContactDatabase();
-			mDb = context.openOrCreateDatabase(DB_FILE, 0, null);
-			//mDb = SQLiteDatabase.openOrCreateDatabase("/sdcard/prefs.db",null);
-		}
-		mDb.beginTransaction();
-		if(mDb != null){
-			try{
-				initDBFile();
-				mDb.setTransactionSuccessful();
-			}finally{
-				mDb.endTransaction();
-			}
-		}
-		
-		return mInstance;
-		 
-	}
+    private final Context mContext;
     
+    private static volatile ContactDatabase mInstance = null;
     
-    private static void initDBFile(){
-		if(mDb != null &&  mDb.getVersion()!=DATABASE_VERSION ){
-			try{
-				//version certification
-				if(mDb.getVersion()<DATABASE_VERSION)
-				{
-					//Drop table first
-					String dropCmd = "DROP TABLE IF EXISTS "
-						+ TABLE_CONTACT + ";";
-					mDb.execSQL(dropCmd);
-					
-					String createCmd = "CREATE TABLE " 
-						+ TABLE_CONTACT
-						+ "(" 
-						+ COL_ID + " INTEGER PRIMARY KEY,"
-						+ COL_NAME + " TEXT,"
-						+ COL_ADDRESS + " TEXT"
-						+ ");";
-					
-					mDb.execSQL(createCmd);
-				}
+    private ContactDatabase(Context context){
+    	mContext = context;
+    	mAccess = DatabaseAccess.open(context, DB_FILE, SCHEMA);
+    	mDb = (mAccess == null) ? null : mAccess.getDatabase();
+    	mDbLock = (mAccess == null) ? new Object() : mAccess.getWriteLock();
+    	if(mDb != null)
+    		compileStatements();
+    }
+    
+    public static ContactDatabase getInstance(Context context){
+    	//no lock once open, this is on every lookup
+    	ContactDatabase instance = mInstance;
+    	if(instance != null)
+    		return instance;
+    	synchronized(ContactDatabase.class){
+    		if(mInstance == null){
+    			mInstance = new ContactDatabase(context.getApplicationContext());
+    		}
+    		return mInstance;
+    	}
+	}
+    
+    private static final DatabaseAccess.Schema SCHEMA = new DatabaseAccess.Schema(){
+		@Override
+		public int getVersion() {
+			return DATABASE_VERSION;
+		}
+		
+		@Override
+		public void onUpgrade(SQLiteDatabase db, int oldVersion) {
+			//version certification, a failure goes up to DatabaseAccess
+			if(oldVersion == 1 || oldVersion == 2)
+			{
+				//keep the contacts
+				createIndexes(db);
+			}
+			else if(oldVersion < DATABASE_VERSION)
+			{
+				//Drop table first
+				String dropCmd = "DROP TABLE IF EXISTS "
+					+ TABLE_CONTACT + ";";
+				db.execSQL(dropCmd);
 				
-			} catch (SQLiteException e){
-				Log.e(LOG_TAG, Log.getStackTraceString(e));
+				String createCmd = "CREATE TABLE " 
+					+ TABLE_CONTACT
+					+ "(" 
+					+ COL_ID + " INTEGER PRIMARY KEY,"
+					+ COL_NAME + " TEXT,"
+					+ COL_ADDRESS + " TEXT"
+					+ ");";
+				
+				db.execSQL(createCmd);
+				createIndexes(db);
 			}
-			
-			mDb.setVersion(DATABASE_VERSION);
 		}
-	}
+    };
+    
+    private static void createIndexes(SQLiteDatabase db){
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_CONTACT + "_name ON "
+				+ TABLE_CONTACT + "(" + COL_NAME + ");");
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_CONTACT + "_address ON "
+				+ TABLE_CONTACT + "(" + COL_ADDRESS + ");");
+    }
+    
+    private void compileStatements(){
+    	mFindAddress = mDb.compileStatement(SQL_ADDRESS_OF_NAME);
+    	mUpdateAddress = mDb.compileStatement("UPDATE " + TABLE_CONTACT
+    			+ " SET " + COL_ADDRESS + "=? WHERE " + COL_NAME + "=?;");
+    	mInsert = mDb.compileStatement("INSERT INTO " + TABLE_CONTACT
+    			+ "(" + COL_NAME + "," + COL_ADDRESS + ") VALUES(?,?);");
+    }
+    
+    /**
+     * Latency of the queries so far, a line each.
+     */
+    public List<String> getStats(){
+    	if(mAccess == null)
+    		return new ArrayList<String>();
+    	return mAccess.getStats();
+    }
+    
     /**
      * Don't forget call closeQuery() when do not use the cursor any more
      * @return
@@ -105,56 +183,34 @@ public class ContactDatabase{
 			return null;
 
 
-		synchronized(mDbLock) {
-			Cursor cor = mDb.query(TABLE_CONTACT, null, null, null, null, null, COL_NAME);
-			return cor;
-		}
+		return mAccess.query("all contacts", TABLE_CONTACT, null, null, null, COL_NAME, null);
     	
     }
     
     public Contact queryUserByName(String name){
-    	Util.S_Log.d(LOG_TAG, "ContactDatabase.queryUserByName!");
-
 		if(mDb == null)
 			return null;
 
-		final String[] columns = new String[]{COL_NAME,COL_ADDRESS};
-		final String selection = "(" + COL_NAME + "==?)";
-		final String[] selectionArgs = new String[]{name};
-
-		synchronized(mDbLock) {
-			Cursor cor = mDb.query(TABLE_CONTACT, columns, selection, selectionArgs, null, null, null);
-			if(cor.moveToFirst() == false){
-				cor.close();
-				return null;
-			}
-			
-			
-			String address = cor.getString(cor.getColumnIndex(COL_ADDRESS));
-			cor.close();
-			return new Contact(name,address);
-		}
-    	
+		final String address = mAccess.queryString(SQL_ADDRESS_OF_NAME, name);
+		return (address == null) ? null : new Contact(name,address);
     }
     
     public Contact queryUserByAddress(String address){
 		if(mDb == null)
 			return null;
 
-		final String[] columns = new String[]{COL_NAME,COL_ADDRESS};
-		final String selection = "(" + COL_ADDRESS + "==?)";
-		final String[] selectionArgs = new String[]{address};
-
-		synchronized(mDbLock) {
-			Cursor cor = mDb.query(TABLE_CONTACT, columns, selection, selectionArgs, null, null, null);
-			if(cor.moveToFirst() == false){
-				cor.close();
-				return null;
-			}
-			String name = cor.getString(cor.getColumnIndex(COL_NAME));
-			cor.close();
-			return new Contact(name,address);
-		}
+		final String name = mAccess.queryString(SQL_NAME_OF_ADDRESS, address);
+		return (name == null) ? null : new Contact(name,address);
+    }
+    
+    /**
+     * Whether a contact has exactly this address.
+     */
+    public boolean hasAddress(String address){
+		if(mDb == null)
+			return false;
+		
+		return mAccess.queryLong(SQL_HAS_ADDRESS, address) != 0;
     }
     
     public void closeQuery(Cursor cor){
@@ -170,6 +226,7 @@ public class ContactDatabase{
 				
 		String name = user.get_username();
 		String address = user.get_address();
+		final long start = System.nanoTime();
 		synchronized(mDbLock){
 			if(hasUser(user)){
 				/*
@@ -190,7 +247,57 @@ public class ContactDatabase{
 		
 				mDb.insert(TABLE_CONTACT, COL_NAME, cv);	
 			}
+			onChanged();
+		}
+		mAccess.record("setUser", start);
+    }
+    
+    /**
+     * Add the contacts in one transaction, like setUser for each: a contact
+     * named like a row already there sets its address. Contacts repeated in
+     * the list or already in the database are not written again.
+     * @param counts incremented at ADDED, UPDATED or UNCHANGED for every contact
+     */
+    public void addUsers(final List<Contact> users, final int[] counts){
+		if(mDb == null)
+			return ;
+		
+		boolean changed = false;
+		final long start = System.nanoTime();
+		synchronized(mDbLock){
+			mDb.beginTransaction();
+			try{
+				for(Contact user : users){
+					final String name = user.get_username();
+					final String address = user.get_address();
+					
+					mFindAddress.bindString(1, name);
+					final String old = mFindAddress.simpleQueryForString();
+					final int result;
+					if(old == null){
+						mInsert.bindString(1, name);
+						mInsert.bindString(2, address);
+						mInsert.executeInsert();
+						result = ADDED;
+					}else if(old.equals(address)){
+						result = UNCHANGED;
+					}else{
+						mUpdateAddress.bindString(1, address);
+						mUpdateAddress.bindString(2, name);
+						mUpdateAddress.execute();
+						result = UPDATED;
+					}
+					counts[result]++;
+					changed |= (result != UNCHANGED);
+				}
+				mDb.setTransactionSuccessful();
+			}finally{
+				mDb.endTransaction();
+			}
+			if(changed)
+				onChanged();
 		}
+		mAccess.record("addUsers " + users.size(), start);
     }
     
 	public void removeUser(Contact user){
@@ -199,28 +306,157 @@ public class ContactDatabase{
 		
 		final String whereClause = "(" + COL_NAME + "==?)";
 		final String[] whereArgs = new String[]{user.get_username()};
+		final long start = System.nanoTime();
 		synchronized(mDbLock){
 			mDb.delete(TABLE_CONTACT, whereClause, whereArgs);
+			onChanged();
 		}
+		mAccess.record("removeUser", start);
 	}
+	
+    /**
+     * Rows of the contact table, for ContactProvider.
+     * @param limit "count" or "offset,count", null for all of them
+     */
+    public Cursor query(final String[] projection, final String selection, final String[] selectionArgs,
+    		final String sortOrder, final String limit){
+		if(mDb == null)
+			return null;
+
+		return mAccess.query("provider query", TABLE_CONTACT, projection, selection, selectionArgs, sortOrder, limit);
+    }
+    
+    /**
+     * @return the new row id, -1 on failure
+     */
+    public long insert(final ContentValues values){
+		if(mDb == null)
+			return -1;
+
+		final long start = System.nanoTime();
+		synchronized(mDbLock){
+			final long id = mDb.insert(TABLE_CONTACT, COL_NAME, values);
+			if(id >= 0)
+				onChanged();
+			mAccess.record("insert", start);
+			return id;
+		}
+    }
+    
+    public int update(final ContentValues values, final String whereClause, final String[] whereArgs){
+		if(mDb == null)
+			return 0;
+
+		final long start = System.nanoTime();
+		synchronized(mDbLock){
+			final int count = mDb.update(TABLE_CONTACT, values, whereClause, whereArgs);
+			if(count > 0)
+				onChanged();
+			mAccess.record("update", start);
+			return count;
+		}
+    }
+    
+    public int delete(final String whereClause, final String[] whereArgs){
+		if(mDb == null)
+			return 0;
+
+		final long start = System.nanoTime();
+		synchronized(mDbLock){
+			final int count = mDb.delete(TABLE_CONTACT, whereClause, whereArgs);
+			if(count > 0)
+				onChanged();
+			mAccess.record("delete", start);
+			return count;
+		}
+    }
+    
+    /**
+     * Run the writes in one transaction, rolled back if they throw. Readers
+     * and the index see all of them or none, the change is announced once
+     * and only if the outermost transaction committed.
+     */
+    public <T> T runInTransaction(final Callable<T> writes) throws Exception{
+		if(mDb == null)
+			throw new SQLiteException("no contact database");
+
+		synchronized(mDbLock){
+			mDb.beginTransaction();
+			mTransactionDepth++;
+			boolean successful = false;
+			try{
+				final T result = writes.call();
+				mDb.setTransactionSuccessful();
+				successful = true;
+				return result;
+			}finally{
+				mDb.endTransaction();
+				//a nested one failing rolls back the outermost too
+				if(!successful)
+					mRolledBack = true;
+				if(--mTransactionDepth == 0){
+					final boolean changed = mChangedInTransaction && !mRolledBack;
+					mChangedInTransaction = false;
+					mRolledBack = false;
+					if(changed)
+						onChanged();
+				}
+			}
+		}
+    }
+    
+    /**
+     * Hold back the announcements of the writes until endBulkChange(), for
+     * an import of many transactions: the index is rebuilt and the observers
+     * are notified once. Meanwhile the index isn't current, lookups go to
+     * the database.
+     */
+    public void beginBulkChange(){
+    	synchronized(mDbLock){
+    		mBulkDepth++;
+    	}
+    }
+    
+    public void endBulkChange(){
+    	synchronized(mDbLock){
+    		if(--mBulkDepth == 0 && mChangedInBulk){
+    			mChangedInBulk = false;
+    			onChanged();
+    		}
+    	}
+    }
+    
+    /**
+     * Goes up with every write, or transaction of them, before observers
+     * are notified. A reader keeping the generation of what it read can
+     * tell whether a notification is about a write of its own.
+     */
+    public long getGeneration(){
+    	return mGeneration;
+    }
+    
+    /*Under mDbLock: the index and the observers of the provider learn of a change*/
+    private void onChanged(){
+    	if(mTransactionDepth > 0){
+    		mChangedInTransaction = true;
+    		return;
+    	}
+    	if(mBulkDepth > 0){
+    		//committed already, only the rebuild waits
+    		mChangedInBulk = true;
+    		ContactIndex.onContactsPending();
+    		return;
+    	}
+    	mGeneration++;
+    	ContactIndex.onContactsChanged();
+    	mContext.getContentResolver().notifyChange(ContactProvider.CONTENT_URI, null);
+    }
     
     private boolean hasUser(Contact user){
 		if(mDb == null)
 			return false;
 		
-		final String[] columns = new String[]{
-				COL_NAME
-		};
-		
-		final String selection = "(" + COL_NAME + "==?)";
-		final String[] selectionArgs = new String[]{user.get_username()};
-		
-		synchronized(mDbLock){
-			Cursor cor = mDb.query(TABLE_CONTACT, columns, selection, selectionArgs, null, null, null);
-			boolean result = cor.moveToFirst();
-			cor.close();
-			return result;
-		}
+		return mAccess.queryLong(SQL_HAS_NAME, user.get_username()) != 0;
 	}
     
     
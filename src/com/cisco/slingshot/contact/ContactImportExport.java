@@ -0,0 +1,201 @@
+package com.cisco.slingshot.contact;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * Contact directories from and to vCard (.vcf) or CSV files.
+ *
+ * An import streams the file through a {@link ContactReader} and writes the
+ * contacts BATCH_SIZE at a time, each batch one transaction with the compiled
+ * statements of ContactDatabase.addUsers. Memory is one batch whatever the
+ * size of the directory. The contact index is rebuilt and the observers are
+ * notified once, at the end of the import. An export streams the contact cursor into a
+ * temporary file renamed over the target when complete.
+ *
+ * Both block, ContactManager runs them on its thread.
+ */
+public class ContactImportExport {
+
+	private static final String LOG_TAG = "ContactImportExport";
+
+	public static final int BATCH_SIZE = 1000;
+
+	private static final String CHARSET = "UTF-8";
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	public interface Listener {
+		/**
+		 * After every batch, on the thread of the import.
+		 * @param contacts contacts read so far
+		 * @param bytes bytes of the file read so far
+		 * @param totalBytes size of the file
+		 */
+		public void onProgress(int contacts, long bytes, long totalBytes);
+	}
+
+	public static class Result {
+		public int added;
+		public int updated;
+		// already in the database or earlier in the file
+		public int unchanged;
+		// entries without a name or an address
+		public int skipped;
+
+		@Override
+		public String toString() {
+			return "added " + added + ", updated " + updated + ", unchanged " + unchanged
+					+ ", skipped " + skipped;
+		}
+	}
+
+	/**
+	 * Whether the file is a vCard by its name, else it is CSV.
+	 */
+	public static boolean isVCard(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".vcf") || name.endsWith(".vcard");
+	}
+
+	/**
+	 * Add the contacts of the file, replacing the address of those named
+	 * like a contact already there.
+	 * @param listener may be null
+	 */
+	public static Result importFile(Context context, File file, Listener listener) throws IOException {
+		final long start = System.currentTimeMillis();
+		final long total = file.length();
+		final CountingInputStream counter = new CountingInputStream(new FileInputStream(file));
+		final BufferedReader in = new BufferedReader(new InputStreamReader(counter, CHARSET), BUFFER_SIZE);
+
+		final ContactDatabase db = ContactDatabase.getInstance(context);
+		final int[] counts = new int[3];
+		final ArrayList<Contact> batch = new ArrayList<Contact>(BATCH_SIZE);
+		int read = 0;
+		ContactReader reader;
+		db.beginBulkChange();
+		try {
+			reader = isVCard(file) ? new VCardReader(in) : new CsvReader(in);
+			Contact contact;
+			while ((contact = reader.next()) != null) {
+				batch.add(contact);
+				read++;
+				if (batch.size() == BATCH_SIZE) {
+					db.addUsers(batch, counts);
+					batch.clear();
+					if (listener != null)
+						listener.onProgress(read, counter.getCount(), total);
+				}
+			}
+			if (!batch.isEmpty())
+				db.addUsers(batch, counts);
+		} finally {
+			db.endBulkChange();
+			in.close();
+		}
+		if (listener != null)
+			listener.onProgress(read, total, total);
+
+		Result result = new Result();
+		result.added = counts[ContactDatabase.ADDED];
+		result.updated = counts[ContactDatabase.UPDATED];
+		result.unchanged = counts[ContactDatabase.UNCHANGED];
+		result.skipped = reader.getSkipped();
+		Util.S_Log.d(LOG_TAG, file.getName() + ": " + result + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return result;
+	}
+
+	/**
+	 * Write all the contacts to the file.
+	 * @return number of contacts written
+	 */
+	public static int exportFile(Context context, File file) throws IOException {
+		final boolean vcard = isVCard(file);
+		final File tmp = new File(file.getPath() + ".tmp");
+		final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), CHARSET), BUFFER_SIZE);
+
+		int written = 0;
+		boolean done = false;
+		try {
+			Cursor c = ContactDatabase.getInstance(context).queryAllUsers();
+			if (c == null)
+				throw new IOException("no contact database");
+			try {
+				int colName = c.getColumnIndex(ContactDatabase.COL_NAME);
+				int colAddress = c.getColumnIndex(ContactDatabase.COL_ADDRESS);
+				if (!vcard)
+					CsvReader.writeHeader(out);
+				while (c.moveToNext()) {
+					String name = c.getString(colName);
+					String address = c.getString(colAddress);
+					if (name == null || address == null)
+						continue;
+					Contact contact = new Contact(name, address);
+					if (vcard)
+						VCardReader.write(out, contact);
+					else
+						CsvReader.write(out, contact);
+					written++;
+				}
+			} finally {
+				c.close();
+			}
+			done = true;
+		} finally {
+			out.close();
+			if (!done)
+				tmp.delete();
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("can't rename " + tmp + " to " + file);
+		}
+		Util.S_Log.d(LOG_TAG, written + " contacts written to " + file.getName());
+		return written;
+	}
+
+	/*Bytes taken from the file, for the progress*/
+	private static class CountingInputStream extends FilterInputStream {
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				mCount++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			int n = super.read(buffer, offset, count);
+			if (n > 0)
+				mCount += n;
+			return n;
+		}
+
+		long getCount() {
+			return mCount;
+		}
+
+		private long mCount = 0;
+	}
+}
@@ -0,0 +1,461 @@
+package com.cisco.slingshot.contact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * All the contacts in memory, for the suggestions shown while a name or a
+ * number is typed and for looking up the contact of an address.
+ *
+ * Every contact gives a few search keys: the lower case address and each word
+ * of the name, and their T9 digits. The keys are sorted into one char pool per
+ * kind, so a prefix is found by a binary search and the keys carry no object
+ * each. Substrings are found by a scan over the whole names and addresses.
+ *
+ * The index is an immutable snapshot swapped in when it is built, readers
+ * never lock. Every write of ContactDatabase invalidates it, the rebuild
+ * runs on its own thread and is coalesced.
+ */
+public class ContactIndex {
+
+	private static final String LOG_TAG = "ContactIndex";
+
+	public interface Listener {
+		/**
+		 * A new snapshot is in place, called on the index thread.
+		 */
+		public void onIndexChanged();
+	}
+
+	private static ContactIndex mInstance = null;
+
+	public static synchronized ContactIndex getInstance(Context context) {
+		if (mInstance == null) {
+			mInstance = new ContactIndex(context.getApplicationContext());
+		}
+		return mInstance;
+	}
+
+	/*From the database writes, nothing to do before the index is used*/
+	static synchronized void onContactsChanged() {
+		if (mInstance != null)
+			mInstance.invalidate();
+	}
+
+	/*From the writes of a bulk change, the rebuild waits for its end*/
+	static synchronized void onContactsPending() {
+		if (mInstance != null)
+			mInstance.markStale();
+	}
+
+	private ContactIndex(Context context) {
+		mContext = context;
+		HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		mHandler = new Handler(thread.getLooper());
+		invalidate();
+	}
+
+	public void addListener(Listener listener) {
+		mListeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * The contacts changed, build the index again.
+	 */
+	public void invalidate() {
+		synchronized (this) {
+			mRequested++;
+			if (mRebuildPosted)
+				return;
+			mRebuildPosted = true;
+		}
+		mHandler.post(mRebuild);
+	}
+
+	/*The database has changes the snapshot lacks, build it later*/
+	private synchronized void markStale() {
+		mRequested++;
+	}
+
+	/**
+	 * Whether the index has every change of the database, false from a
+	 * change until the snapshot built after it is in place.
+	 */
+	public boolean isCurrent() {
+		return mBuilt == mRequested && mSnapshot != null;
+	}
+
+	/**
+	 * The contact with exactly this address, null if there is none.
+	 */
+	public Contact findByAddress(String address) {
+		Snapshot s = mSnapshot;
+		if (s == null || address == null)
+			return null;
+		Integer i = s.byAddress.get(address);
+		return (i == null) ? null : s.contact(i);
+	}
+
+	/*Contact of a CallerIdResolver key, null if none*/
+	Contact findCaller(String key) {
+		Snapshot s = mSnapshot;
+		if (s == null)
+			return null;
+		Integer i = s.byCaller.get(key);
+		return (i == null) ? null : s.contact(i);
+	}
+
+	/*Changes whenever the contacts of the index do*/
+	Object version() {
+		return mSnapshot;
+	}
+
+	/**
+	 * Contacts matching what was typed, best first: a name word, the address
+	 * or their T9 digits starting with the query, then containing it.
+	 * @param query a name, an address, or digits from the dial pad
+	 */
+	public List<Contact> suggest(String query, int limit) {
+		ArrayList<Contact> result = new ArrayList<Contact>();
+		Snapshot s = mSnapshot;
+		if (s == null || query == null || limit <= 0)
+			return result;
+
+		char[] q = normalize(query);
+		if (q.length == 0)
+			return result;
+
+		// digits match the T9 keys, which include the digits of the addresses
+		KeyTable table = isDigits(q) ? s.t9 : s.text;
+		boolean[] seen = new boolean[s.ids.length];
+		table.prefix(q, limit, seen, result, s);
+		if (result.size() < limit)
+			table.substring(q, limit, seen, result, s);
+		return result;
+	}
+
+	/**
+	 * Number of contacts in the index.
+	 */
+	public int size() {
+		Snapshot s = mSnapshot;
+		return (s == null) ? 0 : s.ids.length;
+	}
+
+	// -----------------------------------------------------------------
+
+	private final Runnable mRebuild = new Runnable() {
+		@Override
+		public void run() {
+			final long generation;
+			synchronized (ContactIndex.this) {
+				mRebuildPosted = false;
+				generation = mRequested;
+			}
+			long start = System.nanoTime();
+			Snapshot snapshot = build();
+			if (snapshot == null)
+				return;
+			mSnapshot = snapshot;
+			mBuilt = generation;
+			Util.S_Log.d(LOG_TAG, snapshot.ids.length + " contacts indexed in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+			for (Listener l : mListeners)
+				l.onIndexChanged();
+		}
+	};
+
+	private Snapshot build() {
+		Cursor c = ContactDatabase.getInstance(mContext).queryAllUsers();
+		if (c == null)
+			return null;
+
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<String> addresses = new ArrayList<String>();
+		ArrayList<Long> ids = new ArrayList<Long>();
+		try {
+			int colId = c.getColumnIndex(ContactDatabase.COL_ID);
+			int colName = c.getColumnIndex(ContactDatabase.COL_NAME);
+			int colAddress = c.getColumnIndex(ContactDatabase.COL_ADDRESS);
+			while (c.moveToNext()) {
+				ids.add(c.getLong(colId));
+				names.add(c.getString(colName));
+				addresses.add(c.getString(colAddress));
+			}
+		} catch (RuntimeException e) {
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+			return null;
+		} finally {
+			c.close();
+		}
+		return new Snapshot(ids, names, addresses);
+	}
+
+	/*Lower case, without a sip: scheme*/
+	static char[] normalize(String s) {
+		String lower = s.trim().toLowerCase();
+		if (lower.startsWith("sip:"))
+			lower = lower.substring(4);
+		return lower.toCharArray();
+	}
+
+	/*T9 digit of a character, the character itself for digits, 0 if none*/
+	static char t9(char c) {
+		if (c >= '0' && c <= '9')
+			return c;
+		if (c >= 'a' && c <= 'z')
+			return T9[c - 'a'];
+		return 0;
+	}
+
+	private static final char[] T9 = "22233344455566677778889999".toCharArray();
+
+	private static boolean isDigits(char[] q) {
+		for (char c : q) {
+			if (c < '0' || c > '9')
+				return false;
+		}
+		return true;
+	}
+
+	private static class Snapshot {
+
+		Snapshot(List<Long> idList, List<String> nameList, List<String> addressList) {
+			int n = idList.size();
+			ids = new long[n];
+			names = nameList.toArray(new String[n]);
+			addresses = addressList.toArray(new String[n]);
+			byAddress = new HashMap<String, Integer>(n * 2);
+			byCaller = new HashMap<String, Integer>(n * 2);
+
+			KeyTable.Builder textKeys = new KeyTable.Builder();
+			KeyTable.Builder t9Keys = new KeyTable.Builder();
+			for (int i = 0; i < n; i++) {
+				ids[i] = idList.get(i);
+				if (addresses[i] != null) {
+					if (!byAddress.containsKey(addresses[i]))
+						byAddress.put(addresses[i], i);
+					String callerKey = CallerIdResolver.key(addresses[i]);
+					if (!byCaller.containsKey(callerKey))
+						byCaller.put(callerKey, i);
+					char[] address = normalize(addresses[i]);
+					textKeys.add(address, i, false);
+					t9Keys.addT9(address, i, false);
+				}
+				if (names[i] != null) {
+					char[] name = normalize(names[i]);
+					textKeys.add(name, i, false);
+					t9Keys.addT9(name, i, false);
+					// every further word of the name
+					for (int j = 1; j < name.length; j++) {
+						if (name[j - 1] == ' ' && name[j] != ' ') {
+							char[] word = Arrays.copyOfRange(name, j, name.length);
+							textKeys.add(word, i, true);
+							t9Keys.addT9(word, i, true);
+						}
+					}
+				}
+			}
+			text = textKeys.build();
+			t9 = t9Keys.build();
+		}
+
+		Contact contact(int i) {
+			return new Contact((names[i] == null) ? "" : names[i], (addresses[i] == null) ? "" : addresses[i]);
+		}
+
+		final long[] ids;
+		final String[] names;
+		final String[] addresses;
+		final HashMap<String, Integer> byAddress;
+		// by CallerIdResolver.key() of the address
+		final HashMap<String, Integer> byCaller;
+		final KeyTable text;
+		final KeyTable t9;
+	}
+
+	/**
+	 * Sorted keys in one char pool, key i is pool[start[i]..start[i+1]) of
+	 * contact owner[i]. A word key is the tail of a name key, only there for
+	 * the prefix search.
+	 */
+	private static class KeyTable {
+
+		static class Builder {
+			private final ArrayList<char[]> mKeys = new ArrayList<char[]>();
+			private final ArrayList<Integer> mOwners = new ArrayList<Integer>();
+			private final BitSet mWords = new BitSet();
+
+			void add(char[] key, int owner, boolean word) {
+				if (key.length == 0)
+					return;
+				if (word)
+					mWords.set(mKeys.size());
+				mKeys.add(key);
+				mOwners.add(owner);
+			}
+
+			void addT9(char[] key, int owner, boolean word) {
+				char[] digits = new char[key.length];
+				int n = 0;
+				for (char c : key) {
+					char d = t9(c);
+					if (d != 0)
+						digits[n++] = d;
+					else if (c == '@')
+						break; // the domain isn't dialed
+				}
+				add(Arrays.copyOf(digits, n), owner, word);
+			}
+
+			KeyTable build() {
+				int n = mKeys.size();
+				Integer[] order = new Integer[n];
+				int total = 0;
+				for (int i = 0; i < n; i++) {
+					order[i] = i;
+					total += mKeys.get(i).length;
+				}
+				Arrays.sort(order, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer a, Integer b) {
+						return KeyTable.compare(mKeys.get(a), mKeys.get(b));
+					}
+				});
+
+				KeyTable table = new KeyTable(n, total);
+				int pos = 0;
+				for (int i = 0; i < n; i++) {
+					char[] key = mKeys.get(order[i]);
+					System.arraycopy(key, 0, table.pool, pos, key.length);
+					table.start[i] = pos;
+					table.owner[i] = mOwners.get(order[i]);
+					if (mWords.get(order[i]))
+						table.word.set(i);
+					pos += key.length;
+				}
+				table.start[n] = pos;
+				return table;
+			}
+		}
+
+		KeyTable(int keys, int chars) {
+			pool = new char[chars];
+			start = new int[keys + 1];
+			owner = new int[keys];
+		}
+
+		/*Keys starting with q, in key order*/
+		void prefix(char[] q, int limit, boolean[] seen, List<Contact> out, Snapshot s) {
+			int keys = owner.length;
+			// first key not less than q
+			int lo = 0, hi = keys;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (compareKey(mid, q) < 0)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			for (int i = lo; i < keys && out.size() < limit && startsWith(i, q); i++)
+				take(owner[i], seen, out, s);
+		}
+
+		/*Keys containing q anywhere*/
+		void substring(char[] q, int limit, boolean[] seen, List<Contact> out, Snapshot s) {
+			int keys = owner.length;
+			for (int i = 0; i < keys && out.size() < limit; i++) {
+				if (!seen[owner[i]] && !word.get(i) && contains(i, q))
+					take(owner[i], seen, out, s);
+			}
+		}
+
+		private static void take(int contact, boolean[] seen, List<Contact> out, Snapshot s) {
+			if (seen[contact])
+				return;
+			seen[contact] = true;
+			out.add(s.contact(contact));
+		}
+
+		private boolean startsWith(int key, char[] q) {
+			int from = start[key];
+			if (start[key + 1] - from < q.length)
+				return false;
+			for (int j = 0; j < q.length; j++) {
+				if (pool[from + j] != q[j])
+					return false;
+			}
+			return true;
+		}
+
+		private boolean contains(int key, char[] q) {
+			int from = start[key];
+			int last = start[key + 1] - q.length;
+			outer:
+			for (int p = from; p <= last; p++) {
+				for (int j = 0; j < q.length; j++) {
+					if (pool[p + j] != q[j])
+						continue outer;
+				}
+				return true;
+			}
+			return false;
+		}
+
+		private int compareKey(int key, char[] q) {
+			int from = start[key];
+			int len = start[key + 1] - from;
+			int n = Math.min(len, q.length);
+			for (int j = 0; j < n; j++) {
+				int d = pool[from + j] - q[j];
+				if (d != 0)
+					return d;
+			}
+			return len - q.length;
+		}
+
+		static int compare(char[] a, char[] b) {
+			int n = Math.min(a.length, b.length);
+			for (int j = 0; j < n; j++) {
+				int d = a[j] - b[j];
+				if (d != 0)
+					return d;
+			}
+			return a.length - b.length;
+		}
+
+		final char[] pool;
+		final int[] start;
+		final int[] owner;
+		final BitSet word = new BitSet();
+	}
+
+	private final Context mContext;
+	private final Handler mHandler;
+	private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+
+	private volatile Snapshot mSnapshot = null;
+	// invalidations so far, and the one the snapshot was built after
+	private volatile long mRequested = 0;
+	private volatile long mBuilt = -1;
+	private boolean mRebuildPosted = false;
+}
@@ -1,6 +1,12 @@
 package com.cisco.slingshot.contact;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -8,26 +14,51 @@ import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * The contacts for the lists: a cached {@link ContactSnapshot} and the
+ * changes to it.
+ *
+ * Every write goes through the contact thread, which applies it to the
+ * database and derives the next snapshot from the last one, an insert is one
+ * array copy and no query. When somebody else wrote meanwhile (the provider,
+ * an import) the contacts are read again and compared with the last snapshot.
+ * Either way the observers get a {@link ContactChangeSet} on the UI thread and
+ * update the rows it names instead of rebinding the whole list.
+ */
 public class ContactManager{
 	private static final String LOG_TAG = "ContactManager";
-	
+
 	private static Context mContext;
 	//private static ContactDatabase mDatabase = null;
-	
+
     /*Handle database in worker thread*/
-    private HandlerThread	 mContactThread; 
+    private HandlerThread	 mContactThread;
     private ContactHandler   mContactHandler;
-    
-    
-    //Task 
+    private final Handler	 mMainHandler = new Handler(Looper.getMainLooper());
+
+    /*Written on the contact thread only*/
+    private volatile ContactSnapshot mSnapshot = ContactSnapshot.EMPTY;
+    // ContactDatabase.getGeneration() of mSnapshot
+    private long mGeneration = -1;
+
+    private final CopyOnWriteArrayList<ContactObserver> mObservers = new CopyOnWriteArrayList<ContactObserver>();
+
+    //Task
     private static final int QUERY_ALL = 1;
-    private static final int INTSERT = 2;
+    private static final int SET = 2;
     private static final int CLEAR = 3;
-    
+    private static final int IMPORT = 4;
+    private static final int EXPORT = 5;
+    private static final int REMOVE = 6;
+    private static final int REFRESH = 7;
+
 	private static class ContactHandler extends Handler{
-	    	
-	    	public ContactHandler(Looper looper){
+
+	    	public ContactHandler(Looper looper, ContactManager manager){
 	    		super(looper);
+	    		mManager = manager;
 	    	}
 	        @Override
 	        public void handleMessage(Message msg) {
@@ -35,42 +66,104 @@ public class ContactManager{
 	            case QUERY_ALL:{
 	            	QueryCallback cb = (QueryCallback)msg.obj;
 	            	if(cb == null)return;
-	            	Cursor dataCor = ContactDatabase.getInstance(mContext).queryAllUsers();
+	            	Cursor dataCor = mContext.getContentResolver().query(ContactProvider.CONTENT_URI,
+	            			ContactProvider.PROJECTION, null, null, null);
 	            	cb.onDone(dataCor);
 	            }
 	            	break;
-	            case INTSERT:
-	            	//mDatabase.addHistory((HistoryItem)msg.obj);
+	            case SET:
+	            	mManager.set((Contact)msg.obj);
+	            	break;
+	            case REMOVE:
+	            	mManager.remove((Contact)msg.obj);
 	            	break;
 	            case CLEAR:
-	            	//mDatabase.clearHistory();
+	            	mManager.clearAll();
+	            	break;
+	            case REFRESH:
+	            	mManager.refresh();
+	            	break;
+	            case IMPORT:{
+	            	Transfer t = (Transfer)msg.obj;
+	            	ImportCallback cb = (ImportCallback)t.cb;
+	            	ContactImportExport.Result result = null;
+	            	try{
+	            		result = ContactImportExport.importFile(mContext, t.file, cb);
+	            	}catch(IOException e){
+	            		Log.e(LOG_TAG, Log.getStackTraceString(e));
+	            	}
+	            	cb.onDone(result);
+	            }
+	            	break;
+	            case EXPORT:{
+	            	Transfer t = (Transfer)msg.obj;
+	            	int written = -1;
+	            	try{
+	            		written = ContactImportExport.exportFile(mContext, t.file);
+	            	}catch(IOException e){
+	            		Log.e(LOG_TAG, Log.getStackTraceString(e));
+	            	}
+	            	((ExportCallback)t.cb).onDone(written);
+	            }
 	            	break;
 	                default:
 	                    Log.v(LOG_TAG, "Unhandled message: " + msg.what);
 	                    break;
 	            }
-	        }    	
+	        }
+
+	        private final ContactManager mManager;
 	    }
-    
+
     public static interface QueryCallback{
     	public abstract void onDone(Cursor data);
     }
-    
+
+    /*Called on the UI thread, in the order of the changes*/
+    public static interface ContactObserver{
+    	public abstract void onContactsChanged(ContactChangeSet changes);
+    }
+
+    /*Called on the contact thread*/
+    public static interface ImportCallback extends ContactImportExport.Listener{
+    	/**
+    	 * @param result null if the file couldn't be read
+    	 */
+    	public abstract void onDone(ContactImportExport.Result result);
+    }
+
+    /*Called on the contact thread*/
+    public static interface ExportCallback{
+    	/**
+    	 * @param written contacts in the file, -1 if it couldn't be written
+    	 */
+    	public abstract void onDone(int written);
+    }
+
+    private static class Transfer{
+    	Transfer(File file, Object cb){
+    		this.file = file;
+    		this.cb = cb;
+    	}
+    	final File file;
+    	final Object cb;
+    }
+
 	private ContactManager(Context context){
-		mContext = context;
+		mContext = context.getApplicationContext();
 		init();
 	}
-	
+
 	//singleton
 	private static ContactManager mInstance = null;
 	public synchronized static ContactManager getInstance(Context context){
-		
+
 		if(mInstance == null){
 			mInstance = new ContactManager(context);
 		}
 		return mInstance;
 	}
-	
+
 	/**
 	 * initialize
 	 */
@@ -78,14 +171,185 @@ public class ContactManager{
 		//mDatabase = ContactDatabase.getInstance(mContext);
 		mContactThread = new HandlerThread("ContactThread");
 		mContactThread.start();
-		mContactHandler = new ContactHandler(mContactThread.getLooper());
+		mContactHandler = new ContactHandler(mContactThread.getLooper(), this);
+
+		mContext.getContentResolver().registerContentObserver(ContactProvider.CONTENT_URI, true,
+				new ContentObserver(mContactHandler){
+					@Override
+					public void onChange(boolean selfChange) {
+						refresh();
+					}
+				});
+		mContactHandler.sendEmptyMessage(REFRESH);
 	}
-	
+
 	//none-block query
 	public void queryAllContact(QueryCallback cb){
 		mContactHandler.sendMessage(mContactHandler.obtainMessage(QUERY_ALL, cb));
 	}
-	
-	
-	
-}
\ No newline at end of file
+
+	/**
+	 * The contacts as of the last change set, empty until they are read.
+	 */
+	public ContactSnapshot getSnapshot(){
+		return mSnapshot;
+	}
+
+	public void addObserver(ContactObserver observer){
+		mObservers.addIfAbsent(observer);
+	}
+
+	public void removeObserver(ContactObserver observer){
+		mObservers.remove(observer);
+	}
+
+	/**
+	 * Add the contact, or set the address of those with its name.
+	 */
+	public void setContact(Contact user){
+		mContactHandler.sendMessage(mContactHandler.obtainMessage(SET, user));
+	}
+
+	/**
+	 * Remove the contacts with the name of this one.
+	 */
+	public void removeContact(Contact user){
+		mContactHandler.sendMessage(mContactHandler.obtainMessage(REMOVE, user));
+	}
+
+	/**
+	 * An edited contact, which may have a new name.
+	 */
+	public void replaceContact(Contact old, Contact user){
+		if(!old.get_username().equals(user.get_username()))
+			removeContact(old);
+		setContact(user);
+	}
+
+	public void clear(){
+		mContactHandler.sendEmptyMessage(CLEAR);
+	}
+
+	/**
+	 * Import a vCard or CSV directory in the background.
+	 */
+	public void importContacts(File file, ImportCallback cb){
+		mContactHandler.sendMessage(mContactHandler.obtainMessage(IMPORT, new Transfer(file, cb)));
+	}
+
+	/**
+	 * Export all contacts as vCard or CSV, by the file name, in the background.
+	 */
+	public void exportContacts(File file, ExportCallback cb){
+		mContactHandler.sendMessage(mContactHandler.obtainMessage(EXPORT, new Transfer(file, cb)));
+	}
+
+	// -----------------------------------------------------------------
+	// contact thread
+
+	private void set(Contact user){
+		final ContactDatabase db = ContactDatabase.getInstance(mContext);
+		final String name = user.get_username();
+		final String address = user.get_address();
+		final ContactSnapshot old = mSnapshot;
+		final long expected = mGeneration + 1;
+
+		ContentValues cv = new ContentValues();
+		cv.put(ContactDatabase.COL_ADDRESS, address);
+		final int updated = db.update(cv, "(" + ContactDatabase.COL_NAME + "==?)", new String[]{name});
+		if(updated > 0){
+			final int from = old.indexOfName(name);
+			final int to = endOfName(old, from, name);
+			if(from >= 0 && to - from == updated && db.getGeneration() == expected)
+				publish(ContactChangeSet.changed(old, old.withAddress(from, to, address), from, to), expected);
+			else
+				refresh();
+			return;
+		}
+
+		cv.put(ContactDatabase.COL_NAME, name);
+		final long id = db.insert(cv);
+		if(id < 0)
+			return;
+		if(db.getGeneration() == expected){
+			final int position = old.insertionPoint(name, id);
+			publish(ContactChangeSet.inserted(old, old.withInserted(position, id, name, address), position), expected);
+		}else{
+			refresh();
+		}
+	}
+
+	private void remove(Contact user){
+		final ContactDatabase db = ContactDatabase.getInstance(mContext);
+		final String name = user.get_username();
+		final ContactSnapshot old = mSnapshot;
+		final long expected = mGeneration + 1;
+
+		final int removed = db.delete("(" + ContactDatabase.COL_NAME + "==?)", new String[]{name});
+		if(removed == 0)
+			return;
+		final int from = old.indexOfName(name);
+		final int to = endOfName(old, from, name);
+		if(from >= 0 && to - from == removed && db.getGeneration() == expected)
+			publish(ContactChangeSet.removed(old, old.withRemoved(from, to), from, to), expected);
+		else
+			refresh();
+	}
+
+	private void clearAll(){
+		final ContactDatabase db = ContactDatabase.getInstance(mContext);
+		final ContactSnapshot old = mSnapshot;
+		final long expected = mGeneration + 1;
+
+		final int removed = db.delete("1", null);
+		if(removed == 0)
+			return;
+		if(removed == old.size() && db.getGeneration() == expected)
+			publish(ContactChangeSet.removed(old, ContactSnapshot.EMPTY, 0, removed), expected);
+		else
+			refresh();
+	}
+
+	/*Read the contacts again if somebody else changed them*/
+	private void refresh(){
+		final ContactDatabase db = ContactDatabase.getInstance(mContext);
+		// before the query, a write in between is read again at its notification
+		final long generation = db.getGeneration();
+		if(generation == mGeneration)
+			return;
+
+		final long start = System.currentTimeMillis();
+		Cursor c = db.query(ContactProvider.PROJECTION, null, null, null, null);
+		if(c == null)
+			return;
+		ContactSnapshot snapshot = ContactSnapshot.load(c);
+		ContactChangeSet changes = ContactChangeSet.diff(mSnapshot, snapshot);
+		Util.S_Log.d(LOG_TAG, snapshot.size() + " contacts read in " + (System.currentTimeMillis() - start)
+				+ " ms, " + changes);
+		publish(changes, generation);
+	}
+
+	private void publish(final ContactChangeSet changes, long generation){
+		mSnapshot = changes.newSnapshot;
+		mGeneration = generation;
+		if(changes.isEmpty())
+			return;
+		mMainHandler.post(new Runnable(){
+			@Override
+			public void run() {
+				for(ContactObserver observer : mObservers)
+					observer.onContactsChanged(changes);
+			}
+		});
+	}
+
+	/*End of the rows named so starting at from*/
+	private static int endOfName(ContactSnapshot snapshot, int from, String name){
+		if(from < 0)
+			return from;
+		int to = from;
+		while(to < snapshot.size() && snapshot.getName(to).equals(name))
+			to++;
+		return to;
+	}
+}
@@ -0,0 +1,421 @@
+package com.cisco.slingshot.contact;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * The photos of the contacts, decoded off the UI thread for the views
+ * showing them.
+ *
+ * A photo is decoded with the largest inSampleSize keeping it as big as the
+ * view, and kept by address in an LRU of decoded bitmaps bounded in bytes;
+ * a downscaled photo is also written to a thumbnail in the cache dir, which
+ * is cheaper to decode next time than the asset. Addresses without a photo
+ * are remembered too. A view asked for again, a recycled row, drops its
+ * request if it hasn't been decoded yet.
+ */
+public class ContactPhotoLoader {
+
+	private static final String LOG_TAG = "ContactPhotoLoader";
+
+	// share of the app's memory class for decoded photos
+	private static final int MEMORY_DIVISOR = 8;
+	// addresses remembered to have no photo
+	private static final int MAX_MISSING = 1024;
+	// edge in px for a view not laid out and without a fixed size
+	private static final int DEFAULT_SIZE = 96;
+	private static final String THUMBNAIL_DIR = "photo_thumbnails";
+
+	private static final int LOAD = 1;
+
+	private static ContactPhotoLoader mInstance = null;
+
+	public static synchronized ContactPhotoLoader getInstance(Context context) {
+		if (mInstance == null) {
+			mInstance = new ContactPhotoLoader(context.getApplicationContext());
+		}
+		return mInstance;
+	}
+
+	private ContactPhotoLoader(Context context) {
+		mContext = context;
+		ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+		mMaxBytes = am.getMemoryClass() * 1024 * 1024 / MEMORY_DIVISOR;
+
+		HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		mHandler = new Handler(thread.getLooper()) {
+			@Override
+			public void handleMessage(Message msg) {
+				if (msg.what == LOAD)
+					load((Request) msg.obj);
+			}
+		};
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				mThumbnailDir = openThumbnailDir();
+			}
+		});
+	}
+
+	/**
+	 * Show the photo of the address in the view, the default until it is
+	 * decoded. A later call for the same view replaces this one. Call on the
+	 * UI thread.
+	 */
+	public void loadPhoto(ImageView view, String address, int defaultResId) {
+		cancel(view);
+		if (address == null || isMissing(address)) {
+			view.setImageResource(defaultResId);
+			return;
+		}
+
+		int width = targetSize(view.getWidth(), view.getLayoutParams(), true);
+		int height = targetSize(view.getHeight(), view.getLayoutParams(), false);
+		Bitmap cached = getCached(address, width, height);
+		if (cached != null) {
+			view.setImageBitmap(cached);
+			return;
+		}
+
+		view.setImageResource(defaultResId);
+		Request request = new Request(view, address, width, height);
+		mPending.put(view, request);
+		mHandler.sendMessage(mHandler.obtainMessage(LOAD, request));
+	}
+
+	/**
+	 * Drop what is pending for the view, as it shows something else now.
+	 */
+	public void cancel(ImageView view) {
+		Request request = mPending.remove(view);
+		if (request != null) {
+			request.cancelled = true;
+			mHandler.removeMessages(LOAD, request);
+		}
+	}
+
+	/**
+	 * Forget the decoded photos, when the memory is needed.
+	 */
+	public void clearMemory() {
+		synchronized (mCache) {
+			mCache.clear();
+			mCacheBytes = 0;
+		}
+	}
+
+	// -----------------------------------------------------------------
+	// photo thread
+
+	private void load(final Request request) {
+		if (request.cancelled)
+			return;
+
+		Bitmap bitmap = getCached(request.address, request.width, request.height);
+		if (bitmap == null && !isMissing(request.address)) {
+			bitmap = decode(request);
+		}
+
+		final Bitmap result = bitmap;
+		mMainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (mPending.get(request.view) != request)
+					return;
+				mPending.remove(request.view);
+				if (result != null)
+					request.view.setImageBitmap(result);
+			}
+		});
+	}
+
+	private Bitmap decode(Request request) {
+		final long start = System.currentTimeMillis();
+		final String address = request.address;
+
+		File thumbnail = thumbnailFile(address);
+		if (thumbnail != null && thumbnail.exists()) {
+			BitmapFactory.Options bounds = new BitmapFactory.Options();
+			bounds.inJustDecodeBounds = true;
+			BitmapFactory.decodeFile(thumbnail.getPath(), bounds);
+			if (bounds.outWidth >= request.width && bounds.outHeight >= request.height) {
+				BitmapFactory.Options options = new BitmapFactory.Options();
+				options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, request.width, request.height);
+				options.inPreferredConfig = Bitmap.Config.RGB_565;
+				Bitmap bitmap = BitmapFactory.decodeFile(thumbnail.getPath(), options);
+				if (bitmap != null) {
+					putCached(address, bitmap, false);
+					return bitmap;
+				}
+			}
+		}
+
+		BitmapFactory.Options bounds = new BitmapFactory.Options();
+		bounds.inJustDecodeBounds = true;
+		if (!decodeAsset(address, bounds)) {
+			setMissing(address);
+			return null;
+		}
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, request.width, request.height);
+		options.inPreferredConfig = Bitmap.Config.RGB_565;
+		Bitmap bitmap = decodeAssetBitmap(address, options);
+		if (bitmap == null)
+			return null;
+		putCached(address, bitmap, options.inSampleSize == 1);
+		if (options.inSampleSize > 1)
+			writeThumbnail(thumbnail, bitmap);
+
+		Util.S_Log.d(LOG_TAG, address + " " + bounds.outWidth + "x" + bounds.outHeight + "/" + options.inSampleSize
+				+ " decoded in " + (System.currentTimeMillis() - start) + " ms");
+		return bitmap;
+	}
+
+	/*Only the bounds, true if there is a photo*/
+	private boolean decodeAsset(String address, BitmapFactory.Options bounds) {
+		InputStream is = Contact.findPhotoInAssets(mContext, address);
+		if (is == null)
+			return false;
+		try {
+			BitmapFactory.decodeStream(is, null, bounds);
+		} finally {
+			close(is);
+		}
+		return bounds.outWidth > 0 && bounds.outHeight > 0;
+	}
+
+	private Bitmap decodeAssetBitmap(String address, BitmapFactory.Options options) {
+		InputStream is = Contact.findPhotoInAssets(mContext, address);
+		if (is == null)
+			return null;
+		try {
+			return BitmapFactory.decodeStream(is, null, options);
+		} catch (OutOfMemoryError e) {
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+			clearMemory();
+			return null;
+		} finally {
+			close(is);
+		}
+	}
+
+	/*Largest power of two keeping the photo at least as big as the view*/
+	private static int sampleSize(int width, int height, int targetWidth, int targetHeight) {
+		int sample = 1;
+		while (width / (sample * 2) >= targetWidth && height / (sample * 2) >= targetHeight)
+			sample *= 2;
+		return sample;
+	}
+
+	// -----------------------------------------------------------------
+	// thumbnails
+
+	/*The dir of this version of the app, those of older versions are removed*/
+	private File openThumbnailDir() {
+		String version;
+		try {
+			version = String.valueOf(mContext.getPackageManager()
+					.getPackageInfo(mContext.getPackageName(), 0).versionCode);
+		} catch (PackageManager.NameNotFoundException e) {
+			version = "0";
+		}
+
+		File cache = mContext.getCacheDir();
+		if (cache == null)
+			return null;
+		File[] old = cache.listFiles();
+		if (old != null) {
+			for (File f : old) {
+				if (f.getName().startsWith(THUMBNAIL_DIR) && !f.getName().equals(THUMBNAIL_DIR + version))
+					delete(f);
+			}
+		}
+		File dir = new File(cache, THUMBNAIL_DIR + version);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			return null;
+		return dir;
+	}
+
+	private File thumbnailFile(String address) {
+		if (mThumbnailDir == null)
+			return null;
+		try {
+			return new File(mThumbnailDir, URLEncoder.encode(address, "UTF-8") + ".jpg");
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+
+	private void writeThumbnail(File file, Bitmap bitmap) {
+		if (file == null)
+			return;
+		// written aside and renamed, a half written thumbnail is never read
+		File tmp = new File(file.getPath() + ".tmp");
+		OutputStream os = null;
+		try {
+			os = new FileOutputStream(tmp);
+			boolean written = bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+			os.close();
+			os = null;
+			if (!written || !tmp.renameTo(file))
+				tmp.delete();
+		} catch (IOException e) {
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+			tmp.delete();
+		} finally {
+			close(os);
+		}
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child : children)
+				delete(child);
+		}
+		f.delete();
+	}
+
+	// -----------------------------------------------------------------
+	// memory
+
+	/*A photo at least as big as asked, or the whole one*/
+	private Bitmap getCached(String address, int width, int height) {
+		synchronized (mCache) {
+			Entry entry = mCache.get(address);
+			if (entry == null)
+				return null;
+			if (entry.whole || (entry.bitmap.getWidth() >= width && entry.bitmap.getHeight() >= height))
+				return entry.bitmap;
+			return null;
+		}
+	}
+
+	private void putCached(String address, Bitmap bitmap, boolean whole) {
+		int bytes = bitmap.getRowBytes() * bitmap.getHeight();
+		if (bytes > mMaxBytes)
+			return;
+		synchronized (mCache) {
+			Entry old = mCache.put(address, new Entry(bitmap, whole, bytes));
+			if (old != null)
+				mCacheBytes -= old.bytes;
+			mCacheBytes += bytes;
+			// least recently used first
+			while (mCacheBytes > mMaxBytes) {
+				Map.Entry<String, Entry> eldest = mCache.entrySet().iterator().next();
+				mCacheBytes -= eldest.getValue().bytes;
+				mCache.remove(eldest.getKey());
+			}
+		}
+	}
+
+	private boolean isMissing(String address) {
+		synchronized (mMissing) {
+			return mMissing.containsKey(address);
+		}
+	}
+
+	private void setMissing(String address) {
+		synchronized (mMissing) {
+			mMissing.put(address, Boolean.TRUE);
+		}
+	}
+
+	private static int targetSize(int measured, ViewGroup.LayoutParams params, boolean width) {
+		if (measured > 0)
+			return measured;
+		if (params != null) {
+			int size = width ? params.width : params.height;
+			if (size > 0)
+				return size;
+		}
+		return DEFAULT_SIZE;
+	}
+
+	private static void close(java.io.Closeable c) {
+		if (c == null)
+			return;
+		try {
+			c.close();
+		} catch (IOException e) {
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+		}
+	}
+
+	private static class Request {
+		Request(ImageView view, String address, int width, int height) {
+			this.view = view;
+			this.address = address;
+			this.width = width;
+			this.height = height;
+		}
+
+		final ImageView view;
+		final String address;
+		final int width;
+		final int height;
+		volatile boolean cancelled = false;
+	}
+
+	private static class Entry {
+		Entry(Bitmap bitmap, boolean whole, int bytes) {
+			this.bitmap = bitmap;
+			this.whole = whole;
+			this.bytes = bytes;
+		}
+
+		final Bitmap bitmap;
+		// decoded without downscaling, nothing bigger to get
+		final boolean whole;
+		final int bytes;
+	}
+
+	private final Context mContext;
+	private final Handler mHandler;
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+	private final int mMaxBytes;
+	// set on the photo thread before any load
+	private volatile File mThumbnailDir = null;
+
+	/*Requests not shown yet, by view, UI thread only*/
+	private final WeakHashMap<ImageView, Request> mPending = new WeakHashMap<ImageView, Request>();
+
+	/*Least recently used first*/
+	private final LinkedHashMap<String, Entry> mCache = new LinkedHashMap<String, Entry>(32, 0.75f, true);
+	private int mCacheBytes = 0;
+
+	private final LinkedHashMap<String, Boolean> mMissing =
+			new LinkedHashMap<String, Boolean>(MAX_MISSING + 1, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_MISSING;
+		}
+	};
+}
@@ -1,33 +1,102 @@
 package com.cisco.slingshot.contact;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.net.Uri;
+import android.text.TextUtils;
 
+/**
+ * The contacts for other apps of the box and for our own lists.
+ *
+ *   content://com.cisco.slingshot.contacts/people               all contacts
+ *   content://com.cisco.slingshot.contacts/people/#             one by row id
+ *   content://com.cisco.slingshot.contacts/people/name/*        by name
+ *   content://com.cisco.slingshot.contacts/people/address/*     by address
+ *
+ * Name and address are indexed, the lookups by them don't scan the table.
+ * Only the columns of the projection are read, and the limit and offset
+ * query parameters page through long lists, see {@link #pageUri}. Cursors
+ * are registered on CONTENT_URI and every write of ContactDatabase notifies
+ * it, a list requeries when the contacts change instead of reloading on its
+ * own schedule.
+ *
+ * Reading needs READ_CONTACTS and writing WRITE_CONTACTS, both only granted
+ * to apps signed like us or in the system image. A sort order may only name
+ * the columns of PROJECTION, each optionally ASC or DESC.
+ */
 public class ContactProvider extends ContentProvider{
-	
-	
+
+	public static final String AUTHORITY = "com.cisco.slingshot.contacts";
+	public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/people");
+
+	/**
+	 * query parameters, row count and rows to skip
+	 */
+	public static final String PARAM_LIMIT = "limit";
+	public static final String PARAM_OFFSET = "offset";
+
+	public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.cisco.contact";
+	public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.cisco.contact";
+
+	/**
+	 * what a list shows, the default projection
+	 */
+	public static final String[] PROJECTION = new String[]{
+		ContactDatabase.COL_ID, ContactDatabase.COL_NAME, ContactDatabase.COL_ADDRESS
+	};
+
+	private static final String DEFAULT_SORT_ORDER = ContactDatabase.COL_NAME;
+
+	private static final HashSet<String> COLUMNS = new HashSet<String>();
+	static{
+		for(String column : PROJECTION)
+			COLUMNS.add(column);
+	}
+
     private static final int PEOPLE = 1;
     private static final int PEOPLE_ID = 2;
     private static final int PEOPLE_NAME = 3;
     private static final int PEOPLE_ADDRESS = 4;
-    
+
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
     static{
-    	
-    	sUriMatcher.addURI("contacts", "people/*", PEOPLE);
-    	sUriMatcher.addURI("contacts", "people/name", PEOPLE_NAME);
-    	sUriMatcher.addURI("contacts", "people/address", PEOPLE_ADDRESS);
+    	sUriMatcher.addURI(AUTHORITY, "people", PEOPLE);
+    	sUriMatcher.addURI(AUTHORITY, "people/#", PEOPLE_ID);
+    	sUriMatcher.addURI(AUTHORITY, "people/name/*", PEOPLE_NAME);
+    	sUriMatcher.addURI(AUTHORITY, "people/address/*", PEOPLE_ADDRESS);
+    }
+
+    /**
+     * A page of the contacts, in the default order.
+     */
+    public static Uri pageUri(int offset, int limit){
+    	return CONTENT_URI.buildUpon()
+    			.appendQueryParameter(PARAM_OFFSET, String.valueOf(offset))
+    			.appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+    			.build();
     }
-    
+
     private ContactDatabase mContactDB = null;
 
 	@Override
-	public int delete(Uri uri, String selection, String[] selectionArgs) {
-		// TODO Auto-generated method stub
-		return 0;
+	public boolean onCreate() {
+		mContactDB = ContactDatabase.getInstance(getContext());
+		if(mContactDB == null)
+			return false;
+		else
+			return true;
 	}
 
 	@Override
@@ -36,46 +105,197 @@ public class ContactProvider extends ContentProvider{
         switch (match)
         {
             case PEOPLE:
-                return "vnd.cisco.cursor.dir/person";
-            case PEOPLE_ID:
-                return "vnd.android.cursor.item/person";
             case PEOPLE_NAME:
-                return "vnd.android.cursor.dir/snail-mail";
             case PEOPLE_ADDRESS:
-                return "vnd.android.cursor.item/snail-mail";
+                return CONTENT_TYPE;
+            case PEOPLE_ID:
+                return CONTENT_ITEM_TYPE;
             default:
                 return null;
         }
 	}
 
 	@Override
-	public Uri insert(Uri uri, ContentValues values) {
-		// TODO Auto-generated method stub
-		return null;
+	public Cursor query(Uri uri, String[] projection, String selection,
+			String[] selectionArgs, String sortOrder) {
+		Where where = new Where(uri, selection, selectionArgs);
+		Cursor c = mContactDB.query(checkProjection(projection), where.selection, where.args,
+				TextUtils.isEmpty(sortOrder) ? DEFAULT_SORT_ORDER : checkSortOrder(sortOrder), limit(uri));
+		if(c != null)
+			c.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+		return c;
 	}
 
 	@Override
-	public boolean onCreate() {
-		// TODO Auto-generated method stub
-		mContactDB = ContactDatabase.getInstance(getContext());
-		if(mContactDB == null)
-			return false;
-		else
-			return true;
+	public Uri insert(Uri uri, ContentValues values) {
+		if(sUriMatcher.match(uri) != PEOPLE)
+			throw new IllegalArgumentException("Unknown URI " + uri);
+		checkValues(values);
+		if(!values.containsKey(ContactDatabase.COL_NAME) || !values.containsKey(ContactDatabase.COL_ADDRESS))
+			throw new IllegalArgumentException("A contact needs a name and an address");
+
+		long id = mContactDB.insert(values);
+		return (id < 0) ? null : ContentUris.withAppendedId(CONTENT_URI, id);
 	}
 
+	/**
+	 * Like setUser for every row, in one transaction: a contact named like
+	 * one already there sets its address.
+	 */
 	@Override
-	public Cursor query(Uri uri, String[] projection, String selection,
-			String[] selectionArgs, String sortOrder) {
-		// TODO Auto-generated method stub
-		return null;
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		if(sUriMatcher.match(uri) != PEOPLE)
+			throw new IllegalArgumentException("Unknown URI " + uri);
+
+		List<Contact> users = new ArrayList<Contact>(values.length);
+		for(ContentValues v : values){
+			String name = v.getAsString(ContactDatabase.COL_NAME);
+			String address = v.getAsString(ContactDatabase.COL_ADDRESS);
+			if(name != null && address != null)
+				users.add(new Contact(name, address));
+		}
+		int[] counts = new int[3];
+		mContactDB.addUsers(users, counts);
+		return counts[ContactDatabase.ADDED] + counts[ContactDatabase.UPDATED];
 	}
 
 	@Override
 	public int update(Uri uri, ContentValues values, String selection,
 			String[] selectionArgs) {
-		// TODO Auto-generated method stub
-		return 0;
+		checkValues(values);
+		Where where = new Where(uri, selection, selectionArgs);
+		return mContactDB.update(values, where.selection, where.args);
+	}
+
+	@Override
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		Where where = new Where(uri, selection, selectionArgs);
+		return mContactDB.delete(where.selection, where.args);
+	}
+
+	/**
+	 * All the operations in one transaction, observers notified once.
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(final ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		try{
+			return mContactDB.runInTransaction(new Callable<ContentProviderResult[]>() {
+				@Override
+				public ContentProviderResult[] call() throws OperationApplicationException {
+					return ContactProvider.super.applyBatch(operations);
+				}
+			});
+		}catch(OperationApplicationException e){
+			throw e;
+		}catch(RuntimeException e){
+			throw e;
+		}catch(Exception e){
+			throw new OperationApplicationException(e.getMessage());
+		}
+	}
+
+	// -----------------------------------------------------------------
+
+	/*The selection of the uri and the caller's, ANDed*/
+	private static class Where{
+		Where(Uri uri, String selection, String[] selectionArgs){
+			final String column;
+			final String value;
+			switch(sUriMatcher.match(uri)){
+			case PEOPLE:
+				this.selection = selection;
+				this.args = selectionArgs;
+				return;
+			case PEOPLE_ID:
+				column = ContactDatabase.COL_ID;
+				value = uri.getLastPathSegment();
+				break;
+			case PEOPLE_NAME:
+				column = ContactDatabase.COL_NAME;
+				value = uri.getLastPathSegment();
+				break;
+			case PEOPLE_ADDRESS:
+				column = ContactDatabase.COL_ADDRESS;
+				value = uri.getLastPathSegment();
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown URI " + uri);
+			}
+
+			if(TextUtils.isEmpty(selection)){
+				this.selection = "(" + column + "==?)";
+				this.args = new String[]{value};
+			}else{
+				this.selection = "(" + column + "==?) AND (" + selection + ")";
+				int n = (selectionArgs == null) ? 0 : selectionArgs.length;
+				this.args = new String[n + 1];
+				this.args[0] = value;
+				if(n > 0)
+					System.arraycopy(selectionArgs, 0, this.args, 1, n);
+			}
+		}
+
+		final String selection;
+		final String[] args;
+	}
+
+	/*The default for null, else only known columns*/
+	private static String[] checkProjection(String[] projection){
+		if(projection == null)
+			return PROJECTION;
+		for(String column : projection){
+			if(!COLUMNS.contains(column))
+				throw new IllegalArgumentException("Unknown column " + column);
+		}
+		return projection;
+	}
+
+	/*Known columns, each optionally followed by ASC or DESC*/
+	private static String checkSortOrder(String sortOrder){
+		for(String term : sortOrder.split(",")){
+			String[] words = term.trim().split("\\s+");
+			boolean ok = COLUMNS.contains(words[0]);
+			if(words.length == 2)
+				ok = ok && (words[1].equalsIgnoreCase("ASC") || words[1].equalsIgnoreCase("DESC"));
+			else if(words.length > 2)
+				ok = false;
+			if(!ok)
+				throw new IllegalArgumentException("Bad sort order " + sortOrder);
+		}
+		return sortOrder;
+	}
+
+	private static void checkValues(ContentValues values){
+		if(values == null)
+			throw new IllegalArgumentException("No values");
+		for(Map.Entry<String, Object> value : values.valueSet()){
+			final String column = value.getKey();
+			if(!COLUMNS.contains(column) || column.equals(ContactDatabase.COL_ID))
+				throw new IllegalArgumentException("Can't write column " + column);
+		}
+	}
+
+	/*The LIMIT clause of the query parameters, null for all rows*/
+	private static String limit(Uri uri){
+		int limit = intParameter(uri, PARAM_LIMIT);
+		int offset = intParameter(uri, PARAM_OFFSET);
+		if(limit < 0 && offset < 0)
+			return null;
+		if(offset < 0)
+			return String.valueOf(limit);
+		// sqlite wants a count with an offset, -1 is no limit
+		return offset + "," + limit;
+	}
+
+	private static int intParameter(Uri uri, String name){
+		String value = uri.getQueryParameter(name);
+		if(value == null)
+			return -1;
+		try{
+			return Math.max(-1, Integer.parseInt(value));
+		}catch(NumberFormatException e){
+			throw new IllegalArgumentException("Bad " + name + " " + value);
+		}
 	}
-	
-}
\ No newline at end of file
+}
@@ -0,0 +1,19 @@
+package com.cisco.slingshot.contact;
+
+import java.io.IOException;
+
+/**
+ * Contacts parsed one at a time from a stream, so an import holds a contact
+ * and the reader's buffer in memory whatever the size of the file.
+ */
+public interface ContactReader {
+	/**
+	 * The next contact with a name and an address, null at the end.
+	 */
+	public Contact next() throws IOException;
+
+	/**
+	 * Entries read so far which had no name or no address.
+	 */
+	public int getSkipped();
+}
@@ -0,0 +1,172 @@
+package com.cisco.slingshot.contact;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.database.Cursor;
+
+/**
+ * All the contacts at one point in time, sorted by name and row id, never
+ * changed once built. A write gives a new snapshot sharing nothing mutable
+ * with the old one, so the UI thread can keep reading the one it has.
+ */
+public class ContactSnapshot {
+
+	public static final ContactSnapshot EMPTY = new ContactSnapshot(new long[0], new String[0], new String[0]);
+
+	private ContactSnapshot(long[] ids, String[] names, String[] addresses) {
+		mIds = ids;
+		mNames = names;
+		mAddresses = addresses;
+	}
+
+	public int size() {
+		return mIds.length;
+	}
+
+	public Contact get(int position) {
+		return new Contact(mNames[position], mAddresses[position]);
+	}
+
+	public long getId(int position) {
+		return mIds[position];
+	}
+
+	public String getName(int position) {
+		return mNames[position];
+	}
+
+	public String getAddress(int position) {
+		return mAddresses[position];
+	}
+
+	/**
+	 * Position of the first contact with the name, or -(insertion point) - 1.
+	 */
+	public int indexOfName(String name) {
+		int low = 0;
+		int high = mNames.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mNames[mid].compareTo(name) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return (low < mNames.length && mNames[low].equals(name)) ? low : -low - 1;
+	}
+
+	// -----------------------------------------------------------------
+
+	/*The rows of a cursor with _id, name and address, which it closes*/
+	static ContactSnapshot load(Cursor c) {
+		try {
+			int colId = c.getColumnIndex(ContactDatabase.COL_ID);
+			int colName = c.getColumnIndex(ContactDatabase.COL_NAME);
+			int colAddress = c.getColumnIndex(ContactDatabase.COL_ADDRESS);
+			int n = c.getCount();
+			final long[] ids = new long[n];
+			final String[] names = new String[n];
+			final String[] addresses = new String[n];
+			int i = 0;
+			while (i < n && c.moveToNext()) {
+				ids[i] = c.getLong(colId);
+				names[i] = notNull(c.getString(colName));
+				addresses[i] = notNull(c.getString(colAddress));
+				i++;
+			}
+
+			// sqlite's order of the names isn't String.compareTo for every text
+			Integer[] order = new Integer[i];
+			for (int k = 0; k < i; k++)
+				order[k] = k;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return compareKeys(names[a], ids[a], names[b], ids[b]);
+				}
+			});
+			long[] sortedIds = new long[i];
+			String[] sortedNames = new String[i];
+			String[] sortedAddresses = new String[i];
+			for (int k = 0; k < i; k++) {
+				sortedIds[k] = ids[order[k]];
+				sortedNames[k] = names[order[k]];
+				sortedAddresses[k] = addresses[order[k]];
+			}
+			return new ContactSnapshot(sortedIds, sortedNames, sortedAddresses);
+		} finally {
+			c.close();
+		}
+	}
+
+	/*The order of the snapshot*/
+	static int compareKeys(String name1, long id1, String name2, long id2) {
+		int c = name1.compareTo(name2);
+		if (c != 0)
+			return c;
+		return (id1 < id2) ? -1 : (id1 == id2) ? 0 : 1;
+	}
+
+	/*Position where a new row goes*/
+	int insertionPoint(String name, long id) {
+		int low = 0;
+		int high = mIds.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareKeys(mNames[mid], mIds[mid], name, id) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	ContactSnapshot withInserted(int position, long id, String name, String address) {
+		int n = mIds.length;
+		long[] ids = new long[n + 1];
+		String[] names = new String[n + 1];
+		String[] addresses = new String[n + 1];
+		System.arraycopy(mIds, 0, ids, 0, position);
+		System.arraycopy(mNames, 0, names, 0, position);
+		System.arraycopy(mAddresses, 0, addresses, 0, position);
+		ids[position] = id;
+		names[position] = name;
+		addresses[position] = address;
+		System.arraycopy(mIds, position, ids, position + 1, n - position);
+		System.arraycopy(mNames, position, names, position + 1, n - position);
+		System.arraycopy(mAddresses, position, addresses, position + 1, n - position);
+		return new ContactSnapshot(ids, names, addresses);
+	}
+
+	/*Without the rows [from, to)*/
+	ContactSnapshot withRemoved(int from, int to) {
+		int n = mIds.length;
+		int count = to - from;
+		long[] ids = new long[n - count];
+		String[] names = new String[n - count];
+		String[] addresses = new String[n - count];
+		System.arraycopy(mIds, 0, ids, 0, from);
+		System.arraycopy(mNames, 0, names, 0, from);
+		System.arraycopy(mAddresses, 0, addresses, 0, from);
+		System.arraycopy(mIds, to, ids, from, n - to);
+		System.arraycopy(mNames, to, names, from, n - to);
+		System.arraycopy(mAddresses, to, addresses, from, n - to);
+		return new ContactSnapshot(ids, names, addresses);
+	}
+
+	/*The rows [from, to) with the address, ids and names are shared*/
+	ContactSnapshot withAddress(int from, int to, String address) {
+		String[] addresses = mAddresses.clone();
+		Arrays.fill(addresses, from, to, address);
+		return new ContactSnapshot(mIds, mNames, addresses);
+	}
+
+	private static String notNull(String s) {
+		return (s == null) ? "" : s;
+	}
+
+	private final long[] mIds;
+	private final String[] mNames;
+	private final String[] mAddresses;
+}
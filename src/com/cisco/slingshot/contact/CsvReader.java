@@ -0,0 +1,178 @@
+package com.cisco.slingshot.contact;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Reads comma separated contacts, one record at a time. Fields may be quoted
+ * with " and then hold commas, doubled quotes and line breaks.
+ *
+ * A first record naming a "name" or "address" column is the header, else
+ * the name is the first column and the address the second. A header naming
+ * only one of them has the other in the first or second column left.
+ */
+public class CsvReader implements ContactReader {
+
+	/*A quote never closed would otherwise read the rest of the file*/
+	private static final int MAX_RECORD_CHARS = 16 * 1024;
+
+	public CsvReader(BufferedReader in) {
+		mIn = in;
+	}
+
+	@Override
+	public Contact next() throws IOException {
+		if (mFirst) {
+			mFirst = false;
+			if (!readRecord())
+				return null;
+			if (!readHeader()) {
+				// no header, this is a contact already
+				Contact contact = contact();
+				if (contact != null)
+					return contact;
+			}
+		}
+		while (readRecord()) {
+			Contact contact = contact();
+			if (contact != null)
+				return contact;
+		}
+		return null;
+	}
+
+	@Override
+	public int getSkipped() {
+		return mSkipped;
+	}
+
+	/**
+	 * Write the header the reader recognizes.
+	 */
+	public static void writeHeader(Writer out) throws IOException {
+		out.write(ContactDatabase.COL_NAME + "," + ContactDatabase.COL_ADDRESS + "\r\n");
+	}
+
+	/**
+	 * Write a contact as a record.
+	 */
+	public static void write(Writer out, Contact contact) throws IOException {
+		writeField(out, contact.get_username());
+		out.write(',');
+		writeField(out, contact.get_address());
+		out.write("\r\n");
+	}
+
+	// -----------------------------------------------------------------
+
+	private boolean readHeader() {
+		int name = -1;
+		int address = -1;
+		for (int i = 0; i < mFields.size(); i++) {
+			String field = mFields.get(i).trim();
+			if (name < 0 && field.equalsIgnoreCase(ContactDatabase.COL_NAME))
+				name = i;
+			else if (address < 0 && field.equalsIgnoreCase(ContactDatabase.COL_ADDRESS))
+				address = i;
+		}
+		if (name < 0 && address < 0)
+			return false;
+		if (name < 0)
+			name = (address == 0) ? 1 : 0;
+		if (address < 0)
+			address = (name == 1) ? 0 : 1;
+		mNameColumn = name;
+		mAddressColumn = address;
+		return true;
+	}
+
+	private Contact contact() {
+		// a blank line is no entry
+		if (mFields.size() == 1 && mFields.get(0).trim().length() == 0)
+			return null;
+
+		String name = field(mNameColumn);
+		String address = field(mAddressColumn);
+		if (name.length() == 0 || address.length() == 0) {
+			mSkipped++;
+			return null;
+		}
+		return new Contact(name, address);
+	}
+
+	private String field(int column) {
+		return (column >= 0 && column < mFields.size()) ? mFields.get(column).trim() : "";
+	}
+
+	/*The fields of the next record into mFields, false at the end*/
+	private boolean readRecord() throws IOException {
+		String line = mIn.readLine();
+		if (line == null)
+			return false;
+
+		mFields.clear();
+		mField.setLength(0);
+		int chars = 0;
+		boolean quoted = false;
+		while (true) {
+			chars += line.length();
+			if (chars > MAX_RECORD_CHARS)
+				throw new IOException("record longer than " + MAX_RECORD_CHARS + " chars");
+
+			for (int i = 0; i < line.length(); i++) {
+				char c = line.charAt(i);
+				if (quoted) {
+					if (c != '"') {
+						mField.append(c);
+					} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+						mField.append('"');
+						i++;
+					} else {
+						quoted = false;
+					}
+				} else if (c == '"') {
+					quoted = true;
+				} else if (c == ',') {
+					mFields.add(mField.toString());
+					mField.setLength(0);
+				} else {
+					mField.append(c);
+				}
+			}
+			if (!quoted)
+				break;
+			// the line break is in the field
+			line = mIn.readLine();
+			if (line == null)
+				break;
+			mField.append('\n');
+		}
+		mFields.add(mField.toString());
+		return true;
+	}
+
+	private static void writeField(Writer out, String value) throws IOException {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = (c == ',' || c == '"' || c == '\n' || c == '\r');
+		}
+		if (!quote) {
+			out.write(value);
+			return;
+		}
+		out.write('"');
+		out.write(value.replace("\"", "\"\""));
+		out.write('"');
+	}
+
+	private final BufferedReader mIn;
+	private final ArrayList<String> mFields = new ArrayList<String>();
+	private final StringBuilder mField = new StringBuilder();
+	private boolean mFirst = true;
+	private int mNameColumn = 0;
+	private int mAddressColumn = 1;
+	private int mSkipped = 0;
+}
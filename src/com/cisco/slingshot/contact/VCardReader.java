@@ -0,0 +1,199 @@
+package com.cisco.slingshot.contact;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Reads vCard 2.1, 3.0 and 4.0 files as exported by directories and address
+ * books, one card at a time.
+ *
+ * The name is FN, else the given and family name of N. The address is the
+ * first sip IMPP or X-SIP, else the first EMAIL, else the first TEL. Folded
+ * lines are joined, other properties are ignored.
+ */
+public class VCardReader implements ContactReader {
+
+	public VCardReader(BufferedReader in) {
+		mIn = in;
+	}
+
+	@Override
+	public Contact next() throws IOException {
+		String line;
+		while ((line = readUnfolded()) != null) {
+			int colon = line.indexOf(':');
+			if (colon < 0)
+				continue;
+			String property = propertyName(line, colon);
+			String value = line.substring(colon + 1);
+
+			if (property.equals("BEGIN")) {
+				if (value.trim().equalsIgnoreCase("VCARD"))
+					startCard();
+			} else if (!mInCard) {
+				continue;
+			} else if (property.equals("END")) {
+				mInCard = false;
+				Contact contact = endCard();
+				if (contact != null)
+					return contact;
+				mSkipped++;
+			} else if (property.equals("FN")) {
+				mFormattedName = unescape(value);
+			} else if (property.equals("N")) {
+				mName = structuredName(value);
+			} else if (property.equals("IMPP") || property.equals("X-SIP")) {
+				String uri = value.trim();
+				if (uri.regionMatches(true, 0, "sip:", 0, 4))
+					uri = uri.substring(4);
+				else if (property.equals("IMPP"))
+					continue; // another messenger
+				if (mSip == null)
+					mSip = uri;
+			} else if (property.equals("EMAIL")) {
+				if (mEmail == null)
+					mEmail = unescape(value).trim();
+			} else if (property.equals("TEL")) {
+				if (mTel == null)
+					mTel = telephone(value);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int getSkipped() {
+		return mSkipped;
+	}
+
+	/**
+	 * Write a contact as a vCard 3.0.
+	 */
+	public static void write(Writer out, Contact contact) throws IOException {
+		out.write("BEGIN:VCARD\r\nVERSION:3.0\r\nFN:");
+		out.write(escape(contact.get_username()));
+		out.write("\r\nIMPP:sip:");
+		out.write(contact.get_address());
+		out.write("\r\nEND:VCARD\r\n");
+	}
+
+	// -----------------------------------------------------------------
+
+	private void startCard() {
+		mInCard = true;
+		mFormattedName = null;
+		mName = null;
+		mSip = null;
+		mEmail = null;
+		mTel = null;
+	}
+
+	private Contact endCard() {
+		String name = notEmpty(mFormattedName) ? mFormattedName : mName;
+		String address = notEmpty(mSip) ? mSip : notEmpty(mEmail) ? mEmail : mTel;
+		if (!notEmpty(name) || !notEmpty(address))
+			return null;
+		return new Contact(name.trim(), address);
+	}
+
+	/*A line with the folded lines after it joined*/
+	private String readUnfolded() throws IOException {
+		String line = (mNext != null) ? mNext : mIn.readLine();
+		mNext = null;
+		if (line == null)
+			return null;
+
+		StringBuilder folded = null;
+		String next;
+		while ((next = mIn.readLine()) != null
+				&& next.length() > 0 && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+			if (folded == null)
+				folded = new StringBuilder(line);
+			folded.append(next, 1, next.length());
+		}
+		mNext = next;
+		return (folded == null) ? line : folded.toString();
+	}
+
+	/*Upper case name without the group and the parameters*/
+	private static String propertyName(String line, int colon) {
+		int end = line.indexOf(';');
+		if (end < 0 || end > colon)
+			end = colon;
+		int start = line.lastIndexOf('.', end) + 1;
+		return line.substring(start, end).trim().toUpperCase();
+	}
+
+	/*Given name and family name of family;given;additional;prefix;suffix*/
+	private static String structuredName(String value) {
+		String[] parts = value.split(";", -1);
+		String family = unescape(parts[0]).trim();
+		String given = (parts.length > 1) ? unescape(parts[1]).trim() : "";
+		if (given.length() == 0)
+			return family;
+		if (family.length() == 0)
+			return given;
+		return given + " " + family;
+	}
+
+	/*Dialable characters of a TEL value*/
+	private static String telephone(String value) {
+		String v = value.trim();
+		if (v.regionMatches(true, 0, "tel:", 0, 4))
+			v = v.substring(4);
+		StringBuilder sb = new StringBuilder(v.length());
+		for (int i = 0; i < v.length(); i++) {
+			char c = v.charAt(i);
+			if ((c >= '0' && c <= '9') || c == '+' || c == '*' || c == '#')
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0)
+			return value;
+		StringBuilder sb = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				c = value.charAt(++i);
+				if (c == 'n' || c == 'N')
+					c = '\n';
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private static String escape(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 8);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == ',' || c == ';')
+				sb.append('\\').append(c);
+			else if (c == '\n')
+				sb.append("\\n");
+			else if (c != '\r')
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private static boolean notEmpty(String s) {
+		return s != null && s.trim().length() > 0;
+	}
+
+	private final BufferedReader mIn;
+	private String mNext = null;
+	private int mSkipped = 0;
+
+	/*The card being read*/
+	private boolean mInCard = false;
+	private String mFormattedName;
+	private String mName;
+	private String mSip;
+	private String mEmail;
+	private String mTel;
+}
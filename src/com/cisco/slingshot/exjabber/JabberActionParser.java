@@ -133,6 +133,16 @@ public class JabberActionParser {
 		Element element_Transaction  = (Element) items_Transaction.item(0);
 		Element element_Method  = (Element) items_Method.item(0);
 		
+		long callId;
+		long tranId;
+		try {
+			callId = Long.parseLong(CallSession_CallID);
+			tranId = Long.parseLong(element_Transaction.getAttribute(ATTR_Transaction_TranId));
+		} catch (NumberFormatException e) {
+			Log.e(TAG, "worng format xml : CallID/TranId not a number");
+			return null;
+		}
+		
 		JabberMethod method = new JabberMethod(
 				element_Method.getAttribute(ATTR_Method_TYPE), 
 				element_Method.getAttribute(ATTR_Method_URL), 
@@ -140,9 +150,9 @@ public class JabberActionParser {
 		
 		JabberTransaction transaction = new JabberTransaction(
 				element_Transaction.getAttribute(ATTR_Transaction_TYPE), 
-				element_Transaction.getAttribute(ATTR_Transaction_TranId), 
+				tranId, 
 				method);
-		return new JabberCallSession(CallSession_CallID, transaction);
+		return new JabberCallSession(callId, transaction);
 	}
 
 	// -----------------------------------------------------------------
@@ -165,6 +175,7 @@ public class JabberActionParser {
 	public static final String VAL_Method_CODE_RINGING = "180";
 	public static final String VAL_Method_CODE_OK = "200";
 	public static final String VAL_Method_CODE_BUSY = "486";
+	public static final String VAL_Method_CODE_TIMEOUT = "408";
 	public static final String VAL_Method_CODE_SERVICEUNAVALIABLE = "503";
 	public static final String ATTR_Method_URL = "URL";
 	
@@ -0,0 +1,53 @@
+package com.cisco.slingshot.exjabber;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the CallID and TranId of the sessions the box starts itself.
+ *
+ * IDs are in 1..MAX_ID, so controllers which parse them as int can. They
+ * increase by one per ID, also when several calls are set up in the same
+ * millisecond, and wrap from MAX_ID back to 1: an ID comes again only after
+ * 2^31 - 1 others. The counters start from the current time in seconds so
+ * that a restarted service does not hand out the IDs of the previous run
+ * again. Lock free, may be used from any thread.
+ */
+public class JabberIdAllocator {
+
+	public static final long MAX_ID = Integer.MAX_VALUE;
+
+	public JabberIdAllocator() {
+		this(System.currentTimeMillis() / 1000);
+	}
+
+	/**
+	 * @param seed the ID before the first one, taken modulo MAX_ID
+	 */
+	public JabberIdAllocator(long seed) {
+		seed %= MAX_ID;
+		if (seed < 0)
+			seed += MAX_ID;
+		mCallId = new AtomicLong(seed);
+		mTranId = new AtomicLong(seed);
+	}
+
+	public long nextCallId() {
+		return next(mCallId);
+	}
+
+	public long nextTranId() {
+		return next(mTranId);
+	}
+
+	private static long next(AtomicLong counter) {
+		while (true) {
+			long id = counter.get();
+			long next = (id >= MAX_ID) ? 1 : id + 1;
+			if (counter.compareAndSet(id, next))
+				return next;
+		}
+	}
+
+	private final AtomicLong mCallId;
+	private final AtomicLong mTranId;
+}
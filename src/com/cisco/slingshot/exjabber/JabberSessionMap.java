@@ -0,0 +1,164 @@
+package com.cisco.slingshot.exjabber;
+
+import java.util.Collection;
+
+/**
+ * Hash map keyed by a (CallID, TranId) pair of primitive longs.
+ *
+ * Open addressing with linear probing over plain arrays, so lookups neither
+ * box the IDs nor build String keys. Null values are not allowed. Not
+ * synchronized.
+ */
+public class JabberSessionMap<V> {
+
+	public JabberSessionMap() {
+		this(16);
+	}
+
+	public JabberSessionMap(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	public V get(long callId, long tranId) {
+		int slot = find(callId, tranId);
+		return (slot < 0) ? null : valueAt(slot);
+	}
+
+	public boolean containsKey(long callId, long tranId) {
+		return find(callId, tranId) >= 0;
+	}
+
+	/**
+	 * @return the previous value, or null
+	 */
+	public V put(long callId, long tranId, V value) {
+		if (null == value)
+			throw new IllegalArgumentException("null value");
+
+		int slot = slotOf(callId, tranId);
+		while (null != mValues[slot]) {
+			if (mCallIds[slot] == callId && mTranIds[slot] == tranId) {
+				V old = valueAt(slot);
+				mValues[slot] = value;
+				return old;
+			}
+			slot = (slot + 1) & mMask;
+		}
+
+		mCallIds[slot] = callId;
+		mTranIds[slot] = tranId;
+		mValues[slot] = value;
+		if (++mSize * 2 > mValues.length)
+			rehash(mValues.length * 2);
+		return null;
+	}
+
+	/**
+	 * @return the removed value, or null
+	 */
+	public V remove(long callId, long tranId) {
+		int slot = find(callId, tranId);
+		if (slot < 0)
+			return null;
+
+		V old = valueAt(slot);
+		mValues[slot] = null;
+		mSize--;
+
+		// shift the following entries of the probe run back into the hole
+		int hole = slot;
+		int next = (hole + 1) & mMask;
+		while (null != mValues[next]) {
+			int home = slotOf(mCallIds[next], mTranIds[next]);
+			if (((next - home) & mMask) >= ((next - hole) & mMask)) {
+				mCallIds[hole] = mCallIds[next];
+				mTranIds[hole] = mTranIds[next];
+				mValues[hole] = mValues[next];
+				mValues[next] = null;
+				hole = next;
+			}
+			next = (next + 1) & mMask;
+		}
+		return old;
+	}
+
+	/**
+	 * Add every value to the collection, in no particular order.
+	 */
+	public void values(Collection<? super V> out) {
+		for (int i = 0; i < mValues.length; i++) {
+			if (null != mValues[i])
+				out.add(valueAt(i));
+		}
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public void clear() {
+		for (int i = 0; i < mValues.length; i++)
+			mValues[i] = null;
+		mSize = 0;
+	}
+
+	// -----------------------------------------------------------------
+
+	private int find(long callId, long tranId) {
+		int slot = slotOf(callId, tranId);
+		while (null != mValues[slot]) {
+			if (mCallIds[slot] == callId && mTranIds[slot] == tranId)
+				return slot;
+			slot = (slot + 1) & mMask;
+		}
+		return -1;
+	}
+
+	private int slotOf(long callId, long tranId) {
+		long h = callId * 0x9E3779B97F4A7C15L + tranId;
+		h ^= (h >>> 32);
+		h *= 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & mMask;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V valueAt(int slot) {
+		return (V) mValues[slot];
+	}
+
+	private void rehash(int capacity) {
+		long[] callIds = mCallIds;
+		long[] tranIds = mTranIds;
+		Object[] values = mValues;
+
+		allocate(capacity);
+		for (int i = 0; i < values.length; i++) {
+			if (null == values[i])
+				continue;
+			int slot = slotOf(callIds[i], tranIds[i]);
+			while (null != mValues[slot])
+				slot = (slot + 1) & mMask;
+			mCallIds[slot] = callIds[i];
+			mTranIds[slot] = tranIds[i];
+			mValues[slot] = values[i];
+		}
+	}
+
+	private void allocate(int capacity) {
+		mCallIds = new long[capacity];
+		mTranIds = new long[capacity];
+		mValues = new Object[capacity];
+		mMask = capacity - 1;
+	}
+
+	private static final int MIN_CAPACITY = 8;
+
+	private long[] mCallIds;
+	private long[] mTranIds;
+	private Object[] mValues;
+	private int mMask;
+	private int mSize = 0;
+}
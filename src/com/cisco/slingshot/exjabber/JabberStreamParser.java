@@ -0,0 +1,552 @@
+package com.cisco.slingshot.exjabber;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.cisco.slingshot.exjabber.data.JabberCallSession;
+import com.cisco.slingshot.exjabber.data.JabberMethod;
+import com.cisco.slingshot.exjabber.data.JabberTransaction;
+
+/**
+ * Incremental pull parser for the CallSession grammar described in
+ * {@link JabberActionParser}, fed straight from the socket bytes.
+ *
+ * Bytes are consumed one at a time by a small state machine, so a message may
+ * arrive split across any number of reads and several messages may share one
+ * read; no line structure is assumed. Element and attribute names are matched
+ * in place, CallID and TranId are read as numbers and only the other
+ * attribute values end up as Strings (well-known values such as "INVITE" or
+ * "200" are shared constants).
+ *
+ * Text outside of a CallSession is returned line by line as a command, this is
+ * how the "GET STATUS" debug request arrives.
+ *
+ * One instance per connection, not thread safe.
+ */
+public class JabberStreamParser {
+
+	public static final int EVENT_NONE = 0;
+	public static final int EVENT_SESSION = 1;
+	public static final int EVENT_COMMAND = 2;
+	public static final int EVENT_ERROR = 3;
+
+	public JabberStreamParser(int maxMessageLen) {
+		mMaxMessageLen = maxMessageLen;
+		resetMessage();
+	}
+
+	/**
+	 * Consume bytes from the buffer until an event is complete.
+	 * @return the event, or EVENT_NONE if the buffer ran out first
+	 */
+	public int next(ByteBuffer in) {
+		while (in.hasRemaining()) {
+			int event = consume(in.get());
+			if (EVENT_NONE != event)
+				return event;
+		}
+		return EVENT_NONE;
+	}
+
+	/** Session of the last EVENT_SESSION */
+	public JabberCallSession getSession() {
+		return mSession;
+	}
+
+	/** Text line of the last EVENT_COMMAND */
+	public String getCommand() {
+		return mCommand;
+	}
+
+	/** Reason of the last EVENT_ERROR */
+	public String getError() {
+		return mError;
+	}
+
+	// -----------------------------------------------------------------
+
+	private int consume(byte b) {
+		if (mInMessage && ++mMessageLen > mMaxMessageLen) {
+			return fail("message longer than " + mMaxMessageLen);
+		}
+
+		switch (mState) {
+		case S_TEXT:
+			if (b == '<') {
+				if (0 == mDepth) {
+					mInMessage = true;
+					mMessageLen = 1;
+					mCommandLen = 0;
+				}
+				mState = S_TAG_START;
+			} else if (0 == mDepth) {
+				return text(b);
+			}
+			// text content of the elements is not used
+			return EVENT_NONE;
+
+		case S_TAG_START:
+			if (b == '/') {
+				mNameLen = 0;
+				mState = S_END_NAME;
+			} else if (b == '?' || b == '!') {
+				mState = S_SKIP;
+			} else if (isNameChar(b)) {
+				mNameLen = 0;
+				mName[mNameLen++] = b;
+				mState = S_START_NAME;
+			} else {
+				return fail("bad tag");
+			}
+			return EVENT_NONE;
+
+		case S_START_NAME:
+			if (isSpace(b)) {
+				return startElement(S_ATTR_SPACE);
+			} else if (b == '>') {
+				int event = startElement(S_TEXT);
+				return (EVENT_NONE != event) ? event : endStartTag(false);
+			} else if (b == '/') {
+				return startElement(S_EMPTY_END);
+			}
+			return appendName(b);
+
+		case S_ATTR_SPACE:
+			if (isSpace(b)) {
+				return EVENT_NONE;
+			} else if (b == '>') {
+				mState = S_TEXT;
+				return endStartTag(false);
+			} else if (b == '/') {
+				mState = S_EMPTY_END;
+			} else if (isNameChar(b)) {
+				mAttrNameLen = 0;
+				mAttrName[mAttrNameLen++] = b;
+				mState = S_ATTR_NAME;
+			} else {
+				return fail("bad attribute");
+			}
+			return EVENT_NONE;
+
+		case S_ATTR_NAME:
+			if (b == '=') {
+				mState = S_ATTR_QUOTE;
+			} else if (isSpace(b)) {
+				mState = S_ATTR_EQ;
+			} else if (mAttrNameLen < mAttrName.length) {
+				mAttrName[mAttrNameLen++] = b;
+			} else {
+				return fail("attribute name too long");
+			}
+			return EVENT_NONE;
+
+		case S_ATTR_EQ:
+			if (b == '=') {
+				mState = S_ATTR_QUOTE;
+			} else if (!isSpace(b)) {
+				return fail("attribute without value");
+			}
+			return EVENT_NONE;
+
+		case S_ATTR_QUOTE:
+			if (b == '"' || b == '\'') {
+				mQuote = b;
+				mValueLen = 0;
+				mState = S_ATTR_VALUE;
+			} else if (!isSpace(b)) {
+				return fail("attribute value not quoted");
+			}
+			return EVENT_NONE;
+
+		case S_ATTR_VALUE:
+			if (b == mQuote) {
+				mState = S_ATTR_SPACE;
+				return setAttribute();
+			} else if (b == '&') {
+				mEntityLen = 0;
+				mState = S_ENTITY;
+			} else if (b == '<') {
+				return fail("'<' in attribute value");
+			} else {
+				return appendValue(b);
+			}
+			return EVENT_NONE;
+
+		case S_ENTITY:
+			if (b == ';') {
+				mState = S_ATTR_VALUE;
+				return decodeEntity();
+			} else if (mEntityLen < mEntity.length) {
+				mEntity[mEntityLen++] = b;
+				return EVENT_NONE;
+			}
+			return fail("bad entity");
+
+		case S_EMPTY_END:
+			if (b != '>')
+				return fail("bad empty element");
+			mState = S_TEXT;
+			return endStartTag(true);
+
+		case S_END_NAME:
+			if (isSpace(b)) {
+				mState = S_END_SPACE;
+			} else if (b == '>') {
+				mState = S_TEXT;
+				return endElement();
+			} else {
+				return appendName(b);
+			}
+			return EVENT_NONE;
+
+		case S_END_SPACE:
+			if (b == '>') {
+				mState = S_TEXT;
+				return endElement();
+			} else if (!isSpace(b)) {
+				return fail("bad end tag");
+			}
+			return EVENT_NONE;
+
+		case S_SKIP:
+			// declaration or comment, nothing we need
+			if (b == '>') {
+				mState = S_TEXT;
+				if (0 == mDepth)
+					mInMessage = false;
+			}
+			return EVENT_NONE;
+		}
+
+		return EVENT_NONE;
+	}
+
+	// a byte outside of any CallSession
+	private int text(byte b) {
+		if (mResync) {
+			// rest of the line holding a broken message
+			if (b == '\n') {
+				mResync = false;
+				mCommandLen = 0;
+			}
+			return EVENT_NONE;
+		}
+
+		if (b != '\n') {
+			if (mCommandLen < mCommandBuf.length)
+				mCommandBuf[mCommandLen++] = b;
+			return EVENT_NONE;
+		}
+
+		int start = 0;
+		int end = mCommandLen;
+		mCommandLen = 0;
+		while (start < end && isSpace(mCommandBuf[start]))
+			start++;
+		while (end > start && isSpace(mCommandBuf[end - 1]))
+			end--;
+		if (start == end)
+			return EVENT_NONE;
+
+		mCommand = new String(mCommandBuf, start, end - start, UTF8);
+		return EVENT_COMMAND;
+	}
+
+	private int startElement(int nextState) {
+		mState = nextState;
+
+		if (nameIs(mName, mNameLen, JabberActionParser.TAG_CallSession)) {
+			if (0 != mDepth)
+				return fail("nested CallSession");
+			mElement = EL_CALLSESSION;
+			mResync = false;
+		} else if (0 == mDepth) {
+			return fail("worng format xml : no CallSession");
+		} else if (nameIs(mName, mNameLen, JabberActionParser.TAG_Transaction)) {
+			mElement = EL_TRANSACTION;
+			mTransactionCount++;
+		} else if (nameIs(mName, mNameLen, JabberActionParser.TAG_Method)) {
+			mElement = EL_METHOD;
+			mMethodCount++;
+		} else {
+			mElement = EL_OTHER;
+		}
+		return EVENT_NONE;
+	}
+
+	private int endStartTag(boolean empty) {
+		if (!empty) {
+			mDepth++;
+			return EVENT_NONE;
+		}
+		return (0 == mDepth) ? finishSession() : EVENT_NONE;
+	}
+
+	private int endElement() {
+		if (mDepth <= 0)
+			return fail("unbalanced end tag");
+
+		mDepth--;
+		if (0 != mDepth)
+			return EVENT_NONE;
+
+		if (!nameIs(mName, mNameLen, JabberActionParser.TAG_CallSession))
+			return fail("worng format xml : no CallSession");
+		return finishSession();
+	}
+
+	private int finishSession() {
+		if (1 != mTransactionCount || 1 != mMethodCount) {
+			return fail("receive wrong format xml(Transaction, Method) = ("
+					+ mTransactionCount + "," + mMethodCount + ")");
+		}
+		if (mCallId < 0 || mTranId < 0)
+			return fail("worng format xml : no CallID/TranId");
+
+		JabberMethod method = new JabberMethod(mMethodType, mMethodUrl, mMethodCode);
+		JabberTransaction transaction = new JabberTransaction(mTransType, mTranId, method);
+		mSession = new JabberCallSession(mCallId, transaction);
+
+		resetMessage();
+		return EVENT_SESSION;
+	}
+
+	private int setAttribute() {
+		switch (mElement) {
+		case EL_CALLSESSION:
+			if (nameIs(mAttrName, mAttrNameLen, JabberActionParser.ATTR_CallSession_CallID)) {
+				mCallId = idValue();
+				if (mCallId < 0)
+					return fail("CallID is not a number");
+			}
+			break;
+		case EL_TRANSACTION:
+			if (nameIs(mAttrName, mAttrNameLen, JabberActionParser.ATTR_Transaction_TYPE)) {
+				mTransType = value();
+			} else if (nameIs(mAttrName, mAttrNameLen, JabberActionParser.ATTR_Transaction_TranId)) {
+				mTranId = idValue();
+				if (mTranId < 0)
+					return fail("TranId is not a number");
+			}
+			break;
+		case EL_METHOD:
+			if (nameIs(mAttrName, mAttrNameLen, JabberActionParser.ATTR_Method_TYPE))
+				mMethodType = value();
+			else if (nameIs(mAttrName, mAttrNameLen, JabberActionParser.ATTR_Method_URL))
+				mMethodUrl = value();
+			else if (nameIs(mAttrName, mAttrNameLen, JabberActionParser.ATTR_Method_CODE))
+				mMethodCode = value();
+			break;
+		}
+		return EVENT_NONE;
+	}
+
+	// CallID / TranId digits, -1 if not a number
+	private long idValue() {
+		if (0 == mValueLen || mValueLen > MAX_ID_DIGITS)
+			return -1;
+
+		long id = 0;
+		for (int i = 0; i < mValueLen; i++) {
+			byte b = mValue[i];
+			if (b < '0' || b > '9')
+				return -1;
+			id = id * 10 + (b - '0');
+		}
+		return id;
+	}
+
+	// attribute value as a String, well-known values are not allocated again
+	private String value() {
+		for (String known : KNOWN_VALUES) {
+			if (nameIs(mValue, mValueLen, known))
+				return known;
+		}
+		return new String(mValue, 0, mValueLen, UTF8);
+	}
+
+	private int decodeEntity() {
+		int c = -1;
+		if (nameIs(mEntity, mEntityLen, "amp")) {
+			c = '&';
+		} else if (nameIs(mEntity, mEntityLen, "lt")) {
+			c = '<';
+		} else if (nameIs(mEntity, mEntityLen, "gt")) {
+			c = '>';
+		} else if (nameIs(mEntity, mEntityLen, "quot")) {
+			c = '"';
+		} else if (nameIs(mEntity, mEntityLen, "apos")) {
+			c = '\'';
+		} else if (mEntityLen > 1 && mEntity[0] == '#') {
+			c = parseCharRef();
+		}
+
+		if (c < 0)
+			return fail("bad entity");
+
+		// append as UTF-8
+		if (c < 0x80) {
+			return appendValue((byte) c);
+		} else if (c < 0x800) {
+			appendValue((byte) (0xC0 | (c >> 6)));
+		} else if (c < 0x10000) {
+			appendValue((byte) (0xE0 | (c >> 12)));
+			appendValue((byte) (0x80 | ((c >> 6) & 0x3F)));
+		} else {
+			appendValue((byte) (0xF0 | (c >> 18)));
+			appendValue((byte) (0x80 | ((c >> 12) & 0x3F)));
+			appendValue((byte) (0x80 | ((c >> 6) & 0x3F)));
+		}
+		return appendValue((byte) (0x80 | (c & 0x3F)));
+	}
+
+	private int parseCharRef() {
+		boolean hex = (mEntity[1] == 'x' || mEntity[1] == 'X');
+		int radix = hex ? 16 : 10;
+		int c = 0;
+		for (int i = hex ? 2 : 1; i < mEntityLen; i++) {
+			int digit = Character.digit(mEntity[i], radix);
+			if (digit < 0)
+				return -1;
+			c = c * radix + digit;
+		}
+		return (c > 0x10FFFF) ? -1 : c;
+	}
+
+	private int appendName(byte b) {
+		if (mNameLen >= mName.length)
+			return fail("tag name too long");
+		mName[mNameLen++] = b;
+		return EVENT_NONE;
+	}
+
+	private int appendValue(byte b) {
+		if (mValueLen >= mValue.length)
+			return fail("attribute value too long");
+		mValue[mValueLen++] = b;
+		return EVENT_NONE;
+	}
+
+	private int fail(String error) {
+		boolean quiet = mResync;
+
+		resetMessage();
+		// skip whatever is left of the broken message without reporting it
+		// again, until the next CallSession starts
+		mResync = true;
+
+		if (quiet)
+			return EVENT_NONE;
+		mError = error;
+		return EVENT_ERROR;
+	}
+
+	private void resetMessage() {
+		mState = S_TEXT;
+		mDepth = 0;
+		mInMessage = false;
+		mMessageLen = 0;
+		mElement = EL_OTHER;
+		mTransactionCount = 0;
+		mMethodCount = 0;
+
+		// a missing attribute reads as "", same as the DOM getAttribute()
+		mCallId = JabberCallSession.NO_ID;
+		mTransType = "";
+		mTranId = JabberCallSession.NO_ID;
+		mMethodType = "";
+		mMethodUrl = "";
+		mMethodCode = "";
+	}
+
+	private static boolean nameIs(byte[] buf, int len, String name) {
+		if (len != name.length())
+			return false;
+		for (int i = 0; i < len; i++) {
+			if (buf[i] != name.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	private static boolean isNameChar(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+				|| (b >= '0' && b <= '9') || b == '_' || b == '-'
+				|| b == ':' || b == '.';
+	}
+
+	// -----------------------------------------------------------------
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String[] KNOWN_VALUES = {
+		JabberActionParser.VAL_Transaction_TYPE_REQ,
+		JabberActionParser.VAL_Transaction_TYPE_RES,
+		JabberActionParser.VAL_Method_TYPE_INVITE,
+		JabberActionParser.VAL_Method_TYPE_BYE,
+		JabberActionParser.VAL_Method_CODE_RINGING,
+		JabberActionParser.VAL_Method_CODE_OK,
+		JabberActionParser.VAL_Method_CODE_BUSY,
+		JabberActionParser.VAL_Method_CODE_TIMEOUT,
+		JabberActionParser.VAL_Method_CODE_SERVICEUNAVALIABLE,
+	};
+
+	// fits in a long
+	private static final int MAX_ID_DIGITS = 18;
+
+	private static final int S_TEXT = 0;
+	private static final int S_TAG_START = 1;
+	private static final int S_START_NAME = 2;
+	private static final int S_ATTR_SPACE = 3;
+	private static final int S_ATTR_NAME = 4;
+	private static final int S_ATTR_EQ = 5;
+	private static final int S_ATTR_QUOTE = 6;
+	private static final int S_ATTR_VALUE = 7;
+	private static final int S_ENTITY = 8;
+	private static final int S_EMPTY_END = 9;
+	private static final int S_END_NAME = 10;
+	private static final int S_END_SPACE = 11;
+	private static final int S_SKIP = 12;
+
+	private static final int EL_OTHER = 0;
+	private static final int EL_CALLSESSION = 1;
+	private static final int EL_TRANSACTION = 2;
+	private static final int EL_METHOD = 3;
+
+	private final int mMaxMessageLen;
+
+	private int mState;
+	private int mDepth;
+	private boolean mInMessage;
+	private int mMessageLen;
+	private boolean mResync = false;
+
+	private final byte[] mName = new byte[32];
+	private int mNameLen = 0;
+	private final byte[] mAttrName = new byte[32];
+	private int mAttrNameLen = 0;
+	private final byte[] mValue = new byte[256];
+	private int mValueLen = 0;
+	private final byte[] mEntity = new byte[8];
+	private int mEntityLen = 0;
+	private byte mQuote = '"';
+	private final byte[] mCommandBuf = new byte[256];
+	private int mCommandLen = 0;
+
+	private int mElement;
+	private int mTransactionCount;
+	private int mMethodCount;
+	private long mCallId;
+	private String mTransType;
+	private long mTranId;
+	private String mMethodType;
+	private String mMethodUrl;
+	private String mMethodCode;
+
+	private JabberCallSession mSession = null;
+	private String mCommand = null;
+	private String mError = null;
+}
@@ -0,0 +1,159 @@
+package com.cisco.slingshot.exjabber;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import com.cisco.slingshot.exjabber.data.JabberCallSession;
+import com.cisco.slingshot.exjabber.data.JabberMethod;
+import com.cisco.slingshot.exjabber.data.JabberTransaction;
+
+/**
+ * Writes a CallSession straight into a ByteBuffer as UTF-8, the counterpart of
+ * {@link JabberStreamParser}.
+ *
+ * The markup is kept as pre-encoded byte arrays and attribute values are
+ * escaped and encoded char by char, so serializing allocates nothing. The
+ * output is the same as {@link JabberCallSession#toXmlString()}.
+ */
+public class JabberXmlSerializer {
+
+	/**
+	 * Append the session to the buffer.
+	 * @throws BufferOverflowException if it does not fit, the buffer position
+	 * is then undefined
+	 */
+	public static void write(JabberCallSession session, ByteBuffer out) {
+		JabberTransaction transaction = session.getTransaction();
+		JabberMethod method = transaction.getMethod();
+
+		out.put(CALLSESSION_START);
+		putId(out, session.getCallID());
+		out.put(TRANSACTION_START);
+		putValue(out, transaction.getType());
+		out.put(TRANSACTION_TRANID);
+		putId(out, transaction.getTranId());
+		out.put(METHOD_START);
+		putValue(out, method.getType());
+
+		String code = method.getCode();
+		if ((null == code) || code.isEmpty()) {
+			out.put(METHOD_URL);
+			putValue(out, method.getUrl());
+		} else {
+			out.put(METHOD_CODE);
+			putValue(out, code);
+		}
+		out.put(END);
+	}
+
+	/**
+	 * Text form of a CallID or TranId, empty if it is not set.
+	 */
+	public static String formatId(long id) {
+		return (id < 0) ? "" : String.valueOf(id);
+	}
+
+	/**
+	 * Escape a value for use inside a double quoted attribute.
+	 */
+	public static String escape(String value) {
+		if (null == value)
+			return "";
+
+		int len = value.length();
+		int i = 0;
+		while (i < len && null == entity(value.charAt(i)))
+			i++;
+		if (i == len)
+			return value;
+
+		StringBuilder sb = new StringBuilder(len + 16);
+		sb.append(value, 0, i);
+		for (; i < len; i++) {
+			char c = value.charAt(i);
+			String entity = entity(c);
+			if (null != entity)
+				sb.append(entity);
+			else
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	// -----------------------------------------------------------------
+
+	// decimal digits of the id, without going through a String
+	private static void putId(ByteBuffer out, long id) {
+		if (id < 0)
+			return;
+
+		long div = 1;
+		while (id / div >= 10)
+			div *= 10;
+		for (; div > 0; div /= 10)
+			out.put((byte) ('0' + (id / div) % 10));
+	}
+
+	private static void putValue(ByteBuffer out, String value) {
+		if (null == value)
+			return;
+
+		int len = value.length();
+		for (int i = 0; i < len; i++) {
+			char c = value.charAt(i);
+			String entity = entity(c);
+
+			if (null != entity) {
+				for (int j = 0; j < entity.length(); j++)
+					out.put((byte) entity.charAt(j));
+			} else if (c < 0x80) {
+				out.put((byte) c);
+			} else if (c < 0x800) {
+				out.put((byte) (0xC0 | (c >> 6)));
+				out.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, value.charAt(++i));
+				out.put((byte) (0xF0 | (cp >> 18)));
+				out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				out.put((byte) (0x80 | (cp & 0x3F)));
+			} else {
+				out.put((byte) (0xE0 | (c >> 12)));
+				out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				out.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	private static String entity(char c) {
+		switch (c) {
+		case '&':
+			return "&amp;";
+		case '<':
+			return "&lt;";
+		case '>':
+			return "&gt;";
+		case '"':
+			return "&quot;";
+		case '\'':
+			return "&apos;";
+		}
+		return null;
+	}
+
+	private static byte[] ascii(String s) {
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; i++)
+			b[i] = (byte) s.charAt(i);
+		return b;
+	}
+
+	private static final byte[] CALLSESSION_START = ascii("<CallSession CallID=\"");
+	private static final byte[] TRANSACTION_START = ascii("\"><Transaction TYPE=\"");
+	private static final byte[] TRANSACTION_TRANID = ascii("\" TranId=\"");
+	private static final byte[] METHOD_START = ascii("\"><Method TYPE=\"");
+	private static final byte[] METHOD_URL = ascii("\" URL=\"");
+	private static final byte[] METHOD_CODE = ascii("\" CODE=\"");
+	private static final byte[] END = ascii("\"></Method></Transaction></CallSession>");
+}
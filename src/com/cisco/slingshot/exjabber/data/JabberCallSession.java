@@ -2,19 +2,21 @@ package com.cisco.slingshot.exjabber.data;
 
 import android.sax.Element;
 
+import com.cisco.slingshot.exjabber.JabberXmlSerializer;
+
 public class JabberCallSession {
 
-	public JabberCallSession(String callID, JabberTransaction transaction) {
+	public JabberCallSession(long callID, JabberTransaction transaction) {
 		super();
 		CallID = callID;
 		this.transaction = transaction;
 	}
 
-	public String getCallID() {
+	public long getCallID() {
 		return CallID;
 	}
 
-	public void setCallID(String callID) {
+	public void setCallID(long callID) {
 		CallID = callID;
 	}
 
@@ -30,13 +32,16 @@ public class JabberCallSession {
 	{
 		String ret = null;
 		
-		ret = "<CallSession CallID=" + "\"" + CallID + "\">"
+		ret = "<CallSession CallID=" + "\"" + JabberXmlSerializer.formatId(CallID) + "\">"
 			+ transaction.toXmlString() 
 			+ "</CallSession>";
 		
 		return ret;
 	}
 
-	private String CallID;
+	private long CallID;
 	private JabberTransaction transaction;
+
+	// CallID or TranId which is not set
+	public static final long NO_ID = -1;
 }
@@ -1,5 +1,7 @@
 package com.cisco.slingshot.exjabber.data;
 
+import com.cisco.slingshot.exjabber.JabberXmlSerializer;
+
 public class JabberMethod {
 
 	public JabberMethod(String type, String url, String code) {
@@ -37,14 +39,14 @@ public class JabberMethod {
 	{
 		String ret = null;
 		
-		ret = "<Method TYPE=" + "\"" + Type  +"\" ";
+		ret = "<Method TYPE=" + "\"" + JabberXmlSerializer.escape(Type)  +"\" ";
 		if((null == code) || code.isEmpty())
 		{
-			ret += "URL=" + "\"" + url  +"\">" + "</Method>";
+			ret += "URL=" + "\"" + JabberXmlSerializer.escape(url)  +"\">" + "</Method>";
 		}
 		else
 		{
-			ret += "CODE=" + "\"" + code  +"\">" + "</Method>";
+			ret += "CODE=" + "\"" + JabberXmlSerializer.escape(code)  +"\">" + "</Method>";
 		}
 		
 		return ret;
@@ -1,8 +1,10 @@
 package com.cisco.slingshot.exjabber.data;
 
+import com.cisco.slingshot.exjabber.JabberXmlSerializer;
+
 public class JabberTransaction {
 
-	public JabberTransaction(String type, String tranId, JabberMethod method) {
+	public JabberTransaction(String type, long tranId, JabberMethod method) {
 		super();
 		Type = type;
 		TranId = tranId;
@@ -25,11 +27,11 @@ public class JabberTransaction {
 		this.method = method;
 	}
 
-	public String getTranId() {
+	public long getTranId() {
 		return TranId;
 	}
 
-	public void setTranId(String tranId) {
+	public void setTranId(long tranId) {
 		TranId = tranId;
 	}
 	
@@ -37,8 +39,8 @@ public class JabberTransaction {
 	{
 		String ret = null;
 		
-		ret = "<Transaction TYPE=" + "\"" + Type + "\" " +
-			"TranId=" + "\"" + TranId  + "\">" +
+		ret = "<Transaction TYPE=" + "\"" + JabberXmlSerializer.escape(Type) + "\" " +
+			"TranId=" + "\"" + JabberXmlSerializer.formatId(TranId)  + "\">" +
 			method.toXmlString() + 
 			"</Transaction>";
 		
@@ -46,7 +48,7 @@ public class JabberTransaction {
 	}
 
 	private String Type;
-	private String TranId;
+	private long TranId;
 	private JabberMethod method;
 	
 	public static final String Type_REQ = "REQ";
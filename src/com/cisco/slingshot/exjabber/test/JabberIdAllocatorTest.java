@@ -0,0 +1,61 @@
+package com.cisco.slingshot.exjabber.test;
+
+import com.cisco.slingshot.exjabber.JabberIdAllocator;
+
+/**
+ * Checks that the IDs of JabberIdAllocator stay in the int range and wrap.
+ *
+ * Plain main() like JabberParserBenchmark, the Android.mk build has no
+ * JUnit. Throws on the first failure.
+ */
+public class JabberIdAllocatorTest {
+
+	public static void main(String[] args) {
+		testWrapsBelowIntMax();
+		testSeedAboveIntMax();
+		testSeedNegative();
+		testIncreasing();
+		System.out.println("JabberIdAllocatorTest: ok");
+	}
+
+	private static void testWrapsBelowIntMax() {
+		JabberIdAllocator ids = new JabberIdAllocator(JabberIdAllocator.MAX_ID - 2);
+		check(ids.nextCallId(), JabberIdAllocator.MAX_ID - 1);
+		check(ids.nextCallId(), JabberIdAllocator.MAX_ID);
+		check(ids.nextCallId(), 1);
+		check(ids.nextCallId(), 2);
+
+		check(ids.nextTranId(), JabberIdAllocator.MAX_ID - 1);
+		check(ids.nextTranId(), JabberIdAllocator.MAX_ID);
+		check(ids.nextTranId(), 1);
+	}
+
+	private static void testSeedAboveIntMax() {
+		// seconds since 1970 pass 2^31 in 2038
+		JabberIdAllocator ids = new JabberIdAllocator(JabberIdAllocator.MAX_ID + 10);
+		check(ids.nextCallId(), 11);
+	}
+
+	private static void testSeedNegative() {
+		JabberIdAllocator ids = new JabberIdAllocator(-1);
+		check(ids.nextCallId(), JabberIdAllocator.MAX_ID);
+		check(ids.nextCallId(), 1);
+	}
+
+	private static void testIncreasing() {
+		JabberIdAllocator ids = new JabberIdAllocator();
+		long last = ids.nextCallId();
+		for (int i = 0; i < 1000; i++) {
+			long id = ids.nextCallId();
+			check(id, last + 1);
+			if (id > Integer.MAX_VALUE)
+				throw new IllegalStateException("id " + id + " above int");
+			last = id;
+		}
+	}
+
+	private static void check(long actual, long expected) {
+		if (actual != expected)
+			throw new IllegalStateException("expected " + expected + ", got " + actual);
+	}
+}
@@ -0,0 +1,74 @@
+package com.cisco.slingshot.exjabber.test;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import com.cisco.slingshot.exjabber.JabberActionParser;
+import com.cisco.slingshot.exjabber.JabberStreamParser;
+import com.cisco.slingshot.exjabber.data.JabberCallSession;
+
+/**
+ * Compares the per-message DOM parse of JabberActionParser with the
+ * JabberStreamParser used by SocketListenerService.
+ *
+ * Plain timing loop, the Android.mk build has no JMH. Run on the box or on a
+ * desktop JVM with android.util.Log on the class path.
+ */
+public class JabberParserBenchmark {
+
+	public static void main(String[] args) throws UnsupportedEncodingException {
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+
+		byte[] message = MESSAGE.getBytes("UTF-8");
+
+		// warm up both paths before measuring
+		runDom(iterations / 10);
+		runStream(message, iterations / 10);
+
+		long domNs = runDom(iterations);
+		long streamNs = runStream(message, iterations);
+
+		System.out.println("DOM    : " + (domNs / iterations) + " ns/msg");
+		System.out.println("stream : " + (streamNs / iterations) + " ns/msg");
+	}
+
+	private static long runDom(int iterations) {
+		int parsed = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			JabberCallSession session = new JabberActionParser(MESSAGE).parseStream();
+			if (null != session)
+				parsed++;
+		}
+		long elapsed = System.nanoTime() - start;
+		check(parsed, iterations);
+		return elapsed;
+	}
+
+	private static long runStream(byte[] message, int iterations) {
+		JabberStreamParser parser = new JabberStreamParser(message.length);
+		ByteBuffer buf = ByteBuffer.wrap(message);
+		int parsed = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			buf.clear();
+			if (JabberStreamParser.EVENT_SESSION == parser.next(buf))
+				parsed++;
+		}
+		long elapsed = System.nanoTime() - start;
+		check(parsed, iterations);
+		return elapsed;
+	}
+
+	private static void check(int parsed, int iterations) {
+		if (parsed != iterations)
+			throw new IllegalStateException("parsed " + parsed + " of " + iterations);
+	}
+
+	private static final String MESSAGE =
+		"<CallSession CallID=\"1234\">\n" +
+		"<Transaction TYPE=\"RES\" TranId=\"123\">\n" +
+		"<Method TYPE=\"INVITE\" CODE=\"200\"></Method>\n" +
+		"</Transaction>\n" +
+		"</CallSession>\n";
+}
@@ -0,0 +1,154 @@
+package com.cisco.slingshot.history;
+
+import com.cisco.slingshot.ui.statistic.StatisticRecord;
+
+/**
+ * Quality summary of one call read back from the {@link CallQualityLog}, or
+ * of several calls merged together: per side and key of the
+ * {@link StatisticRecord} the number of readings, their mean, min and max.
+ */
+public class CallQuality {
+
+	/**
+	 * Row of the history table, -1 for a summary of several calls.
+	 */
+	public final long historyId;
+
+	public CallQuality(long historyId, long startMs) {
+		this.historyId = historyId;
+		mStartMs = startMs;
+		mEndMs = startMs;
+		mCalls = 1;
+	}
+
+	/**
+	 * An empty summary to merge calls into.
+	 */
+	public CallQuality() {
+		this.historyId = -1;
+	}
+
+	/**
+	 * Epoch ms the call started, the earliest one when merged.
+	 */
+	public long getStartMs() {
+		return mStartMs;
+	}
+
+	/**
+	 * Epoch ms of the last record seen, the latest one when merged.
+	 */
+	public long getEndMs() {
+		return mEndMs;
+	}
+
+	/**
+	 * Time spent in the calls.
+	 */
+	public long getDurationMs() {
+		return mDurationMs;
+	}
+
+	/**
+	 * Number of calls in the summary.
+	 */
+	public int getCallCount() {
+		return mCalls;
+	}
+
+	public int getSampleCount() {
+		return mSamples;
+	}
+
+	/**
+	 * Whether the call's end was logged, false if the box went down during it.
+	 */
+	public boolean isComplete() {
+		return mComplete;
+	}
+
+	public int getCount(int dir, int key) {
+		return mCount[dir][key];
+	}
+
+	/**
+	 * Mean of the readings, NaN if there are none.
+	 */
+	public float getMean(int dir, int key) {
+		int n = mCount[dir][key];
+		return (n > 0) ? (float) (mSum[dir][key] / n) : Float.NaN;
+	}
+
+	public float getMin(int dir, int key) {
+		return (mCount[dir][key] > 0) ? mMin[dir][key] : Float.NaN;
+	}
+
+	public float getMax(int dir, int key) {
+		return (mCount[dir][key] > 0) ? mMax[dir][key] : Float.NaN;
+	}
+
+	/**
+	 * Add the readings and the time of another call, the means are weighted
+	 * by the number of readings.
+	 */
+	public void merge(CallQuality other) {
+		if (other.mCalls == 0)
+			return;
+		mStartMs = (mCalls > 0) ? Math.min(mStartMs, other.mStartMs) : other.mStartMs;
+		mEndMs = (mCalls > 0) ? Math.max(mEndMs, other.mEndMs) : other.mEndMs;
+		mComplete = (mCalls > 0) ? mComplete && other.mComplete : other.mComplete;
+		mDurationMs += other.mDurationMs;
+		mCalls += other.mCalls;
+		mSamples += other.mSamples;
+
+		for (int dir = StatisticRecord.TX; dir <= StatisticRecord.RX; dir++) {
+			for (int key = 0; key < StatisticRecord.KEYS.length; key++) {
+				int n = other.mCount[dir][key];
+				if (n == 0)
+					continue;
+				mMin[dir][key] = (mCount[dir][key] > 0) ? Math.min(mMin[dir][key], other.mMin[dir][key]) : other.mMin[dir][key];
+				mMax[dir][key] = (mCount[dir][key] > 0) ? Math.max(mMax[dir][key], other.mMax[dir][key]) : other.mMax[dir][key];
+				mCount[dir][key] += n;
+				mSum[dir][key] += other.mSum[dir][key];
+			}
+		}
+	}
+
+	// -----------------------------------------------------------------
+
+	void add(int dir, int key, float value) {
+		if (mCount[dir][key] == 0 || value < mMin[dir][key])
+			mMin[dir][key] = value;
+		if (mCount[dir][key] == 0 || value > mMax[dir][key])
+			mMax[dir][key] = value;
+		mCount[dir][key]++;
+		mSum[dir][key] += value;
+	}
+
+	void onSample(long epochMs) {
+		mSamples++;
+		setEnd(epochMs);
+	}
+
+	void onEnd(long epochMs) {
+		setEnd(epochMs);
+		mComplete = true;
+	}
+
+	private void setEnd(long epochMs) {
+		mEndMs = epochMs;
+		mDurationMs = epochMs - mStartMs;
+	}
+
+	private long mStartMs = 0;
+	private long mEndMs = 0;
+	private long mDurationMs = 0;
+	private int mCalls = 0;
+	private int mSamples = 0;
+	private boolean mComplete = false;
+
+	private final int[][] mCount = new int[2][StatisticRecord.KEYS.length];
+	private final double[][] mSum = new double[2][StatisticRecord.KEYS.length];
+	private final float[][] mMin = new float[2][StatisticRecord.KEYS.length];
+	private final float[][] mMax = new float[2][StatisticRecord.KEYS.length];
+}
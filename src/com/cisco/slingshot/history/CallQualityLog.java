@@ -0,0 +1,257 @@
+package com.cisco.slingshot.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import android.content.Context;
+
+import com.cisco.slingshot.ui.statistic.StatisticRecord;
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * Append only binary log of the call quality readings, keyed by the history
+ * row of the call.
+ *
+ * The log is a directory of fixed size segments, the current one memory
+ * mapped: appending a reading is a few stores into the page cache, the kernel
+ * writes whole pages back on its own and force() is only called when a call
+ * ends or a segment is full. A full segment is followed by a new one and the
+ * oldest beyond maxSegments are deleted.
+ *
+ * A segment is an 8 byte header (MAGIC, VERSION) and then records, each a tag
+ * followed by unsigned varints:
+ *   CALL     historyId, epoch ms     a call starts
+ *   CONTINUE historyId, epoch ms     the call goes on from the previous segment
+ *   SAMPLE   delta ms, key mask, one fixed point value per bit of the mask
+ *   END      delta ms
+ * Deltas are to the previous record of the call, the mask has bit
+ * dir * KEYS.length + key set for every value present. The tag is written
+ * last, a record cut short by a crash reads as the end of the segment.
+ *
+ * Not thread safe, {@link CallQualityRecorder} writes from the history thread.
+ */
+public class CallQualityLog {
+
+	private static final String LOG_TAG = "CallQualityLog";
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+	public static final int DEFAULT_MAX_SEGMENTS = 32;
+
+	static final int MAGIC = 0x514C4F47; // "QLOG"
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 8;
+
+	static final int TAG_NONE = 0;
+	static final int TAG_CALL = 1;
+	static final int TAG_CONTINUE = 2;
+	static final int TAG_SAMPLE = 3;
+	static final int TAG_END = 4;
+
+	static final String SUFFIX = ".qlog";
+
+	// a sample: tag, delta, mask and five bytes per value
+	private static final int MAX_RECORD_SIZE = 1 + 10 + 3 + 2 * StatisticRecord.KEYS.length * 5;
+
+	/**
+	 * Where the service keeps the log.
+	 */
+	public static File getDefaultDir(Context context) {
+		return new File(context.getFilesDir(), "quality");
+	}
+
+	/**
+	 * Writing always starts in a new segment, after the ones already there.
+	 */
+	public CallQualityLog(File dir, int segmentSize, int maxSegments) {
+		mDir = dir;
+		mSegmentSize = segmentSize;
+		mMaxSegments = maxSegments;
+
+		int[] numbers = listSegments(dir);
+		mNextSegment = (numbers.length > 0) ? numbers[numbers.length - 1] + 1 : 0;
+	}
+
+	public boolean isInCall() {
+		return mHistoryId >= 0;
+	}
+
+	/**
+	 * Start the call of a history row, ending the previous one if it is still open.
+	 */
+	public void beginCall(long historyId, long epochMs) throws IOException {
+		if (isInCall())
+			endCall(epochMs);
+
+		ensureSpace();
+		writeCall(TAG_CALL, historyId, epochMs);
+		mHistoryId = historyId;
+		mLastMs = epochMs;
+	}
+
+	/**
+	 * Append the values present in the record, ignored outside a call.
+	 */
+	public void record(StatisticRecord record, long epochMs) throws IOException {
+		if (!isInCall())
+			return;
+
+		ensureSpace();
+		int at = putVarint(mPos + 1, delta(epochMs));
+
+		int mask = 0;
+		for (int dir = StatisticRecord.TX; dir <= StatisticRecord.RX; dir++) {
+			for (int key = 0; key < StatisticRecord.KEYS.length; key++) {
+				if (record.isPresent(dir, key))
+					mask |= 1 << bit(dir, key);
+			}
+		}
+		at = putVarint(at, mask);
+
+		for (int dir = StatisticRecord.TX; dir <= StatisticRecord.RX; dir++) {
+			for (int key = 0; key < StatisticRecord.KEYS.length; key++) {
+				if (record.isPresent(dir, key))
+					at = putVarint(at, toFixed(key, record.get(dir, key)));
+			}
+		}
+		commit(TAG_SAMPLE, at);
+		mLastMs = epochMs;
+	}
+
+	/**
+	 * End the current call and make the segment durable.
+	 */
+	public void endCall(long epochMs) throws IOException {
+		if (!isInCall())
+			return;
+
+		ensureSpace();
+		commit(TAG_END, putVarint(mPos + 1, delta(epochMs)));
+		mHistoryId = -1;
+		mMap.force();
+	}
+
+	/**
+	 * Flush the current segment, the log can't be written any more.
+	 */
+	public void close() {
+		if (mMap != null) {
+			mMap.force();
+			mMap = null;
+		}
+		mHistoryId = -1;
+	}
+
+	// -----------------------------------------------------------------
+
+	/*Segment numbers in the directory, ascending*/
+	static int[] listSegments(File dir) {
+		String[] names = dir.list();
+		if (names == null)
+			return new int[0];
+
+		int[] numbers = new int[names.length];
+		int count = 0;
+		for (String name : names) {
+			if (!name.endsWith(SUFFIX))
+				continue;
+			try {
+				numbers[count] = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+				count++;
+			} catch (NumberFormatException e) {
+				// not ours
+			}
+		}
+		numbers = Arrays.copyOf(numbers, count);
+		Arrays.sort(numbers);
+		return numbers;
+	}
+
+	static File segmentFile(File dir, int number) {
+		return new File(dir, String.format("%08d", number) + SUFFIX);
+	}
+
+	static int bit(int dir, int key) {
+		return dir * StatisticRecord.KEYS.length + key;
+	}
+
+	private static long toFixed(int key, float value) {
+		int fixed = Math.round(value * StatisticRecord.scale(key));
+		return (fixed < 0) ? 0 : fixed;
+	}
+
+	private long delta(long epochMs) {
+		// the wall clock may have been set back
+		return Math.max(0, epochMs - mLastMs);
+	}
+
+	private void writeCall(int tag, long historyId, long epochMs) {
+		int at = putVarint(mPos + 1, historyId);
+		commit(tag, putVarint(at, epochMs));
+	}
+
+	/*The body is in place, the tag makes the record visible*/
+	private void commit(int tag, int end) {
+		mMap.put(mPos, (byte) tag);
+		mPos = end;
+	}
+
+	private int putVarint(int at, long value) {
+		while ((value & ~0x7FL) != 0) {
+			mMap.put(at++, (byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		mMap.put(at++, (byte) value);
+		return at;
+	}
+
+	private void ensureSpace() throws IOException {
+		if (mMap != null && mPos + MAX_RECORD_SIZE <= mSegmentSize)
+			return;
+
+		if (mMap != null)
+			mMap.force();
+		openSegment();
+		if (isInCall())
+			writeCall(TAG_CONTINUE, mHistoryId, mLastMs);
+	}
+
+	private void openSegment() throws IOException {
+		if (!mDir.isDirectory() && !mDir.mkdirs())
+			throw new IOException("can't create " + mDir);
+
+		File file = segmentFile(mDir, mNextSegment++);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(mSegmentSize);
+			mMap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+		} finally {
+			// the mapping stays valid
+			raf.close();
+		}
+		mMap.putInt(0, MAGIC);
+		mMap.put(4, (byte) VERSION);
+		mPos = HEADER_SIZE;
+		Util.S_Log.d(LOG_TAG, "writing " + file.getName());
+
+		int[] numbers = listSegments(mDir);
+		for (int i = 0; i < numbers.length - mMaxSegments; i++) {
+			if (!segmentFile(mDir, numbers[i]).delete())
+				Util.S_Log.d(LOG_TAG, "can't delete segment " + numbers[i]);
+		}
+	}
+
+	private final File mDir;
+	private final int mSegmentSize;
+	private final int mMaxSegments;
+	private int mNextSegment;
+
+	private MappedByteBuffer mMap = null;
+	private int mPos = 0;
+
+	private long mHistoryId = -1;
+	private long mLastMs = 0;
+}
@@ -0,0 +1,191 @@
+package com.cisco.slingshot.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cisco.slingshot.ui.statistic.StatisticRecord;
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * Reads the {@link CallQualityLog} back, oldest segment first.
+ *
+ * The readings are either visited one by one or summed up per call; a call
+ * spanning segments is put together again from its CONTINUE records. Can run
+ * while the log is written, the tag of a record appears last so the reader
+ * never sees half of one.
+ */
+public class CallQualityReader {
+
+	private static final String LOG_TAG = "CallQualityReader";
+
+	public interface SampleVisitor {
+		/**
+		 * One reading, the record is reused for the next one.
+		 * @param call summary of the call so far
+		 */
+		public void onSample(CallQuality call, long epochMs, StatisticRecord record);
+	}
+
+	public CallQualityReader(File dir) {
+		mDir = dir;
+	}
+
+	/**
+	 * Every reading in the log, pass a null visitor to only sum up the calls.
+	 * @return the calls in the order they started
+	 */
+	public List<CallQuality> scan(SampleVisitor visitor) throws IOException {
+		ArrayList<CallQuality> calls = new ArrayList<CallQuality>();
+		mCall = null;
+		for (int number : CallQualityLog.listSegments(mDir)) {
+			File file = CallQualityLog.segmentFile(mDir, number);
+			try {
+				readSegment(file, calls, visitor);
+			} catch (IOException e) {
+				// deleted by the writer meanwhile, or damaged
+				Util.S_Log.d(LOG_TAG, "skip " + file.getName() + ": " + e.getMessage());
+			}
+		}
+		mCall = null;
+		return calls;
+	}
+
+	/**
+	 * Summary of every call which started at or after sinceMs.
+	 */
+	public List<CallQuality> readCalls(long sinceMs) throws IOException {
+		List<CallQuality> calls = scan(null);
+		ArrayList<CallQuality> result = new ArrayList<CallQuality>(calls.size());
+		for (CallQuality call : calls) {
+			if (call.getStartMs() >= sinceMs)
+				result.add(call);
+		}
+		return result;
+	}
+
+	/**
+	 * Summaries of the calls logged for a history row, oldest first.
+	 */
+	public List<CallQuality> readCallsOf(long historyId) throws IOException {
+		List<CallQuality> calls = scan(null);
+		ArrayList<CallQuality> result = new ArrayList<CallQuality>();
+		for (CallQuality call : calls) {
+			if (call.historyId == historyId)
+				result.add(call);
+		}
+		return result;
+	}
+
+	/**
+	 * All the calls merged into one summary.
+	 */
+	public static CallQuality aggregate(List<CallQuality> calls) {
+		CallQuality total = new CallQuality();
+		for (CallQuality call : calls)
+			total.merge(call);
+		return total;
+	}
+
+	// -----------------------------------------------------------------
+
+	private void readSegment(File file, List<CallQuality> calls, SampleVisitor visitor) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			mBuf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+
+		if (mBuf.limit() < CallQualityLog.HEADER_SIZE
+				|| mBuf.getInt(0) != CallQualityLog.MAGIC
+				|| mBuf.get(4) != CallQualityLog.VERSION) {
+			Util.S_Log.d(LOG_TAG, "not a segment: " + file.getName());
+			return;
+		}
+
+		mPos = CallQualityLog.HEADER_SIZE;
+		try {
+			while (mPos < mBuf.limit()) {
+				int tag = mBuf.get(mPos++);
+				if (tag == CallQualityLog.TAG_NONE)
+					break;
+				readRecord(tag, calls, visitor);
+			}
+		} catch (IndexOutOfBoundsException e) {
+			Util.S_Log.d(LOG_TAG, "truncated " + file.getName());
+		}
+		mBuf = null;
+	}
+
+	private void readRecord(int tag, List<CallQuality> calls, SampleVisitor visitor) throws IOException {
+		switch (tag) {
+		case CallQualityLog.TAG_CALL:
+		case CallQualityLog.TAG_CONTINUE: {
+			long historyId = getVarint();
+			long epochMs = getVarint();
+			// an open call of the same row goes on, anything else is a new call
+			if (tag == CallQualityLog.TAG_CALL || mCall == null || mCall.historyId != historyId) {
+				mCall = new CallQuality(historyId, epochMs);
+				calls.add(mCall);
+			}
+			mLastMs = epochMs;
+			break;
+		}
+		case CallQualityLog.TAG_SAMPLE: {
+			long epochMs = mLastMs + getVarint();
+			int mask = (int) getVarint();
+			mRecord.clear();
+			for (int dir = StatisticRecord.TX; dir <= StatisticRecord.RX; dir++) {
+				for (int key = 0; key < StatisticRecord.KEYS.length; key++) {
+					if ((mask & (1 << CallQualityLog.bit(dir, key))) == 0)
+						continue;
+					float value = getVarint() / StatisticRecord.scale(key);
+					mRecord.set(dir, key, value);
+					if (mCall != null)
+						mCall.add(dir, key, value);
+				}
+			}
+			mLastMs = epochMs;
+			if (mCall == null)
+				break;
+			mCall.onSample(epochMs);
+			if (visitor != null)
+				visitor.onSample(mCall, epochMs, mRecord);
+			break;
+		}
+		case CallQualityLog.TAG_END:
+			mLastMs += getVarint();
+			if (mCall != null)
+				mCall.onEnd(mLastMs);
+			mCall = null;
+			break;
+		default:
+			throw new IOException("unknown tag " + tag + " at " + (mPos - 1));
+		}
+	}
+
+	private long getVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = mBuf.get(mPos++);
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("bad varint at " + mPos);
+	}
+
+	private final File mDir;
+	private final StatisticRecord mRecord = new StatisticRecord();
+
+	/*Scan state*/
+	private ByteBuffer mBuf = null;
+	private int mPos = 0;
+	private CallQuality mCall = null;
+	private long mLastMs = 0;
+}
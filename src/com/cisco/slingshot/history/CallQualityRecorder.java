@@ -0,0 +1,191 @@
+package com.cisco.slingshot.history;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.cisco.slingshot.call.CallEvent;
+import com.cisco.slingshot.call.CallEventBus;
+import com.cisco.slingshot.call.CallState;
+import com.cisco.slingshot.call.CallStateListener;
+import com.cisco.slingshot.call.CallStateMachine;
+import com.cisco.slingshot.ui.statistic.StatisticRecord;
+import com.cisco.slingshot.ui.statistic.StatisticXMLParser;
+import com.cisco.slingshot.ui.statistic.StatisticXMLParser.XmlParseErrorCode;
+
+/**
+ * Keeps the call statistics of every call in the {@link CallQualityLog}, also
+ * when nobody looks at the StatisticView.
+ *
+ * While the box is in a call the vendor stat file is read once a second if
+ * it changed. The call events are delivered on the HistroyManager thread,
+ * after the history row of the call is written, and the log is only written
+ * there. When the
+ * call ends its duration and mean receive loss go into that row.
+ */
+public class CallQualityRecorder implements CallStateListener, StatisticXMLParser.XmlParseCallback {
+
+	private static final String LOG_TAG = "CallQualityRecorder";
+
+	/*Written by the vendor media stack, the one the StatisticView shows*/
+	public static final String STAT_FILE = "/tmp/stat.xml";
+	private static final long SAMPLE_INTERVAL_MS = 1000;
+
+	private static CallQualityRecorder mInstance = null;
+
+	public static synchronized CallQualityRecorder getInstance() {
+		if (mInstance == null) {
+			mInstance = new CallQualityRecorder();
+		}
+		return mInstance;
+	}
+
+	private CallQualityRecorder() {
+	}
+
+	/**
+	 * Start logging the calls of the box.
+	 */
+	public synchronized void start(Context context) {
+		if (mStarted)
+			return;
+		mStarted = true;
+		mDir = CallQualityLog.getDefaultDir(context);
+		mHandler = HistroyManager.getInstance(context).getHandler();
+		CallStateMachine.getInstance().addListener(this, CallEventBus.handlerExecutor(mHandler));
+	}
+
+	public synchronized void stop() {
+		if (!mStarted)
+			return;
+		mStarted = false;
+		CallStateMachine.getInstance().removeListener(this);
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				endCall();
+				if (mLog != null) {
+					mLog.close();
+					mLog = null;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Where the log is, for a {@link CallQualityReader}.
+	 */
+	public File getLogDir() {
+		return mDir;
+	}
+
+	@Override
+	public void onCallStateChanged(CallState from, CallState to, CallEvent event, String detail) {
+		if (!from.isInCall() && to.isInCall())
+			beginCall();
+		else if (from.isInCall() && !to.isInCall())
+			endCall();
+	}
+
+	@Override
+	public void onXmlParseError(XmlParseErrorCode err) {
+		// the next change of the file may be fine
+	}
+
+	@Override
+	public void onXmlParseCompleted(StatisticRecord record) {
+		write(record);
+	}
+
+	// -----------------------------------------------------------------
+
+	private void beginCall() {
+		if (mLog == null)
+			mLog = new CallQualityLog(mDir, CallQualityLog.DEFAULT_SEGMENT_SIZE, CallQualityLog.DEFAULT_MAX_SEGMENTS);
+
+		mStartMs = System.currentTimeMillis();
+		mStartElapsed = SystemClock.elapsedRealtime();
+		// a file left from the last call is no reading of this one
+		mStatModified = mStartMs;
+		mCall = new CallQuality(HistroyManager.getLastCallRowId(), mStartMs);
+		try {
+			mLog.beginCall(mCall.historyId, mStartMs);
+		} catch (IOException e) {
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+			return;
+		}
+		mHandler.removeCallbacks(mSample);
+		mHandler.postDelayed(mSample, SAMPLE_INTERVAL_MS);
+	}
+
+	private void endCall() {
+		mHandler.removeCallbacks(mSample);
+		if (mCall == null)
+			return;
+
+		long end = now();
+		mCall.onEnd(end);
+		float loss = mCall.getMean(StatisticRecord.RX, StatisticRecord.KEY_CURRENT_LOSS);
+		HistroyManager.updateCall(mCall.historyId, mCall.getDurationMs(),
+				Float.isNaN(loss) ? -1 : Math.round(loss * 100));
+		mCall = null;
+
+		if (mLog == null || !mLog.isInCall())
+			return;
+		try {
+			mLog.endCall(end);
+		} catch (IOException e) {
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+		}
+	}
+
+	private final Runnable mSample = new Runnable() {
+		@Override
+		public void run() {
+			long modified = new File(STAT_FILE).lastModified();
+			if (modified > mStatModified) {
+				mStatModified = modified;
+				mParser.parseXML(STAT_FILE);
+			}
+			mHandler.postDelayed(this, SAMPLE_INTERVAL_MS);
+		}
+	};
+
+	private void write(StatisticRecord record) {
+		long now = now();
+		for (int dir = StatisticRecord.TX; dir <= StatisticRecord.RX; dir++) {
+			for (int key = 0; key < StatisticRecord.KEYS.length; key++) {
+				if (record.isPresent(dir, key))
+					mCall.add(dir, key, record.get(dir, key));
+			}
+		}
+		mCall.onSample(now);
+		try {
+			mLog.record(record, now);
+		} catch (IOException e) {
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+		}
+	}
+
+	/*Epoch ms, immune to the wall clock being set during the call*/
+	private long now() {
+		return mStartMs + (SystemClock.elapsedRealtime() - mStartElapsed);
+	}
+
+	private boolean mStarted = false;
+	private File mDir = null;
+	private Handler mHandler = null;
+
+	/*History thread only*/
+	private CallQualityLog mLog = null;
+	// summary of the current call, for its history row
+	private CallQuality mCall = null;
+	private final StatisticXMLParser mParser = new StatisticXMLParser(this);
+	private long mStartMs = 0;
+	private long mStartElapsed = 0;
+	private long mStatModified = 0;
+}
@@ -1,331 +1,342 @@
 package com.cisco.slingshot.history;
 
 import java.sql.Date;
-import java.sql.Time;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
 
-import com.cisco.slingshot.contact.Contact;
-
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteException;
-import android.util.Log;
+import android.database.sqlite.SQLiteStatement;
+
+import com.cisco.slingshot.utils.DatabaseAccess;
 
+/**
+ * One row per call: address, start time, duration, direction and quality.
+ *
+ * HistroyManager writes the calls in batches, one transaction and one
+ * compiled INSERT for all the calls queued meanwhile. Times are epoch ms,
+ * indexed alone and with the address, so listing the calls, the calls of an
+ * address or of a day doesn't scan the table. The list is read a page at a
+ * time, each page continuing after the last row of the previous one. Reads
+ * don't wait for the writes, see {@link DatabaseAccess}.
+ */
 public class HistoryDatabase{
 	private static final String  LOG_TAG = "HistoryDatabase";
-	
+
 	/**
 	 * database file name
 	 */
 	private static final String DB_FILE="history.db";
-	
+
 	/**
 	 * database version
+	 * 3: one row per address, local date and time strings
+	 * 4: one row per call, epoch ms
 	 */
-	private static final int DATABASE_VERSION=3;
-	
+	private static final int DATABASE_VERSION=4;
+
 	/**
 	 *  database table
 	 */
 	private static final String TABLE_HISTORY="history";
-	
-	
+
+
 	/**
 	 * database columns
 	 */
-	private static final String COL_ID = "_id"; 			//contact id
+	private static final String COL_ID = "_id"; 			//row id
 	public static final String COL_ADDRESS = "address"; 	//sip address
-	public static final String COL_DATE = "date";
-	public static final String COL_TIME = "time";
-	public static final String COL_DATETIME = "date_time";	//only for order item in a query
-	public static final String COL_FLAG_HISTORY_TYPE = "type";
-
-	
-	
-	private static SQLiteDatabase mDb=null; 
-	
-	// synchronize lock
-    private final Object mDbLock = new Object(); 
-    
-    private static HistoryDatabase mInstance = null;
-    
-    private HistoryDatabase(){}
-    
-    
-    public synchronized static HistoryDatabase getInstance(Context context){
-		if(mInstance == null){
-			mInstance = new HistoryDatabase();
-			mDb = context.openOrCreateDatabase(DB_FILE, 0, null);
-		}
-		mDb.beginTransaction();
-		if(mDb != null){
+	public static final String COL_EPOCH = "epoch";			//call start, ms since 1970
+	public static final String COL_DURATION = "duration";	//ms in the call
+	public static final String COL_DIRECTION = "direction";	//HistoryItem.HISTORY_TYPE_*
+	public static final String COL_QUALITY = "quality";		//see HistoryItem._quality
+
+	private static final String[] COLUMNS = new String[]{
+		COL_ID, COL_ADDRESS, COL_EPOCH, COL_DURATION, COL_DIRECTION, COL_QUALITY
+	};
+	private static final int IDX_ID = 0;
+	private static final int IDX_ADDRESS = 1;
+	private static final int IDX_EPOCH = 2;
+	private static final int IDX_DURATION = 3;
+	private static final int IDX_DIRECTION = 4;
+	private static final int IDX_QUALITY = 5;
+
+	/*The row id breaks ties, calls may start in the same ms*/
+	private static final String ORDER_NEWEST = COL_EPOCH + " DESC," + COL_ID + " DESC";
+	private static final String SELECTION_BEFORE = "(" + COL_EPOCH + "<=?) AND ("
+			+ COL_EPOCH + "<? OR " + COL_ID + "<?)";
+
+
+	private final DatabaseAccess mAccess;
+	private final SQLiteDatabase mDb;
+
+	// synchronize lock, of the writes
+    private final Object mDbLock;
+
+    /*Compiled once, used under mDbLock*/
+    private SQLiteStatement mInsert = null;
+    private SQLiteStatement mUpdateCall = null;
+
+    private static volatile HistoryDatabase mInstance = null;
+
+    private HistoryDatabase(Context context){
+    	mAccess = DatabaseAccess.open(context, DB_FILE, SCHEMA);
+    	mDb = (mAccess == null) ? null : mAccess.getDatabase();
+    	mDbLock = (mAccess == null) ? new Object() : mAccess.getWriteLock();
+    	if(mDb != null)
+    		compileStatements();
+    }
+
+
+    public static HistoryDatabase getInstance(Context context){
+    	//no lock once open, this is on every lookup
+    	HistoryDatabase instance = mInstance;
+    	if(instance != null)
+    		return instance;
+    	synchronized(HistoryDatabase.class){
+    		if(mInstance == null){
+    			mInstance = new HistoryDatabase(context.getApplicationContext());
+    		}
+    		return mInstance;
+    	}
+	}
+
+
+    private static final DatabaseAccess.Schema SCHEMA = new DatabaseAccess.Schema(){
+    	@Override
+    	public int getVersion() {
+    		return DATABASE_VERSION;
+    	}
+
+    	@Override
+    	public void onUpgrade(SQLiteDatabase db, int version) {
+    		if(version == 3){
+    			//keep the calls, a row per address is what is left of them
+    			db.execSQL("ALTER TABLE " + TABLE_HISTORY + " RENAME TO " + TABLE_HISTORY + "_v3;");
+    			createTables(db);
+    			db.execSQL("INSERT INTO " + TABLE_HISTORY
+    					+ "(" + COL_ADDRESS + "," + COL_EPOCH + "," + COL_DIRECTION + ")"
+    					+ " SELECT address, COALESCE(strftime('%s', date_time, 'utc') * 1000, 0), type"
+    					+ " FROM " + TABLE_HISTORY + "_v3;");
+    			db.execSQL("DROP TABLE " + TABLE_HISTORY + "_v3;");
+    		}else{
+    			//new file, or a layout there is no migration from
+    			db.execSQL("DROP TABLE IF EXISTS " + TABLE_HISTORY + ";");
+    			createTables(db);
+    		}
+    	}
+    };
+
+    private static void createTables(SQLiteDatabase db){
+		db.execSQL("CREATE TABLE "
+				+ TABLE_HISTORY
+				+ "("
+				+ COL_ID + " INTEGER PRIMARY KEY,"
+				+ COL_ADDRESS + " TEXT,"
+				+ COL_EPOCH + " INTEGER NOT NULL,"
+				+ COL_DURATION + " INTEGER NOT NULL DEFAULT 0,"
+				+ COL_DIRECTION + " INTEGER,"
+				+ COL_QUALITY + " INTEGER NOT NULL DEFAULT -1"
+				+ ");");
+		db.execSQL("CREATE INDEX " + TABLE_HISTORY + "_address ON " + TABLE_HISTORY
+				+ "(" + COL_ADDRESS + "," + COL_EPOCH + ");");
+		db.execSQL("CREATE INDEX " + TABLE_HISTORY + "_epoch ON " + TABLE_HISTORY
+				+ "(" + COL_EPOCH + ");");
+    }
+
+    private void compileStatements(){
+    	mInsert = mDb.compileStatement("INSERT INTO " + TABLE_HISTORY
+    			+ "(" + COL_ADDRESS + "," + COL_EPOCH + "," + COL_DURATION + "," + COL_DIRECTION + "," + COL_QUALITY + ")"
+    			+ " VALUES(?,?,?,?,?);");
+    	mUpdateCall = mDb.compileStatement("UPDATE " + TABLE_HISTORY
+    			+ " SET " + COL_DURATION + "=?," + COL_QUALITY + "=?"
+    			+ " WHERE " + COL_ID + "=?;");
+    }
+
+    /**
+     * Latency of the queries so far, a line each.
+     */
+    public List<String> getStats(){
+    	if(mAccess == null)
+    		return new ArrayList<String>();
+    	return mAccess.getStats();
+    }
+
+
+    /**
+     * Add the call.
+     * @return the row id, -1 on failure
+     */
+    public long addHistory(final HistoryItem item){
+    	final ArrayList<HistoryItem> items = new ArrayList<HistoryItem>(1);
+    	items.add(item);
+    	addHistory(items);
+    	return item._id;
+    }
+
+    /**
+     * Add the calls in one transaction, their _id is set to the new rows.
+     */
+    public void addHistory(final List<HistoryItem> items){
+		if(mDb==null)
+			return ;
+
+		final long start = System.nanoTime();
+		synchronized(mDbLock){
+			mDb.beginTransaction();
 			try{
-				initDBFile();
+				for(HistoryItem item : items){
+					if(item._address == null)
+						mInsert.bindNull(1);
+					else
+						mInsert.bindString(1, item._address);
+					mInsert.bindLong(2, item._epoch);
+					mInsert.bindLong(3, item._duration);
+					mInsert.bindLong(4, item._type);
+					mInsert.bindLong(5, item._quality);
+					item._id = mInsert.executeInsert();
+				}
 				mDb.setTransactionSuccessful();
 			}finally{
 				mDb.endTransaction();
 			}
 		}
-		
-		return mInstance;
-		 
-	}
-    
-    
-    private static void initDBFile(){
-    	if(mDb != null &&  mDb.getVersion()!=DATABASE_VERSION ){
-			try{
-				//version certification
-				if(mDb.getVersion()<DATABASE_VERSION)
-				{
-					//Drop table first
-					String dropCmd = "DROP TABLE IF EXISTS "
-						+ TABLE_HISTORY + ";";
-					mDb.execSQL(dropCmd);
-				 	
-					String createCmd = "CREATE TABLE " 
-						+ TABLE_HISTORY
-						+ "(" 
-						+ COL_ID + " INTEGER PRIMARY KEY,"
-						+ COL_ADDRESS + " TEXT,"
-						+ COL_DATE + " DATE,"
-						+ COL_TIME + " TIME,"
-						+ COL_DATETIME + " DATETIME,"
-						+ COL_FLAG_HISTORY_TYPE + " INTEGER"
-						+ ");";
-					
-					mDb.execSQL(createCmd);
-				}
-				
-			} catch (SQLiteException e){
-				Log.e(LOG_TAG, Log.getStackTraceString(e));
-			}
-			
-			mDb.setVersion(DATABASE_VERSION);
-		}
+		mAccess.record("addHistory", start);
     }
-    
-    
-    public void addHistory(final HistoryItem item){
-		if(mDb==null)
+
+    /**
+     * Set how long the call of the row lasted and how good it was.
+     */
+    public void updateCall(final long rowId, final long durationMs, final int quality){
+		if(mDb==null || rowId < 0)
 			return ;
-				
-		final String address = item._address;
-		final Date date 	 = item._date;
-		final Time time 	 = item._time;
-		final int type 		 = item._type;
 
-		
+		final long start = System.nanoTime();
 		synchronized(mDbLock){
-			if(hasAddress(address)){
-				
-				final String whereClause = "(" + COL_ADDRESS + "==?)";
-				final String[] whereArgs = new String[]{address};	
-				ContentValues cv = new ContentValues();
-				cv.put(COL_DATE, date.toString());
-				cv.put(COL_TIME, time.toString());
-				cv.put(COL_DATETIME, date.toString() + " " +time.toString());
-				cv.put(COL_FLAG_HISTORY_TYPE, type);
-				mDb.update(TABLE_HISTORY, cv, whereClause, whereArgs);
-				
-			}else{
-				ContentValues cv = new ContentValues();
-				cv.put(COL_ADDRESS, address);
-				cv.put(COL_DATE, date.toString());
-				cv.put(COL_TIME, time.toString());
-				cv.put(COL_DATETIME, date.toString() + " " +time.toString());
-				cv.put(COL_FLAG_HISTORY_TYPE, type);
-				mDb.insert(TABLE_HISTORY, COL_ADDRESS, cv);	
-			}
-		}    	
+			mUpdateCall.bindLong(1, durationMs);
+			mUpdateCall.bindLong(2, quality);
+			mUpdateCall.bindLong(3, rowId);
+			mUpdateCall.execute();
+		}
+		mAccess.record("updateCall", start);
     }
-    
+
     public void removeHistroy(final HistoryItem item){
 		if(mDb == null)
 			return ;
-		
-		final String whereClause = "(" 
-									+ COL_ADDRESS + "==?) AND (" 
-									+ COL_DATE + "==?) AND (" 
-									+ COL_TIME + "==?)";
-		final String[] whereArgs = new String[]{item._address, item._date.toString(), item._time.toString()};
+
+		final String whereClause;
+		final String[] whereArgs;
+		if(item._id >= 0){
+			whereClause = "(" + COL_ID + "==?)";
+			whereArgs = new String[]{String.valueOf(item._id)};
+		}else{
+			whereClause = "(" + COL_ADDRESS + "==?) AND (" + COL_EPOCH + "==?)";
+			whereArgs = new String[]{item._address, String.valueOf(item._epoch)};
+		}
 		synchronized(mDbLock){
 			mDb.delete(TABLE_HISTORY, whereClause, whereArgs);
-		}    	
+		}
     }
-    
-    /*
-    public final Cursor queryAllHistory(){
-		if(mDb == null)
-			return null;
 
-
-		synchronized(mDbLock) {
-			Cursor cor = mDb.query(TABLE_CONTACT, null, null, null, null, null, COL_DATETIME);
-
-			return cor;
-		}    	
-    }
-    */
-    
-    public final ArrayList<HistoryItem> queryAllHistory(){
+    /**
+     * Up to limit calls older than the given one, newest first. The index on
+     * the time is walked from the given call on, the cost doesn't depend on
+     * how deep in the history the page is.
+     * @param beforeEpoch time of the last call of the previous page, Long.MAX_VALUE for the first page
+     * @param beforeId row of that call, Long.MAX_VALUE for the first page
+     */
+    public final ArrayList<HistoryItem> queryHistoryPage(final long beforeEpoch, final long beforeId, final int limit){
 		if(mDb == null)
 			return null;
 
-
-		synchronized(mDbLock) {
-			Cursor cor = mDb.query(TABLE_HISTORY, null, null, null, null, null, COL_DATETIME + " DESC");
-			final ArrayList<HistoryItem> items = getItemArrayFormCursor(cor);
-			cor.close();
-			return items;
-		}    	
+		final String epoch = String.valueOf(beforeEpoch);
+		final String[] selectionArgs = new String[]{epoch, epoch, String.valueOf(beforeId)};
+		Cursor cor = mAccess.query("page", TABLE_HISTORY, COLUMNS, SELECTION_BEFORE, selectionArgs, ORDER_NEWEST, String.valueOf(limit));
+		return getItemArrayFormCursor(cor);
     }
-    
-    private boolean hasAddress(String address){
-		if(mDb == null)
-			return false;
-		
-		final String[] columns = new String[]{
-				COL_ADDRESS
-		};
-		
-		final String selection = "(" + COL_ADDRESS + "==?)";
-		final String[] selectionArgs = new String[]{address};
-		
-		synchronized(mDbLock){
-			Cursor cor = mDb.query(TABLE_HISTORY, columns, selection, selectionArgs, null, null, null);
-			boolean result = cor.moveToFirst();
-			cor.close();
-			return result;
-		}
-	}
-    
-    
-    public final HistoryItem[] queryHistoryByAddress(final String address){
-    	
-		if(mDb == null)
-			return null;
-
-		final String selection = "(" + COL_ADDRESS + "==?)";
-		final String[] selectionArgs = new String[]{address};
 
-		synchronized(mDbLock) {
-			Cursor cor = mDb.query(TABLE_HISTORY, null, selection, selectionArgs, null, null, COL_DATETIME + " DESC");
-			final HistoryItem[] items = getItemFormCursor(cor);
-			cor.close();
-			return items;
-		}
+    public final HistoryItem[] queryHistoryByAddress(final String address){
+		return queryHistory("by address", "(" + COL_ADDRESS + "==?)", new String[]{address});
     }
-    
-    public final HistoryItem[] queryHistoryByDate(final String date){
-		if(mDb == null)
-			return null;
 
-		final String selection = "(" + COL_DATE + "==?)";
-		final String[] selectionArgs = new String[]{date};
+    /**
+     * Calls of a local day.
+     * @param date yyyy-mm-dd
+     */
+    public final HistoryItem[] queryHistoryByDate(final String date){
+    	Calendar c = Calendar.getInstance();
+    	c.setTime(Date.valueOf(date));
+    	final long start = c.getTimeInMillis();
+    	c.add(Calendar.DAY_OF_MONTH, 1);
+    	final long end = c.getTimeInMillis();
 
-		synchronized(mDbLock) {
-			Cursor cor = mDb.query(TABLE_HISTORY, null, selection, selectionArgs, null, null, COL_DATETIME + " DESC");
-			final HistoryItem[] items = getItemFormCursor(cor);
-			cor.close();
-			return items;
-		}
+		return queryHistory("by date", "(" + COL_EPOCH + ">=?) AND (" + COL_EPOCH + "<?)",
+				new String[]{String.valueOf(start), String.valueOf(end)});
     }
-    
+
     public final HistoryItem[] queryHistoryByIsIncoming(){
-    	return null;
-	
+    	return queryHistoryByDirection(HistoryItem.HISTORY_TYPE_INCOMING);
     }
-    
+
     public final HistoryItem[] queryHistoryByIsOutgoing(){
-    	return null;
+    	return queryHistoryByDirection(HistoryItem.HISTORY_TYPE_OUTGOING);
     }
-    
+
     public final HistoryItem[] queryHistoryByIsMissing(){
-    	return null;
+    	return queryHistoryByDirection(HistoryItem.HISTORY_TYPE_MISSING);
     }
-    
+
     public void clearHistory(){
 		if(mDb == null)
 			return;
-		
+
 		final String whereClause = "1";
 		final String[] whereArgs = null;
-		
+
 		synchronized(mDbLock) {
 			mDb.delete(TABLE_HISTORY, whereClause, whereArgs);
 		}
     }
-    
-    private final HistoryItem[] getItemFormCursor(final Cursor c){
-    	if(c == null )
-    		return null;
-    	
-		if(c.moveToFirst() == false){
-			c.close();
+
+    private final HistoryItem[] queryHistoryByDirection(final int direction){
+    	return queryHistory("by direction", "(" + COL_DIRECTION + "==?)", new String[]{String.valueOf(direction)});
+    }
+
+    /*Newest first, null if there is none*/
+    private final HistoryItem[] queryHistory(final String name, final String selection, final String[] selectionArgs){
+		if(mDb == null)
 			return null;
-		}
-		
-		final int row_count = c.getCount();
-		HistoryItem[] items = new HistoryItem[row_count]; 
-
-		int i = 0;
-		do{
-			items[i]._address = c.getString(c.getColumnIndex(COL_ADDRESS));
-			items[i]._date = Date.valueOf(c.getString(c.getColumnIndex(COL_DATE)));
-			items[i]._time = Time.valueOf(c.getString(c.getColumnIndex(COL_TIME)));
-			items[i]._type = c.getInt(c.getColumnIndex(COL_FLAG_HISTORY_TYPE));
-
-			i++;
-		}while(c.moveToNext() != false);
-		return items;
+
+		Cursor cor = mAccess.query(name, TABLE_HISTORY, COLUMNS, selection, selectionArgs, ORDER_NEWEST, null);
+		final ArrayList<HistoryItem> items = getItemArrayFormCursor(cor);
+		if(items.isEmpty())
+			return null;
+		return items.toArray(new HistoryItem[items.size()]);
     }
-    
+
+    /*Read and close the cursor*/
     private final ArrayList<HistoryItem> getItemArrayFormCursor(final Cursor c){
-    	
-    	
-    	 ArrayList<HistoryItem> items = new ArrayList<HistoryItem>();
-    	 
+    	ArrayList<HistoryItem> items = new ArrayList<HistoryItem>();
     	if(c == null )
     		return items;
-    	
-		if(c.moveToFirst() == false){
-			c.close();
-			return items;
-		}
-		
-		do{
-			HistoryItem item = new HistoryItem();;
-			item._address = c.getString(c.getColumnIndex(COL_ADDRESS));
-			item._date = Date.valueOf(c.getString(c.getColumnIndex(COL_DATE)));
-			item._time = Time.valueOf(c.getString(c.getColumnIndex(COL_TIME)));
-			item._type = c.getInt(c.getColumnIndex(COL_FLAG_HISTORY_TYPE));
-			items.add(item);
-		}while(c.moveToNext() != false);
+
+    	try{
+	    	while(c.moveToNext()){
+				HistoryItem item = new HistoryItem();
+				item._id = c.getLong(IDX_ID);
+				item._address = c.getString(IDX_ADDRESS);
+				item.setEpoch(c.getLong(IDX_EPOCH));
+				item._duration = c.getLong(IDX_DURATION);
+				item._type = c.getInt(IDX_DIRECTION);
+				item._quality = c.getInt(IDX_QUALITY);
+				items.add(item);
+	    	}
+    	}finally{
+    		c.close();
+    	}
 		return items;
     }
-    
-    
-   
-    
-    
-    
-    
-    
-    
-    
-    
-    
-    
-    
-    
-    
-    
-    
-    
-    
-	
-	
-}
\ No newline at end of file
+}
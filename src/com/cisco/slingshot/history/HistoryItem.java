@@ -20,11 +20,33 @@ import java.sql.Time;
     		_type = type;
     	}
     	
+    	/**
+    	 * A call at epochMs, the date and time are the local ones of it.
+    	 */
+    	public HistoryItem(String address, long epochMs, int type){
+    		_address = address;
+    		setEpoch(epochMs);
+    		_type = type;
+    	}
+    	
     	public HistoryItem(){}
     	
+    	public void setEpoch(long epochMs){
+    		_epoch = epochMs;
+    		_date = new Date(epochMs);
+    		_time = new Time(epochMs);
+    	}
+    	
     	public String _address;
     	public Date _date;
     	public Time _time;
     	public int _type;
+    	
+    	/*Row of the history table, -1 until the item is written*/
+    	public long _id = -1;
+    	public long _epoch;
+    	public long _duration = 0;
+    	/*Mean receive loss of the call in 1/100 %, -1 if not measured*/
+    	public int _quality = -1;
     }
     
\ No newline at end of file
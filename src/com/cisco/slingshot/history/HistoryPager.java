@@ -0,0 +1,163 @@
+package com.cisco.slingshot.history;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.os.Handler;
+
+/**
+ * The call history as a list which is read as it is scrolled, for the
+ * history list views.
+ *
+ * Pages of PAGE_SIZE calls are queried on the history thread, each one after
+ * the last call of the previous page, and only the MAX_PAGES used last are
+ * kept. The count grows as the end of what is known comes into view, so
+ * opening the history reads one page however many calls there are. Used on
+ * the UI thread only.
+ */
+public class HistoryPager {
+
+	public interface Listener {
+		/**
+		 * A page came in, the count or the items changed.
+		 */
+		public void onHistoryChanged();
+	}
+
+	public static final int PAGE_SIZE = 32;
+	private static final int MAX_PAGES = 4;
+	// read on when the view gets this close to the end
+	private static final int PREFETCH = PAGE_SIZE / 4;
+
+	public HistoryPager(HistroyManager manager, Listener listener) {
+		mManager = manager;
+		mListener = listener;
+		mHandler = new Handler();
+		mAnchorEpoch[0] = Long.MAX_VALUE;
+		mAnchorId[0] = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Calls known so far, grows as the list is scrolled.
+	 */
+	public int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Whether the oldest call is known.
+	 */
+	public boolean isComplete() {
+		return mEnd;
+	}
+
+	/**
+	 * The call at the position, null while its page is read again.
+	 */
+	public HistoryItem get(int position) {
+		if (!mEnd && position + PREFETCH >= mCount)
+			load(mAnchors - 1);
+
+		int page = position / PAGE_SIZE;
+		ArrayList<HistoryItem> items = mPages.get(page);
+		if (items == null) {
+			load(page);
+			return null;
+		}
+		int index = position - page * PAGE_SIZE;
+		return (index < items.size()) ? items.get(index) : null;
+	}
+
+	/**
+	 * Forget everything and read from the newest call again, e.g. after the
+	 * history was cleared.
+	 */
+	public void reset() {
+		mGeneration++;
+		mPages.clear();
+		mLoading.clear();
+		mAnchors = 1;
+		mCount = 0;
+		mEnd = false;
+		load(0);
+	}
+
+	// -----------------------------------------------------------------
+
+	private void load(final int page) {
+		if (page >= mAnchors || mLoading.get(page))
+			return;
+		mLoading.set(page);
+
+		final int generation = mGeneration;
+		mManager.queryHistoryPage(mAnchorEpoch[page], mAnchorId[page], PAGE_SIZE, new HistroyManager.QueryCallback() {
+			@Override
+			public void onDone(final ArrayList<HistoryItem> items) {
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						onPageLoaded(generation, page, items);
+					}
+				});
+			}
+		});
+	}
+
+	private void onPageLoaded(int generation, int page, ArrayList<HistoryItem> items) {
+		if (generation != mGeneration)
+			return;
+		mLoading.clear(page);
+		if (items == null)
+			items = new ArrayList<HistoryItem>(0);
+		mPages.put(page, items);
+
+		if (page == mAnchors - 1 && !mEnd) {
+			// the first time this page is read
+			mCount += items.size();
+			if (items.size() < PAGE_SIZE) {
+				mEnd = true;
+			} else {
+				HistoryItem last = items.get(items.size() - 1);
+				addAnchor(last._epoch, last._id);
+			}
+		}
+		mListener.onHistoryChanged();
+	}
+
+	private void addAnchor(long epoch, long id) {
+		if (mAnchors == mAnchorEpoch.length) {
+			mAnchorEpoch = Arrays.copyOf(mAnchorEpoch, mAnchors * 2);
+			mAnchorId = Arrays.copyOf(mAnchorId, mAnchors * 2);
+		}
+		mAnchorEpoch[mAnchors] = epoch;
+		mAnchorId[mAnchors] = id;
+		mAnchors++;
+	}
+
+	private final HistroyManager mManager;
+	private final Listener mListener;
+	private final Handler mHandler;
+
+	/*Least recently used page first*/
+	private final LinkedHashMap<Integer, ArrayList<HistoryItem>> mPages =
+			new LinkedHashMap<Integer, ArrayList<HistoryItem>>(MAX_PAGES + 1, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, ArrayList<HistoryItem>> eldest) {
+			return size() > MAX_PAGES;
+		}
+	};
+	private final BitSet mLoading = new BitSet();
+
+	/*Last call before each page known so far, 16 bytes a page*/
+	private long[] mAnchorEpoch = new long[16];
+	private long[] mAnchorId = new long[16];
+	private int mAnchors = 1;
+
+	private int mCount = 0;
+	private boolean mEnd = false;
+	// results of a query from before reset() are dropped
+	private int mGeneration = 0;
+}
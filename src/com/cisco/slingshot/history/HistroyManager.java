@@ -1,12 +1,10 @@
 package com.cisco.slingshot.history;
 
 
-import java.sql.Date;
-import java.sql.Time;
 import java.util.ArrayList;
-import java.util.Calendar;
 
 import android.content.Context;
+import android.database.sqlite.SQLiteException;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
@@ -29,9 +27,20 @@ public class HistroyManager{
     
     //private QueryCallback mQueryCallback = null;
     
+    /*Write behind: calls are queued and written in one transaction after
+      FLUSH_DELAY_MS, or at once when MAX_BATCH of them are waiting*/
+    private static final long FLUSH_DELAY_MS = 1000;
+    private static final int MAX_BATCH = 64;
+    private static final ArrayList<HistoryItem> mPending = new ArrayList<HistoryItem>();
+    /*History thread only*/
+    private static final ArrayList<HistoryItem> mWriting = new ArrayList<HistoryItem>();
+    
+    /*Row of the last answered or placed call, history thread only*/
+    private static long mLastCallRowId = -1;
+    
     //Task 
-    private static final int QUERY_ALL = 1;
-    private static final int INTSERT = 2;
+    private static final int QUERY_PAGE = 1;
+    private static final int FLUSH = 2;
     private static final int CLEAR = 3;
   
     
@@ -44,17 +53,21 @@ public class HistroyManager{
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
-            case QUERY_ALL:{
-            	QueryCallback cb = (QueryCallback)msg.obj;
-            	if(cb == null)return;
-            	ArrayList<HistoryItem> datas = HistoryDatabase.getInstance(mContext).queryAllHistory();
-            	cb.onDone(datas);
+            case QUERY_PAGE:{
+            	PageQuery query = (PageQuery)msg.obj;
+            	flushPending();
+            	ArrayList<HistoryItem> datas = HistoryDatabase.getInstance(mContext)
+            			.queryHistoryPage(query.beforeEpoch, query.beforeId, query.limit);
+            	query.cb.onDone(datas);
             }
             	break;
-            case INTSERT:
-            	HistoryDatabase.getInstance(mContext).addHistory((HistoryItem)msg.obj);
+            case FLUSH:
+            	flushPending();
             	break;
             case CLEAR:
+            	synchronized(mPending){
+            		mPending.clear();
+            	}
             	HistoryDatabase.getInstance(mContext).clearHistory();
             	break;
                 default:
@@ -64,10 +77,38 @@ public class HistroyManager{
         }    	
     }
     
+    /*Write the queued calls, on the history thread*/
+    private static void flushPending(){
+    	synchronized(mPending){
+    		mWriting.addAll(mPending);
+    		mPending.clear();
+    	}
+    	if(mWriting.isEmpty())
+    		return;
+    	
+    	try{
+    		HistoryDatabase.getInstance(mContext).addHistory(mWriting);
+    		for(HistoryItem item : mWriting){
+    			if(item._type != HistoryItem.HISTORY_TYPE_MISSING)
+    				mLastCallRowId = item._id;
+    		}
+    	}catch(SQLiteException e){
+    		Log.e(LOG_TAG, "lost " + mWriting.size() + " calls: " + Log.getStackTraceString(e));
+    	}
+    	mWriting.clear();
+    }
+    
     public static interface QueryCallback{
     	public abstract void onDone(ArrayList<HistoryItem> items);
     }
     
+    private static class PageQuery{
+    	long beforeEpoch;
+    	long beforeId;
+    	int limit;
+    	QueryCallback cb;
+    }
+    
     
 	private HistroyManager(Context context){
 		mContext = context;
@@ -95,19 +136,56 @@ public class HistroyManager{
 	}
 	
     
-    public void queryAllHistory(QueryCallback cb){
-    	mHistoryHandler.sendMessage(mHistoryHandler.obtainMessage(QUERY_ALL, cb));
+    /**
+     * Up to limit calls older than the given one, newest first, see
+     * {@link HistoryDatabase#queryHistoryPage}. The callback runs on the history
+     * thread, {@link HistoryPager} pages through the whole list.
+     */
+    public void queryHistoryPage(long beforeEpoch, long beforeId, int limit, QueryCallback cb){
+    	PageQuery query = new PageQuery();
+    	query.beforeEpoch = beforeEpoch;
+    	query.beforeId = beforeId;
+    	query.limit = limit;
+    	query.cb = cb;
+    	mHistoryHandler.sendMessage(mHistoryHandler.obtainMessage(QUERY_PAGE, query));
     }
     
+    /**
+     * Queue the call for the history thread, it is written with the ones
+     * coming after it.
+     */
     public void addHistoryNow(String address, final int type){
-    	Calendar c = Calendar.getInstance();
-		Date date = new Date(c.get(Calendar.YEAR)-1900,c.get(Calendar.MONTH),c.get(Calendar.DAY_OF_MONTH));
-		Time time = new Time(c.get(Calendar.HOUR_OF_DAY),c.get(Calendar.MINUTE),c.get(Calendar.SECOND));
-		
-		mHistoryHandler.sendMessage(mHistoryHandler.obtainMessage(INTSERT, new HistoryItem(address,date,time,type)));
-		
-		//mDatabase.addHistory(new HistoryItem(address,date,time,type));
-		
+		HistoryItem item = new HistoryItem(address, System.currentTimeMillis(), type);
+		synchronized(mPending){
+			mPending.add(item);
+			if(mPending.size() == MAX_BATCH){
+				mHistoryHandler.removeMessages(FLUSH);
+				mHistoryHandler.sendEmptyMessage(FLUSH);
+			}else if(mPending.size() == 1){
+				mHistoryHandler.sendEmptyMessageDelayed(FLUSH, FLUSH_DELAY_MS);
+			}
+		}
+    }
+    
+    /*The history thread, the call quality log is written there too*/
+    Handler getHandler(){
+    	return mHistoryHandler;
+    }
+    
+    /*Row of the last answered or placed call, on the history thread. The
+      queued calls are written first*/
+    static long getLastCallRowId(){
+    	flushPending();
+    	return mLastCallRowId;
+    }
+    
+    /*How long the call of the row lasted and how good it was, on the history thread*/
+    static void updateCall(long rowId, long durationMs, int quality){
+    	try{
+    		HistoryDatabase.getInstance(mContext).updateCall(rowId, durationMs, quality);
+    	}catch(SQLiteException e){
+    		Log.e(LOG_TAG, Log.getStackTraceString(e));
+    	}
     }
     
     public void clearHistory(){
@@ -0,0 +1,137 @@
+package com.cisco.slingshot.net.rtp;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.util.Log;
+
+/**
+ * Reads access units from a raw H.264 Annex-B file (.264 / .h264) at a fixed
+ * frame rate, to drive the RTP sender without a camera, e.g. on a desktop JVM.
+ *
+ * An access unit ends before an AUD, SEI, SPS or PPS, or before the first
+ * slice of the next picture, once it holds a slice.
+ */
+public class AnnexBFileFrameSource implements FrameSource {
+
+	private static final String LOGTAG = AnnexBFileFrameSource.class.getSimpleName();
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * @param frameRate gives the presentation times, the file has none
+	 * @param loop start over at the end of the file
+	 */
+	public AnnexBFileFrameSource(String path, int frameRate, boolean loop) throws IOException {
+		mInput = new FileInputStream(path);
+		mChannel = mInput.getChannel();
+		mFrameUs = 1000000L / frameRate;
+		mLoop = loop;
+		mBuf.flip();
+	}
+
+	@Override
+	public long readFrame(ByteBuffer dst) throws IOException {
+		boolean hasSlice = false;
+		while (true) {
+			if (!nextNal()) {
+				if (hasSlice)
+					break;
+				if (!mLoop || 0 == mFrames)
+					return -1;
+				// start over, the stream begins with its parameter sets again
+				mChannel.position(0);
+				mEof = false;
+				mBuf.clear().flip();
+				continue;
+			}
+
+			int header = mBuf.get(mNalStart) & 0xFF;
+			int type = H264Nal.type(header);
+			boolean vcl = H264Nal.isVcl(type);
+			if (hasSlice) {
+				boolean newPicture = vcl
+						? (mNalStart + 1 < mNalEnd && H264Nal.isFirstSlice(mBuf.get(mNalStart + 1)))
+						: (H264Nal.TYPE_AUD == type || H264Nal.TYPE_SEI == type || H264Nal.isParameterSet(type));
+				if (newPicture)
+					break;
+			}
+			hasSlice |= vcl;
+
+			if (dst.remaining() < 4 + mNalEnd - mNalStart)
+				throw new IOException("access unit does not fit the frame buffer");
+			dst.putInt(1);
+			int limit = mBuf.limit();
+			mBuf.limit(mNalEnd).position(mNalStart);
+			dst.put(mBuf);
+			mBuf.limit(limit);
+			// consumed, look for the next one
+			mNalStart = -1;
+		}
+		return mFrameUs * mFrames++;
+	}
+
+	@Override
+	public void close() {
+		try {
+			mInput.close();
+		} catch (IOException e) {
+			Log.e(LOGTAG, "close(): " + e.getMessage());
+		}
+	}
+
+	// -----------------------------------------------------------------
+
+	/**
+	 * Find the NAL unit after the buffer position, [mNalStart, mNalEnd) is then
+	 * its header and payload. Stays on an unconsumed one.
+	 * @return false at the end of the file
+	 */
+	private boolean nextNal() throws IOException {
+		if (mNalStart >= 0)
+			return true;
+
+		while (true) {
+			int start = H264Nal.findStartCode(mBuf, mBuf.position(), mBuf.limit());
+			if (start >= 0) {
+				int next = H264Nal.findStartCode(mBuf, start + 3, mBuf.limit());
+				if (next >= 0 || mEof) {
+					int end = (next < 0) ? mBuf.limit() : next;
+					mNalStart = start + 3;
+					mNalEnd = H264Nal.trimEnd(mBuf, mNalStart, end);
+					mBuf.position(end);
+					if (mNalEnd > mNalStart)
+						return true;
+					mNalStart = -1;
+					continue;
+				}
+				// keep the start code, read on for the end of the NAL unit
+				mBuf.position(start);
+			} else if (mEof) {
+				return false;
+			} else {
+				// no start code in here, keep the last bytes of a split one
+				mBuf.position(Math.max(mBuf.position(), mBuf.limit() - 2));
+			}
+
+			if (0 == mBuf.position() && mBuf.limit() == mBuf.capacity())
+				throw new IOException("NAL unit larger than " + BUFFER_SIZE + " bytes");
+			mBuf.compact();
+			mEof = mChannel.read(mBuf) < 0;
+			mBuf.flip();
+		}
+	}
+
+	private final FileInputStream mInput;
+	private final FileChannel mChannel;
+	private final long mFrameUs;
+	private final boolean mLoop;
+
+	private final ByteBuffer mBuf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private boolean mEof = false;
+	private int mNalStart = -1;
+	private int mNalEnd = -1;
+	private long mFrames = 0;
+}
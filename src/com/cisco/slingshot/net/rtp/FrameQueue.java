@@ -0,0 +1,89 @@
+package com.cisco.slingshot.net.rtp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands reassembled access units from the receive pipeline to the decoder.
+ *
+ * A fixed set of frames with preallocated direct buffers goes round between a
+ * free list and the queue of filled frames. If the consumer falls behind, the
+ * oldest queued frame is reused rather than the delay growing.
+ */
+public class FrameQueue {
+
+	public static class Frame {
+
+		Frame(int size) {
+			data = ByteBuffer.allocateDirect(size);
+		}
+
+		/** Annex-B access unit between position and limit */
+		public final ByteBuffer data;
+		/** RTP timestamp */
+		public int timestamp;
+		/** holds an IDR slice */
+		public boolean keyFrame;
+		/** NAL units are missing, a decoder may want to wait for the next key frame */
+		public boolean corrupt;
+	}
+
+	/**
+	 * @param frames number of frames in circulation
+	 * @param frameSize biggest access unit
+	 */
+	public FrameQueue(int frames, int frameSize) {
+		mFree = new ArrayBlockingQueue<Frame>(frames);
+		mFilled = new ArrayBlockingQueue<Frame>(frames);
+		for (int i = 0; i < frames; i++)
+			mFree.add(new Frame(frameSize));
+	}
+
+	/**
+	 * An empty frame to fill, the oldest queued one if none is free.
+	 * @return null only if the consumer holds all of them
+	 */
+	public Frame obtain() {
+		Frame frame = mFree.poll();
+		if (null == frame) {
+			frame = mFilled.poll();
+			if (null != frame)
+				mDropped++;
+		}
+		if (null != frame) {
+			frame.data.clear();
+			frame.timestamp = 0;
+			frame.keyFrame = false;
+			frame.corrupt = false;
+		}
+		return frame;
+	}
+
+	public void publish(Frame frame) {
+		mFilled.add(frame);
+	}
+
+	/**
+	 * Next frame, to be given back with {@link #recycle(Frame)}.
+	 * @return null if none came within the timeout
+	 */
+	public Frame take(long timeoutMs) throws InterruptedException {
+		return mFilled.poll(timeoutMs, TimeUnit.MILLISECONDS);
+	}
+
+	public void recycle(Frame frame) {
+		mFree.add(frame);
+	}
+
+	/**
+	 * Frames dropped because the consumer was behind.
+	 */
+	public long getDroppedCount() {
+		return mDropped;
+	}
+
+	private final ArrayBlockingQueue<Frame> mFree;
+	private final ArrayBlockingQueue<Frame> mFilled;
+	private volatile long mDropped = 0;
+}
@@ -0,0 +1,19 @@
+package com.cisco.slingshot.net.rtp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Gives encoded H.264 access units in Annex-B format to the RTP sender.
+ */
+public interface FrameSource {
+
+	/**
+	 * Copy the next access unit into dst, from its position on.
+	 * @return presentation time of the frame in microseconds, -1 at the end of
+	 * the stream
+	 */
+	long readFrame(ByteBuffer dst) throws IOException;
+
+	void close();
+}
@@ -0,0 +1,225 @@
+package com.cisco.slingshot.net.rtp;
+
+import java.nio.ByteBuffer;
+
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * Reassembles H.264 access units in Annex-B format from RTP packets as of
+ * RFC 6184, the counterpart of {@link H264Packetizer}.
+ *
+ * Takes packets in sequence order, as the jitter buffer gives them, and writes
+ * the NAL units of single NAL unit, STAP-A and FU-A packets straight into a
+ * frame of the {@link FrameQueue}. A frame is published on the marker bit or
+ * when the timestamp changes. A NAL unit broken by a lost packet is left out
+ * and the frame flagged corrupt.
+ */
+public class H264Depacketizer {
+
+	private static final String LOGTAG = H264Depacketizer.class.getSimpleName();
+
+	private static final int START_CODE = 1;
+
+	public H264Depacketizer(FrameQueue queue) {
+		mQueue = queue;
+	}
+
+	/**
+	 * @param packet RTP packet between position and limit, left as it was
+	 * @param lost number of packets lost right before this one
+	 */
+	public void push(ByteBuffer packet, int lost) {
+		int p = packet.position();
+		int end = packet.limit();
+		if (end - p < H264Packetizer.RTP_HEADER_SIZE || 2 != (packet.get(p) & 0xFF) >> 6)
+			return;
+
+		int b0 = packet.get(p) & 0xFF;
+		boolean marker = 0 != (packet.get(p + 1) & 0x80);
+		int timestamp = packet.getInt(p + 4);
+
+		int offset = p + H264Packetizer.RTP_HEADER_SIZE + 4 * (b0 & 0x0F);
+		if (0 != (b0 & 0x10)) {
+			// header extension, skipped
+			if (offset + 4 > end)
+				return;
+			offset += 4 + 4 * (packet.getShort(offset + 2) & 0xFFFF);
+		}
+		if (0 != (b0 & 0x20))
+			end -= packet.get(end - 1) & 0xFF;
+		if (offset >= end)
+			return;
+
+		if (null != mFrame && timestamp != mFrame.timestamp) {
+			// the marker of the previous frame was lost
+			finishFrame();
+		}
+		if (lost > 0) {
+			abortFragment();
+			if (null != mFrame)
+				mFrame.corrupt = true;
+			else
+				mLostBeforeFrame = true;
+		}
+		if (null == mFrame && !beginFrame(timestamp))
+			return;
+
+		int header = packet.get(offset) & 0xFF;
+		int type = H264Nal.type(header);
+		if (H264Nal.TYPE_STAP_A == type) {
+			unpackStap(packet, offset + 1, end);
+		} else if (H264Nal.TYPE_FU_A == type) {
+			unpackFragment(packet, offset, end);
+		} else if (type >= 1 && type <= 23) {
+			putNal(packet, offset, end);
+		} else {
+			// STAP-B, MTAP, FU-B: interleaved mode, not negotiated
+			mFrame.corrupt = true;
+		}
+
+		if (marker)
+			finishFrame();
+	}
+
+	/**
+	 * Publish a frame still being assembled, e.g. when the stream stops.
+	 */
+	public void flush() {
+		if (null != mFrame)
+			finishFrame();
+	}
+
+	public long getFrameCount() {
+		return mFrames;
+	}
+
+	public long getCorruptCount() {
+		return mCorrupt;
+	}
+
+	// -----------------------------------------------------------------
+
+	private boolean beginFrame(int timestamp) {
+		mFrame = mQueue.obtain();
+		if (null == mFrame) {
+			Util.S_Log.d(LOGTAG, "no free frame, drop " + timestamp);
+			// whatever frame comes next may start in the middle
+			mLostBeforeFrame = true;
+			return false;
+		}
+		mFrame.timestamp = timestamp;
+		mFrame.corrupt = mLostBeforeFrame;
+		mLostBeforeFrame = false;
+		return true;
+	}
+
+	private void finishFrame() {
+		abortFragment();
+		FrameQueue.Frame frame = mFrame;
+		mFrame = null;
+		if (0 == frame.data.position()) {
+			mQueue.recycle(frame);
+			return;
+		}
+		frame.data.flip();
+		mFrames++;
+		if (frame.corrupt)
+			mCorrupt++;
+		mQueue.publish(frame);
+	}
+
+	private void unpackStap(ByteBuffer packet, int offset, int end) {
+		while (offset + 2 <= end) {
+			int size = packet.getShort(offset) & 0xFFFF;
+			offset += 2;
+			if (0 == size || offset + size > end) {
+				mFrame.corrupt = true;
+				return;
+			}
+			putNal(packet, offset, offset + size);
+			offset += size;
+		}
+	}
+
+	private void unpackFragment(ByteBuffer packet, int offset, int end) {
+		if (offset + 2 > end) {
+			mFrame.corrupt = true;
+			return;
+		}
+		int indicator = packet.get(offset) & 0xFF;
+		int fuHeader = packet.get(offset + 1) & 0xFF;
+		boolean first = 0 != (fuHeader & 0x80);
+		boolean last = 0 != (fuHeader & 0x40);
+
+		ByteBuffer data = mFrame.data;
+		if (first) {
+			abortFragment();
+			if (data.remaining() < 5) {
+				mFrame.corrupt = true;
+				return;
+			}
+			mFragmentStart = data.position();
+			data.putInt(START_CODE);
+			data.put((byte) ((indicator & 0xE0) | (fuHeader & 0x1F)));
+			markKeyFrame(fuHeader);
+		} else if (mFragmentStart < 0) {
+			// the start was lost
+			mFrame.corrupt = true;
+			return;
+		}
+
+		if (!copy(packet, offset + 2, end)) {
+			abortFragment();
+			mFrame.corrupt = true;
+			return;
+		}
+		if (last)
+			mFragmentStart = -1;
+	}
+
+	private void putNal(ByteBuffer packet, int start, int end) {
+		ByteBuffer data = mFrame.data;
+		if (data.remaining() < 4 + end - start) {
+			mFrame.corrupt = true;
+			return;
+		}
+		data.putInt(START_CODE);
+		copy(packet, start, end);
+		markKeyFrame(packet.get(start));
+	}
+
+	private void markKeyFrame(int header) {
+		if (H264Nal.TYPE_IDR == H264Nal.type(header))
+			mFrame.keyFrame = true;
+	}
+
+	// copy [start, end) of the packet into the frame without a duplicate buffer
+	private boolean copy(ByteBuffer packet, int start, int end) {
+		ByteBuffer data = mFrame.data;
+		if (data.remaining() < end - start)
+			return false;
+		int position = packet.position();
+		int limit = packet.limit();
+		packet.limit(end).position(start);
+		data.put(packet);
+		packet.limit(limit).position(position);
+		return true;
+	}
+
+	// drop a fragmented NAL unit which can't be completed
+	private void abortFragment() {
+		if (mFragmentStart >= 0) {
+			mFrame.data.position(mFragmentStart);
+			mFrame.corrupt = true;
+			mFragmentStart = -1;
+		}
+	}
+
+	private final FrameQueue mQueue;
+	private FrameQueue.Frame mFrame = null;
+	private int mFragmentStart = -1;
+	private boolean mLostBeforeFrame = false;
+
+	private long mFrames = 0;
+	private long mCorrupt = 0;
+}
@@ -0,0 +1,75 @@
+package com.cisco.slingshot.net.rtp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * H.264 NAL unit types and Annex-B byte stream helpers shared by the RTP
+ * packetizer and the frame sources.
+ */
+public final class H264Nal {
+
+	public static final int TYPE_SLICE = 1;
+	public static final int TYPE_IDR = 5;
+	public static final int TYPE_SEI = 6;
+	public static final int TYPE_SPS = 7;
+	public static final int TYPE_PPS = 8;
+	public static final int TYPE_AUD = 9;
+	/* RFC 6184 payload types */
+	public static final int TYPE_STAP_A = 24;
+	public static final int TYPE_FU_A = 28;
+
+	private H264Nal() {
+	}
+
+	public static int type(int header) {
+		return header & 0x1F;
+	}
+
+	public static int nri(int header) {
+		return header & 0x60;
+	}
+
+	public static boolean isVcl(int type) {
+		return type >= TYPE_SLICE && type <= TYPE_IDR;
+	}
+
+	public static boolean isParameterSet(int type) {
+		return TYPE_SPS == type || TYPE_PPS == type;
+	}
+
+	/**
+	 * Index of the next 00 00 01 start code in [from, limit), -1 if there is
+	 * none. A four byte start code is found by its last three bytes.
+	 */
+	public static int findStartCode(ByteBuffer buf, int from, int limit) {
+		for (int i = from; i + 2 < limit; i++) {
+			byte b2 = buf.get(i + 2);
+			if (b2 > 1) {
+				// the 01 can't be in the next two positions either
+				i += 2;
+			} else if (1 == b2 && 0 == buf.get(i) && 0 == buf.get(i + 1)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * End of a NAL unit whose next start code is at next: the zero bytes
+	 * before it belong to a four byte start code or are trailing zeros.
+	 */
+	public static int trimEnd(ByteBuffer buf, int start, int next) {
+		while (next > start && 0 == buf.get(next - 1))
+			next--;
+		return next;
+	}
+
+	/**
+	 * Whether a VCL NAL unit starts a new picture, i.e. first_mb_in_slice is 0.
+	 * @param second the byte after the NAL header
+	 */
+	public static boolean isFirstSlice(int second) {
+		// ue(v) coded 0 is a single '1' bit
+		return 0 != (second & 0x80);
+	}
+}
@@ -0,0 +1,237 @@
+package com.cisco.slingshot.net.rtp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits H.264 access units into RTP packets as of RFC 6184, packetization
+ * mode 1 (non-interleaved).
+ *
+ * A NAL unit which fits the MTU goes in a single NAL unit packet, bigger ones
+ * are cut into FU-A fragments, and SPS/PPS in a row are aggregated into one
+ * STAP-A packet. The marker bit is set on the last packet of the access unit.
+ *
+ * Packets are built in one reused direct buffer and handed to a
+ * {@link PacketSink} one at a time, nothing is allocated per frame. Not thread
+ * safe, one packetizer per stream.
+ */
+public class H264Packetizer {
+
+	/**
+	 * Takes the packets as they are built.
+	 */
+	public interface PacketSink {
+		/**
+		 * @param packet the whole RTP packet between position and limit, only
+		 * valid during the call
+		 */
+		void onPacket(ByteBuffer packet) throws IOException;
+	}
+
+	public static final int RTP_HEADER_SIZE = 12;
+	// IPv4 + UDP headers
+	public static final int IP_UDP_OVERHEAD = 28;
+	public static final int DEFAULT_MTU = 1500;
+
+	private static final int MIN_PACKET_SIZE = RTP_HEADER_SIZE + 64;
+
+	/**
+	 * @param payloadType the dynamic payload type negotiated in SDP
+	 * @param ssrc synchronization source of the stream
+	 * @param mtu link MTU, packets are kept IP/UDP headers below it
+	 */
+	public H264Packetizer(int payloadType, int ssrc, int mtu) {
+		int packetSize = mtu - IP_UDP_OVERHEAD;
+		if (packetSize < MIN_PACKET_SIZE)
+			throw new IllegalArgumentException("MTU too small: " + mtu);
+
+		mPayloadType = payloadType & 0x7F;
+		mSsrc = ssrc;
+		mPacket = ByteBuffer.allocateDirect(packetSize);
+	}
+
+	public int getSsrc() {
+		return mSsrc;
+	}
+
+	public void setSequenceNumber(int seq) {
+		mSeq = seq & 0xFFFF;
+	}
+
+	/**
+	 * Next sequence number to be used.
+	 */
+	public int getSequenceNumber() {
+		return mSeq;
+	}
+
+	public int getMaxPacketSize() {
+		return mPacket.capacity();
+	}
+
+	/**
+	 * Packetize one access unit in Annex-B format.
+	 * @param au the access unit between position and limit, it is left as it was
+	 * @param timestamp 90 kHz RTP timestamp of the access unit
+	 * @return number of packets handed to the sink
+	 */
+	public int packetize(ByteBuffer au, int timestamp, PacketSink sink) throws IOException {
+		mTimestamp = timestamp;
+		mCount = 0;
+		mStapCount = 0;
+
+		int limit = au.limit();
+		int start = H264Nal.findStartCode(au, au.position(), limit);
+		while (start >= 0) {
+			int nal = start + 3;
+			int next = H264Nal.findStartCode(au, nal, limit);
+			int end = H264Nal.trimEnd(au, nal, (next < 0) ? limit : next);
+			if (end > nal)
+				addNal(au, nal, end, next < 0, sink);
+			start = next;
+		}
+		flushStap(true, sink);
+		return mCount;
+	}
+
+	// -----------------------------------------------------------------
+
+	private void addNal(ByteBuffer au, int start, int end, boolean last, PacketSink sink)
+			throws IOException {
+		int header = au.get(start) & 0xFF;
+		int size = end - start;
+		int type = H264Nal.type(header);
+
+		if (H264Nal.TYPE_AUD == type) {
+			// no use on RTP, the marker bit frames the access unit
+			if (last)
+				flushStap(true, sink);
+			return;
+		}
+
+		if (H264Nal.isParameterSet(type) && !last) {
+			if (addToStap(au, start, size, header, sink))
+				return;
+		}
+		flushStap(false, sink);
+
+		int maxPayload = mPacket.capacity() - RTP_HEADER_SIZE;
+		if (size <= maxPayload) {
+			beginPacket(last);
+			put(au, start, end);
+			send(sink);
+			return;
+		}
+
+		// FU-A, the NAL header is carried by the FU indicator and header
+		int fuIndicator = (header & 0xE0) | H264Nal.TYPE_FU_A;
+		int pos = start + 1;
+		boolean first = true;
+		while (pos < end) {
+			int len = Math.min(end - pos, maxPayload - 2);
+			boolean lastFragment = (pos + len == end);
+
+			int fuHeader = type;
+			if (first)
+				fuHeader |= 0x80;
+			if (lastFragment)
+				fuHeader |= 0x40;
+
+			beginPacket(last && lastFragment);
+			mPacket.put((byte) fuIndicator);
+			mPacket.put((byte) fuHeader);
+			put(au, pos, pos + len);
+			send(sink);
+
+			pos += len;
+			first = false;
+		}
+	}
+
+	/**
+	 * Aggregate a parameter set, the packet is held back until a NAL unit which
+	 * can't join it comes.
+	 * @return false if it is too big for a STAP-A, send it on its own
+	 */
+	private boolean addToStap(ByteBuffer au, int start, int size, int header, PacketSink sink)
+			throws IOException {
+		// STAP-A header + 16 bit size
+		if (RTP_HEADER_SIZE + 1 + 2 + size > mPacket.capacity())
+			return false;
+
+		if (mStapCount > 0 && mPacket.position() + 2 + size > mPacket.capacity())
+			flushStap(false, sink);
+
+		if (0 == mStapCount) {
+			beginPacket(false);
+			mStapNri = 0;
+			mStapFirst = start;
+			mStapFirstSize = size;
+			mPacket.put((byte) H264Nal.TYPE_STAP_A);
+		}
+		mStapNri = Math.max(mStapNri, H264Nal.nri(header));
+		mPacket.putShort((short) size);
+		put(au, start, start + size);
+		mStapCount++;
+		mStapSource = au;
+		return true;
+	}
+
+	private void flushStap(boolean marker, PacketSink sink) throws IOException {
+		if (0 == mStapCount)
+			return;
+
+		if (1 == mStapCount) {
+			// a lone parameter set goes as a single NAL unit packet
+			beginPacket(marker);
+			put(mStapSource, mStapFirst, mStapFirst + mStapFirstSize);
+		} else {
+			mPacket.put(RTP_HEADER_SIZE, (byte) (mStapNri | H264Nal.TYPE_STAP_A));
+			if (marker)
+				mPacket.put(1, (byte) (0x80 | mPayloadType));
+		}
+		mStapCount = 0;
+		mStapSource = null;
+		send(sink);
+	}
+
+	private void beginPacket(boolean marker) {
+		mPacket.clear();
+		mPacket.put((byte) 0x80);
+		mPacket.put((byte) ((marker ? 0x80 : 0) | mPayloadType));
+		mPacket.putShort((short) mSeq);
+		mPacket.putInt(mTimestamp);
+		mPacket.putInt(mSsrc);
+	}
+
+	// copy [start, end) of the access unit without a duplicate buffer
+	private void put(ByteBuffer au, int start, int end) {
+		int position = au.position();
+		int limit = au.limit();
+		au.limit(end).position(start);
+		mPacket.put(au);
+		au.limit(limit).position(position);
+	}
+
+	private void send(PacketSink sink) throws IOException {
+		mPacket.flip();
+		mSeq = (mSeq + 1) & 0xFFFF;
+		mCount++;
+		sink.onPacket(mPacket);
+	}
+
+	private final int mPayloadType;
+	private final int mSsrc;
+	private final ByteBuffer mPacket;
+
+	private int mSeq = 0;
+	private int mTimestamp = 0;
+	private int mCount = 0;
+
+	// pending STAP-A
+	private int mStapCount = 0;
+	private int mStapNri = 0;
+	private int mStapFirst = 0;
+	private int mStapFirstSize = 0;
+	private ByteBuffer mStapSource = null;
+}
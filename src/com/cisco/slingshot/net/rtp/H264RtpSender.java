@@ -0,0 +1,179 @@
+package com.cisco.slingshot.net.rtp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * Sends H.264 access units as RTP over a connected DatagramChannel.
+ *
+ * The packets of a frame are paced by a token bucket so that a big key frame
+ * leaves at the configured rate instead of in one burst, which a constrained
+ * uplink would drop. Pacing blocks the calling thread, call {@link #sendFrame}
+ * from the encoder or frame source thread, not from the UI.
+ *
+ * Packet and octet counts are kept for the RTCP sender reports.
+ */
+public class H264RtpSender implements H264Packetizer.PacketSink {
+
+	private static final String LOGTAG = H264RtpSender.class.getSimpleName();
+
+	public static final int CLOCK_RATE = 90000;
+
+	/**
+	 * Open a channel connected to the remote RTP port.
+	 * @param localPort 0 for any
+	 */
+	public static DatagramChannel openChannel(int localPort, String remoteIp, int remotePort)
+			throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+		try {
+			channel.socket().bind(new InetSocketAddress(localPort));
+			channel.connect(new InetSocketAddress(remoteIp, remotePort));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	/**
+	 * @param channel connected, blocking channel
+	 * @param payloadType the payload type negotiated for H.264
+	 * @param mtu link MTU
+	 */
+	public H264RtpSender(DatagramChannel channel, int payloadType, int mtu) {
+		SecureRandom random = new SecureRandom();
+		mChannel = channel;
+		mPacketizer = new H264Packetizer(payloadType, random.nextInt(), mtu);
+		// random initial values as RFC 3550 asks
+		mPacketizer.setSequenceNumber(random.nextInt());
+		mTimestampBase = random.nextInt();
+	}
+
+	/**
+	 * Limit the send rate, 0 turns pacing off.
+	 * @param bitsPerSecond usually somewhat above the encoder bit rate
+	 * @param burstBytes what may leave back to back, at least one packet
+	 */
+	public synchronized void setPacing(int bitsPerSecond, int burstBytes) {
+		mPacingBytesPerSec = bitsPerSecond / 8;
+		mBurstBytes = Math.max(burstBytes, mPacketizer.getMaxPacketSize());
+		mTokens = mBurstBytes;
+		mLastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Packetize and send one access unit, returns once the last packet left.
+	 * @param au Annex-B access unit between position and limit
+	 * @param presentationTimeUs capture time of the frame
+	 */
+	public synchronized void sendFrame(ByteBuffer au, long presentationTimeUs) throws IOException {
+		int timestamp = mTimestampBase + (int) (presentationTimeUs * CLOCK_RATE / 1000000L);
+		mPacketizer.packetize(au, timestamp, this);
+		mLastTimestamp = timestamp;
+		mLastTimeUs = presentationTimeUs;
+	}
+
+	@Override
+	public void onPacket(ByteBuffer packet) throws IOException {
+		int size = packet.remaining();
+		pace(size);
+		try {
+			if (0 == mChannel.write(packet)) {
+				mDropped++;
+				return;
+			}
+		} catch (PortUnreachableException e) {
+			// the peer is not listening yet, keep going
+			mDropped++;
+			return;
+		}
+		mPacketCount++;
+		mOctetCount += size - H264Packetizer.RTP_HEADER_SIZE;
+	}
+
+	public int getSsrc() {
+		return mPacketizer.getSsrc();
+	}
+
+	public synchronized long getPacketCount() {
+		return mPacketCount;
+	}
+
+	/**
+	 * Payload octets sent, as in the RTCP sender report.
+	 */
+	public synchronized long getOctetCount() {
+		return mOctetCount;
+	}
+
+	public synchronized long getDroppedCount() {
+		return mDropped;
+	}
+
+	/**
+	 * RTP timestamp of the last frame sent.
+	 */
+	public synchronized int getLastTimestamp() {
+		return mLastTimestamp;
+	}
+
+	public synchronized long getLastPresentationTimeUs() {
+		return mLastTimeUs;
+	}
+
+	public void close() {
+		Util.S_Log.d(LOGTAG, "sent " + mPacketCount + " packets, " + mOctetCount + " bytes, dropped "
+				+ mDropped);
+		try {
+			mChannel.close();
+		} catch (IOException e) {
+			Log.e(LOGTAG, "close(): " + e.getMessage());
+		}
+	}
+
+	// -----------------------------------------------------------------
+
+	// token bucket, wait until the packet may go
+	private void pace(int size) {
+		if (mPacingBytesPerSec <= 0)
+			return;
+
+		while (true) {
+			long now = System.nanoTime();
+			// a second of credit fills any bucket, and keeps the product small
+			long elapsed = Math.min(now - mLastRefill, 1000000000L);
+			mTokens = Math.min(mBurstBytes,
+					mTokens + elapsed * mPacingBytesPerSec / 1000000000L);
+			mLastRefill = now;
+			if (mTokens >= size)
+				break;
+			LockSupport.parkNanos((size - mTokens) * 1000000000L / mPacingBytesPerSec);
+		}
+		mTokens -= size;
+	}
+
+	private final DatagramChannel mChannel;
+	private final H264Packetizer mPacketizer;
+	private final int mTimestampBase;
+
+	private long mPacingBytesPerSec = 0;
+	private long mBurstBytes = 0;
+	private long mTokens = 0;
+	private long mLastRefill = 0;
+
+	private long mPacketCount = 0;
+	private long mOctetCount = 0;
+	private long mDropped = 0;
+	private int mLastTimestamp = 0;
+	private long mLastTimeUs = 0;
+}
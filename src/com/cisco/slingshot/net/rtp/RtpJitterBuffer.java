@@ -0,0 +1,282 @@
+package com.cisco.slingshot.net.rtp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reorders received RTP packets by sequence number and holds each one back
+ * until its playout time.
+ *
+ * Packets are copied into one preallocated ring, slot = sequence number modulo
+ * the capacity, with their extended sequence number and RTP timestamp in
+ * primitive arrays beside it. The playout time of a packet is its RTP time on
+ * the local clock, as of the fastest transit seen, plus the playout delay. The
+ * delay follows the interarrival jitter within [min, max]: it grows at once
+ * and shrinks slowly. A missing packet is waited for until the packet after it
+ * is due, then it is counted as lost and skipped.
+ *
+ * Not thread safe, the receiver thread does both put and poll.
+ */
+public class RtpJitterBuffer {
+
+	/**
+	 * @param capacity packets held at most, a power of two
+	 * @param maxPacketSize bigger packets are dropped
+	 * @param clockRate RTP clock rate of the stream
+	 */
+	public RtpJitterBuffer(int capacity, int maxPacketSize, int clockRate, int minDelayMs, int maxDelayMs) {
+		if (0 != (capacity & (capacity - 1)))
+			throw new IllegalArgumentException("capacity not a power of two: " + capacity);
+		if (minDelayMs > maxDelayMs)
+			throw new IllegalArgumentException("min delay above max delay");
+
+		mMask = capacity - 1;
+		mMaxPacketSize = maxPacketSize;
+		mClockRate = clockRate;
+		mMinDelayNs = minDelayMs * 1000000L;
+		mMaxDelayNs = maxDelayMs * 1000000L;
+		mDelayNs = mMinDelayNs;
+
+		mData = ByteBuffer.allocate(capacity * maxPacketSize);
+		mSeqs = new long[capacity];
+		mTimestamps = new long[capacity];
+		mLengths = new int[capacity];
+		reset();
+	}
+
+	/**
+	 * Forget all packets, e.g. when the sender restarted the stream.
+	 */
+	public void reset() {
+		for (int i = 0; i < mSeqs.length; i++)
+			mSeqs[i] = -1;
+		mNextSeq = -1;
+		mHighestSeq = -1;
+		mCount = 0;
+		mPlaying = false;
+	}
+
+	/**
+	 * Copy a packet in.
+	 * @param packet the RTP packet between position and limit, left as it was
+	 * @param arrivalNs System.nanoTime() of the arrival
+	 * @return false if it was dropped: too late, duplicate or malformed
+	 */
+	public boolean put(ByteBuffer packet, long arrivalNs) {
+		int len = packet.remaining();
+		if (len < H264Packetizer.RTP_HEADER_SIZE || len > mMaxPacketSize) {
+			mDiscarded++;
+			return false;
+		}
+		int p = packet.position();
+		int seq16 = packet.getShort(p + 2) & 0xFFFF;
+		int ts = packet.getInt(p + 4);
+
+		if (mNextSeq < 0) {
+			// first packet, sequence numbers count from 64k to stay positive
+			mNextSeq = 0x10000 + seq16;
+			mHighestSeq = mNextSeq - 1;
+			mLastTs = ts & 0xFFFFFFFFL;
+			mBaseTransit = Long.MAX_VALUE;
+		}
+
+		long seq = mHighestSeq + (short) (seq16 - (int) mHighestSeq);
+		if (seq < mNextSeq) {
+			if (mPlaying || mHighestSeq - seq > mMask) {
+				mLate++;
+				return false;
+			}
+			// nothing played yet, the first packet to come was not the first sent
+			mNextSeq = seq;
+		}
+		if (seq - mNextSeq > mMask) {
+			// far ahead, make room by giving up the oldest
+			skipTo(seq - mMask);
+		}
+		int slot = (int) (seq & mMask);
+		if (mSeqs[slot] == seq) {
+			mDuplicates++;
+			return false;
+		}
+
+		mData.clear().position(slot * mMaxPacketSize);
+		mData.put(packet);
+		packet.position(p);
+		mSeqs[slot] = seq;
+		mLengths[slot] = len;
+		mCount++;
+		if (seq > mHighestSeq)
+			mHighestSeq = seq;
+
+		// extended timestamp, wraps are counted past 32 bits
+		long extTs = mLastTs + (ts - (int) mLastTs);
+		if (extTs > mLastTs)
+			mLastTs = extTs;
+		mTimestamps[slot] = extTs;
+
+		updateDelay(arrivalNs - toNanos(extTs));
+		return true;
+	}
+
+	/**
+	 * Copy out the next packet in sequence if it is due.
+	 * @param dst gets the packet from its position on
+	 * @return number of packets lost right before this one, -1 if none is due
+	 */
+	public int poll(ByteBuffer dst, long nowNs) {
+		if (0 == mCount)
+			return -1;
+
+		int slot = (int) (mNextSeq & mMask);
+		int lost = 0;
+		if (mSeqs[slot] != mNextSeq) {
+			long seq = firstAfter(mNextSeq);
+			slot = (int) (seq & mMask);
+			if (nowNs < deadline(slot))
+				return -1;
+			lost = (int) (seq - mNextSeq);
+			mLost += lost;
+			mNextSeq = seq;
+		} else if (nowNs < deadline(slot)) {
+			return -1;
+		}
+
+		int len = mLengths[slot];
+		if (dst.remaining() < len)
+			throw new IllegalArgumentException("packet does not fit: " + len);
+		int limit = mData.limit();
+		mData.limit(slot * mMaxPacketSize + len).position(slot * mMaxPacketSize);
+		dst.put(mData);
+		mData.limit(limit);
+
+		mSeqs[slot] = -1;
+		mCount--;
+		mNextSeq++;
+		mPlaying = true;
+		return lost;
+	}
+
+	/**
+	 * When the next packet becomes due, Long.MAX_VALUE if there is none.
+	 */
+	public long nextDeadlineNs() {
+		if (0 == mCount)
+			return Long.MAX_VALUE;
+		int slot = (int) (mNextSeq & mMask);
+		if (mSeqs[slot] != mNextSeq)
+			slot = (int) (firstAfter(mNextSeq) & mMask);
+		return deadline(slot);
+	}
+
+	public int getDelayMs() {
+		return (int) (mDelayNs / 1000000L);
+	}
+
+	/**
+	 * Interarrival jitter, smoothed as in RFC 3550.
+	 */
+	public int getJitterMs() {
+		return (int) (mJitterNs / 1000000L);
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	public long getLostCount() {
+		return mLost;
+	}
+
+	public long getLateCount() {
+		return mLate;
+	}
+
+	public long getDuplicateCount() {
+		return mDuplicates;
+	}
+
+	/**
+	 * Malformed packets and packets pushed out of a full buffer.
+	 */
+	public long getDiscardedCount() {
+		return mDiscarded;
+	}
+
+	// -----------------------------------------------------------------
+
+	private void updateDelay(long transit) {
+		if (Long.MAX_VALUE != mBaseTransit) {
+			long d = Math.abs(transit - mLastTransit);
+			mJitterNs += (d - mJitterNs) / 16;
+		}
+		mLastTransit = transit;
+
+		// fastest transit seen, creeping up slowly to follow clock drift
+		if (transit < mBaseTransit)
+			mBaseTransit = transit;
+		else
+			mBaseTransit += (transit - mBaseTransit) >> 10;
+
+		long target = Math.max(mMinDelayNs, Math.min(mMaxDelayNs, 3 * mJitterNs));
+		if (target > mDelayNs)
+			mDelayNs = target;
+		else
+			mDelayNs -= (mDelayNs - target) >> 6;
+	}
+
+	private long deadline(int slot) {
+		return toNanos(mTimestamps[slot]) + mBaseTransit + mDelayNs;
+	}
+
+	private long toNanos(long ticks) {
+		return ticks / mClockRate * 1000000000L + (ticks % mClockRate) * 1000000000L / mClockRate;
+	}
+
+	// first packet held after seq, there is one as mCount > 0
+	private long firstAfter(long seq) {
+		for (long s = seq + 1; s <= mHighestSeq; s++) {
+			if (mSeqs[(int) (s & mMask)] == s)
+				return s;
+		}
+		throw new IllegalStateException("no packet after " + seq);
+	}
+
+	private void skipTo(long seq) {
+		for (; mNextSeq < seq; mNextSeq++) {
+			int slot = (int) (mNextSeq & mMask);
+			if (mSeqs[slot] == mNextSeq) {
+				mSeqs[slot] = -1;
+				mCount--;
+				mDiscarded++;
+			} else {
+				mLost++;
+			}
+		}
+	}
+
+	private final int mMask;
+	private final int mMaxPacketSize;
+	private final int mClockRate;
+	private final long mMinDelayNs;
+	private final long mMaxDelayNs;
+
+	private final ByteBuffer mData;
+	private final long[] mSeqs;
+	private final long[] mTimestamps;
+	private final int[] mLengths;
+	private int mCount;
+
+	private long mNextSeq;
+	private boolean mPlaying;
+	private long mHighestSeq;
+	private long mLastTs;
+
+	private long mBaseTransit;
+	private long mLastTransit = 0;
+	private long mJitterNs = 0;
+	private long mDelayNs;
+
+	private long mLost = 0;
+	private long mLate = 0;
+	private long mDuplicates = 0;
+	private long mDiscarded = 0;
+}
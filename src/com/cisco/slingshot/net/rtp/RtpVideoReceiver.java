@@ -0,0 +1,171 @@
+package com.cisco.slingshot.net.rtp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import android.util.Log;
+
+import com.cisco.slingshot.utils.Util;
+
+/**
+ * Receives an H.264 RTP stream on a DatagramChannel and turns it into access
+ * units in a {@link FrameQueue}.
+ *
+ * One thread does it all: it waits on a selector until a packet comes or the
+ * jitter buffer has one due, so the pipeline takes no locks of its own.
+ * Packets of other payload types (e.g. a comfort noise or FEC stream on the
+ * same port) are ignored.
+ */
+public class RtpVideoReceiver implements Runnable {
+
+	private static final String LOGTAG = RtpVideoReceiver.class.getSimpleName();
+
+	public static final int MAX_PACKET_SIZE = 1500;
+	// to notice stop() while idle
+	private static final long IDLE_WAIT_MS = 100;
+
+	/**
+	 * Open a channel on the local RTP port.
+	 */
+	public static DatagramChannel openChannel(int localPort) throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+		try {
+			channel.socket().setReuseAddress(true);
+			channel.socket().bind(new InetSocketAddress(localPort));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	/**
+	 * @param channel bound, and connected if only the peer should be heard
+	 * @param payloadType the payload type negotiated for H.264
+	 */
+	public RtpVideoReceiver(DatagramChannel channel, int payloadType, RtpJitterBuffer jitterBuffer,
+			FrameQueue queue) {
+		mChannel = channel;
+		mPayloadType = payloadType;
+		mJitterBuffer = jitterBuffer;
+		mDepacketizer = new H264Depacketizer(queue);
+	}
+
+	public synchronized void start() {
+		if (null != mThread)
+			return;
+		mRunning = true;
+		mThread = new Thread(this, LOGTAG);
+		mThread.setPriority(Thread.MAX_PRIORITY);
+		mThread.start();
+	}
+
+	/**
+	 * Stop the thread and close the channel.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			thread = mThread;
+			mThread = null;
+			mRunning = false;
+		}
+		if (null == thread)
+			return;
+		if (null != mSelector)
+			mSelector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public RtpJitterBuffer getJitterBuffer() {
+		return mJitterBuffer;
+	}
+
+	public H264Depacketizer getDepacketizer() {
+		return mDepacketizer;
+	}
+
+	@Override
+	public void run() {
+		Util.S_Log.d(LOGTAG, "start receiving on " + mChannel.socket().getLocalSocketAddress());
+		try {
+			mSelector = Selector.open();
+			mChannel.configureBlocking(false);
+			mChannel.register(mSelector, SelectionKey.OP_READ);
+
+			while (mRunning) {
+				long now = System.nanoTime();
+				long deadline = mJitterBuffer.nextDeadlineNs();
+				long waitMs = IDLE_WAIT_MS;
+				if (Long.MAX_VALUE != deadline)
+					waitMs = Math.min(waitMs, (deadline - now + 999999) / 1000000);
+
+				if (waitMs > 0)
+					mSelector.select(waitMs);
+				else
+					mSelector.selectNow();
+				mSelector.selectedKeys().clear();
+
+				receive();
+				playout();
+			}
+			mDepacketizer.flush();
+		} catch (IOException e) {
+			Log.e(LOGTAG, "receive failed: " + e.getMessage());
+		} finally {
+			try {
+				if (null != mSelector)
+					mSelector.close();
+				mChannel.close();
+			} catch (IOException e) {
+				Log.e(LOGTAG, "close(): " + e.getMessage());
+			}
+		}
+		Util.S_Log.d(LOGTAG, "stop receiving, " + mDepacketizer.getFrameCount() + " frames, "
+				+ mJitterBuffer.getLostCount() + " packets lost");
+	}
+
+	// -----------------------------------------------------------------
+
+	private void receive() throws IOException {
+		while (true) {
+			mPacket.clear();
+			if (null == mChannel.receive(mPacket))
+				return;
+			mPacket.flip();
+			if (mPacket.remaining() < H264Packetizer.RTP_HEADER_SIZE
+					|| mPayloadType != (mPacket.get(1) & 0x7F))
+				continue;
+			mJitterBuffer.put(mPacket, System.nanoTime());
+		}
+	}
+
+	private void playout() {
+		while (true) {
+			mPacket.clear();
+			int lost = mJitterBuffer.poll(mPacket, System.nanoTime());
+			if (lost < 0)
+				return;
+			mPacket.flip();
+			mDepacketizer.push(mPacket, lost);
+		}
+	}
+
+	private final DatagramChannel mChannel;
+	private final int mPayloadType;
+	private final RtpJitterBuffer mJitterBuffer;
+	private final H264Depacketizer mDepacketizer;
+
+	private final ByteBuffer mPacket = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+	private volatile Selector mSelector = null;
+	private volatile boolean mRunning = false;
+	private Thread mThread = null;
+}
@@ -0,0 +1,62 @@
+package com.cisco.slingshot.net.rtp.test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+
+import com.cisco.slingshot.net.rtp.FrameQueue;
+import com.cisco.slingshot.net.rtp.RtpJitterBuffer;
+import com.cisco.slingshot.net.rtp.RtpVideoCodec;
+import com.cisco.slingshot.net.rtp.RtpVideoReceiver;
+
+/**
+ * Receives an H.264 RTP stream, e.g. from H264FileSender, through the jitter
+ * buffer and writes the access units to a raw .264 file.
+ *
+ * Runs on a desktop JVM with android.util.Log on the class path:
+ * H264FileReceiver port out.264 [seconds] [min delay ms] [max delay ms]
+ */
+public class H264FileReceiver {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.out.println("usage: H264FileReceiver port out.264 [seconds] [min ms] [max ms]");
+			return;
+		}
+		int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 30;
+		int minDelay = (args.length > 3) ? Integer.parseInt(args[3]) : 20;
+		int maxDelay = (args.length > 4) ? Integer.parseInt(args[4]) : 200;
+
+		RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(512, RtpVideoReceiver.MAX_PACKET_SIZE,
+				90000, minDelay, maxDelay);
+		FrameQueue queue = new FrameQueue(8, 512 * 1024);
+		DatagramChannel channel = RtpVideoReceiver.openChannel(Integer.parseInt(args[0]));
+		RtpVideoReceiver receiver = new RtpVideoReceiver(channel, RtpVideoCodec.V_H264.type,
+				jitterBuffer, queue);
+
+		FileOutputStream out = new FileOutputStream(args[1]);
+		FileChannel file = out.getChannel();
+		receiver.start();
+
+		int frames = 0;
+		int corrupt = 0;
+		long end = System.currentTimeMillis() + seconds * 1000L;
+		while (System.currentTimeMillis() < end) {
+			FrameQueue.Frame frame = queue.take(100);
+			if (null == frame)
+				continue;
+			frames++;
+			if (frame.corrupt)
+				corrupt++;
+			file.write(frame.data);
+			queue.recycle(frame);
+		}
+		receiver.stop();
+		out.close();
+
+		System.out.println(frames + " frames, " + corrupt + " corrupt, " + jitterBuffer.getLostCount()
+				+ " packets lost, " + jitterBuffer.getLateCount() + " late, delay "
+				+ jitterBuffer.getDelayMs() + " ms, jitter " + jitterBuffer.getJitterMs() + " ms");
+	}
+}
@@ -0,0 +1,59 @@
+package com.cisco.slingshot.net.rtp.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import com.cisco.slingshot.net.rtp.AnnexBFileFrameSource;
+import com.cisco.slingshot.net.rtp.FrameSource;
+import com.cisco.slingshot.net.rtp.H264Packetizer;
+import com.cisco.slingshot.net.rtp.H264RtpSender;
+import com.cisco.slingshot.net.rtp.RtpVideoCodec;
+
+/**
+ * Streams a raw H.264 file as RTP in real time, e.g. to a desktop player
+ * opening an SDP with "m=video <port> RTP/AVP 97" and "a=rtpmap:97 H264/90000".
+ *
+ * Runs on a desktop JVM with android.util.Log on the class path:
+ * H264FileSender file.264 host port [fps] [mtu] [kbit/s pacing, 0 for none]
+ */
+public class H264FileSender {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 3) {
+			System.out.println("usage: H264FileSender file host port [fps] [mtu] [kbps]");
+			return;
+		}
+		int fps = (args.length > 3) ? Integer.parseInt(args[3]) : 30;
+		int mtu = (args.length > 4) ? Integer.parseInt(args[4]) : H264Packetizer.DEFAULT_MTU;
+		int kbps = (args.length > 5) ? Integer.parseInt(args[5]) : 2000;
+
+		FrameSource source = new AnnexBFileFrameSource(args[0], fps, false);
+		DatagramChannel channel = H264RtpSender.openChannel(0, args[1], Integer.parseInt(args[2]));
+		H264RtpSender sender = new H264RtpSender(channel, RtpVideoCodec.V_H264.type, mtu);
+		sender.setPacing(kbps * 1000, 2 * mtu);
+
+		ByteBuffer frame = ByteBuffer.allocateDirect(1024 * 1024);
+		long start = System.nanoTime();
+		int frames = 0;
+		while (true) {
+			frame.clear();
+			long pts = source.readFrame(frame);
+			if (pts < 0)
+				break;
+			frame.flip();
+
+			// play at the frame rate of the file
+			long wait = pts * 1000 - (System.nanoTime() - start);
+			if (wait > 0)
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			sender.sendFrame(frame, pts);
+			frames++;
+		}
+
+		System.out.println(frames + " frames, " + sender.getPacketCount() + " packets, "
+				+ sender.getOctetCount() + " bytes");
+		source.close();
+		sender.close();
+	}
+}
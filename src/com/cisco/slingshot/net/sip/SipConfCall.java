@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 
 import android.content.Context;
 import android.media.AudioManager;
@@ -43,10 +42,12 @@ import android.os.SystemProperties;
 import android.text.TextUtils;
 import android.util.Log;
 
-import com.cisco.slingshot.exjabber.utils.CallStatusChangeListener;
+import com.cisco.slingshot.call.CallEvent;
+import com.cisco.slingshot.call.CallPrewarm;
+import com.cisco.slingshot.call.CallState;
+import com.cisco.slingshot.call.CallStateMachine;
 import com.cisco.slingshot.net.rtp.RtpVideoCodec;
 import com.cisco.slingshot.net.rtp.VideoStream;
-import com.cisco.slingshot.service.SocketListenerService;
 import com.cisco.slingshot.utils.Util;
 /**
  * Handles an Internet audio call over SIP. You can instantiate this class with
@@ -229,10 +230,10 @@ public class SipConfCall {
 	private String mVideoPort_Key = "video.local.port";
 	private String mVideoPT_Key = "video.local.sdp.pt";
 	private int mVideoPT;
-	private boolean mInCall = false;
 	private boolean mMuted = false;
-	private boolean mHold = false;
-	private boolean mInvisible = false; 
+	// in call, on hold, invisible: the state of this call only, a replacing
+	// call has its own
+	private final CallStateMachine mState = new CallStateMachine("SipConfCall");
 
 	private WifiManager mWm;
 	private WifiManager.WifiLock mWifiHighPerfLock;
@@ -259,15 +260,19 @@ public class SipConfCall {
 			e.printStackTrace();
 		}
 
-		try {
-			mVideoRtp = new VideoStream(mLocalVideo);
-			//mVideoRtp = new VideoStream(mLocalVideo,mLocalVideoPort);
-		} catch (SocketException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (UnknownHostException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		// bound ahead by CallPrewarm while the call was being set up
+		mVideoRtp = CallPrewarm.getInstance(context).takeVideoStream();
+		if (mVideoRtp == null) {
+			try {
+				mVideoRtp = new VideoStream(mLocalVideo);
+				//mVideoRtp = new VideoStream(mLocalVideo,mLocalVideoPort);
+			} catch (SocketException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			} catch (UnknownHostException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
 		}
 
 		mWm = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
@@ -304,17 +309,8 @@ public class SipConfCall {
 				// do nothing
 			} else if (mErrorCode != SipErrorCode.NO_ERROR) {
 				listener.onError(this, mErrorCode, mErrorMessage);
-			} else if (mInCall) {
-				if (mHold) {
-					listener.onCallHeld(this);
-				} else {
-					if(mInvisible){
-						listener.onCallInvisible(this);
-					}else{
-						listener.onCallEstablished(this);
-					}
-					
-				}
+			} else if (mState.isInCall()) {
+				notifyEstablished(listener);
 			} else {
 				int state = getState();
 				switch (state) {
@@ -343,9 +339,7 @@ public class SipConfCall {
 	 * @return true if the call is established
 	 */
 	public boolean isInCall() {
-		synchronized (this) {
-			return mInCall;
-		}
+		return mState.isInCall();
 	}
 
 	/**
@@ -354,8 +348,31 @@ public class SipConfCall {
 	 * @return true if the call is on hold
 	 */
 	public boolean isOnHold() {
-		synchronized (this) {
-			return mHold;
+		return mState.getState().isHeld();
+	}
+
+	/**
+	 * Gets the state of this call.
+	 * 
+	 * @return the call state
+	 */
+	public CallState getCallState() {
+		return mState.getState();
+	}
+
+	// onCallEstablished() tells about the re-INVITE of hold and invisible too
+	private void notifyEstablished(Listener listener) {
+		switch (mState.getState()) {
+		case HELD:
+		case HELD_INVISIBLE:
+			listener.onCallHeld(this);
+			break;
+		case INVISIBLE:
+			listener.onCallInvisible(this);
+			break;
+		default:
+			listener.onCallEstablished(this);
+			break;
 		}
 	}
 
@@ -370,8 +387,7 @@ public class SipConfCall {
 		if (closeRtp)
 			stopCall(RELEASE_SOCKET);
 
-		mInCall = false;
-		mHold = false;
+		mState.fire(CallEvent.ENDED);
 		mSessionId = System.currentTimeMillis();
 		mErrorCode = SipErrorCode.NO_ERROR;
 		mErrorMessage = null;
@@ -472,7 +488,7 @@ public class SipConfCall {
 			public void onRingingBack(SipSession session) {
 				Util.S_Log.d(TAG, "sip call ringing back: " + session);
 				
-				processListener(SocketListenerService.MSG_RINGINGBACK, null);
+				processListener(CallEvent.RINGING_BACK, null);
 				
 				Listener listener = mListener;
 				if (listener != null) {
@@ -487,11 +503,11 @@ public class SipConfCall {
 			@Override
 			public void onRinging(SipSession session, SipProfile peerProfile,
 					String sessionDescription) {
-				processListener(SocketListenerService.MSG_RINGINGBACK, null);
+				processListener(CallEvent.RINGING_BACK, null);
 				// this callback is triggered only for reinvite.
 				synchronized (SipConfCall.this) {
 					if ((mSipSession == null)
-							|| !mInCall
+							|| !isInCall()
 							|| !session.getCallId().equals(
 									mSipSession.getCallId())) {
 						// should not happen
@@ -515,7 +531,7 @@ public class SipConfCall {
 			public void onCallEstablished(SipSession session,
 					String sessionDescription) {
 				
-				processListener(SocketListenerService.MSG_OK, null);
+				processListener(CallEvent.ESTABLISHED, null);
 				
 				mPeerSd = sessionDescription;
 				Log.v(TAG, "onCallEstablished()" + mPeerSd);
@@ -547,15 +563,7 @@ public class SipConfCall {
 				Listener listener = mListener;
 				if (listener != null) {
 					try {
-						if (mHold) {
-							listener.onCallHeld(SipConfCall.this);
-						} else {
-							if(mInvisible){
-								listener.onCallInvisible(SipConfCall.this);
-							}else{
-								listener.onCallEstablished(SipConfCall.this);
-							}
-						}
+						notifyEstablished(listener);
 					} catch (Throwable t) {
 						Log.i(TAG, "onCallEstablished(): " + t);
 					}
@@ -585,14 +593,14 @@ public class SipConfCall {
 					}
 				}
 				
-				processListener(SocketListenerService.MSG_END, null);
+				processListener(CallEvent.ENDED, null);
 				
 				close();
 			}
 
 			@Override
 			public void onCallBusy(SipSession session) {
-				processListener(SocketListenerService.MSG_BUSY, null);
+				processListener(CallEvent.BUSY, null);
 				Util.S_Log.d(TAG, "sip call busy: " + session);
 				Listener listener = mListener;
 				if (listener != null) {
@@ -629,10 +637,8 @@ public class SipConfCall {
 					mListener.onError(SipConfCall.this, errorCode, message);
 				}
 				Util.S_Log.d(TAG, "errorCode = " + errorCode + ", message = " + message);
-				ArrayList<String> list = new ArrayList<String>();
-				list.add(0, String.valueOf(errorCode));
-				list.add(1, message);
-				processListener(SocketListenerService.MSG_ERROR, list);
+				processListener(CallEvent.ERROR,
+						SipErrorCode.toString(errorCode) + ": " + message);
 				SipConfCall.this.onError(errorCode, message);
 			}
 
@@ -723,6 +729,7 @@ public class SipConfCall {
 		synchronized (this) {
 			mSipSession = session;
 			mPeerSd = sessionDescription;
+			mState.fire(CallEvent.INCOMING);
 			
 			/*set remote video source*/
 			try {
@@ -770,6 +777,8 @@ public class SipConfCall {
 
 		synchronized (this) {
 			mSipSession = sipSession;
+			mState.fire(CallEvent.DIAL);
+			processListener(CallEvent.DIAL, peerProfile.getUriString());
 			try {
 				mAudioStream = new AudioStream(
 						InetAddress.getByName(getLocalIp()));
@@ -790,6 +799,8 @@ public class SipConfCall {
 
 		synchronized (this) {
 			mSipSession = sipSession;
+			mState.fire(CallEvent.DIAL);
+			processListener(CallEvent.DIAL, peerProfile.getUriString());
 			try {
 				mAudioStream = new AudioStream(
 						InetAddress.getByName(getLocalIp()));
@@ -810,8 +821,10 @@ public class SipConfCall {
 	 */
 	public void endCall() throws SipException {
 		synchronized (this) {
+			// media start-up checks the state, so hang up before stopping
+			mState.fire(CallEvent.HANGUP);
+			processListener(CallEvent.HANGUP, null);
 			stopCall(RELEASE_SOCKET);
-			mInCall = false;
 
 			// perform the above local ops first and then network op
 			if (mSipSession != null)
@@ -834,13 +847,14 @@ public class SipConfCall {
 	 */
 	public void holdCall(int timeout) throws SipException {
 		synchronized (this) {
-			if (mHold)
+			if (isOnHold())
 				return;
 			if (mSipSession == null) {
 				throw new SipException("Not in a call to hold call");
 			}
 			mSipSession.changeCall(createHoldOffer().encode(), timeout);
-			mHold = true;
+			mState.fire(CallEvent.HOLD);
+			processListener(CallEvent.HOLD, null);
 			setAudioGroupMode();
 		}
 	}
@@ -862,6 +876,8 @@ public class SipConfCall {
 			if (mSipSession == null) {
 				throw new SipException("No call to answer");
 			}
+			mState.fire(CallEvent.ANSWER);
+			processListener(CallEvent.ANSWER, null);
 			try {
 				mAudioStream = new AudioStream(
 						InetAddress.getByName(getLocalIp()));
@@ -890,6 +906,8 @@ public class SipConfCall {
 			if (mSipSession == null) {
 				throw new SipException("No call to answer");
 			}
+			mState.fire(CallEvent.ANSWER);
+			processListener(CallEvent.ANSWER, null);
 			try {
 				mAudioStream = new AudioStream(
 						InetAddress.getByName(getLocalIp()));
@@ -925,10 +943,11 @@ public class SipConfCall {
 	 */
 	public void continueCall(int timeout) throws SipException {
 		synchronized (this) {
-			if (!mHold)
+			if (!isOnHold())
 				return;
 			mSipSession.changeCall(createContinueOffer().encode(), timeout);
-			mHold = false;
+			mState.fire(CallEvent.CONTINUE);
+			processListener(CallEvent.CONTINUE, null);
 			setAudioGroupMode();
 		}
 	}
@@ -1291,7 +1310,7 @@ public class SipConfCall {
 		}
 
 		stopCall(DONT_RELEASE_SOCKET);
-		mInCall = true;
+		mState.fire(CallEvent.ESTABLISHED);
 
 		// Run exact the same logic in createAnswer() to setup mAudioStream.
 		SimpleSessionDescription offer = new SimpleSessionDescription(mPeerSd);
@@ -1331,7 +1350,7 @@ public class SipConfCall {
 					}
 
 					// Handle recvonly and sendonly.
-					if (mHold) {
+					if (isOnHold()) {
 						stream.setMode(RtpStream.MODE_NORMAL);
 					} else if (media.getAttribute("recvonly") != null) {
 						stream.setMode(RtpStream.MODE_SEND_ONLY);
@@ -1357,7 +1376,7 @@ public class SipConfCall {
 
 		// AudioGroup logic:
 		AudioGroup audioGroup = getAudioGroup();
-		if (mHold) {
+		if (isOnHold()) {
 			// don't create an AudioGroup here; doing so will fail if
 			// there's another AudioGroup out there that's active
 		} else {
@@ -1372,7 +1391,7 @@ public class SipConfCall {
 	private void setAudioGroupMode() {
 		AudioGroup audioGroup = getAudioGroup();
 		if (audioGroup != null) {
-			if (mHold) {
+			if (isOnHold()) {
 				audioGroup.setMode(AudioGroup.MODE_ON_HOLD);
 			} else if (mMuted) {
 				audioGroup.setMode(AudioGroup.MODE_MUTED);
@@ -1600,13 +1619,14 @@ public class SipConfCall {
 	public void makeCallInvisible(int timeout)throws SipException{
 		
 		synchronized (this) {
-			if (mHold)
+			if (isOnHold())
 				return;
 			if (mSipSession == null) {
 				throw new SipException("Not in a call to make call invisible");
 			}
 			mSipSession.changeCall(createInvisibleOffer().encode(), timeout);
-			mInvisible = true;
+			mState.fire(CallEvent.HIDE);
+			processListener(CallEvent.HIDE, null);
 		}
 		
 	}
@@ -1806,27 +1826,11 @@ public class SipConfCall {
 	}
 	
 	
-	// add for Jabber <--> STB
-	public static void registerCallListener(CallStatusChangeListener listener)
+	// publish to the call state of the box, listened to by the UI and the
+	// jabber controllers
+	public static void processListener(CallEvent event, String detail)
 	{
-		if((callListener != null) && (listener != null))
-		{
-			Util.S_Log.d(TAG, "callListener = " + callListener);
-			Util.S_Log.d(TAG, "!!! (Complain) only support one listener now !!!");
-		}
-		
-		callListener = listener;
+		Util.S_Log.d(TAG, "event = " + event);
+		CallStateMachine.getInstance().fire(event, detail);
 	}
-	
-	public static void processListener(int msg, ArrayList<String> list)
-	{
-		Util.S_Log.d(TAG, "msg = " + msg);
-		
-		if(null != callListener)
-			callListener.onStatusChange(msg, list);
-		else
-			Util.S_Log.d(TAG, "!!! callListener == null !!!" );
-	}
-	
-	private static CallStatusChangeListener callListener = null;
 }
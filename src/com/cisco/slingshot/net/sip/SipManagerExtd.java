@@ -8,6 +8,8 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.sip.*;
 
+import com.cisco.slingshot.utils.CallTrace;
+
 public class SipManagerExtd {
 
     private Context mContext;
@@ -318,11 +320,16 @@ public class SipManagerExtd {
 			throw new SipException("Camera API is not supported");
 		}
 		
-		SipConfCall call = new SipConfCall(mContext, localProfile);
-		call.setListener(listener);
-		SipSession s = createSipSession(localProfile, null);
-		call.makeConfCall(peerProfile, s, timeout);
-		return call;
+		final long start = CallTrace.begin();
+		try {
+			SipConfCall call = new SipConfCall(mContext, localProfile);
+			call.setListener(listener);
+			SipSession s = createSipSession(localProfile, null);
+			call.makeConfCall(peerProfile, s, timeout);
+			return call;
+		} finally {
+			CallTrace.end("SipManagerExtd.makeConfCall", start);
+		}
 	}
 
     /**
@@ -394,6 +401,7 @@ public class SipManagerExtd {
                     + "call intent");
         }
 
+        final long start = CallTrace.begin();
         try {
             SipSession session = getSessionFor(incomingCallIntent);
             if (session == null) {
@@ -406,6 +414,8 @@ public class SipManagerExtd {
             return call;
         } catch (Throwable t) {
             throw new SipException("takeConfCall()", t);
+        } finally {
+            CallTrace.end("SipManagerExtd.takeConfCall", start);
         }
 	}
 
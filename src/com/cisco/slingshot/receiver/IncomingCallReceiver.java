@@ -2,7 +2,6 @@
 package com.cisco.slingshot.receiver;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Properties;
 
 import android.app.Dialog;
@@ -10,8 +9,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.drawable.Drawable;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.preference.PreferenceManager;
@@ -26,10 +23,12 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import com.cisco.slingshot.R;
+import com.cisco.slingshot.call.CallEvent;
 import com.cisco.slingshot.call.CallManager;
+import com.cisco.slingshot.call.CallStateMachine;
 import com.cisco.slingshot.contact.Contact;
 import com.cisco.slingshot.contact.ContactDatabase;
-import com.cisco.slingshot.exjabber.utils.CallStatusChangeListener;
+import com.cisco.slingshot.contact.ContactPhotoLoader;
 import com.cisco.slingshot.history.HistoryItem;
 import com.cisco.slingshot.history.HistroyManager;
 import com.cisco.slingshot.net.sip.SipConfCall;
@@ -291,12 +290,7 @@ public class IncomingCallReceiver extends BroadcastReceiver {
         ImageView user_image = (ImageView)layout.findViewById(R.id.diag_incoming_user_image);
         //user_image.setImageResource(R.drawable.contact_photo_default1);
         
-        InputStream photo = Contact.findPhotoInAssets(context, incomingUser.get_address());
-        if(photo!=null){
-        	user_image.setImageDrawable(Drawable.createFromStream(photo, null));
-        }else{
-        	user_image.setImageResource(R.drawable.contact_photo_default1);
-        }
+        ContactPhotoLoader.getInstance(context).loadPhoto(user_image, incomingUser.get_address(), R.drawable.contact_photo_default1);
         final IncomingcallListener _chosenLisener 
         		= (mReplacedListener != null)?
         		   mReplacedListener:mFundaMentalListener;
@@ -416,26 +410,11 @@ public class IncomingCallReceiver extends BroadcastReceiver {
     
     
  // add for Jabber <--> STB
-	public static void registerCallListener(CallStatusChangeListener listener)
-	{
-		if((callListener != null) && (listener != null))
-		{
-			Util.S_Log.d(LOG_TAG, "!!! (Complain) only support one listener now !!!");
-		}
-		
-		callListener = listener;
-	}
-	
+	// publish the ringing call to the call state of the box
 	public static void processListener(String addr)
 	{
 		Util.S_Log.d(LOG_TAG, "addr = " + addr);
-		
-		if(null != callListener)
-			callListener.onReceiveCall(addr);
-		else
-		{
-			Util.S_Log.d(LOG_TAG, "!!! callListener == null !!!");
-		}
+		CallStateMachine.getInstance().fire(CallEvent.INCOMING, addr);
 	}
 	
 	private static Handler handler = new Handler()
@@ -443,16 +422,13 @@ public class IncomingCallReceiver extends BroadcastReceiver {
 
 		@Override
 		public void handleMessage(Message msg) {
-			// TODO Auto-generated method stub
-			Bundle b = msg.getData();
-			String cmd = b.getString(CMD);
-			if(cmd.equals(CMD_ANSWER))
-			{
+			switch (msg.what) {
+			case CMD_ANSWER:
 				exBtnAnswer.performClick();
-			}
-			else if (cmd.equals(CMD_DENY))
-			{
+				break;
+			case CMD_DENY:
 				exBtnDeny.performClick();
+				break;
 			}
 			super.handleMessage(msg);
 		}
@@ -461,26 +437,17 @@ public class IncomingCallReceiver extends BroadcastReceiver {
 	
 	public static void answerCall()
 	{
-		Message msg = handler.obtainMessage();
-		Bundle b = new Bundle();
-		b.putString(CMD, CMD_ANSWER);
-		msg.setData(b);
-		msg.sendToTarget();
+		handler.sendEmptyMessage(CMD_ANSWER);
 	}
 	
 	public static void denyCall()
 	{
-		Message msg = handler.obtainMessage();
-		Bundle b = new Bundle();
-		b.putString(CMD, CMD_DENY);
-		msg.setData(b);
-		msg.sendToTarget();
+		handler.sendEmptyMessage(CMD_DENY);
 	}
 	
-	private static CallStatusChangeListener callListener = null;
 	public static Button exBtnDeny;
 	public static Button exBtnAnswer;
-	private static final String CMD = "CMD";
-	private static final String CMD_ANSWER = "answer";
-	private static final String CMD_DENY = "deny";
+	// Message.what, the messages come from the Handler pool
+	private static final int CMD_ANSWER = 1;
+	private static final int CMD_DENY = 2;
 }
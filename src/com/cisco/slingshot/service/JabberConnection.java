@@ -0,0 +1,175 @@
+package com.cisco.slingshot.service;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import com.cisco.slingshot.exjabber.JabberStreamParser;
+import com.cisco.slingshot.exjabber.JabberXmlSerializer;
+import com.cisco.slingshot.exjabber.data.JabberCallSession;
+
+/**
+ * One jabber controller connected to the SocketListenerService control port.
+ *
+ * Holds everything that used to be shared by the single client socket thread:
+ * the stream parser framing the incoming messages, a bounded buffer of pending
+ * writes and the call session driven through this connection. Outgoing
+ * sessions are serialized straight into that buffer. Reads and writes are only done on
+ * the selector thread, messages may be queued from any thread.
+ */
+class JabberConnection {
+
+	JabberConnection(SocketChannel channel, int maxMessageLen) {
+		mChannel = channel;
+		mParser = new JabberStreamParser(maxMessageLen);
+		mPeer = String.valueOf(channel.socket().getRemoteSocketAddress());
+	}
+
+	SocketChannel getChannel() {
+		return mChannel;
+	}
+
+	SelectionKey getKey() {
+		return mKey;
+	}
+
+	void setKey(SelectionKey key) {
+		mKey = key;
+	}
+
+	String getPeer() {
+		return mPeer;
+	}
+
+	JabberCallSession getSession() {
+		return mSession;
+	}
+
+	void setSession(JabberCallSession session) {
+		mSession = session;
+	}
+
+	JabberStreamParser getParser() {
+		return mParser;
+	}
+
+	/**
+	 * Read whatever is available on the channel, ready for {@link #nextEvent()}.
+	 * @return false if the remote side closed the connection
+	 */
+	boolean read() throws IOException {
+		mReadBuffer.clear();
+		int count = mChannel.read(mReadBuffer);
+		mReadBuffer.flip();
+		return count >= 0;
+	}
+
+	/**
+	 * Parse the bytes of the last read up to the next complete event.
+	 * @return one of the JabberStreamParser events, EVENT_NONE once all is consumed
+	 */
+	int nextEvent() {
+		return mParser.next(mReadBuffer);
+	}
+
+	/**
+	 * Serialize a session into the write queue for the selector thread.
+	 * @return false if the write queue is full, the connection should be dropped
+	 */
+	synchronized boolean enqueue(JabberCallSession session) {
+		if (mOverflowed)
+			return false;
+
+		int start = mWriteBuffer.position();
+		try {
+			JabberXmlSerializer.write(session, mWriteBuffer);
+			mWriteBuffer.put((byte) '\n');
+		} catch (BufferOverflowException e) {
+			mWriteBuffer.position(start);
+			mOverflowed = true;
+		}
+		return !mOverflowed;
+	}
+
+	/**
+	 * Queue a plain text message for the selector thread to write.
+	 * @return false if the write queue is full, the connection should be dropped
+	 */
+	synchronized boolean enqueue(String msg) {
+		if (mOverflowed)
+			return false;
+
+		byte[] data = null;
+		try {
+			data = msg.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			data = msg.getBytes();
+		}
+
+		if (data.length > mWriteBuffer.remaining()) {
+			mOverflowed = true;
+			return false;
+		}
+		mWriteBuffer.put(data);
+		return true;
+	}
+
+	/**
+	 * Write as much of the queue as the socket accepts.
+	 * @return true if the queue is drained
+	 */
+	synchronized boolean flush() throws IOException {
+		mWriteBuffer.flip();
+		try {
+			mChannel.write(mWriteBuffer);
+		} finally {
+			mWriteBuffer.compact();
+		}
+		return 0 == mWriteBuffer.position();
+	}
+
+	synchronized boolean isOverflowed() {
+		return mOverflowed;
+	}
+
+	/**
+	 * Bytes the write queue can still take, 0 once it overflowed.
+	 */
+	synchronized int remaining() {
+		return mOverflowed ? 0 : mWriteBuffer.remaining();
+	}
+
+	void close() {
+		if (null != mKey)
+			mKey.cancel();
+		try {
+			mChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		synchronized (this) {
+			mWriteBuffer.clear();
+		}
+	}
+
+	// -----------------------------------------------------------------
+	private static final String CHARSET = "UTF-8";
+	private static final int READ_BUFFER_SIZE = 1024;
+	// about 32 messages, the queue is bounded in bytes
+	static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+	private final SocketChannel mChannel;
+	private final String mPeer;
+	private SelectionKey mKey = null;
+
+	private final ByteBuffer mReadBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private final JabberStreamParser mParser;
+
+	private final ByteBuffer mWriteBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+	private boolean mOverflowed = false;
+
+	private JabberCallSession mSession = null;
+}
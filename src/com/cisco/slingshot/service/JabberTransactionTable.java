@@ -0,0 +1,163 @@
+package com.cisco.slingshot.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+import com.cisco.slingshot.exjabber.JabberSessionMap;
+import com.cisco.slingshot.exjabber.data.JabberCallSession;
+
+/**
+ * Requests received from the jabber controllers which are still waiting for
+ * their final response, keyed by CallID + TranId.
+ *
+ * Lets a controller pipeline several requests: each one is recorded here when
+ * it is dispatched and the response is matched back to it whenever the call
+ * reaches the right state. Only used from the SocketListenerService dispatch
+ * thread, so it is not synchronized.
+ *
+ * Keyed by the primitive (CallID, TranId) pair, a lookup neither builds a key
+ * String nor boxes anything.
+ */
+class JabberTransactionTable {
+
+	static class Entry {
+
+		Entry(JabberConnection conn, JabberCallSession request, long seq) {
+			this.conn = conn;
+			this.request = request;
+			this.seq = seq;
+		}
+
+		long getCallID() {
+			return request.getCallID();
+		}
+
+		long getTranId() {
+			return request.getTransaction().getTranId();
+		}
+
+		String getMethodType() {
+			return request.getTransaction().getMethod().getType();
+		}
+
+		// no final response wanted any more, stop the timer
+		void cancelTimeout() {
+			if (null != timeout) {
+				timeout.cancel(false);
+				timeout = null;
+			}
+		}
+
+		final JabberConnection conn;
+		final JabberCallSession request;
+		// arrival order, the map itself is unordered
+		final long seq;
+		ScheduledFuture<?> timeout = null;
+	}
+
+	/**
+	 * @return the new entry, or null if the same transaction is already pending
+	 */
+	Entry add(JabberConnection conn, JabberCallSession request) {
+		long callId = request.getCallID();
+		long tranId = request.getTransaction().getTranId();
+		if (mEntries.containsKey(callId, tranId))
+			return null;
+
+		Entry entry = new Entry(conn, request, mNextSeq++);
+		mEntries.put(callId, tranId, entry);
+		return entry;
+	}
+
+	boolean contains(JabberCallSession request) {
+		return mEntries.containsKey(request.getCallID(),
+				request.getTransaction().getTranId());
+	}
+
+	boolean contains(Entry entry) {
+		return mEntries.get(entry.getCallID(), entry.getTranId()) == entry;
+	}
+
+	/**
+	 * Oldest pending request of a call with the given method.
+	 */
+	Entry find(long callId, String methodType) {
+		Entry oldest = null;
+		for (Entry entry : snapshot()) {
+			if (entry.getCallID() == callId
+					&& entry.getMethodType().equals(methodType)
+					&& (null == oldest || entry.seq < oldest.seq))
+				oldest = entry;
+		}
+		return oldest;
+	}
+
+	/**
+	 * Remove the entry and stop its timer.
+	 */
+	void remove(Entry entry) {
+		if (contains(entry))
+			mEntries.remove(entry.getCallID(), entry.getTranId());
+		entry.cancelTimeout();
+	}
+
+	/**
+	 * Remove and return every pending request of a call, oldest first.
+	 */
+	List<Entry> removeCall(long callId) {
+		List<Entry> removed = new ArrayList<Entry>();
+		for (Entry entry : snapshot()) {
+			if (entry.getCallID() == callId) {
+				mEntries.remove(entry.getCallID(), entry.getTranId());
+				entry.cancelTimeout();
+				removed.add(entry);
+			}
+		}
+		Collections.sort(removed, BY_ARRIVAL);
+		return removed;
+	}
+
+	/**
+	 * Drop every request of a closed connection, nobody is left to answer.
+	 */
+	void removeConnection(JabberConnection conn) {
+		for (Entry entry : snapshot()) {
+			if (entry.conn == conn) {
+				mEntries.remove(entry.getCallID(), entry.getTranId());
+				entry.cancelTimeout();
+			}
+		}
+	}
+
+	void clear() {
+		for (Entry entry : snapshot()) {
+			entry.cancelTimeout();
+		}
+		mEntries.clear();
+	}
+
+	int size() {
+		return mEntries.size();
+	}
+
+	// the entries in a reused list, safe to remove from the map while walking it
+	private List<Entry> snapshot() {
+		mScratch.clear();
+		mEntries.values(mScratch);
+		return mScratch;
+	}
+
+	private static final Comparator<Entry> BY_ARRIVAL = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			return (a.seq < b.seq) ? -1 : ((a.seq == b.seq) ? 0 : 1);
+		}
+	};
+
+	private final JabberSessionMap<Entry> mEntries = new JabberSessionMap<Entry>();
+	private final List<Entry> mScratch = new ArrayList<Entry>();
+	private long mNextSeq = 0;
+}
@@ -10,8 +10,11 @@ import android.util.Log;
 import com.cisco.slingshot.call.AccountManager;
 import com.cisco.slingshot.call.AccountManager.LoginAccount;
 import com.cisco.slingshot.call.CallManager;
+import com.cisco.slingshot.call.CallStats;
 import com.cisco.slingshot.call.ConnectStateData;
 import com.cisco.slingshot.call.ConnectionStateListener;
+import com.cisco.slingshot.contact.CallerIdResolver;
+import com.cisco.slingshot.history.CallQualityRecorder;
 import com.cisco.slingshot.receiver.DataNetworkInfoReceiver;
 import com.cisco.slingshot.receiver.EthenetHotPlugEventReceiver;
 import com.cisco.slingshot.receiver.EthenetHotPlugEventReceiver.EthenetHotPlugEventHandler;
@@ -48,6 +51,10 @@ public class SlingShotService extends Service implements IncomingcallListener,
 		mCallReceiver = IncomingCallReceiver.getInstance();
 		mCallManager = CallManager.getInstance(SlingShotService.this);
 		mCallManager.addConnectionStateListener(this);
+		CallStats.getInstance().start();
+		CallQualityRecorder.getInstance().start(this);
+		//the contacts of the callers, ready before the first ring
+		CallerIdResolver.getInstance(this).warm();
 		
 		Intent i = new Intent(this, SocketListenerService.class);
 		startService(i);
@@ -74,6 +81,8 @@ public class SlingShotService extends Service implements IncomingcallListener,
 	public void onDestroy(){
 		Log.v(LOG_TAG, "slingshot  Service is destroyed");
 		this.unregisterReceiver(mCallReceiver);	
+		CallStats.getInstance().stop();
+		CallQualityRecorder.getInstance().stop();
 		//CallManager.getInstance(this).releaseSip();
 	}
 
@@ -1,20 +1,26 @@
 package com.cisco.slingshot.service;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.LinkedList;
-import java.util.Random;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import android.app.Service;
 import android.content.Context;
@@ -27,21 +33,27 @@ import android.os.RemoteException;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.cisco.slingshot.call.CallEvent;
 import com.cisco.slingshot.call.CallManager;
+import com.cisco.slingshot.call.CallState;
+import com.cisco.slingshot.call.CallStateListener;
+import com.cisco.slingshot.call.CallStateMachine;
+import com.cisco.slingshot.call.CallStats;
 import com.cisco.slingshot.contact.Contact;
 import com.cisco.slingshot.exjabber.JabberActionParser;
+import com.cisco.slingshot.exjabber.JabberIdAllocator;
+import com.cisco.slingshot.exjabber.JabberStreamParser;
 import com.cisco.slingshot.exjabber.data.JabberCallSession;
 import com.cisco.slingshot.exjabber.data.JabberMethod;
 import com.cisco.slingshot.exjabber.data.JabberTransaction;
-import com.cisco.slingshot.exjabber.utils.CallStatusChangeListener;
-import com.cisco.slingshot.net.sip.SipConfCall;
 import com.cisco.slingshot.receiver.IncomingCallReceiver;
 import com.cisco.slingshot.ui.InCallView;
 import com.cisco.slingshot.utils.AsyncCallTask;
+import com.cisco.slingshot.utils.CallTrace;
 import com.cisco.slingshot.utils.Util;
 
 public class SocketListenerService extends Service implements
-		CallStatusChangeListener {
+		CallStateListener {
 
 	@Override
 	public IBinder onBind(Intent arg0) {
@@ -57,9 +69,21 @@ public class SocketListenerService extends Service implements
 
 		super.onCreate();
 
+		dispatcher = Executors.newSingleThreadScheduledExecutor();
 		startListener(Integer.parseInt(serverPort));
 	}
 
+	@Override
+	public void onDestroy() {
+		Util.S_Log.d(TAG, "enter onDestroy");
+
+		stopListener();
+		postConnectInit();
+		dispatcher.shutdownNow();
+
+		super.onDestroy();
+	}
+
 	@Override
 	@Deprecated
 	public void onStart(Intent intent, int startId) {
@@ -108,246 +132,304 @@ public class SocketListenerService extends Service implements
 		return true;
 	}
 
+	// delivered on the dispatcher by the call event bus
 	@Override
-	public void onReceiveCall(String addr) {
-		// TODO Auto-generated method stub
+	public void onCallStateChanged(CallState from, CallState to, CallEvent event, String detail) {
+		handleStateChange(from, to, event, detail);
+	}
+
+	// -----------------------------------------------------------------
+
+	private void handleReceiveCall(String addr) {
 		Util.S_Log.d(TAG, "receiving call from " + addr);
-		
-		// switch status
-		if(CALLSTATUS.IDLE != callStatus)
-		{
-			Util.S_Log.d(TAG, "!!!(BUG), incoming call, but callStatus = " + callStatus +"(not IDLE)!!!");
-		}
-		switchCallstatus(CALLSTATUS.INCOMING_CALL);
 
 		// generate a new session
 		JabberMethod method = new JabberMethod(null, null, null);
 		method.setType(JabberActionParser.VAL_Method_TYPE_INVITE);
 		method.setUrl(addr);
 
-		JabberTransaction transaction = new JabberTransaction(null, null,
+		JabberTransaction transaction = new JabberTransaction(null, JabberCallSession.NO_ID,
 				method);
 		transaction.setType(JabberActionParser.VAL_Transaction_TYPE_REQ);
-		Random rdm = new Random(System.currentTimeMillis());
-		String transid = String.valueOf(Math.abs(rdm.nextInt())%100 + 100);
-		//String transid = new String("123"); // !!! debug code !!!
-		transaction.setTranId(transid);
+		transaction.setTranId(ids.nextTranId());
 
-		JabberCallSession retSession = new JabberCallSession("", transaction);
-		rdm = new Random(System.currentTimeMillis());
-		String callid = String.valueOf(Math.abs(rdm.nextInt())%1000 + 1000);
-		//String callid = new String("1234"); // !!! debug code !!!
-		retSession.setCallID(callid);
+		JabberCallSession retSession = new JabberCallSession(ids.nextCallId(), transaction);
 
-		curSession = retSession;
-
-		sendSessionXmlString(retSession);
+		// offer the call to every controller, the first one to answer owns it
+		callOwner = null;
+		for (JabberConnection conn : connections) {
+			conn.setSession(retSession);
+			sendSessionXmlString(conn, retSession);
+		}
 	}
 
-	@Override
-	public void onStatusChange(int status, ArrayList<String> list) {
-		// all these status are from current session
+	// the call state changed, tell the controllers
+	private void handleStateChange(CallState from, CallState to, CallEvent event, String detail) {
+		// all these status are from current session, find the request it answers
+		JabberCallSession curSession = (null != callOwner) ? callOwner.getSession() : null;
+		long callId = (null != curSession) ? curSession.getCallID() : JabberCallSession.NO_ID;
+		JabberTransactionTable.Entry invite = (JabberCallSession.NO_ID != callId) ? transactions.find(
+				callId, JabberActionParser.VAL_Method_TYPE_INVITE) : null;
 
-		Util.S_Log.d(TAG, "onStatusChange >>> current callStatus = " + callStatus
-				+ ", status = " + status + "(" + msg2String(status) + ")");
+		Util.S_Log.d(TAG, "onCallStateChanged >>> " + from + " --" + event + "--> " + to);
 
-		switch (status) {
-		case MSG_RINGINGBACK: {
-			if (CALLSTATUS.OUTGOING_CALL != callStatus)
+		switch (event) {
+		case INCOMING:
+			handleReceiveCall(detail);
+			break;
+		case RINGING_BACK: {
+			if (null == invite)
 				return;
 
-			JabberMethod method = new JabberMethod(null, null, null);
-			method.setType(JabberActionParser.VAL_Method_TYPE_INVITE);
-			method.setCode(JabberActionParser.VAL_Method_CODE_RINGING);
-
-			JabberTransaction transaction = new JabberTransaction(null, null,
-					method);
-			transaction.setType(JabberActionParser.VAL_Transaction_TYPE_RES);
-			transaction.setTranId(curSession.getTransaction().getTranId());
+			// provisional response, the INVITE stays pending but can not time out
+			invite.cancelTimeout();
+			sendResponse(invite, JabberActionParser.VAL_Method_CODE_RINGING);
 
-			JabberCallSession retSession = new JabberCallSession("",
-					transaction);
-			retSession.setCallID(curSession.getCallID());
-
-			sendSessionXmlString(retSession);
+			callViewReady = true;
+			endCallIfRequested(callId);
 		}
 			break;
-		case MSG_OK: {
-			
-			if (callStatus == CALLSTATUS.INCOMING_CALL) {
-				switchCallstatus(CALLSTATUS.IN_A_CALL);
+		case ESTABLISHED: {
+			// an answered incoming call has nothing to report
+			if (CallState.OUTGOING != from && CallState.ALERTING != from)
 				return;
-			}
-
-			if (CALLSTATUS.OUTGOING_CALL != callStatus)
-				return;
-			
-			switchCallstatus(CALLSTATUS.IN_A_CALL);
 
-			JabberMethod method = new JabberMethod(null, null, null);
-			method.setType(JabberActionParser.VAL_Method_TYPE_INVITE);
-			method.setCode(JabberActionParser.VAL_Method_CODE_OK);
-
-			JabberTransaction transaction = new JabberTransaction(null, null,
-					method);
-			transaction.setType(JabberActionParser.VAL_Transaction_TYPE_RES);
-			transaction.setTranId(getSessionTransId());
+			if (null != invite) {
+				transactions.remove(invite);
+				sendResponse(invite, JabberActionParser.VAL_Method_CODE_OK);
+			}
 
-			JabberCallSession retSession = new JabberCallSession("",
-					transaction);
-			retSession.setCallID(getSessionCallId());
+			callViewReady = true;
+			endCallIfRequested(callId);
+		}
+			break;
+		case BUSY: {
+			if (JabberCallSession.NO_ID != callId)
+				completeCall(callId, JabberActionParser.VAL_Method_CODE_BUSY);
+			releaseCall();
+		}
+			break;
+		case ERROR:
+		{
+			Util.S_Log.d(TAG, "process ERROR!!! " + detail);
 
-			sendSessionXmlString(retSession);
+			// process as busy
+			if (JabberCallSession.NO_ID == callId
+					|| !completeCall(callId, JabberActionParser.VAL_Method_CODE_BUSY)) {
+				for (JabberConnection conn : callConnections()) {
+					sendErrorResponse(conn, conn.getSession());
+				}
+			}
+			releaseCall();
 		}
 			break;
-		case MSG_BUSY: {
-			if (CALLSTATUS.OUTGOING_CALL != callStatus)
+		case HANGUP:
+			if (CallState.IDLE != to) {
+				// wait for the session to end
 				return;
+			}
+			// an unanswered call rejected on the box, same as ended
+		case ENDED: {
+			Util.S_Log.d(TAG, "process ENDED!!!");
+
+			if (JabberCallSession.NO_ID == callId
+					|| null == transactions.find(callId, JabberActionParser.VAL_Method_TYPE_BYE)) {
+				// ended by the far end, tell the controllers
+				for (JabberConnection conn : callConnections()) {
+					sendByeRequest(conn, conn.getSession());
+				}
+			}
+			if (JabberCallSession.NO_ID != callId)
+				completeCall(callId, JabberActionParser.VAL_Method_CODE_BUSY);
+			releaseCall();
+		}
+			break;
+		default:
+			break;
+		}
+	}
 
-			// should change the call status??
-			switchCallstatus(CALLSTATUS.IDLE);
-
-			JabberMethod method = new JabberMethod(null, null, null);
-			method.setType(JabberActionParser.VAL_Method_TYPE_INVITE);
-			method.setCode(JabberActionParser.VAL_Method_CODE_BUSY);
-
-			JabberTransaction transaction = new JabberTransaction(null, null,
-					method);
-			transaction.setType(JabberActionParser.VAL_Transaction_TYPE_RES);
-			transaction.setTranId(getSessionTransId());
-
-			JabberCallSession retSession = new JabberCallSession("",
-					transaction);
-			retSession.setCallID(curSession.getCallID());
+	/**
+	 * Give the final response to every request still pending for a call which
+	 * is over: a BYE succeeded, an INVITE gets the given code.
+	 * @return false if there was nothing pending
+	 */
+	private boolean completeCall(long callId, String inviteCode) {
+		List<JabberTransactionTable.Entry> pending = transactions.removeCall(callId);
+		for (JabberTransactionTable.Entry entry : pending) {
+			if (JabberActionParser.VAL_Method_TYPE_BYE.equals(entry.getMethodType()))
+				sendResponse(entry, JabberActionParser.VAL_Method_CODE_OK);
+			else
+				sendResponse(entry, inviteCode);
+		}
+		return !pending.isEmpty();
+	}
 
-			sendSessionXmlString(retSession);
+	// a BYE pipelined behind the INVITE waits until the call view is up
+	private void endCallIfRequested(long callId) {
+		if (null != transactions.find(callId, JabberActionParser.VAL_Method_TYPE_BYE)) {
+			Util.S_Log.d(TAG, "process pending BYE of call " + callId);
+			InCallView.exEndCall();
 		}
-			break;
-		case MSG_ERROR:
-		{
-			Util.S_Log.d(TAG, "process MSG_ERROR!!!");
-			Util.S_Log.d(TAG, "para[0] = " + list.get(0));
-			Util.S_Log.d(TAG, "para[1] = " + list.get(1));
-			
-			switchCallstatus(CALLSTATUS.IDLE);
-			
-			// process as busy
-			JabberMethod method = new JabberMethod(null, null, null);
-			method.setType(JabberActionParser.VAL_Method_TYPE_INVITE);
-			method.setCode(JabberActionParser.VAL_Method_CODE_BUSY);
+	}
 
-			JabberTransaction transaction = new JabberTransaction(null, null,
-					method);
-			transaction.setType(JabberActionParser.VAL_Transaction_TYPE_RES);
-			transaction.setTranId(curSession.getTransaction().getTranId());
+	private void sendResponse(JabberTransactionTable.Entry entry, String code)
+	{
+		sendResponse(entry.conn, entry.request, code);
+	}
 
-			JabberCallSession retSession = new JabberCallSession("",
-					transaction);
-			retSession.setCallID(curSession.getCallID());
+	// response to a request, same CallID, TranId and method
+	private void sendResponse(JabberConnection conn, JabberCallSession request, String code)
+	{
+		JabberMethod method = new JabberMethod(null, null, null);
+		method.setType(request.getTransaction().getMethod().getType());
+		method.setCode(code);
 
-			sendSessionXmlString(retSession);
-			
-			curSession = null;
+		JabberTransaction transaction = new JabberTransaction(null, JabberCallSession.NO_ID,
+				method);
+		transaction.setType(JabberActionParser.VAL_Transaction_TYPE_RES);
+		transaction.setTranId(request.getTransaction().getTranId());
 
-		}
-			break;
-		case MSG_END: {
-			Util.S_Log.d(TAG, "process MSG_END!!!");
+		JabberCallSession retSession = new JabberCallSession(JabberCallSession.NO_ID,
+				transaction);
+		retSession.setCallID(request.getCallID());
 
-			if(CALLSTATUS.IDLE == callStatus)
-			{
-				// if status has been set to IDLE, no further process
-				Util.S_Log.d(TAG, "in IDLE, receive MSG_END");
-				return;
-			}
-			
-			switchCallstatus(CALLSTATUS.IDLE);
+		sendSessionXmlString(conn, retSession);
+	}
 
-			JabberMethod method = new JabberMethod(null, null, null);
-			method.setType(JabberActionParser.VAL_Method_TYPE_BYE);
-			String url = curSession.getTransaction().getMethod().getUrl();
-			if((null == url) || url.isEmpty())
-			{
-				method.setUrl("empty");
-			}
-			else
-			{
-				method.setUrl(curSession.getTransaction().getMethod().getUrl());
+	// record a request and arm its timeout
+	private boolean addTransaction(JabberConnection conn, JabberCallSession request)
+	{
+		final JabberTransactionTable.Entry entry = transactions.add(conn, request);
+		if (null == entry)
+			return false;
+
+		entry.timeout = dispatcher.schedule(new Runnable() {
+			@Override
+			public void run() {
+				onTransactionTimeout(entry);
 			}
+		}, TRANSACTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		return true;
+	}
 
-			JabberTransaction transaction = new JabberTransaction(null, null,
-					method);
-			transaction.setType(JabberActionParser.VAL_Transaction_TYPE_REQ);
-			String transid = curSession.getTransaction().getTranId();
-			transid = String.valueOf(Integer.parseInt(transid) + 1); // increase
-																		// i to
-																		// the
-																		// transid
-			curSession.getTransaction().setTranId(transid);
-			transaction.setTranId(curSession.getTransaction().getTranId());
+	private void onTransactionTimeout(JabberTransactionTable.Entry entry)
+	{
+		if (!transactions.contains(entry))
+			return;
 
-			JabberCallSession retSession = new JabberCallSession("",
-					transaction);
-			retSession.setCallID(curSession.getCallID());
-			
-			sendSessionXmlString(retSession);
+		Util.S_Log.d(TAG, "transaction timeout : " + entry.getMethodType() + " "
+				+ entry.getCallID() + "/" + entry.getTranId());
+		transactions.remove(entry);
+		sendResponse(entry, JabberActionParser.VAL_Method_CODE_TIMEOUT);
+	}
 
-			curSession = null;
-		}
-			break;
-		case MSG_RINGING:
-			break;
+	// run on the dispatch thread, all call state is only touched there
+	private void dispatch(Runnable task)
+	{
+		try {
+			dispatcher.execute(task);
+		} catch (RejectedExecutionException e) {
+			Util.S_Log.d(TAG, "service stopped, drop task");
 		}
 	}
 
 	// -----------------------------------------------------------------
 	
-	private String getSessionCallId()
+	// busy response to the request the call was started with
+	private void sendErrorResponse(JabberConnection conn, JabberCallSession curSession)
 	{
-		String callid = null;
-		if(null != curSession)
+		JabberMethod method = new JabberMethod(null, null, null);
+		method.setType(JabberActionParser.VAL_Method_TYPE_INVITE);
+		method.setCode(JabberActionParser.VAL_Method_CODE_BUSY);
+
+		JabberTransaction transaction = new JabberTransaction(null, JabberCallSession.NO_ID,
+				method);
+		transaction.setType(JabberActionParser.VAL_Transaction_TYPE_RES);
+		transaction.setTranId(curSession.getTransaction().getTranId());
+
+		JabberCallSession retSession = new JabberCallSession(JabberCallSession.NO_ID,
+				transaction);
+		retSession.setCallID(curSession.getCallID());
+
+		sendSessionXmlString(conn, retSession);
+	}
+	
+	// BYE request to tell the controller the call has ended
+	private void sendByeRequest(JabberConnection conn, JabberCallSession curSession)
+	{
+		JabberMethod method = new JabberMethod(null, null, null);
+		method.setType(JabberActionParser.VAL_Method_TYPE_BYE);
+		String url = curSession.getTransaction().getMethod().getUrl();
+		if((null == url) || url.isEmpty())
 		{
-			callid = String.valueOf(Integer.parseInt(curSession.getCallID()));
+			method.setUrl("empty");
 		}
 		else
 		{
-			Random rdm = new Random(System.currentTimeMillis());
-			callid = String.valueOf(Math.abs(rdm.nextInt())%1000 + 1000);
+			method.setUrl(curSession.getTransaction().getMethod().getUrl());
 		}
+
+		JabberTransaction transaction = new JabberTransaction(null, JabberCallSession.NO_ID,
+				method);
+		transaction.setType(JabberActionParser.VAL_Transaction_TYPE_REQ);
+		// increase 1 to the transid, the session may be shared by several
+		// controllers so leave it untouched
+		transaction.setTranId(curSession.getTransaction().getTranId() + 1);
+
+		JabberCallSession retSession = new JabberCallSession(JabberCallSession.NO_ID,
+				transaction);
+		retSession.setCallID(curSession.getCallID());
 		
-		return callid;
+		sendSessionXmlString(conn, retSession);
 	}
 	
-	private String getSessionTransId()
+	// connections which take part in the current call: the owner, or every
+	// controller an incoming call was offered to if none has answered yet
+	private List<JabberConnection> callConnections()
 	{
-		String transid = null;
-		if(null != curSession)
+		List<JabberConnection> list = new ArrayList<JabberConnection>();
+		if(null != callOwner)
 		{
-			transid = String.valueOf(Integer.parseInt(curSession.getTransaction().getTranId()));
+			list.add(callOwner);
+			return list;
 		}
-		else
-		{
-			Random rdm = new Random(System.currentTimeMillis());
-			transid = String.valueOf(Math.abs(rdm.nextInt())%100 + 100);
+		for (JabberConnection conn : connections) {
+			if(null != conn.getSession())
+				list.add(conn);
 		}
-		return transid;
+		return list;
 	}
 	
-	private void sendSessionXmlString(JabberCallSession session)
+	private void sendSessionXmlString(JabberConnection conn, JabberCallSession session)
 	{
-		try {
+		if(LOG_XML)
+		{
 			Util.S_Log.d(TAG, "xmlString :::: (to send)" + session.toXmlString());
-			if(null != out)
-			{
-				out.write(session.toXmlString() + "\n");
-				out.flush();
-			}
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			Util.S_Log.d(TAG, "!!! xml string send error : " + e.getMessage());
-			e.printStackTrace();
+		}
+		if(null != conn)
+		{
+			// serialized straight into the connection's write buffer
+			scheduleWrite(conn, conn.enqueue(session));
 		}
 	}
+	
+	// queue a message on the connection, the selector thread does the write
+	private void sendString(JabberConnection conn, String str)
+	{
+		scheduleWrite(conn, conn.enqueue(str));
+	}
+	
+	private void scheduleWrite(JabberConnection conn, boolean queued)
+	{
+		if(!queued)
+		{
+			Log.e(TAG, "!!! write queue full, drop connection : " + conn.getPeer());
+		}
+		pendingWrites.offer(conn);
+		if(null != selector)
+			selector.wakeup();
+	}
 
 	private String serverGetIP() {
 		try {
@@ -392,23 +474,45 @@ public class SocketListenerService extends Service implements
 		callManager = CallManager.getInstance(getApplicationContext());
 
 		Util.S_Log.d(TAG, "!!! set listener !!!");
-		IncomingCallReceiver.registerCallListener(SocketListenerService.this);
-		SipConfCall.registerCallListener(SocketListenerService.this);
+		CallStateMachine.getInstance().addListener(SocketListenerService.this, dispatcher);
 	}
 	
 	// unregister listener for the new session
 	private void postConnectInit() {
 		Util.S_Log.d(TAG, "!!! set listener to null !!!");
-		IncomingCallReceiver.registerCallListener(null);
-		SipConfCall.registerCallListener(null);
+		CallStateMachine.getInstance().removeListener(SocketListenerService.this);
+	}
+
+	// an offered call was answered or denied by conn, the state listener
+	// runs after the sessions are gone so send the other controllers their
+	// BYE here, or they keep ringing
+	private void withdrawOffer(JabberConnection conn) {
+		for (JabberConnection other : connections) {
+			JabberCallSession offered = other.getSession();
+			if (other != conn && null != offered) {
+				sendByeRequest(other, offered);
+				other.setSession(null);
+			}
+		}
+	}
+
+	// drop the call from every controller
+	private void releaseCall() {
+		callOwner = null;
+		callViewReady = false;
+		for (JabberConnection conn : connections) {
+			conn.setSession(null);
+		}
 	}
 
-	private boolean isValidSession(JabberCallSession session) {
-		switch (callStatus) {
+	private boolean isValidSession(JabberConnection conn, JabberCallSession session) {
+		JabberCallSession curSession = conn.getSession();
+
+		switch (callState()) {
 		case IDLE: {
-			if (null != curSession) {
+			if (null != callOwner) {
 				Util.S_Log.d(TAG,
-						"!!! (BUG) not clear curSession when switch to CALLSTATUS.IDLE !!!");
+						"!!! (BUG) not clear callOwner when switch to CallState.IDLE !!!");
 			}
 
 			// in idle, only receive INVITE
@@ -416,44 +520,56 @@ public class SocketListenerService extends Service implements
 			if (!methodType.equals(JabberActionParser.VAL_Method_TYPE_INVITE))
 				return false;
 
-			curSession = session;
+			conn.setSession(session);
 			return true;
 		}
-		case IN_A_CALL: {
+		case ANSWERING:
+		case CONNECTED:
+		case HELD:
+		case INVISIBLE:
+		case HELD_INVISIBLE:
+		case ENDING: {
 			if (null == curSession) {
 				// in a calling, session should not be null
 				return false;
 			}
 
+			// only the controller owning the call can end it
+			if (null != callOwner && conn != callOwner) {
+				Util.S_Log.d(TAG, "IN_A_CALL : call owned by " + callOwner.getPeer());
+				return false;
+			}
+
 			// in a call, only receive BYE
 			String methodType = session.getTransaction().getMethod().getType();
 			if (!methodType.equals(JabberActionParser.VAL_Method_TYPE_BYE))
 				return false;
 
 			// should be same CallID, but not same TransId
-			String callID = session.getCallID();
-			if (!callID.equals(curSession.getCallID()))
+			if (session.getCallID() != curSession.getCallID())
 				return false;
 
 			// should not be same TransID
-			String transId = session.getTransaction().getTranId();
-			if (transId.equals(curSession.getTransaction().getTranId()))
+			if (session.getTransaction().getTranId() == curSession.getTransaction().getTranId())
 				return false;
 
-			curSession = session;
+			conn.setSession(session);
 			return true;
 
 		}
 
-		case INCOMING_CALL: {
+		case INCOMING: {
+			if (null == curSession) {
+				// the call was not offered to this controller
+				return false;
+			}
+
 			// should be same CallID, same TransId
-			String callID = session.getCallID();
-			if (!callID.equals(curSession.getCallID())) {
+			if (session.getCallID() != curSession.getCallID()) {
 				Util.S_Log.d(TAG, "INCOMING_CALL : not same CallID");
 				return false;
 			}
-			String transId = session.getTransaction().getTranId();
-			if (!transId.equals(curSession.getTransaction().getTranId())) {
+			if (session.getTransaction().getTranId() != curSession.getTransaction().getTranId()) {
 				Util.S_Log.d(TAG, "INCOMING_CALL : not same transId");
 				return false;
 			}
@@ -487,12 +603,24 @@ public class SocketListenerService extends Service implements
 				return false;
 			}
 
-			curSession = session;
+			conn.setSession(session);
 			return true;
 		}
-		case OUTGOING_CALL: {
-			// outgoing a call, can not accept
-			return false;
+		case OUTGOING:
+		case ALERTING: {
+			// outgoing a call, only accept a BYE of the owner to cancel it
+			if (null == curSession || conn != callOwner)
+				return false;
+
+			String methodType = session.getTransaction().getMethod().getType();
+			if (!methodType.equals(JabberActionParser.VAL_Method_TYPE_BYE))
+				return false;
+
+			if (session.getCallID() != curSession.getCallID())
+				return false;
+
+			// keep the INVITE as the session, the BYE goes to the transaction table
+			return true;
 		}
 
 		}
@@ -501,19 +629,34 @@ public class SocketListenerService extends Service implements
 	}
 
 	// process the received xml command
-	private void processSession(JabberCallSession session) {
-		switch (callStatus) {
+	private void processSession(JabberConnection conn, JabberCallSession session) {
+		switch (callState()) {
 		case IDLE: {	
 			// in IDLE, can only start a new call
-			switchCallstatus(CALLSTATUS.OUTGOING_CALL);
-			curSession = session;
+			String url = session.getTransaction().getMethod().getUrl();
+			if (!CallStateMachine.getInstance().fire(CallEvent.DIAL, url)) {
+				// a call started on the box meanwhile
+				sendResponse(conn, session, JabberActionParser.VAL_Method_CODE_SERVICEUNAVALIABLE);
+				break;
+			}
+			callOwner = conn;
+			addTransaction(conn, session);
 
-			sendCmdStartCall("Jabber", curSession.getTransaction().getMethod()
-					.getUrl());
+			sendCmdStartCall("Jabber", url);
 			break;
 		}
-		case IN_A_CALL: {
-			// process the BYE
+		case ANSWERING:
+		case CONNECTED:
+		case HELD:
+		case INVISIBLE:
+		case HELD_INVISIBLE:
+		case ENDING: {
+			// process the BYE, the response is sent on ENDED
+			addTransaction(conn, session);
+			if (null == callOwner) {
+				// call answered on the box, the controller takes it over
+				callOwner = conn;
+			}
 
 			// <1> end the call
 			InCallView.exEndCall();
@@ -525,12 +668,12 @@ public class SocketListenerService extends Service implements
 			method.setType(JabberActionParser.VAL_Method_TYPE_BYE);
 			method.setCode(JabberActionParser.VAL_Method_CODE_OK);
 
-			JabberTransaction transaction = new JabberTransaction(null, null,
+			JabberTransaction transaction = new JabberTransaction(null, JabberCallSession.NO_ID,
 					method);
 			transaction.setType(JabberActionParser.VAL_Transaction_TYPE_RES);
 			transaction.setTranId(curSession.getTransaction().getTranId());
 
-			JabberCallSession retSession = new JabberCallSession("",
+			JabberCallSession retSession = new JabberCallSession(JabberCallSession.NO_ID,
 					transaction);
 			retSession.setCallID(curSession.getCallID());
 
@@ -547,14 +690,16 @@ public class SocketListenerService extends Service implements
 
 			break;
 		}
-		case INCOMING_CALL: {
+		case INCOMING: {
 			// only accept RES :: INVITE :: BUSY/OK/RINGING
 
 			String methodCode = session.getTransaction().getMethod().getCode();
 
 			if (methodCode.equals(JabberActionParser.VAL_Method_CODE_OK)) {
-				// answer the call
-				switchCallstatus(CALLSTATUS.IN_A_CALL);
+				// answer the call, this controller owns it from now on
+				CallStateMachine.getInstance().fire(CallEvent.ANSWER);
+				withdrawOffer(conn);
+				callOwner = conn;
 				IncomingCallReceiver.answerCall();
 				
 			} else if (methodCode
@@ -562,8 +707,10 @@ public class SocketListenerService extends Service implements
 					methodCode
 					.equals(JabberActionParser.VAL_Method_CODE_SERVICEUNAVALIABLE)) {
 				// deny the call
+				withdrawOffer(conn);
 				IncomingCallReceiver.denyCall();
-				switchCallstatus(CALLSTATUS.IDLE);
+				CallStateMachine.getInstance().fire(CallEvent.HANGUP);
+				releaseCall();
 			} else if (methodCode
 					.equals(JabberActionParser.VAL_Method_CODE_RINGING)) {
 				// do nothing to RINGING
@@ -575,225 +722,274 @@ public class SocketListenerService extends Service implements
 
 			break;
 		}
-		case OUTGOING_CALL: {
-			// we should not receive any session in this state
-			Util.S_Log.d(TAG,
-					"!!! (BUG) has run isValidSession, should not come here!!!");
+		case OUTGOING:
+		case ALERTING: {
+			// BYE pipelined behind the INVITE
+			addTransaction(conn, session);
+
+			if (callViewReady) {
+				InCallView.exEndCall();
+			} else {
+				Util.S_Log.d(TAG, "call not started yet, BYE is pending");
+			}
 			break;
 		}
 
 		}
 	}
 
-	private void doProcess(JabberCallSession session) {
+	private void doProcess(JabberConnection conn, JabberCallSession session) {
 		if(null == session)
 		{
 			Log.e(TAG, "!!! session is null, no further process !!!");
 			return;
 		}
-		if (!isValidSession(session)) {
+
+		boolean isRequest = JabberActionParser.VAL_Transaction_TYPE_REQ.equals(
+				session.getTransaction().getType());
+		if (isRequest && transactions.contains(session)) {
+			if (LOG_XML)
+				Util.S_Log.d(TAG, "request already pending : " + session.toXmlString());
+			return;
+		}
+
+		if (!isValidSession(conn, session)) {
 			// invalid session
-			Util.S_Log.d(TAG, "callSatus = " + callStatus + ", invalid session : "
-					+ session.toXmlString());
+			if (LOG_XML)
+				Util.S_Log.d(TAG, "callState = " + callState() + ", invalid session : "
+						+ session.toXmlString());
+			if (isRequest) {
+				// do not leave a pipelining controller waiting
+				sendResponse(conn, session, JabberActionParser.VAL_Method_CODE_SERVICEUNAVALIABLE);
+			}
 			return;
 		}
 
-		Util.S_Log.d(TAG, "callSatus = " + callStatus + ", valid session : session = "
-				+ session.toXmlString());
-		processSession(session);
+		if (LOG_XML)
+			Util.S_Log.d(TAG, "callState = " + callState() + ", valid session : session = "
+					+ session.toXmlString());
+		processSession(conn, session);
 	}
 	
-	// process a new socket connection
-	private void processSocket(final Socket sock) {
-		Thread procThread = null;
+	// process one event parsed from a controller's stream, the selector thread
+	// hands it to the dispatch thread and goes on reading
+	private void processEvent(final JabberConnection conn, int event) {
+		JabberStreamParser parser = conn.getParser();
+
+		switch (event) {
+		case JabberStreamParser.EVENT_SESSION: {
+			final JabberCallSession session = parser.getSession();
+			dispatch(new Runnable() {
+				@Override
+				public void run() {
+					doProcess(conn, session);
+				}
+			});
+		}
+			break;
+		case JabberStreamParser.EVENT_COMMAND: {
+			final String command = parser.getCommand();
+			dispatch(new Runnable() {
+				@Override
+				public void run() {
+					processCommand(conn, command);
+				}
+			});
+		}
+			break;
+		case JabberStreamParser.EVENT_ERROR:
+			Log.e(TAG, "<SOS> bad xmlMsg from " + conn.getPeer() + " : " + parser.getError());
+			break;
+		}
+	}
 
-		procThread = new Thread() {
+	// plain text line outside of a CallSession
+	private void processCommand(JabberConnection conn, String str) {
+		Util.S_Log.d(TAG, "invalid string received: " + str);
+		if(str.equals("GET STATUS"))
+		{
+			// for debug usage
+			JabberCallSession curSession = conn.getSession();
+			String ret = "<" + callState() + "> : xml = " + 
+			((null != curSession) ? curSession.toXmlString() : "null") +
+			", pending = " + transactions.size() +
+			", " + CallStats.getInstance();
+			
+			synchronized(conn)
+			{
+				sendString(conn, ret + "\n");
+				// then the last call setups, one line of Chrome trace JSON in
+				// what is left of the write queue, older events left out to fit
+				String trace = CallTrace.toChromeJson(conn.remaining() - 1);
+				if(trace.length() > 0)
+					sendString(conn, trace + "\n");
+			}
+		}
+	}
+
+	private void acceptConnection() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (null == channel)
+			return;
 
+		channel.configureBlocking(false);
+		JabberConnection conn = new JabberConnection(channel, Max_Xml_Len);
+		conn.setKey(channel.register(selector, SelectionKey.OP_READ, conn));
+		connections.add(conn);
+
+		Util.S_Log.d(TAG, "new incoming connection : " + conn.getPeer()
+				+ ", connections = " + connections.size());
+		sendCmdShowMsg("incoming connection : " + conn.getPeer());
+	}
+
+	private void readConnection(JabberConnection conn) {
+		try {
+			boolean open = conn.read();
+
+			int event;
+			while (JabberStreamParser.EVENT_NONE != (event = conn.nextEvent())) {
+				processEvent(conn, event);
+			}
+
+			if (!open) {
+				// remote socket is closed
+				Util.S_Log.d(TAG, "remote socket is colsed!!! " + conn.getPeer());
+				closeConnection(conn);
+			}
+		} catch (IOException e) {
+			Util.S_Log.d(TAG, "Exception in socket read : " + e.getMessage());
+			closeConnection(conn);
+		}
+	}
+
+	private void writeConnection(JabberConnection conn) {
+		try {
+			if (conn.flush())
+				conn.getKey().interestOps(SelectionKey.OP_READ);
+		} catch (IOException e) {
+			Util.S_Log.d(TAG, "!!! xml string send error : " + e.getMessage());
+			closeConnection(conn);
+		}
+	}
+
+	// called on the selector thread for connections that have queued data
+	private void updateWriteInterest(JabberConnection conn) {
+		SelectionKey key = conn.getKey();
+		if (null == key || !key.isValid())
+			return;
+
+		if (conn.isOverflowed()) {
+			// the peer does not read what we send, give up on it
+			closeConnection(conn);
+			return;
+		}
+		key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	private void closeConnection(final JabberConnection conn) {
+		Util.S_Log.d(TAG, "remove connection : " + conn.getPeer());
+		connections.remove(conn);
+		conn.close();
+
+		dispatch(new Runnable() {
+			@Override
 			public void run() {
-				try {
-					in = new BufferedReader(new InputStreamReader(
-							sock.getInputStream()));
-					out = new BufferedWriter(new OutputStreamWriter(
-							sock.getOutputStream()));
-					out.flush();
-
-					String xmlMsg = null;
-					String str = null;
-
-					while (!sock.isClosed()) {
-
-						str = in.readLine();
-						if (null == str) {
-							// remote socket is closed
-							Util.S_Log.d(TAG, "remote socket is colsed!!!");
-							break;
-						}
-
-						if (str.startsWith(Strng_Xml_Start)) {
-							xmlMsg = str;
-							while (!xmlMsg.endsWith(Strng_Xml_End)) {
-								xmlMsg += in.readLine();
-								if (xmlMsg.length() >= Max_Xml_Len) {
-									Log.e(TAG, "<SOS> xmlMsg.length = "
-											+ xmlMsg.length());
-									break;
-								}
-							}
-
-							if (xmlMsg.length() < Max_Xml_Len) {
-								Util.S_Log.d(TAG, "xmlMsg(to parse)  = "
-										+ xmlMsg);
-								JabberActionParser jparser = new JabberActionParser(
-										xmlMsg);
-
-								doProcess(jparser.parseStream());
-
-							} else {
-								Log.e(TAG, "<SOS> xmlMsg  = "
-										+ xmlMsg);
-							}
-						}
-						else
-						{
-							Util.S_Log.d(TAG, "invalid string received: " + str);
-							if(str.equals("GET STATUS"))
-							{
-								// for debug usage
-								String ret = new String("");
-								ret = "<" + callStatus + "> : xml = " + 
-								((null != curSession) ? curSession.toXmlString() : "null");
-								
-								out.write(ret + "\n");
-								out.flush();
-							}
-						}
-					}
+				transactions.removeConnection(conn);
+				if (callOwner == conn)
+					callOwner = null;
+			}
+		});
+	}
+
+	private void runSelectorLoop() {
+		while (running) {
+			try {
+				selector.select();
+
+				JabberConnection conn = null;
+				while (null != (conn = pendingWrites.poll())) {
+					updateWriteInterest(conn);
+				}
 
-				} catch (IOException e1) {
-					// TODO Auto-generated catch block
-					Util.S_Log.d(TAG, "Exception in socket thread : " + e1.getMessage());
-					e1.printStackTrace();
-				} finally {
-					// here, socket connection is terminated
-					Util.S_Log.d(TAG, "remove thread");
-					threadList.remove(this);
-					
-
-					try {
-						if(null != curSocket)	curSocket.close();
-						if(null != in )			in.close();
-						if(null != out)			out.close();
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+
+					if (!key.isValid())
+						continue;
+
+					if (key.isAcceptable()) {
+						acceptConnection();
+						continue;
 					}
 
-					curSocket = null;
-					in = null;
-					out = null;
-					
-					//postConnectInit();
+					conn = (JabberConnection) key.attachment();
+					if (key.isReadable())
+						readConnection(conn);
+					if (key.isValid() && key.isWritable())
+						writeConnection(conn);
 				}
+			} catch (IOException e) {
+				Util.S_Log.d(TAG, "Exception in selector loop : " + e.getMessage());
+				e.printStackTrace();
+			} catch (ClosedSelectorException e) {
+				break;
 			}
-		};
+		}
 
-		if (null != procThread) {
-			Util.S_Log.d(TAG, "add procThread +++ " + procThread);
-			threadList.add(procThread);
-			procThread.start();
+		for (JabberConnection conn : connections) {
+			closeConnection(conn);
 		}
+		try {
+			serverChannel.close();
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		status = STATUS.UNINIT;
 	}
 
 	private void startListener(int port) {
 
 		try {
-			serverSocket = new ServerSocket(Integer.parseInt(serverPort));
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.configureBlocking(false);
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(new InetSocketAddress(port));
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
+			Log.e(TAG, "!!! can not listen on port " + port + " : " + e.getMessage());
 			e.printStackTrace();
+			return;
 		}
 		
 		preConnectInit();
 
-		listenerThread = new Thread() {
+		running = true;
+		listenerThread = new Thread("SocketListenerThread") {
 			@Override
 			public void run() {
-				// TODO Auto-generated method stub
-				while (true) {
-
-					try {
-						status = STATUS.INIT;
-						Socket socket = serverSocket.accept();
-
-						Util.S_Log.d(TAG,
-								"new incoming connection : IP = "
-										+ socket.getInetAddress() + "alive time = " + socket.getKeepAlive());
-
-						if(null == curSocket)
-						{
-							sendCmdShowMsg("incoming connection : " + socket.getInetAddress() +
-									", port : " + socket.getPort());
-							curSocket = socket;
-							//preConnectInit();// do some register to listen call events
-							processSocket(socket);
-						}
-						else
-						{
-							if(curSocket.getInetAddress().equals(socket.getInetAddress()))
-							{
-								Util.S_Log.d(TAG, "reconnect IP : " + socket.getInetAddress() +
-										", port : " + socket.getPort());
-								{
-									// close old connection
-									Thread item = threadList.getLast();
-									int lastIndex  = threadList.lastIndexOf(item);
-									Util.S_Log.d(TAG, "lastIndex (should be zero)= " + lastIndex);
-									curSocket.close();
-									while(item.isAlive())
-									{
-										// wait until the previous thread is ended 
-										try {
-											Util.S_Log.d(TAG, "still alive");
-											sleep(50);
-										} catch (InterruptedException e) {
-											// TODO Auto-generated catch block
-											e.printStackTrace();
-										}
-									}
-									
-									sendCmdShowMsg("reconnect connection : " + socket.getInetAddress());
-									curSocket = socket;
-									//preConnectInit();// do some register to listen call events
-									processSocket(socket);
-									continue;
-								}
-							}
-							else
-							{
-								Util.S_Log.d(TAG, "reject because exist a socket connection IP : " + curSocket.getInetAddress()  +
-										", port : " + socket.getPort());
-								socket.close();
-								continue;	
-							}
-						}
-						
-						
-
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				}
+				status = STATUS.INIT;
+				runSelectorLoop();
 			}
-
 		};
 
 		listenerThread.start();
 	}
 
-	private void startNewCall(Bundle b) {
-		switchCallstatus(CALLSTATUS.OUTGOING_CALL);
+	private void stopListener() {
+		if (null == listenerThread)
+			return;
 
+		// the selector thread closes every channel on its way out
+		running = false;
+		selector.wakeup();
+		listenerThread = null;
+	}
+
+	private void startNewCall(Bundle b) {
 		String name = b.getString(CMD_STARTCALL_PARANAME);
 		String addr = b.getString(CMD_STARTCALL_PARAADDR);
 
@@ -840,35 +1036,8 @@ public class SocketListenerService extends Service implements
 		msg.sendToTarget();
 	}
 
-	private String msg2String(int msg) {
-		String ret = null;
-		switch (msg) {
-		case MSG_RINGINGBACK:
-			ret = "MSG_RINGINGBACK";
-			break;
-		case MSG_OK:
-			ret = "MSG_OK";
-			break;
-		case MSG_BUSY:
-			ret = "MSG_BUSY";
-			break;
-		case MSG_END:
-			ret = "MSG_END";
-			break;
-		case MSG_RINGING:
-			ret = "MSG_RINGING";
-			break;
-		case MSG_ERROR:
-			ret = "MSG_ERROR";
-			break;
-		}
-		return ret;
-	}
-
-	private void switchCallstatus(CALLSTATUS status) {
-		Util.S_Log.d(TAG, "swtich status : " + callStatus + "-->" + status);
-
-		callStatus = status;
+	private CallState callState() {
+		return CallStateMachine.getInstance().getState();
 	}
 
 	Handler handler = new Handler() {
@@ -912,13 +1081,18 @@ public class SocketListenerService extends Service implements
 	STATUS status = STATUS.UNINIT;
 
 	private Thread listenerThread = null;
-	private ServerSocket serverSocket;
-	LinkedList<Thread> threadList = new LinkedList<Thread>();
+	private volatile boolean running = false;
+	private Selector selector = null;
+	private ServerSocketChannel serverChannel = null;
+
+	// all connected controllers, and the ones with data waiting to be written
+	private final List<JabberConnection> connections = new CopyOnWriteArrayList<JabberConnection>();
+	private final ConcurrentLinkedQueue<JabberConnection> pendingWrites = new ConcurrentLinkedQueue<JabberConnection>();
 
-	// make both String has the same length
-	private static final String Strng_Xml_Start = "<CallSession";
-	private static final String Strng_Xml_End = "CallSession>";
 	private static final int Max_Xml_Len = 500;
+	// log every message sent and received as xml, each one is then built as
+	// a String on top of the streamed write and parse
+	private static final boolean LOG_XML = false;
 
 	// handler command
 	private static final String CMD = "cmd";
@@ -931,21 +1105,15 @@ public class SocketListenerService extends Service implements
 	private static final String CMD_SHOWMSG_PARAMSG = "msg";
 
 	private CallManager callManager = null;
-	private JabberCallSession curSession = null;
-	private Socket curSocket = null;
-	private BufferedReader in = null;
-	private BufferedWriter out = null;
-
-	public static final int MSG_RINGINGBACK = 1;
-	public static final int MSG_OK = 2;
-	public static final int MSG_BUSY = 3;
-	public static final int MSG_END = 4;
-	public static final int MSG_RINGING = 5;
-	public static final int MSG_ERROR = 6;
-
-	enum CALLSTATUS {
-		IDLE, IN_A_CALL, INCOMING_CALL, OUTGOING_CALL
-	};
 
-	CALLSTATUS callStatus = CALLSTATUS.IDLE;
+	// all call state below is only used on this thread
+	private ScheduledExecutorService dispatcher = null;
+	private static final long TRANSACTION_TIMEOUT_MS = 32000;
+	private final JabberTransactionTable transactions = new JabberTransactionTable();
+	private final JabberIdAllocator ids = new JabberIdAllocator();
+	// controller which started or answered the current call
+	private JabberConnection callOwner = null;
+	// InCallView is up for the outgoing call, it can be ended
+	private boolean callViewReady = false;
+
 }
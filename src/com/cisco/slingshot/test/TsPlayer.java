@@ -1,5 +1,7 @@
 package com.cisco.slingshot.test;
 
+import java.nio.ByteBuffer;
+
 import android.util.Log;
 
 
@@ -81,6 +83,63 @@ public class TsPlayer{
 	public void 	SetEPGSize(int w, int h){_SetEPGSize(w,h);}	
 	
 	public int     TestShell(){return _TestShell();}
+
+	/**
+	 * Queue the TS data from the position to the limit of a direct buffer.
+	 * The native side copies it once into its ring, the feed thread hands it
+	 * to the player from there; no array is pinned and nothing is logged, call
+	 * it per received packet from one thread.
+	 * @return bytes queued, the position is moved past them; fewer than
+	 * remaining when the ring is full, the rest can be written again
+	 */
+	public int 		WriteData(ByteBuffer data){
+		if(!data.isDirect())
+			throw new IllegalArgumentException("Not a direct buffer");
+		int queued = _WriteData(data, data.position(), data.remaining());
+		data.position(data.position() + queued);
+		return queued;
+	}
+
+	/**
+	 * Play a TS file in a loop instead of WriteData, until Stop.
+	 */
+	public boolean 	FeedFile(String path){return _FeedFile(path);}
+
+	public FeedStats GetFeedStats(){
+		int[] stats = new int[FeedStats.COUNT];
+		_GetFeedStats(stats);
+		return new FeedStats(stats);
+	}
+
+	/**
+	 * The native ring between WriteData and the player, since StartPlay.
+	 */
+	public static class FeedStats{
+		static final int COUNT = 5;
+
+		FeedStats(int[] stats){
+			capacity = stats[0];
+			fill = stats[1];
+			highWater = stats[2];
+			underruns = stats[3];
+			overflows = stats[4];
+		}
+
+		public final int capacity;
+		public final int fill;
+		/*most bytes queued at once*/
+		public final int highWater;
+		/*times the player drained the ring*/
+		public final int underruns;
+		/*WriteData calls cut short by a full ring*/
+		public final int overflows;
+
+		@Override
+		public String toString(){
+			return "fill " + fill + "/" + capacity + ", high water " + highWater
+					+ ", underruns " + underruns + ", overflows " + overflows;
+		}
+	}
 	
 	//jni native funtion
 	private native boolean 	_SetVideoWindow(int x,int y,int width,int height);
@@ -101,6 +160,9 @@ public class TsPlayer{
 	private native boolean 	_IsSoftFit();
 	private native void 	_SetEPGSize(int w, int h);
 	private native int      _TestShell();
+	private native int      _WriteData(ByteBuffer data, int offset, int size);
+	private native void     _GetFeedStats(int[] stats);
+	private native boolean  _FeedFile(String path);
 	
 
 
@@ -0,0 +1,124 @@
+package com.cisco.slingshot.ui;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.cisco.slingshot.R;
+import com.cisco.slingshot.contact.ContactChangeSet;
+import com.cisco.slingshot.contact.ContactManager;
+import com.cisco.slingshot.contact.ContactPhotoLoader;
+import com.cisco.slingshot.contact.ContactSnapshot;
+
+/**
+ * The contacts of ContactManager in a list, bound from its snapshot.
+ *
+ * A change set touching only the contents of rows rebinds the visible rows
+ * it names and nothing else; inserts and removals are a notifyDataSetChanged,
+ * which relayouts the visible rows without reading any contact again.
+ */
+public class ContactSnapshotAdapter extends BaseAdapter implements ContactManager.ContactObserver {
+
+	/**
+	 * @param layout a row with contact_list_item_name and contact_list_item_photo
+	 */
+	public ContactSnapshotAdapter(Context context, int layout) {
+		mContext = context;
+		mInflater = LayoutInflater.from(context);
+		mLayout = layout;
+		mManager = ContactManager.getInstance(context);
+		mSnapshot = mManager.getSnapshot();
+	}
+
+	/**
+	 * The list whose rows are rebound in place, null to always notify.
+	 */
+	public void setListView(ListView list) {
+		mListView = list;
+	}
+
+	/**
+	 * Follow the changes of the contacts, from their current snapshot on.
+	 */
+	public void start() {
+		mManager.addObserver(this);
+		ContactSnapshot snapshot = mManager.getSnapshot();
+		if (snapshot != mSnapshot) {
+			mSnapshot = snapshot;
+			notifyDataSetChanged();
+		}
+	}
+
+	public void stop() {
+		mManager.removeObserver(this);
+	}
+
+	@Override
+	public void onContactsChanged(ContactChangeSet changes) {
+		boolean inPlace = mListView != null && changes.oldSnapshot == mSnapshot && changes.isContentOnly();
+		mSnapshot = changes.newSnapshot;
+		if (!inPlace) {
+			notifyDataSetChanged();
+			return;
+		}
+
+		int first = mListView.getFirstVisiblePosition() - mListView.getHeaderViewsCount();
+		for (int position : changes.changed) {
+			View row = mListView.getChildAt(position - first);
+			if (row != null && position - first >= 0)
+				bindView(row, position);
+		}
+	}
+
+	@Override
+	public int getCount() {
+		return mSnapshot.size();
+	}
+
+	@Override
+	public Object getItem(int position) {
+		if (position < 0 || position >= mSnapshot.size())
+			return null;
+		return mSnapshot.get(position);
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return mSnapshot.getId(position);
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		View row = convertView;
+		if (row == null)
+			row = mInflater.inflate(mLayout, parent, false);
+		bindView(row, position);
+		return row;
+	}
+
+	/*Everything a row shows of the contact, the photo is the address's*/
+	protected void bindView(View row, int position) {
+		TextView name = (TextView) row.findViewById(R.id.contact_list_item_name);
+		name.setText(mSnapshot.getName(position));
+		ImageView photo = (ImageView) row.findViewById(R.id.contact_list_item_photo);
+		ContactPhotoLoader.getInstance(mContext).loadPhoto(photo, mSnapshot.getAddress(position),
+				R.drawable.contact_photo_default);
+	}
+
+	protected final Context mContext;
+	private final LayoutInflater mInflater;
+	private final int mLayout;
+	private final ContactManager mManager;
+	private ContactSnapshot mSnapshot;
+	private ListView mListView = null;
+}
@@ -3,10 +3,11 @@ package com.cisco.slingshot.ui;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -44,7 +45,11 @@ import android.widget.Toast;
 
 import com.cisco.slingshot.R;
 import com.cisco.slingshot.activity.InCallActivity;
+import com.cisco.slingshot.call.CallEvent;
 import com.cisco.slingshot.call.CallManager;
+import com.cisco.slingshot.call.CallPrewarm;
+import com.cisco.slingshot.call.CallState;
+import com.cisco.slingshot.call.CallStateMachine;
 import com.cisco.slingshot.call.CallStatusObserver;
 import com.cisco.slingshot.camera.CameraDisabledException;
 import com.cisco.slingshot.camera.CameraHardwareException;
@@ -59,6 +64,7 @@ import com.cisco.slingshot.ui.statistic.StatisticAdapter;
 import com.cisco.slingshot.ui.statistic.StatisticView;
 import com.cisco.slingshot.ui.widget.ControlPanel;
 import com.cisco.slingshot.ui.widget.VolumeBar;
+import com.cisco.slingshot.utils.CallTrace;
 import com.cisco.slingshot.utils.Ringtone;
 import com.cisco.slingshot.utils.ServiceToast;
 import com.cisco.slingshot.utils.TimeoutTimer;
@@ -107,6 +113,7 @@ public class InCallView extends FrameLayout
 	private MediaPlayer.OnPreparedListener 	mPreparedListener;
 	private LinearLayout 					mVideoReplacement = null;
 	private boolean 						isPlaying = false;
+	private long 							mFirstFrameStart = 0;	//CallTrace start of the wait for the first frame
 	
 	/*Control panel*/
     private ControlPanel 	mControlPanel = null;
@@ -122,7 +129,8 @@ public class InCallView extends FrameLayout
 
     /*Call object*/
     private CallManager 		mCallManager = null;
-    private ArrayList<CallStatusObserver> mCallStatusObservers = null;
+    // copy-on-write, an observer may remove itself while being notified
+    private CopyOnWriteArrayList<CallStatusObserver> mCallStatusObservers = null;
     
     private CallViewProxy        		mCallViewProxy = null;    
     private CallViewProxy.CallStatus 	mCallStatus= null;
@@ -156,9 +164,13 @@ public class InCallView extends FrameLayout
     public static final int END_CALL = 1; //finish call
 	public static final int EXJABBER_END = 100;
 	
-	/*sync media pipline*/
-    private Object mMediaLock = new Object();
-    private boolean isStoppingCall = false;
+	/*Media pipeline, start-up and teardown hand over by CAS instead of a lock,
+	 *so ending the call never waits for the camera or the player to come up*/
+    private static final int MEDIA_IDLE = 0;			//nothing being started
+    private static final int MEDIA_STARTING = 1;		//a thread is starting camera or player
+    private static final int MEDIA_STOP_PENDING = 2;	//stop asked while starting, the starter tears down
+    private static final int MEDIA_STOPPED = 3;
+    private final AtomicInteger mMediaState = new AtomicInteger(MEDIA_IDLE);
     
     private class UiHandler extends Handler{
 
@@ -273,7 +285,7 @@ public class InCallView extends FrameLayout
         /*init worker thread*/
         initCallThread();
         
-        mCallStatusObservers = new ArrayList<CallStatusObserver>();
+        mCallStatusObservers = new CopyOnWriteArrayList<CallStatusObserver>();
         /*Load child view as root */
 		_rootView = (RelativeLayout)LayoutInflater.from(mContext).inflate(R.layout.incallview, null);
         this.addView(_rootView);
@@ -407,10 +419,10 @@ public class InCallView extends FrameLayout
 				mCamaraManager.setErrorCallback(InCallView.this);
 				mCamaraManager.attachSurface(mCameraHolder);
 				
-				/*Start camera preview in worker thread*/
+				/*Start camera preview on the camera opened ahead, if any*/
 				
 				try{	
-					mCamaraManager.openCamera();
+					mCamaraManager.openCamera(CallPrewarm.getInstance(mContext).takeCamera());
 				}catch (CameraDisabledException e){
 					e.printStackTrace();	
 					postCameraError();
@@ -558,6 +570,11 @@ public class InCallView extends FrameLayout
         	Intent incomingcallIntent = mCallManager.getIncomingCallIntent();
         	mCall = answerCall(incomingcallIntent,mMainCallListener);
         }    
+        
+        if(mCall == null){
+        	//nothing will end it, do not leave the call state stuck
+        	CallStateMachine.getInstance().fire(CallEvent.ERROR, "call not started");
+        }
 	}		
 	
 	private SipConfCall.Listener createCallListener(){
@@ -566,6 +583,7 @@ public class InCallView extends FrameLayout
         	@Override
     		public void onCalling(SipConfCall call) {
         		Util.S_Log.d(LOG_TAG, "onCalling...");
+        		CallTrace.mark("SipConfCall.onCalling");
         		updateStatus(mContext.getString(R.string.call_status_calling));
         		 
         		Ringtone.play(mContext, Ringtone.RING_OUT);
@@ -575,11 +593,13 @@ public class InCallView extends FrameLayout
             @Override
             public void onCallEstablished(SipConfCall call) {
             	Util.S_Log.d(LOG_TAG, "onCallEstablished...");
+            	CallTrace.mark("SipConfCall.onCallEstablished");
             	Ringtone.stop(mContext);
             	//TODO Need add something to deal with Holding the call
             	if(isEstablished)
             		return;
             	isEstablished = true;
+            	final long start = CallTrace.begin();
             	updateStatus(mContext.getString(R.string.call_status_established));
             	//Start  Audio
                 call.startAudio();
@@ -591,6 +611,7 @@ public class InCallView extends FrameLayout
     			}else{
     				updateStatus(mContext.getString(R.string.call_status_audio_only));
     			}
+    			CallTrace.end("InCallView.startMedia", start);
     			
     			//mStatisticView.startUpdate();
     			
@@ -599,6 +620,7 @@ public class InCallView extends FrameLayout
             @Override
             public void onCallEnded(SipConfCall call) {
             	Util.S_Log.d(LOG_TAG, "onCallEnded...");
+            	CallTrace.mark("SipConfCall.onCallEnded");
             	Ringtone.stop(mContext);
             	isEstablished = false;
             	updateStatus(mContext.getString(R.string.call_status_end));
@@ -607,6 +629,7 @@ public class InCallView extends FrameLayout
             @Override
     		public void onCallBusy(SipConfCall call) {
             	Util.S_Log.d(LOG_TAG, "onCallBusy...");
+            	CallTrace.mark("SipConfCall.onCallBusy");
             	Ringtone.stop(mContext);
             	updateStatus(mContext.getString(R.string.call_status_busy));
             	tryFinishing(EndVideoAndFinishTask.REASON_BUSY);
@@ -615,6 +638,7 @@ public class InCallView extends FrameLayout
             @Override
     		public void onError(SipConfCall call, int errorCode, String errorMessage) {
             	Util.S_Log.d(LOG_TAG, "onError---errorCode:" + errorCode + ",errorMessage:" + errorMessage );
+            	CallTrace.mark("SipConfCall.onError");
             	isEstablished = false;
             	Ringtone.stop(mContext);
             	String errorInfo = mSipErrInfoMap.get(errorCode);
@@ -625,6 +649,7 @@ public class InCallView extends FrameLayout
             @Override
     		public void onCallHeld(SipConfCall call) {
             	Util.S_Log.d(LOG_TAG, "onCallHeld...");
+            	CallTrace.mark("SipConfCall.onCallHeld");
             	mCallStatus.isPause = true;
             	updateStatus("Pause");
             	//updateControlPanelStatus();
@@ -672,7 +697,7 @@ public class InCallView extends FrameLayout
 	}
 	
     public void addCallStatusObserver(CallStatusObserver observer){
-    	mCallStatusObservers.add(observer);
+    	mCallStatusObservers.addIfAbsent(observer);
     	Util.S_Log.d(LOG_TAG, "Adding new observer; Total:" + mCallStatusObservers.size());
     }
     
@@ -809,39 +834,40 @@ public class InCallView extends FrameLayout
     private boolean startBidiVideoTransfer(SipConfCall call){
     	//if(true)return false;
     	Util.S_Log.e(LOG_TAG, "startBidiVideoTransfer... ");
-    	if(isStoppingCall){
+    	if(!beginMediaStartup(call)){
     		Util.S_Log.e(LOG_TAG, "Media is being stopped by other thread, cancel starting media immdiately");
     		return true;
     	}
             
     	try {
         	//Setup video record and start it 
-
-    		if(ENABLE_TEST_MODE_VIDEOTOFD){
-    			Util.S_Log.d(LOG_TAG, "Local video test!!");
-    			InetAddress localAddr = InetAddress.getLocalHost();
-    			mLocalVideo = new RtpVideo(localAddr);
-    			FileDescriptor fd = mLocalVideo.getVideoFileDescriptor();
-    			if(fd.valid()){
-    					CameraManager.getInstance(mContext).startRecording(mLocalVideo.getVideoFileDescriptor(),false);
-    			}else{
-    				//TODO exception
-    			}	
-    		}else{
-        		FileDescriptor fd = call.getLocalVideoSocketFileDescripter();
-        		if(fd.valid()){
-				    int profile = mCall.getRemoteVideoCodecProfile();
-        			int level = mCall.getRemoteVideoCodecLevel();
-        			mCamaraManager.setEncoderProfileLevel(profile , level);
-        				synchronized(mMediaLock){
-        				Util.S_Log.i(LOG_TAG, "Camera startup start!");
-        				CameraManager.getInstance(mContext).startRecording(fd,false);
-        				Util.S_Log.i(LOG_TAG, "Camera startup end!");
-        				}
-        		}else{
-        			//TODO exception
-        		}
-    		} 		
+    		try{
+	    		if(ENABLE_TEST_MODE_VIDEOTOFD){
+	    			Util.S_Log.d(LOG_TAG, "Local video test!!");
+	    			InetAddress localAddr = InetAddress.getLocalHost();
+	    			mLocalVideo = new RtpVideo(localAddr);
+	    			FileDescriptor fd = mLocalVideo.getVideoFileDescriptor();
+	    			if(fd.valid()){
+	    					CameraManager.getInstance(mContext).startRecording(mLocalVideo.getVideoFileDescriptor(),false);
+	    			}else{
+	    				//TODO exception
+	    			}	
+	    		}else{
+	        		FileDescriptor fd = call.getLocalVideoSocketFileDescripter();
+	        		if(fd.valid()){
+					    int profile = mCall.getRemoteVideoCodecProfile();
+	        			int level = mCall.getRemoteVideoCodecLevel();
+	        			mCamaraManager.setEncoderProfileLevel(profile , level);
+	        			Util.S_Log.i(LOG_TAG, "Camera startup start!");
+	        			CameraManager.getInstance(mContext).startRecording(fd,false);
+	        			Util.S_Log.i(LOG_TAG, "Camera startup end!");
+	        		}else{
+	        			//TODO exception
+	        		}
+	    		}
+    		}finally{
+    			endMediaStartup();
+    		}
 			//Video
 			if(ENABLE_TEST_MODE_VIDEOTOFD){
 				
@@ -911,15 +937,54 @@ public class InCallView extends FrameLayout
     
     private void stopBidiVideoTransfer(){
     	//if(true)return;
-    	synchronized(mMediaLock){
-    		Util.S_Log.i(LOG_TAG, "Media close start!");
-    		//isStoppingMedia = true;
-	        stopPlayVideo();
-	        releasePlayer();	
-	        CameraManager.getInstance(mContext).stopRecording();
-	        Util.S_Log.i(LOG_TAG, "Media close done!");
+    	while(true){
+    		int state = mMediaState.get();
+    		if(state == MEDIA_STARTING){
+    			if(mMediaState.compareAndSet(MEDIA_STARTING, MEDIA_STOP_PENDING)){
+    				Util.S_Log.i(LOG_TAG, "Media is starting, the start-up thread will close it");
+    				return;
+    			}
+    		}else if(state == MEDIA_IDLE){
+    			if(mMediaState.compareAndSet(MEDIA_IDLE, MEDIA_STOPPED)){
+    				releaseMedia();
+    				return;
+    			}
+    		}else{
+    			//already stopped or being stopped
+    			return;
+    		}
+    	}
+    }
+    
+    private void releaseMedia(){
+		Util.S_Log.i(LOG_TAG, "Media close start!");
+        stopPlayVideo();
+        releasePlayer();	
+        CameraManager.getInstance(mContext).stopRecording();
+        CallPrewarm.getInstance(mContext).release();
+        Util.S_Log.i(LOG_TAG, "Media close done!");
+    }
+    
+    /**
+     * Claim the media pipeline to start camera or player.
+     * @return false if the call is ending or the media stopped, start nothing
+     */
+    private boolean beginMediaStartup(SipConfCall call){
+    	CallState state = call.getCallState();
+    	if(state == CallState.ENDING || state == CallState.IDLE){
+    		return false;
+    	}
+    	return mMediaState.compareAndSet(MEDIA_IDLE, MEDIA_STARTING);
+    }
+    
+    /**
+     * Hand the media pipeline back, closing it if a stop came meanwhile.
+     */
+    private void endMediaStartup(){
+    	if(!mMediaState.compareAndSet(MEDIA_STARTING, MEDIA_IDLE)){
+    		mMediaState.set(MEDIA_STOPPED);
+    		releaseMedia();
     	}
-        
     }
     /**
      * End a call if necessary
@@ -932,13 +997,10 @@ public class InCallView extends FrameLayout
     		return false;
     	}
 		try{
-			//end call, need wait after media start-up
-			synchronized(mMediaLock){
-				Util.S_Log.i(LOG_TAG, "Call end start!");
-				isStoppingCall = true;
-				mCall.endCall();
-				Util.S_Log.i(LOG_TAG, "Call end done!");
-			}
+			//end call, media start-up sees the call ENDING and gives up
+			Util.S_Log.i(LOG_TAG, "Call end start!");
+			mCall.endCall();
+			Util.S_Log.i(LOG_TAG, "Call end done!");
 			return true;
 			/*
 			if(call.isInCall()){
@@ -957,12 +1019,12 @@ public class InCallView extends FrameLayout
     }
     
     public boolean holdCall(SipConfCall call){
-    	if(call == null || mCallStatus.isIdle){
+    	if(call == null || !call.isInCall()){
     		Log.e(LOG_TAG, "holdCall(),is idle!");
     		return false;
     	}
     	
-    	if(mCallStatus.isPause){
+    	if(call.isOnHold()){
     		Log.e(LOG_TAG, "Already pause...");
     		return false;
     	}
@@ -979,12 +1041,12 @@ public class InCallView extends FrameLayout
     }
     
     public boolean continueCall(SipConfCall call){
-    	if(call == null || mCallStatus.isIdle){
+    	if(call == null || !call.isInCall()){
     		Log.e(LOG_TAG, "continueCall(),is idle!");
     		return false;
     	}
     	
-    	if(!mCallStatus.isPause){
+    	if(!call.isOnHold()){
     		Log.e(LOG_TAG, "Already continue...");
     		return false;
     	}
@@ -1012,20 +1074,21 @@ public class InCallView extends FrameLayout
 			if(mVideoFrame.getHolder().isCreating())
 				return;
 			  		
+			final SipConfCall call = mCall;
 			new Thread(new Runnable(){
 	    		@Override
 	    		public void  run(){
 	    			
-	    			synchronized(mMediaLock){
-	    				
-	    				if(isStoppingCall){
+	    				if(call == null || !beginMediaStartup(call)){
 	    					Util.S_Log.e(LOG_TAG, "Media is being stopped by other thread, cancel starting video immdiately");
 	    					return;
 	    				}
 	    				Util.S_Log.i(LOG_TAG, "Media startup start!");
 		    			try{
 		    				if(mMediaPlayer == null){
-		    					mMediaPlayer = new MediaPlayer();
+		    					mMediaPlayer = CallPrewarm.getInstance(mContext).takePlayer();
+		    					if(mMediaPlayer == null)
+		    						mMediaPlayer = new MediaPlayer();
 		    				}else{
 		    					mMediaPlayer.reset();
 		    				}
@@ -1034,14 +1097,30 @@ public class InCallView extends FrameLayout
 		            		mMediaPlayer.setOnErrorListener(InCallView.this);
 		            		mMediaPlayer.setOnCompletionListener(InCallView.this);
 		            		mMediaPlayer.setOnBufferingUpdateListener(InCallView.this);
+		            		mMediaPlayer.setOnVideoSizeChangedListener(new MediaPlayer.OnVideoSizeChangedListener(){
+		            			@Override
+		            			public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
+		            				//the size is known once the first frame is decoded
+		            				CallTrace.mark("InCallView.videoSizeChanged");
+		            				if(mFirstFrameStart != 0 && width > 0 && height > 0){
+		            					CallTrace.end("InCallView.firstFrame", mFirstFrameStart);
+		            					mFirstFrameStart = 0;
+		            				}
+		            			}
+		            		});
 		            		
+		            		final long prepareStart = CallTrace.begin();
 		    	    		mPreparedListener = new MediaPlayer.OnPreparedListener(){
 		    					@Override
 		    					public void onPrepared(MediaPlayer mp) {
+		    						CallTrace.end("InCallView.initVideoAsync.prepare", prepareStart);
 		    						Util.S_Log.d(LOG_TAG, "Start play data...");
 		    						if(mMediaPlayer == null)
 		    							return;
+		    						final long start = CallTrace.begin();
+		    						mFirstFrameStart = start;
 		    						mMediaPlayer.start();
+		    						CallTrace.end("InCallView.initVideoAsync.start", start);
 		    						isPlaying = true;
 		    						postVideoChanged();
 		    					}
@@ -1055,10 +1134,11 @@ public class InCallView extends FrameLayout
 		        		}catch(Exception e){
 		        			Log.e(LOG_TAG, "initVideoAsync(String sdpUri),Failed: " + e.getMessage());
 		        			tryFinishing(EndVideoAndFinishTask.REASON_ERROR);
+		        		}finally{
+		        			endMediaStartup();
 		        		}
 		        		
 		        		Util.S_Log.i(LOG_TAG, "Media startup done!");
-	    			}
 	    		
 	    		}
 			}).start();
@@ -1439,4 +1519,4 @@ public class InCallView extends FrameLayout
 
 
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,7 +1,10 @@
 package com.cisco.slingshot.ui.aquarius;
 
+import java.util.List;
+
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -12,10 +15,13 @@ import android.widget.AdapterView.OnItemClickListener;
 import android.widget.AdapterView.OnItemSelectedListener;
 import android.widget.LinearLayout;
 import android.widget.ListView;
+import android.widget.TextView;
 
 import com.cisco.slingshot.R;
 import com.cisco.slingshot.contact.Contact;
 import com.cisco.slingshot.contact.ContactDatabase;
+import com.cisco.slingshot.contact.ContactIndex;
+import com.cisco.slingshot.contact.ContactProvider;
 
 public class AquariusContactListView extends  AquariusViewBase implements OnItemClickListener{
 
@@ -37,6 +43,15 @@ public class AquariusContactListView extends  AquariusViewBase implements OnItem
 	private Context		mContext;
 	private int			mTotalUser = 0;
 	
+	/*Typed on the remote, the list shows the index suggestions for it*/
+	private final StringBuilder mFilter = new StringBuilder();
+	private TextView	mTitle;
+	private ContactIndex mIndex;
+	private static final int MAX_FILTERED = 50;
+	private static final String[] FILTER_COLUMNS = new String[]{
+		ContactDatabase.COL_ID, ContactDatabase.COL_NAME, ContactDatabase.COL_ADDRESS
+	};
+	
 	public AquariusContactListView(Context context) {
 		super(context);
 		mContext = context;
@@ -63,9 +78,12 @@ public class AquariusContactListView extends  AquariusViewBase implements OnItem
 		mParentGalleryView = (AquariusGalleryView)this.getParent();
 		
 		mContactList = (ListView)mRootView.findViewById(R.id.aquarius_contact_list_list);
+		mTitle = (TextView)mRootView.findViewById(R.id.aquarius_contact_list_title);
 
 		mCdb = ContactDatabase.getInstance(mContext);
-		mCurrentUserCursor = mAllUserCursor = mCdb.queryAllUsers();
+		// built in the background by the time anything is typed
+		mIndex = ContactIndex.getInstance(mContext);
+		mCurrentUserCursor = mAllUserCursor = queryAllUsers();
 		mTotalUser = mAllUserCursor.getCount();
 		Log.d(LOG_TAG, "Total user number is "+mTotalUser);
 		
@@ -128,6 +146,24 @@ public class AquariusContactListView extends  AquariusViewBase implements OnItem
 							return true;
 						}
 						
+						case KeyEvent.KEYCODE_DEL:
+						{
+							if(mFilter.length() == 0)
+								return false;
+							mFilter.setLength(mFilter.length() - 1);
+							applyFilter();
+							return true;
+						}
+						
+						default:
+						{
+							char c = (char)event.getUnicodeChar();
+							if(!Character.isLetterOrDigit(c))
+								break;
+							mFilter.append(c);
+							applyFilter();
+							return true;
+						}
 					}
 				}
 				
@@ -145,6 +181,36 @@ public class AquariusContactListView extends  AquariusViewBase implements OnItem
 		//getLauncherEventLister().onMenuForward(QuickCallLauncherDialog.SEL_CONTACT, user);
 	}
 	
+	/**
+	 * Show the contacts matching the filter, from the in-memory index, or all
+	 * of them again when it is empty.
+	 */
+	private void applyFilter(){
+		if(mFilter.length() == 0){
+			mAllUserCursor = queryAllUsers();
+			mCurrentUserCursor = mAllUserCursor;
+			mTitle.setText(R.string.aquarius_contact_list_title);
+		}else{
+			List<Contact> found = mIndex.suggest(mFilter.toString(), MAX_FILTERED);
+			MatrixCursor cursor = new MatrixCursor(FILTER_COLUMNS, found.size());
+			for(int i = 0; i < found.size(); i++){
+				Contact c = found.get(i);
+				cursor.addRow(new Object[]{i, c.get_username(), c.get_address()});
+			}
+			mCurrentUserCursor = cursor;
+			mTitle.setText(mFilter);
+		}
+		// the adapter closes the cursor shown before
+		mContactAdapter.changeCursor(mCurrentUserCursor);
+		_currentContactListPosition = 0;
+		mContactList.setSelection(0);
+	}
+	
+	/*Kept current by the provider's notifications*/
+	private Cursor queryAllUsers(){
+		return mContext.getContentResolver().query(ContactProvider.CONTENT_URI, ContactProvider.PROJECTION, null, null, null);
+	}
+	
 	private Contact getContactByPosition(int pos){
 		if(!mCurrentUserCursor.moveToPosition(pos)){
 			return null;
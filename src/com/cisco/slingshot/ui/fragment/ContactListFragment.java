@@ -5,9 +5,7 @@ import android.app.Fragment;
 import android.app.FragmentTransaction;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.database.Cursor;
 import android.os.Bundle;
-import android.os.Handler;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -17,6 +15,7 @@ import android.widget.EditText;
 import android.widget.ListView;
 import com.cisco.slingshot.R;
 import com.cisco.slingshot.contact.Contact;
+import com.cisco.slingshot.contact.ContactChangeSet;
 import com.cisco.slingshot.contact.ContactDatabase;
 import com.cisco.slingshot.contact.ContactEditListener;
 import com.cisco.slingshot.contact.ContactManager;
@@ -24,7 +23,7 @@ import com.cisco.slingshot.utils.ServiceToast;
 import com.cisco.slingshot.utils.Util;
 
 
-public class ContactListFragment extends Fragment implements OnItemClickListener,ContactEditListener{
+public class ContactListFragment extends Fragment implements OnItemClickListener,ContactEditListener,ContactManager.ContactObserver{
 	
 	
 	private static final String TAG =  "ContactListFragment";
@@ -40,7 +39,6 @@ public class ContactListFragment extends Fragment implements OnItemClickListener
 	//private SimpleCursorAdapter mContactAdapter = null;
 	
 	private ContactListAdapter mContactAdapter = null;
-	private Cursor mDataCursor = null;
 	
 	private View 		mFragmentView;
 	private Context		mContext;
@@ -49,8 +47,6 @@ public class ContactListFragment extends Fragment implements OnItemClickListener
 	private int mCurCheckPosition = 0;
 	//private int mTotalUser = 0;
 	
-	private Handler mainHandler;
-	
 	@Override 
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState){
@@ -99,8 +95,8 @@ public class ContactListFragment extends Fragment implements OnItemClickListener
 	@Override
 	public void onDestroy(){
 		super.onDestroy();
-		if(mDataCursor != null)
-			mDataCursor.close();
+		ContactManager.getInstance(mContext).removeObserver(this);
+		mContactAdapter.stop();
 	}
 	
 	@Override
@@ -148,7 +144,6 @@ public class ContactListFragment extends Fragment implements OnItemClickListener
 	
 	private void initView()
 	{			
-		mainHandler = new Handler();
 		//Contact list
 		mContactList = (ListView)mFragmentView.findViewById(R.id.lstvw_contact);
 
@@ -156,6 +151,7 @@ public class ContactListFragment extends Fragment implements OnItemClickListener
 		//preLoadContact();
 
 		mContactAdapter = new ContactListAdapter(mContext);
+		mContactAdapter.setListView(mContactList);
 		
 		//"Add Account" footer
 		LayoutInflater inflater = (LayoutInflater)mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
@@ -165,14 +161,9 @@ public class ContactListFragment extends Fragment implements OnItemClickListener
 		mContactList.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
 		mContactList.setOnItemClickListener(this);
 		
-		ContactManager.getInstance(mContext).queryAllContact(new ContactManager.QueryCallback() {
-			
-			@Override
-			public void onDone(Cursor data) {
-				mDataCursor = data;
-				updateViewInUI();
-			}
-		});	
+		mContactAdapter.start();
+		ContactManager.getInstance(mContext).addObserver(this);
+		showDetails();
 		
 		
 			
@@ -240,45 +231,13 @@ public class ContactListFragment extends Fragment implements OnItemClickListener
 		}
 	}
 	
-	private void updateContact()
-	{
-		
-		ContactManager.getInstance(mContext).queryAllContact(new ContactManager.QueryCallback() {
-			
-			@Override
-			public void onDone(Cursor data) {
-				mDataCursor = data;
-				mCurCheckPosition = 0;
-				updateViewInUI();
-			}
-		});
-		
-		
-		/*
-		if(mContactAdapter!=null){
-			mCdb.closeQuery(mAllUserCursor);
-			mCurrentUserCursor = mAllUserCursor = mCdb.queryAllUsers();
-			mContactAdapter.changeCursor(mAllUserCursor);
-			mTotalUser = mAllUserCursor.getCount();
-			mCurCheckPosition = 0;
-		}
-		*/
-		
-		
-	}
-	
-	private void updateViewInUI(){
-		
-		mainHandler.post(new Runnable(){
-
-			@Override
-			public void run() {
-				mContactAdapter.changeCursor(mDataCursor);
-				showDetails();
-			}
-			
-		});
-		
+	/*After the adapter, which was registered first*/
+	@Override
+	public void onContactsChanged(ContactChangeSet changes){
+		final int count = mContactAdapter.getCount();
+		if(mCurCheckPosition >= count)
+			mCurCheckPosition = Math.max(0, count - 1);
+		showDetails();
 	}
 	
 	/**
@@ -307,8 +266,7 @@ public class ContactListFragment extends Fragment implements OnItemClickListener
 		       		}
 	
 		       		Util.S_Log.d(TAG, "(username, address) = (" + username + ", " + address + ")");
-		       		ContactDatabase.getInstance(mContext).setUser(new Contact(username, address));
-		       		updateContact(); // update UI
+		       		ContactManager.getInstance(mContext).setContact(new Contact(username, address));
 	           }
 	       })
 	    .setNegativeButton((String)mContext.getString(R.string.dialog_nav_cancel),new DialogInterface.OnClickListener() {
@@ -341,9 +299,7 @@ public class ContactListFragment extends Fragment implements OnItemClickListener
 		       		String address =  editAddress.getText().toString();
 	
 		       		Util.S_Log.d(TAG, "(username, address) = (" + username + ", " + address + ")");
-		       		ContactDatabase.getInstance(mContext).removeUser(userToEdit);
-		       		ContactDatabase.getInstance(mContext).setUser(new Contact(username, address));
-		       		updateContact(); // update UI
+		       		ContactManager.getInstance(mContext).replaceContact(userToEdit, new Contact(username, address));
 	           }
 	       })
 	    .setNegativeButton((String)mContext.getString(R.string.dialog_nav_cancel),new DialogInterface.OnClickListener() {
@@ -364,8 +320,7 @@ public class ContactListFragment extends Fragment implements OnItemClickListener
 		.setPositiveButton((String)mContext.getString(R.string.dialog_nav_ok),new DialogInterface.OnClickListener() {
 	           public void onClick(DialogInterface dialog, int id) {
 		       		Util.S_Log.d(TAG, "(username, address) = (" + userToDelete.get_username() + ", " + userToDelete + ")");
-		       		ContactDatabase.getInstance(mContext).removeUser(userToDelete);
-		       		updateContact(); // update UI
+		       		ContactManager.getInstance(mContext).removeContact(userToDelete);
 	           }
 	       })
 	    .setNegativeButton((String)mContext.getString(R.string.dialog_nav_cancel),new DialogInterface.OnClickListener() {
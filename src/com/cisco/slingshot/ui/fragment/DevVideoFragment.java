@@ -20,6 +20,7 @@ import com.cisco.slingshot.test.TsPlayer;
 
 public class DevVideoFragment extends Fragment {
 	public static final String LOG_TAG = "DevVideoFragment";
+	private static final String TEST_STREAM = "/test3.ts";
 	private View 		mFragmentView;	
 	
 	private SurfaceView  					mVideoFrame  = null;
@@ -48,6 +49,7 @@ public class DevVideoFragment extends Fragment {
     public void onPause (){
     	super.onPause();
 		
+			Log.d(LOG_TAG, "feed: " + mTsPlayer.GetFeedStats());
 			mTsPlayer.Stop();
 		 	mTsPlayer.Release();
 			isPlaying = false;
@@ -58,10 +60,15 @@ public class DevVideoFragment extends Fragment {
     public void onResume(){
     	super.onResume();
     	mTsPlayer.Init();
-		mTsPlayer.StartPlay();
+		startPlay();
 		isPlaying = true;    	
     }
     
+	private void startPlay(){
+		mTsPlayer.StartPlay();
+		mTsPlayer.FeedFile(TEST_STREAM);
+	}
+    
 	private void initFragmentView(View v){
 		if(v == null)
 			return;
@@ -77,7 +84,7 @@ public class DevVideoFragment extends Fragment {
 					mTsPlayer.Stop();
 					isPlaying = false;
 				}else{
-					mTsPlayer.StartPlay();
+					startPlay();
 					isPlaying = true;
 				}
 				
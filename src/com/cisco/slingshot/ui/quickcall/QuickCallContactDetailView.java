@@ -1,9 +1,7 @@
 package com.cisco.slingshot.ui.quickcall;
 
-import java.io.InputStream;
 
 import android.content.Context;
-import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -14,6 +12,7 @@ import android.widget.TextView;
 
 import com.cisco.slingshot.R;
 import com.cisco.slingshot.contact.Contact;
+import com.cisco.slingshot.contact.ContactPhotoLoader;
 import com.cisco.slingshot.utils.AsyncCallTask;
 
 public class QuickCallContactDetailView extends  QuickCallViewBase{
@@ -126,12 +125,7 @@ public class QuickCallContactDetailView extends  QuickCallViewBase{
 
 		mUserName.setText(mUserShown.get_username());
 		mUserAddress.setText(mUserShown.get_address());
-        InputStream photo = Contact.findPhotoInAssets(mContext, mUserShown.get_address());
-        if(photo!=null){
-        	mUserImage.setImageDrawable(Drawable.createFromStream(photo, null));
-        }else{
-        	mUserImage.setImageResource(R.drawable.contact_photo_default1);
-        }
+        ContactPhotoLoader.getInstance(mContext).loadPhoto(mUserImage, mUserShown.get_address(), R.drawable.contact_photo_default1);
         
         this.invalidate();
         this.show();
@@ -143,12 +137,7 @@ public class QuickCallContactDetailView extends  QuickCallViewBase{
 
 		mUserName.setText(mUserShown.get_username());
 		mUserAddress.setText(mUserShown.get_address());
-        InputStream photo = Contact.findPhotoInAssets(mContext, mUserShown.get_address());
-        if(photo!=null){
-        	mUserImage.setImageDrawable(Drawable.createFromStream(photo, null));
-        }else{
-        	mUserImage.setImageResource(R.drawable.contact_photo_default1);
-        }   
+        ContactPhotoLoader.getInstance(mContext).loadPhoto(mUserImage, mUserShown.get_address(), R.drawable.contact_photo_default1);   
 	}
       
 }
\ No newline at end of file
@@ -1,8 +1,6 @@
 package com.cisco.slingshot.ui.quickcall;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.os.Handler;
 import android.util.AttributeSet;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -15,8 +13,6 @@ import android.widget.ListView;
 
 import com.cisco.slingshot.R;
 import com.cisco.slingshot.contact.Contact;
-import com.cisco.slingshot.contact.ContactDatabase;
-import com.cisco.slingshot.contact.ContactManager;
 import com.cisco.slingshot.utils.Util;
 
 public class QuickCallContactListView extends  QuickCallViewBase implements OnItemClickListener{
@@ -31,10 +27,6 @@ public class QuickCallContactListView extends  QuickCallViewBase implements OnIt
 	
 	private View 		mRootView;
 	private Context		mContext;
-	
-	private Cursor 		mDataCursor = null;
-	
-	private Handler mainHandler;
 
 	
 	public QuickCallContactListView(Context context) {
@@ -57,13 +49,13 @@ public class QuickCallContactListView extends  QuickCallViewBase implements OnIt
 	}
 	
 	private void initView(){
-		mainHandler = new Handler();
 		mRootView = (LinearLayout)LayoutInflater.from(mContext).inflate(R.layout.diag_outgoing_call_launcher_contact_list, null);
 		this.addView(mRootView);
 		
 		mContactList = (ListView)mRootView.findViewById(R.id.diag_outgoing_call_launcher_contact_list_list);
 
 		mContactAdapter = new QuickCallContactListAdapter(mContext);
+		mContactAdapter.setListView(mContactList);
 		mContactList.setAdapter(mContactAdapter);
 		mContactList.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
 		mContactList.setOnItemClickListener(this);
@@ -126,7 +118,6 @@ public class QuickCallContactListView extends  QuickCallViewBase implements OnIt
 				return false;
 			}
 		});
-		update();
 		
 	}
 	@Override
@@ -138,35 +129,22 @@ public class QuickCallContactListView extends  QuickCallViewBase implements OnIt
 		getLauncherEventLister().onMenuForward(QuickCallLauncherDialog.SEL_CONTACT, user);
 	}
 	
-	//none-block update 
-	public void update(){
-		ContactManager.getInstance(mContext).queryAllContact(new ContactManager.QueryCallback() {
-			
-			@Override
-			public void onDone(Cursor data) {
-				mDataCursor = data;
-				updateViewInUI();
-				
-			}
-		});
+	/*The list follows the contacts while it is shown*/
+	@Override
+	protected void onAttachedToWindow(){
+		super.onAttachedToWindow();
+		mContactAdapter.start();
 	}
 	
-	private void updateViewInUI(){
-		
-		mainHandler.post(new Runnable(){
-
-			@Override
-			public void run() {
-				mContactAdapter.changeCursor(mDataCursor);
-			}
-			
-		});
+	@Override
+	protected void onDetachedFromWindow(){
+		mContactAdapter.stop();
+		super.onDetachedFromWindow();
 	}
 	
 	public void closeQueryWhenQuit(){
 		Util.S_Log.d(LOG_TAG, "close");
-		if(mDataCursor == null)return;
-		mDataCursor.close();
+		mContactAdapter.stop();
 	}
 
 	
@@ -2,6 +2,7 @@ package com.cisco.slingshot.ui.quickcall;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import android.content.Context;
@@ -24,6 +25,7 @@ import android.widget.TextView;
 import com.cisco.slingshot.R;
 import com.cisco.slingshot.activity.VideoTestActivity;
 import com.cisco.slingshot.contact.Contact;
+import com.cisco.slingshot.contact.ContactIndex;
 import com.cisco.slingshot.utils.AsyncCallTask;
 import com.cisco.slingshot.utils.Util;
 
@@ -93,6 +95,7 @@ public class QuickCallDialPadView extends QuickCallViewBase implements AdapterVi
 					str  = str.substring( 0, str.length() - 1 );			   
 				}
 				mDialNumTv.setText(str);
+				updateSuggestion();
 			}
 		});
         
@@ -149,18 +152,7 @@ public class QuickCallDialPadView extends QuickCallViewBase implements AdapterVi
 				if(callee == null){
 					callee = new Contact(address,address);
 				}
-
-				try{
-					AsyncCallTask.newTask(mContext, 
-										  AsyncCallTask.ASYNC_OUTGOING, 
-										  callee).execute();
-									
-				}catch(Exception e){
-					e.printStackTrace();
-				}
-				
-				getLauncherEventLister().onMenuClose();	
-				
+				call(callee);
 			}
 		});
         
@@ -243,6 +235,45 @@ public class QuickCallDialPadView extends QuickCallViewBase implements AdapterVi
         
         mSubDialog = QuickCallDialPadSubSelectorDialog.getInstance(mContext);
         mSubDialog.setOnSelectedHandler(this);
+        
+        mIndex = ContactIndex.getInstance(mContext);
+        mSuggestionTv = (TextView)findViewById(R.id.dialer_suggestion);
+        mSuggestionTv.setOnClickListener(new View.OnClickListener(){
+			@Override
+			public void onClick(View v) {
+				if(mSuggestion != null)
+					call(mSuggestion);
+			}
+		});
+	}
+	
+	private void call(Contact callee){
+		try{
+			AsyncCallTask.newTask(mContext, 
+								  AsyncCallTask.ASYNC_OUTGOING, 
+								  callee).execute();
+							
+		}catch(Exception e){
+			e.printStackTrace();
+		}
+		
+		getLauncherEventLister().onMenuClose();	
+	}
+	
+	/**
+	 * Show the best contact for what is typed so far, a lookup in the
+	 * in-memory index on every key.
+	 */
+	private void updateSuggestion(){
+		List<Contact> found = mIndex.suggest(mDialNumTv.getText().toString(), 1);
+		if(found.isEmpty()){
+			mSuggestion = null;
+			mSuggestionTv.setVisibility(View.INVISIBLE);
+			return;
+		}
+		mSuggestion = found.get(0);
+		mSuggestionTv.setText(mSuggestion.get_username() + "  " + mSuggestion.get_address());
+		mSuggestionTv.setVisibility(View.VISIBLE);
 	}
 	
 	@Override
@@ -293,6 +324,7 @@ public class QuickCallDialPadView extends QuickCallViewBase implements AdapterVi
 		if(data.equals("*#0001#")){
 			testVideo();
 		};
+		updateSuggestion();
 		
 	}
 	
@@ -406,6 +438,10 @@ public class QuickCallDialPadView extends QuickCallViewBase implements AdapterVi
     
     private QuickCallDialPadSubSelectorDialog mSubDialog;
     
+    private ContactIndex mIndex;
+    private TextView mSuggestionTv;
+    private Contact mSuggestion = null;
+    
     private int mInputMode = INPUT_MODE_NUM;
     
     final static int INPUT_MODE_NUM = 0;
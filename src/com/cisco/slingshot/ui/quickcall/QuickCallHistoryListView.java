@@ -1,12 +1,9 @@
 package com.cisco.slingshot.ui.quickcall;
 
-import java.util.ArrayList;
-
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
-import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.util.AttributeSet;
 import android.view.KeyEvent;
@@ -23,6 +20,7 @@ import com.cisco.slingshot.R;
 import com.cisco.slingshot.contact.Contact;
 import com.cisco.slingshot.contact.ContactDatabase;
 import com.cisco.slingshot.history.HistoryItem;
+import com.cisco.slingshot.history.HistoryPager;
 import com.cisco.slingshot.history.HistroyManager;
 import com.cisco.slingshot.utils.Util;
 
@@ -33,16 +31,14 @@ public class QuickCallHistoryListView extends  QuickCallViewBase implements OnIt
 	private ListView mHistoryList = null;
 	private Button mClearBtn = null;
 
-	//data
-	private ArrayList<HistoryItem> mAllItems = null;
-	private int			mTotalUser = 0;
+	//data, read page by page as the list scrolls
+	private HistoryPager mPager = null;
 	
 	private HistroyManager mHistroyManager;
 
 	
 	private QuickCallHistoryListAdapter mHistoryAdapter;
 	
-	private Handler mainHandler;
 	
 	private int _currentContactListPosition = 0;
 	
@@ -70,32 +66,18 @@ public class QuickCallHistoryListView extends  QuickCallViewBase implements OnIt
 	}
 	
 	public void update(){
-		mHistroyManager.queryAllHistory(new HistroyManager.QueryCallback() {
-			@Override
-			public void onDone(ArrayList<HistoryItem> items) {
-				mAllItems 	= items;
-				mTotalUser 	= mAllItems.size();
-				updateViewInUI();
-				
-			}
-		});
+		mPager.reset();
+		mHistoryAdapter.notifyDataSetChanged();
 	}
 	
-	private void updateViewInUI(){
-		
-		mainHandler.post(new Runnable(){
-
+	private void initView(){
+		mHistroyManager = HistroyManager.getInstance(mContext);
+		mPager = new HistoryPager(mHistroyManager, new HistoryPager.Listener() {
 			@Override
-			public void run() {
-				mHistoryAdapter.changeData(mAllItems);
+			public void onHistoryChanged() {
+				mHistoryAdapter.notifyDataSetChanged();
 			}
-			
 		});
-	}
-	
-	private void initView(){
-		mainHandler = new Handler();
-		mHistroyManager = HistroyManager.getInstance(mContext);
 		
 		mRootView = (LinearLayout)LayoutInflater.from(mContext).inflate(R.layout.diag_outgoing_call_launcher_history_list, null);
 		this.addView(mRootView);
@@ -134,7 +116,7 @@ public class QuickCallHistoryListView extends  QuickCallViewBase implements OnIt
 		
 		mHistoryList = (ListView)mRootView.findViewById(R.id.diag_outgoing_call_launcher_history_list_list);
 
-		mHistoryAdapter = new QuickCallHistoryListAdapter(mContext,mAllItems);
+		mHistoryAdapter = new QuickCallHistoryListAdapter(mContext,mPager);
 		
 		mHistoryList.setAdapter(mHistoryAdapter);
 		mHistoryList.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
@@ -215,10 +197,14 @@ public class QuickCallHistoryListView extends  QuickCallViewBase implements OnIt
 	
 	private Contact getContactByPosition(int pos){
 
-		if(mTotalUser == 0){
+		if(mPager.getCount() == 0){
+			return null;
+		}
+		HistoryItem current = mPager.get(pos);
+		if(current == null){
+			//page on its way
 			return null;
 		}
-		HistoryItem current = mAllItems.get(pos);
 		String address = current._address;
 		
     	Contact userInDb =  Contact.findContactByAddress(mContext, address);//ContactDatabase.getInstance(mContext).queryUserByAddress(address);
@@ -0,0 +1,151 @@
+package com.cisco.slingshot.ui.statistic;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity ring of samples of one metric.
+ *
+ * A sample is kept as an unsigned 16 bit fixed point number, value * scale,
+ * so hours of samples take a few ten KB. Appending is O(1) and overwrites the
+ * oldest sample once the ring is full. Index 0 is the oldest sample held.
+ */
+public class MetricSeries {
+
+	/** stored for a reading which didn't have this metric */
+	private static final char MISSING = 0xFFFF;
+	private static final int MAX_STORED = 0xFFFE;
+
+	/**
+	 * @param capacity samples held
+	 * @param scale fixed point factor, e.g. 10 keeps one decimal; values are
+	 * clamped to [0, 65534 / scale]
+	 */
+	public MetricSeries(int capacity, float scale) {
+		this(capacity, scale, new char[capacity]);
+	}
+
+	/**
+	 * @param scratch used by stats(), at least capacity long, may be shared by
+	 * series used on the same thread
+	 */
+	MetricSeries(int capacity, float scale, char[] scratch) {
+		mSamples = new char[capacity];
+		mScratch = scratch;
+		mScale = scale;
+	}
+
+	public void append(float value) {
+		mSamples[mHead] = encode(value);
+		mHead = (mHead + 1) % mSamples.length;
+		if (mSize < mSamples.length)
+			mSize++;
+	}
+
+	public void appendMissing() {
+		mSamples[mHead] = MISSING;
+		mHead = (mHead + 1) % mSamples.length;
+		if (mSize < mSamples.length)
+			mSize++;
+	}
+
+	/**
+	 * Overwrite the newest sample.
+	 */
+	public void replaceLast(float value) {
+		if (0 == mSize) {
+			append(value);
+			return;
+		}
+		mSamples[slot(mSize - 1)] = encode(value);
+	}
+
+	public void replaceLastMissing() {
+		if (mSize > 0)
+			mSamples[slot(mSize - 1)] = MISSING;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public int capacity() {
+		return mSamples.length;
+	}
+
+	public boolean isMissing(int index) {
+		return MISSING == mSamples[slot(index)];
+	}
+
+	/**
+	 * @return NaN for a missing sample
+	 */
+	public float get(int index) {
+		char c = mSamples[slot(index)];
+		return (MISSING == c) ? Float.NaN : c / mScale;
+	}
+
+	/**
+	 * Copy the newest samples, oldest first, missing ones as NaN.
+	 * @return number of samples copied, at most dst.length
+	 */
+	public int copyRecent(float[] dst) {
+		int count = Math.min(dst.length, mSize);
+		int first = mSize - count;
+		for (int i = 0; i < count; i++)
+			dst[i] = get(first + i);
+		return count;
+	}
+
+	/**
+	 * Min, max, mean and 95th percentile of the samples [from, size()),
+	 * missing ones left out.
+	 */
+	public void stats(int from, WindowStats out) {
+		int n = 0;
+		long sum = 0;
+		for (int i = Math.max(0, from); i < mSize; i++) {
+			char c = mSamples[slot(i)];
+			if (MISSING == c)
+				continue;
+			mScratch[n++] = c;
+			sum += c;
+		}
+		out.count = n;
+		if (0 == n) {
+			out.min = out.max = out.mean = out.p95 = Float.NaN;
+			return;
+		}
+		Arrays.sort(mScratch, 0, n);
+		out.min = mScratch[0] / mScale;
+		out.max = mScratch[n - 1] / mScale;
+		out.mean = sum / (float) n / mScale;
+		// nearest rank
+		out.p95 = mScratch[(int) Math.ceil(0.95 * n) - 1] / mScale;
+	}
+
+	public void clear() {
+		mHead = 0;
+		mSize = 0;
+	}
+
+	// -----------------------------------------------------------------
+
+	private int slot(int index) {
+		int slot = mHead - mSize + index;
+		return (slot < 0) ? slot + mSamples.length : slot;
+	}
+
+	private char encode(float value) {
+		if (Float.isNaN(value))
+			return MISSING;
+		int v = Math.round(value * mScale);
+		return (char) Math.max(0, Math.min(MAX_STORED, v));
+	}
+
+	private final char[] mSamples;
+	// for the percentile, so stats() allocates nothing
+	private final char[] mScratch;
+	private final float mScale;
+	private int mHead = 0;
+	private int mSize = 0;
+}
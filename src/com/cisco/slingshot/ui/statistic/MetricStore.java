@@ -0,0 +1,112 @@
+package com.cisco.slingshot.ui.statistic;
+
+/**
+ * Trend of every call statistic, a {@link MetricSeries} per side and key of
+ * the {@link StatisticRecord}, sharing one ring of sample times.
+ *
+ * Readings are kept at most one per second, a later reading within the same
+ * second replaces the sample. With the default capacity that is four and a
+ * half hours in under 500 KB. Written and read on the UI thread.
+ */
+public class MetricStore {
+
+	public static final int DEFAULT_CAPACITY = 16384;
+	private static final long MIN_INTERVAL_MS = 1000;
+
+	public MetricStore(int capacity) {
+		mTimes = new int[capacity];
+		char[] scratch = new char[capacity];
+		for (int dir = StatisticRecord.TX; dir <= StatisticRecord.RX; dir++) {
+			for (int key = 0; key < StatisticRecord.KEYS.length; key++)
+				mSeries[dir][key] = new MetricSeries(capacity, StatisticRecord.scale(key), scratch);
+		}
+	}
+
+	/**
+	 * Add a reading.
+	 * @param nowMs SystemClock.elapsedRealtime() or any other monotonic clock
+	 */
+	public void record(StatisticRecord record, long nowMs) {
+		if (mStartMs < 0)
+			mStartMs = nowMs;
+		int time = (int) (nowMs - mStartMs);
+		boolean replace = mSize > 0 && time - mTimes[slot(mSize - 1)] < MIN_INTERVAL_MS;
+
+		for (int dir = StatisticRecord.TX; dir <= StatisticRecord.RX; dir++) {
+			for (int key = 0; key < StatisticRecord.KEYS.length; key++) {
+				MetricSeries series = mSeries[dir][key];
+				boolean present = record.isPresent(dir, key);
+				if (replace) {
+					if (present)
+						series.replaceLast(record.get(dir, key));
+					else
+						series.replaceLastMissing();
+				} else {
+					if (present)
+						series.append(record.get(dir, key));
+					else
+						series.appendMissing();
+				}
+			}
+		}
+		if (replace)
+			return;
+
+		mTimes[mHead] = time;
+		mHead = (mHead + 1) % mTimes.length;
+		if (mSize < mTimes.length)
+			mSize++;
+	}
+
+	public MetricSeries getSeries(int dir, int key) {
+		return mSeries[dir][key];
+	}
+
+	/**
+	 * Summary of the last windowMs of a metric.
+	 */
+	public void stats(int dir, int key, long windowMs, WindowStats out) {
+		mSeries[dir][key].stats(firstWithin(windowMs), out);
+	}
+
+	/**
+	 * Index of the oldest sample not older than windowMs before the newest.
+	 */
+	public int firstWithin(long windowMs) {
+		if (0 == mSize)
+			return 0;
+		int newest = mTimes[slot(mSize - 1)];
+		int i = mSize - 1;
+		while (i > 0 && newest - mTimes[slot(i - 1)] <= windowMs)
+			i--;
+		return i;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public void clear() {
+		mStartMs = -1;
+		mHead = 0;
+		mSize = 0;
+		for (MetricSeries[] side : mSeries) {
+			for (MetricSeries series : side)
+				series.clear();
+		}
+	}
+
+	// -----------------------------------------------------------------
+
+	private int slot(int index) {
+		int slot = mHead - mSize + index;
+		return (slot < 0) ? slot + mTimes.length : slot;
+	}
+
+	private final MetricSeries[][] mSeries = new MetricSeries[2][StatisticRecord.KEYS.length];
+	// ms since the first reading
+	private final int[] mTimes;
+	private long mStartMs = -1;
+	private int mHead = 0;
+	private int mSize = 0;
+}
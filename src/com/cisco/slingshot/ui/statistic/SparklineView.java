@@ -0,0 +1,94 @@
+package com.cisco.slingshot.ui.statistic;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Draws the recent samples of a {@link MetricSeries} as a small line chart,
+ * with the 95th percentile of the shown samples as a faint line.
+ *
+ * One sample per pixel column; the sample and point arrays are
+ * allocated when the size changes, not per frame.
+ */
+public class SparklineView extends View {
+
+	public SparklineView(Context context) {
+		super(context);
+		init();
+	}
+
+	public SparklineView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		init();
+	}
+
+	private void init() {
+		mLinePaint.setColor(Color.WHITE);
+		mLinePaint.setStrokeWidth(1.5f);
+		mLinePaint.setAntiAlias(true);
+		mP95Paint.setColor(0x60FFFFFF);
+		mP95Paint.setStrokeWidth(1f);
+	}
+
+	/**
+	 * Show this series, call {@link #invalidate()} when it got new samples.
+	 */
+	public void setSeries(MetricSeries series) {
+		mSeries = series;
+		invalidate();
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		int columns = Math.max(2, w - getPaddingLeft() - getPaddingRight());
+		mSamples = new float[columns];
+		mPoints = new float[4 * columns];
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		if (null == mSeries || null == mSamples)
+			return;
+		int count = mSeries.copyRecent(mSamples);
+		if (count < 2)
+			return;
+
+		mSeries.stats(mSeries.size() - count, mStats);
+		if (0 == mStats.count)
+			return;
+		float top = Math.max(mStats.max, 1e-3f);
+
+		// one pixel per sample, the newest on the right
+		float left = getPaddingLeft() + mSamples.length - count;
+		float height = getHeight() - getPaddingTop() - getPaddingBottom();
+		float bottom = getPaddingTop() + height;
+
+		// segments between two present samples, a missing one leaves a gap
+		int n = 0;
+		for (int i = 1; i < count; i++) {
+			float a = mSamples[i - 1];
+			float b = mSamples[i];
+			if (Float.isNaN(a) || Float.isNaN(b))
+				continue;
+			mPoints[n++] = left + i - 1;
+			mPoints[n++] = bottom - a / top * height;
+			mPoints[n++] = left + i;
+			mPoints[n++] = bottom - b / top * height;
+		}
+		float y = bottom - mStats.p95 / top * height;
+		canvas.drawLine(left, y, left + count - 1, y, mP95Paint);
+		canvas.drawLines(mPoints, 0, n, mLinePaint);
+	}
+
+	private MetricSeries mSeries = null;
+	private float[] mSamples = null;
+	private float[] mPoints = null;
+	private final WindowStats mStats = new WindowStats();
+	private final Paint mLinePaint = new Paint();
+	private final Paint mP95Paint = new Paint();
+}
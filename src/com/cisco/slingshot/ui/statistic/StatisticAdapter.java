@@ -1,14 +1,12 @@
 package com.cisco.slingshot.ui.statistic;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.File;
 
 import android.content.Context;
+import android.os.FileObserver;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.TextView;
@@ -18,25 +16,41 @@ import com.cisco.slingshot.ui.statistic.StatisticXMLParser.XmlParseErrorCode;
 import com.cisco.slingshot.utils.Util;
 
 
+/**
+ * Feeds the StatisticView with readings of the call statistics.
+ *
+ * The vendor stat file is parsed only when it changed, a FileObserver on its
+ * directory tells. A reading goes into a StatisticRecord and only the values
+ * which differ from the ones on screen are set. Every reading is also
+ * kept in a MetricStore, drawn as a trend next to each value.
+ */
 public abstract class StatisticAdapter implements StatisticXMLParser.XmlParseCallback{
 	
 	public static final String LOG_TAG = "StatisticAdapter";
 	
-	private static final long MS_THREE_SECONDS = 3*1000L;
-	
 	private Context mContext;
 	private StatisticView mAnchorStatisticView = null;
 	
 	private StatisticXMLParser mStatisticXMLParser = null;
-	private HashMap<String,TextView> mDataSendingValueTexts = null;
-	private HashMap<String,TextView> mDataReceivingValueTexts = null;
+	private FileObserver mFileObserver = null;
+	
+	/*Value views by side and key, created when a key first shows up*/
+	private TextView[][] mValueTexts = new TextView[2][StatisticRecord.KEYS.length];
+	private NameUnit[] mKeyNames = new NameUnit[StatisticRecord.KEYS.length];
+	private SparklineView[][] mTrendViews = new SparklineView[2][StatisticRecord.KEYS.length];
 	
-	private ArrayList<StatisticData> mDataReceived = null;
-	private ArrayList<StatisticData> mDataSent = null; 
+	/*Samples of the whole call, UI thread only*/
+	private final MetricStore mTrend = new MetricStore(MetricStore.DEFAULT_CAPACITY);
 	
-	private TimerTask mUpdateTimerTask = null;
+	/*Latest reading, handed from the parsing thread to the UI thread under mLock*/
+	private final Object mLock = new Object();
+	private final StatisticRecord mPending = new StatisticRecord();
+	private boolean mUpdatePosted = false;
+	/*UI thread only*/
+	private final StatisticRecord mIncoming = new StatisticRecord();
+	private final StatisticRecord mShown = new StatisticRecord();
 	
-	private HashMap<String,NameUnit> mKeyNameMap = new HashMap<String,NameUnit>();
+	private volatile boolean mUpdating = false;
 	
 	private class UiHandler extends Handler{
 		public static final int UPDATE_UI = 1;
@@ -56,68 +70,79 @@ public abstract class StatisticAdapter implements StatisticXMLParser.XmlParseCal
 		init();
 	}
 	
+	/**
+	 * Trend of the values shown so far.
+	 */
+	public MetricStore getMetricStore(){
+		return mTrend;
+	}
+	
 	public void startUpdateAsync(){
-		mUpdateTimerTask = new TimerTask()
-		{		
-			public void run()
-			{
-				Util.S_Log.d(LOG_TAG, "Updating data");
-				mStatisticXMLParser.parseXML(getDataXMLPath());
+		if(mUpdating)
+			return;
+		mUpdating = true;
+		
+		final File file = new File(getDataXMLPath());
+		mFileObserver = new FileObserver(file.getParent(), FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO){
+			@Override
+			public void onEvent(int event, String path) {
+				/*Any file of the directory, only ours counts*/
+				if(mUpdating && file.getName().equals(path)){
+					Util.S_Log.d(LOG_TAG, "Updating data");
+					mStatisticXMLParser.parseXML(file.getPath());
+				}
 			}
 		};
-		Timer timer = new Timer();
-		timer.scheduleAtFixedRate(mUpdateTimerTask, MS_THREE_SECONDS, MS_THREE_SECONDS);
+		mFileObserver.startWatching();
+		
+		/*What is there already, off the UI thread*/
+		new Thread(new Runnable(){
+			@Override
+			public void run() {
+				mStatisticXMLParser.parseXML(file.getPath());
+			}
+		}, LOG_TAG).start();
 	}
 	
 	
 	public void stopUpdate(){
-		if(mUpdateTimerTask != null){
-			mUpdateTimerTask.cancel();
-			mUpdateTimerTask = null;
+		mUpdating = false;
+		if(mFileObserver != null){
+			mFileObserver.stopWatching();
+			mFileObserver = null;
 		}
 	}
 	
-	
-	
-	private void updateOnce(){
-		mStatisticXMLParser.parseXML(getDataXMLPath());
-	}
-	
 	private void init(){
 		mUiHandler = new UiHandler();
 		mStatisticXMLParser = new StatisticXMLParser(this);
 		createKeyNameMap();
 	}
 	
-	/*Align with key defined in stat.xml,"totalplr","curplr","jitter","chanrate"*/
+	/*A name and a unit for every key of StatisticRecord.KEYS*/
 	
 	private void createKeyNameMap(){
-		mKeyNameMap.put("totalplr", new NameUnit((String)mContext.getResources().getText(R.string.stat_name_total_loss_rate),
-												 (String)mContext.getResources().getText(R.string.stat_unit_rate)));
-		mKeyNameMap.put("curplr", new NameUnit((String)mContext.getResources().getText(R.string.stat_name_current_loss_rate),
-											   (String)mContext.getResources().getText(R.string.stat_unit_rate)));
-		mKeyNameMap.put("jitter", new NameUnit((String)mContext.getResources().getText(R.string.stat_name_jitter),
-												(String)mContext.getResources().getText(R.string.stat_unit_ms)));
-		mKeyNameMap.put("chanrate", new NameUnit((String)mContext.getResources().getText(R.string.stat_name_bit_rate),
-												 (String)mContext.getResources().getText(R.string.stat_unit_kbps)));
+		mKeyNames[StatisticRecord.KEY_TOTAL_LOSS] = new NameUnit(R.string.stat_name_total_loss_rate, R.string.stat_unit_rate);
+		mKeyNames[StatisticRecord.KEY_CURRENT_LOSS] = new NameUnit(R.string.stat_name_current_loss_rate, R.string.stat_unit_rate);
+		mKeyNames[StatisticRecord.KEY_JITTER] = new NameUnit(R.string.stat_name_jitter, R.string.stat_unit_ms);
+		mKeyNames[StatisticRecord.KEY_BIT_RATE] = new NameUnit(R.string.stat_name_bit_rate, R.string.stat_unit_kbps);
+		mKeyNames[StatisticRecord.KEY_FPS] = new NameUnit(R.string.stat_name_frame_rate, R.string.stat_unit_fps);
 	}
 	
-	private View createItemView(String key, String value){
+	private TextView createItemView(int dir, int key){
 		View item = LayoutInflater.from(mContext).inflate(R.layout.statistic_view_item, null);
 		TextView tv_name = (TextView)item.findViewById(R.id.statistic_item_name);
 		TextView tv_value = (TextView)item.findViewById(R.id.statistic_item_value);
+		tv_name.setText(mKeyNames[key].name);
+		SparklineView trend = (SparklineView)item.findViewById(R.id.statistic_item_trend);
+		trend.setSeries(mTrend.getSeries(dir, key));
+		mTrendViews[dir][key] = trend;
 		
-		/*Search the readable name for the key, if not exists, use the key directly*/
-		NameUnit readble_name = mKeyNameMap.get(key);
-		if(readble_name != null){
-			tv_name.setText(readble_name.name);
-			tv_value.setText(value + readble_name.unit);
-		}else{
-			tv_name.setText(key);
-			tv_value.setText(value);
-		}
-
-		return item;
+		if(dir == StatisticRecord.TX)
+			mAnchorStatisticView.addDataSendingItem(item, true);
+		else
+			mAnchorStatisticView.addDataReceivingItem(item, true);
+		return tv_value;
 	}
 
 	
@@ -126,72 +151,45 @@ public abstract class StatisticAdapter implements StatisticXMLParser.XmlParseCal
 		mAnchorStatisticView = view;
 	}
 	
-	private void updateInUIThread(){
-		mUiHandler.sendEmptyMessage(UiHandler.UPDATE_UI);
-	}
-	
+	/*Set the values which changed since the last update*/
 	private void upDateUi(){
+		synchronized(mLock){
+			mIncoming.copyFrom(mPending);
+			mUpdatePosted = false;
+		}
+		mTrend.record(mIncoming, SystemClock.elapsedRealtime());
 		
-		if(mDataSent != null){
-			
-			if(mDataSendingValueTexts == null){
-				/*first time sending data*/
-				mDataSendingValueTexts = new HashMap<String,TextView>();
-				Iterator<StatisticData> itor = mDataSent.iterator();
-				while(itor.hasNext()){
-					StatisticData item = itor.next();
-					View itemView = createItemView(item.key,item.value);
-					TextView tv = (TextView)itemView.findViewById(R.id.statistic_item_value);
-					mDataSendingValueTexts.put(item.key, tv);
-					mAnchorStatisticView.addDataSendingItem(itemView, true);
-				}	
-			}else{
+		for(int dir = StatisticRecord.TX; dir <= StatisticRecord.RX; dir++){
+			for(int key = 0; key < StatisticRecord.KEYS.length; key++){
+				if(!mIncoming.isPresent(dir, key) || !mIncoming.differs(mShown, dir, key))
+					continue;
 				
-		    	Iterator<StatisticData> itor = mDataSent.iterator();
-				while(itor.hasNext()){
-					StatisticData item = itor.next();
-					TextView tv = mDataSendingValueTexts.get(item.key);
-					
-					//tv.setText(item.value);
-					NameUnit readble_name = mKeyNameMap.get(item.key);
-					if(readble_name != null){
-						tv.setText(item.value + readble_name.unit);
-					}else{
-						tv.setText(item.value );
-					}
+				TextView tv = mValueTexts[dir][key];
+				if(tv == null){
+					/*first time this value comes*/
+					tv = createItemView(dir, key);
+					mValueTexts[dir][key] = tv;
 				}
+				tv.setText(format(key, mIncoming.get(dir, key)) + mKeyNames[key].unit);
 			}
 		}
+		mShown.copyFrom(mIncoming);
 		
-		if(mDataReceived != null){
-			if(mDataReceivingValueTexts == null){
-				/*first time receiving data*/
-				mDataReceivingValueTexts = new HashMap<String,TextView>();
-				Iterator<StatisticData> itor = mDataReceived.iterator();
-				while(itor.hasNext()){
-					StatisticData item = itor.next();
-					View itemView = createItemView(item.key,item.value);
-					TextView tv = (TextView)itemView.findViewById(R.id.statistic_item_value);
-					mDataReceivingValueTexts.put(item.key, tv);
-					mAnchorStatisticView.addDataReceivingItem(itemView, true);
-				}	
-			}else{
-		    	Iterator<StatisticData> itor = mDataReceived.iterator();
-				while(itor.hasNext()){
-					StatisticData item = itor.next();
-					TextView tv = mDataReceivingValueTexts.get(item.key);
-					//tv.setText(item.value);
-					NameUnit readble_name = mKeyNameMap.get(item.key);
-					if(readble_name != null){
-						tv.setText(item.value + readble_name.unit);
-					}else{
-						tv.setText(item.value );
-					}
-				}
+		for(SparklineView[] side : mTrendViews){
+			for(SparklineView trend : side){
+				if(trend != null)
+					trend.invalidate();
 			}
 		}
-
-		
+	}
+	
+	private static String format(int key, float value){
+		switch(key){
+		case StatisticRecord.KEY_BIT_RATE:
+		case StatisticRecord.KEY_FPS:
+			return String.valueOf(Math.round(value));
+		}
+		return String.valueOf(Math.round(value * 10) / 10f);
 	}
 	
 
@@ -200,12 +198,16 @@ public abstract class StatisticAdapter implements StatisticXMLParser.XmlParseCal
 	public void onXmlParseError(XmlParseErrorCode err){
 		//ignore
 	}
-	public void onXmlParseCompleted(ArrayList<StatisticData> dataReceived,
-									  ArrayList<StatisticData> dataSent){
-		
-		mDataReceived = new ArrayList<StatisticData>(dataReceived);
-		mDataSent = new ArrayList<StatisticData>(dataSent);
-		updateInUIThread();
+	
+	/*On the parsing thread, hand over the reading and post one UI update*/
+	public void onXmlParseCompleted(StatisticRecord record){
+		synchronized(mLock){
+			mPending.copyFrom(record);
+			if(!mUpdatePosted){
+				mUpdatePosted = true;
+				mUiHandler.sendEmptyMessage(UiHandler.UPDATE_UI);
+			}
+		}
 	}
 	
 	/*Return the xml recording the video params such as jitter, bit rate,etc*/
@@ -217,9 +219,9 @@ public abstract class StatisticAdapter implements StatisticXMLParser.XmlParseCal
 	private class NameUnit{
 		public String name;
 		public String unit;
-		public NameUnit(String name, String unit){
-			this.name = name;
-			this.unit = unit;
+		public NameUnit(int nameId, int unitId){
+			this.name = (String)mContext.getResources().getText(nameId);
+			this.unit = (String)mContext.getResources().getText(unitId);
 		}
 	}
 	
@@ -229,4 +231,4 @@ public abstract class StatisticAdapter implements StatisticXMLParser.XmlParseCal
 	
 	
 	
-}
\ No newline at end of file
+}
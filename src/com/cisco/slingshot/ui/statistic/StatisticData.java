@@ -1,10 +0,0 @@
-package com.cisco.slingshot.ui.statistic;
-
-public class StatisticData{
-	public StatisticData(String key, String value){
-		this.key = key;
-		this.value = value;
-	}
-	public String key;
-	public String value;
-}
\ No newline at end of file
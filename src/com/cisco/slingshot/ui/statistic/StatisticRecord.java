@@ -0,0 +1,81 @@
+package com.cisco.slingshot.ui.statistic;
+
+/**
+ * One reading of the call statistics: a numeric value per fixed key for the
+ * sending and the receiving side.
+ *
+ * Preallocated and overwritten on every update, so parsing a new reading
+ * allocates nothing and comparing two readings is a walk over two arrays.
+ */
+public class StatisticRecord {
+
+	public static final int TX = 0;
+	public static final int RX = 1;
+
+	/*Keys of stat.xml, the order is the one of the KEY_ constants*/
+	public static final String[] KEYS = {
+		"totalplr", "curplr", "jitter", "chanrate", "fps"
+	};
+
+	public static final int KEY_TOTAL_LOSS = 0;
+	public static final int KEY_CURRENT_LOSS = 1;
+	public static final int KEY_JITTER = 2;
+	public static final int KEY_BIT_RATE = 3;
+	public static final int KEY_FPS = 4;
+
+	/*Fixed point factor per key wherever a value is stored as an integer*/
+	private static final float[] SCALES = {
+		100f,	// totalplr, %
+		100f,	// curplr, %
+		10f,	// jitter, ms
+		1f,		// chanrate, kbps
+		100f	// fps
+	};
+
+	/**
+	 * Factor turning a value of the key into a fixed point integer.
+	 */
+	public static float scale(int key) {
+		return SCALES[key];
+	}
+
+	public void clear() {
+		for (int dir = TX; dir <= RX; dir++) {
+			for (int key = 0; key < KEYS.length; key++) {
+				mPresent[dir][key] = false;
+				mValues[dir][key] = 0;
+			}
+		}
+	}
+
+	public void set(int dir, int key, float value) {
+		mValues[dir][key] = value;
+		mPresent[dir][key] = true;
+	}
+
+	public float get(int dir, int key) {
+		return mValues[dir][key];
+	}
+
+	public boolean isPresent(int dir, int key) {
+		return mPresent[dir][key];
+	}
+
+	/**
+	 * Whether the value differs from the one in the other record.
+	 */
+	public boolean differs(StatisticRecord other, int dir, int key) {
+		return mPresent[dir][key] != other.mPresent[dir][key]
+				|| Float.floatToIntBits(mValues[dir][key]) != Float.floatToIntBits(other.mValues[dir][key]);
+	}
+
+	public void copyFrom(StatisticRecord other) {
+		for (int dir = TX; dir <= RX; dir++) {
+			System.arraycopy(other.mValues[dir], 0, mValues[dir], 0, KEYS.length);
+			System.arraycopy(other.mPresent[dir], 0, mPresent[dir], 0, KEYS.length);
+		}
+	}
+
+	private final float[][] mValues = new float[2][KEYS.length];
+	private final boolean[][] mPresent = new boolean[2][KEYS.length];
+}
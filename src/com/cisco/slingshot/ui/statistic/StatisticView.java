@@ -55,6 +55,13 @@ public class StatisticView extends FrameLayout{
 		mAdapter.setAnchorStatisticView(this);
 	}
 	
+	/**
+	 * Samples of every value shown, e.g. for min/max/p95 over a window.
+	 */
+	public MetricStore getMetricStore(){
+		return mAdapter.getMetricStore();
+	}
+	
 	public void startUpdate(){
 		mAdapter.startUpdateAsync();
 	}
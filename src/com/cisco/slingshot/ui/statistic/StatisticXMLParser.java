@@ -1,36 +1,33 @@
 package com.cisco.slingshot.ui.statistic;
 
-import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 import android.util.Log;
+import android.util.Xml;
 
 import com.cisco.slingshot.utils.Util;
 
+/**
+ * Reads the vendor statistics file into a {@link StatisticRecord}:
+ *
+ * <stat><TX><curplr>0.5</curplr>...</TX><RX>...</RX></stat>
+ *
+ * A pull parser streams through the file and the values are parsed from the
+ * parser's character buffer, no document tree and no strings are built.
+ * Elements whose key isn't in the record are skipped. One parser and one
+ * record are reused for every reading.
+ */
 public class StatisticXMLParser{
 	
 	final static String LOG_TAG = "StatisticXMLParser";
 	
-    //private Map<String, String> xmlConfig = new HashMap<String, String>();
-	
-	private ArrayList<StatisticData> mDataReceived = new ArrayList<StatisticData>();
-	private ArrayList<StatisticData> mDataSent = new ArrayList<StatisticData>();
-	
     private XmlParseCallback mCallback;
 	
-    //XML Name space
-    private static final String XMLNS = "";
-    
     //Update XML tags
     
     /*
@@ -43,137 +40,179 @@ public class StatisticXMLParser{
     private static final String TAG_TX 		= "TX";
     private static final String TAG_RX 		= "RX";
     
+    private final XmlPullParser mParser = Xml.newPullParser();
+    private final StatisticRecord mRecord = new StatisticRecord();
+    private final int[] mHolder = new int[2];
+    
     public StatisticXMLParser(XmlParseCallback callback){
     	mCallback = callback;
     }
 	
-    public void parseXML(String path){
+    /**
+     * Parse the file, the callback gets the record on success. The file may
+     * not exist yet, that is no error. Serialized, the parser and the record
+     * are shared.
+     */
+    public synchronized void parseXML(String path){
 		Util.S_Log.d(LOG_TAG, "begin parseXML ...");
+		FileInputStream in = null;
 		try{
-			if(parse(path)==true){
-				mCallback.onXmlParseCompleted(mDataReceived,mDataSent);
+			in = new FileInputStream(path);
+			mParser.setInput(in, null);
+			if(parse()){
+				mCallback.onXmlParseCompleted(mRecord);
 			}
-		}catch(SAXException e){
-			Log.e(LOG_TAG, e.getMessage());
-			mCallback.onXmlParseError(XmlParseErrorCode.XML_ERROR);
-		}catch(ParserConfigurationException e){
+		}catch(FileNotFoundException e){
+			Util.S_Log.d(LOG_TAG, "no " + path + " yet");
+		}catch(XmlPullParserException e){
 			Log.e(LOG_TAG, e.getMessage());
 			mCallback.onXmlParseError(XmlParseErrorCode.XML_ERROR);
 		}catch(IOException e){
 			Log.e(LOG_TAG, e.getMessage());
 			mCallback.onXmlParseError(XmlParseErrorCode.XML_ERROR);
-		}      	
-    }
-    
-    private boolean parse(String xmlurl) throws ParserConfigurationException, IOException, SAXException 
-	{
-		
-		Document doc = createDocumentModel(xmlurl);
-		if(doc == null){
-			return false;
-		}
-		
-		/*Parse root objects <stat> */
-		Node stat_node = doc.getFirstChild();
-		Util.S_Log.d(LOG_TAG, "objects node : " + stat_node.getNodeName());
-		
-		if((null == stat_node) || (false == stat_node.getNodeName().equals(TAG_STAT)))
-		{
-			Log.w(LOG_TAG, "no <stat> in xml file");
-			return false;
-		}
-		
-		/*Parse root objects <stat> */
-		NodeList nodeList = stat_node.getChildNodes();
-		Node tx_node = null , rx_node = null;
-		
-		/*Parse TX and RX*/
-		for(int i = 0; i < nodeList.getLength(); i++)
-		{
-			Node node = nodeList.item(i);
-			
-			if(node != null && node.getNodeName().equals(TAG_TX)){
-				tx_node = node;
-			}
-			
-			if(node != null && node.getNodeName().equals(TAG_RX)){
-				rx_node = node;
-			}
-			
-		}
-		
-		if(tx_node != null)
-		{
-			Node node_itor = tx_node.getFirstChild();
-			while(null != node_itor)
-			{
-				if(Node.ELEMENT_NODE == node_itor.getNodeType())
-				{
-					String key = new String(node_itor.getNodeName());
-					String value = null;
-					
-					Node node_value = node_itor.getFirstChild();
-					
-					if(null != node_value){
-						value = node_value.getNodeValue();
-					}			
-					mDataSent.add(new StatisticData(key,value));
+		}finally{
+			if(in != null){
+				try{
+					in.close();
+				}catch(IOException e){
+					Log.e(LOG_TAG, e.getMessage());
 				}
-				node_itor = node_itor.getNextSibling();
 			}
-		}else{
-			Log.w(LOG_TAG, "no <TX> in xml file");
 		}
-		
-		if(rx_node != null)
-		{
-			Node node_itor = rx_node.getFirstChild();
-			while(null != node_itor)
-			{
-				if(Node.ELEMENT_NODE == node_itor.getNodeType())
-				{
-					String key = new String(node_itor.getNodeName());
-					String value = null;
-					
-					Node node_value = node_itor.getFirstChild();
-					
-					if(null != node_value){
-						value = node_value.getNodeValue();
-					}			
-					mDataReceived.add(new StatisticData(key,value));
-				}
-				node_itor = node_itor.getNextSibling();
-			}
-		}else{
-			Log.w(LOG_TAG, "no <RX> in xml file");
-		}
-		
-		return true;
-	}
+    }
     
-	private Document createDocumentModel(String path) throws ParserConfigurationException, IOException, SAXException 
-	{
-		Util.S_Log.d(LOG_TAG, "path = " + path);
-		
-		DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-		Document doc;
-		File file = new File(path);
-		if(!file.exists())
-			return null;
-		doc = docBuilder.parse(file);
-		doc.normalize();
-		
-		return doc;
-	}	
-	
+    private boolean parse() throws XmlPullParserException, IOException {
+    	mRecord.clear();
+    	
+    	/*Root <stat> */
+    	mParser.nextTag();
+    	if(!TAG_STAT.equals(mParser.getName())){
+    		Log.w(LOG_TAG, "no <stat> in xml file");
+    		return false;
+    	}
+    	
+    	/*<TX> and <RX> below it*/
+    	int event;
+    	while((event = mParser.next()) != XmlPullParser.END_DOCUMENT){
+    		if(event != XmlPullParser.START_TAG)
+    			continue;
+    		String name = mParser.getName();
+    		if(TAG_TX.equals(name)){
+    			parseSide(StatisticRecord.TX);
+    		}else if(TAG_RX.equals(name)){
+    			parseSide(StatisticRecord.RX);
+    		}else{
+    			skip();
+    		}
+    	}
+    	return true;
+    }
+    
+    // the children of <TX> or <RX>, the parser is on its start tag
+    private void parseSide(int dir) throws XmlPullParserException, IOException {
+    	int depth = mParser.getDepth();
+    	int event;
+    	while((event = mParser.next()) != XmlPullParser.END_DOCUMENT){
+    		if(event == XmlPullParser.END_TAG && mParser.getDepth() == depth)
+    			return;
+    		if(event != XmlPullParser.START_TAG)
+    			continue;
+    		
+    		int key = keyIndex(mParser.getName());
+    		if(key < 0){
+    			skip();
+    			continue;
+    		}
+    		if(mParser.next() == XmlPullParser.TEXT){
+    			char[] ch = mParser.getTextCharacters(mHolder);
+    			float value = parseFloat(ch, mHolder[0], mHolder[1]);
+    			if(!Float.isNaN(value))
+    				mRecord.set(dir, key, value);
+    		}
+    		if(mParser.getEventType() != XmlPullParser.END_TAG)
+    			skip();
+    	}
+    }
+    
+    private static int keyIndex(String name){
+    	for(int i = 0; i < StatisticRecord.KEYS.length; i++){
+    		if(StatisticRecord.KEYS[i].equals(name))
+    			return i;
+    	}
+    	return -1;
+    }
+    
+    // skip to the end tag of the current element
+    private void skip() throws XmlPullParserException, IOException {
+    	int depth = 1;
+    	while(depth > 0){
+    		switch(mParser.next()){
+    		case XmlPullParser.START_TAG:
+    			depth++;
+    			break;
+    		case XmlPullParser.END_TAG:
+    			depth--;
+    			break;
+    		case XmlPullParser.END_DOCUMENT:
+    			return;
+    		}
+    	}
+    }
+    
+    /**
+     * [-]digits[.digits], surrounding white space allowed.
+     * @return NaN if it is no such number
+     */
+    static float parseFloat(char[] ch, int start, int length){
+    	int end = start + length;
+    	while(start < end && ch[start] <= ' ')
+    		start++;
+    	while(end > start && ch[end - 1] <= ' ')
+    		end--;
+    	if(start == end)
+    		return Float.NaN;
+    	
+    	boolean negative = (ch[start] == '-');
+    	if(negative)
+    		start++;
+    	long mantissa = 0;
+    	int scale = 0;
+    	boolean point = false;
+    	boolean digits = false;
+    	for(int i = start; i < end; i++){
+    		char c = ch[i];
+    		if(c == '.' && !point){
+    			point = true;
+    		}else if(c >= '0' && c <= '9'){
+    			digits = true;
+    			if(mantissa < Long.MAX_VALUE / 10){
+    				mantissa = mantissa * 10 + (c - '0');
+    				if(point)
+    					scale++;
+    			}else if(!point){
+    				return Float.NaN;
+    			}
+    		}else{
+    			return Float.NaN;
+    		}
+    	}
+    	if(!digits)
+    		return Float.NaN;
+    	
+    	double value = mantissa;
+    	while(scale-- > 0)
+    		value /= 10;
+    	return (float)(negative ? -value : value);
+    }
 	
 	public interface XmlParseCallback{
 
 		abstract void onXmlParseError(XmlParseErrorCode err);
-		abstract void onXmlParseCompleted(ArrayList<StatisticData> dataReceived,
-										  ArrayList<StatisticData> dataSent);
+		/**
+		 * @param record only valid during the call, it is reused
+		 */
+		abstract void onXmlParseCompleted(StatisticRecord record);
 	}
 	
 	public enum XmlParseErrorCode {XML_ERROR}; 
-}
\ No newline at end of file
+}
@@ -0,0 +1,13 @@
+package com.cisco.slingshot.ui.statistic;
+
+/**
+ * Summary of a metric over a window, filled by {@link MetricSeries#stats}.
+ * Values are NaN if the window has no sample.
+ */
+public class WindowStats {
+	public int count;
+	public float min;
+	public float max;
+	public float mean;
+	public float p95;
+}
@@ -16,6 +16,7 @@ import android.view.WindowManager;
 
 import com.cisco.slingshot.R;
 import com.cisco.slingshot.activity.InCallActivity;
+import com.cisco.slingshot.call.CallPrewarm;
 import com.cisco.slingshot.contact.Contact;
 import com.cisco.slingshot.history.HistoryDatabase;
 import com.cisco.slingshot.history.HistoryItem;
@@ -23,6 +24,8 @@ import com.cisco.slingshot.history.HistroyManager;
 
 /**
  * Start InCallActivity after showing a dialog indicator. Typically used when start from a background thread.
+ * The camera, player and video socket of the call are opened meanwhile by CallPrewarm, the activity starts
+ * once they are ready or after READY_TIMEOUT_MS. If it doesn't start, they are released again.
  * @author yuancui
  *
  */
@@ -31,6 +34,9 @@ public class AsyncCallTask extends AsyncTask<Void,Void,Boolean>{
 	public static final int ASYNC_INCOMING = 1;
 	public static final int ASYNC_OUTGOING = 2;
 	
+	// longest wait for CallPrewarm, InCallView waits for the rest itself
+	private static final long READY_TIMEOUT_MS = 1000;
+	
 	public static AsyncCallTask newTask(Context ctx , int callType, Contact user){
 		return new AsyncCallTask(ctx,callType,user);
 	}
@@ -43,15 +49,15 @@ public class AsyncCallTask extends AsyncTask<Void,Void,Boolean>{
 	 @Override
 	 protected void onPreExecute(){
 		 startDilogActivity();
+		 CallPrewarm.getInstance(_context).start();
 	 }
 
 	@Override
 	protected Boolean doInBackground(Void... params) {
-		try {
-			java.lang.Thread.sleep(1000);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
+		final long start = CallTrace.begin();
+		boolean ready = CallPrewarm.getInstance(_context).awaitReady(READY_TIMEOUT_MS);
+		CallTrace.end("AsyncCallTask.awaitReady", start);
+		Util.S_Log.d(LOG_TAG, "call " + (ready ? "ready" : "not ready") + " in " + (System.nanoTime() - start) / 1000000 + " ms");
 		return true;
 	}
 	
@@ -61,6 +67,7 @@ public class AsyncCallTask extends AsyncTask<Void,Void,Boolean>{
 		if(_callType == ASYNC_OUTGOING){
 			if(_to == null){
 				Log.e(LOG_TAG, "User == null");
+				CallPrewarm.getInstance(_context).release();
 				return;
 			}
 			callUser(_to);
@@ -69,6 +76,12 @@ public class AsyncCallTask extends AsyncTask<Void,Void,Boolean>{
 		}
 	 }
 	 
+	 @Override
+	 protected void onCancelled() {
+		 // no InCallView will take the camera, player and socket
+		 CallPrewarm.getInstance(_context).release();
+	 }
+	 
 	 /*
 	 private void showStartCallDialog(){
 		 try{
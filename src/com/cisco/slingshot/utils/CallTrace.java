@@ -0,0 +1,164 @@
+package com.cisco.slingshot.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import android.os.Process;
+
+/**
+ * Timed stages of call setup, from the SIP request to the first remote frame,
+ * kept for the GET STATUS debug command as Chrome trace JSON
+ * (chrome://tracing, Perfetto).
+ *
+ * Times are System.nanoTime(). The last CAPACITY events are kept in arrays
+ * allocated once; recording takes a ticket from a counter and fills its slot,
+ * no lock and no allocation, so it may be called from any thread including
+ * the SIP and media callbacks. Each slot has a sequence number written
+ * before and after the fields, readers skip a slot that changed meanwhile.
+ * The fields are atomic arrays too: their volatile reads and writes are
+ * ordered with the sequence number, so a reader seeing the same number
+ * before and after read one whole event.
+ */
+public class CallTrace {
+
+	// events kept, a power of two
+	private static final int CAPACITY = 256;
+	private static final int MASK = CAPACITY - 1;
+
+	private static final String HEAD = "{\"traceEvents\":[";
+	private static final String TAIL = "],\"displayTimeUnit\":\"ms\"}";
+
+	/**
+	 * Start of a span, for {@link #end(String, long)}.
+	 */
+	public static long begin() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record the span from start, on the thread ending it.
+	 * @param name an ASCII constant, it is kept as is
+	 */
+	public static void end(String name, long start) {
+		record(name, start, System.nanoTime(), false);
+	}
+
+	/**
+	 * Record something happening now.
+	 */
+	public static void mark(String name) {
+		final long now = System.nanoTime();
+		record(name, now, now, true);
+	}
+
+	private static void record(String name, long start, long end, boolean instant) {
+		final long ticket = mNext.getAndIncrement();
+		final int slot = (int)ticket & MASK;
+		mSeq.set(slot, 0);
+		mName.set(slot, name);
+		mStart.set(slot, start);
+		mEnd.set(slot, end);
+		mInstant.set(slot, instant ? 1 : 0);
+		mTid.set(slot, Process.myTid());
+		mSeq.set(slot, ticket + 1);
+	}
+
+	/**
+	 * The newest events as a Chrome trace, oldest first.
+	 * @param maxBytes the length not to exceed, older events are left out
+	 * @return empty if not even a trace without events fits
+	 */
+	public static String toChromeJson(int maxBytes) {
+		if (maxBytes < HEAD.length() + TAIL.length())
+			return "";
+		final long next = mNext.get();
+		final int pid = Process.myPid();
+		ArrayList<String> events = new ArrayList<String>();
+		int length = HEAD.length() + TAIL.length();
+
+		for (long ticket = next - 1; ticket >= 0 && ticket >= next - CAPACITY; ticket--) {
+			final int slot = (int)ticket & MASK;
+			final long seq = mSeq.get(slot);
+			if (seq != ticket + 1)
+				continue; // being written, or already written over
+			String name = mName.get(slot);
+			long start = mStart.get(slot);
+			long end = mEnd.get(slot);
+			boolean instant = mInstant.get(slot) != 0;
+			int tid = mTid.get(slot);
+			if (mSeq.get(slot) != seq)
+				continue;
+
+			String event = toEvent(name, start, end, instant, pid, tid);
+			if (length + event.length() + 1 > maxBytes)
+				break;
+			length += event.length() + 1;
+			events.add(event);
+		}
+
+		StringBuilder sb = new StringBuilder(length);
+		sb.append(HEAD);
+		for (int i = events.size() - 1; i >= 0; i--) {
+			sb.append(events.get(i));
+			if (i > 0)
+				sb.append(',');
+		}
+		sb.append(TAIL);
+		return sb.toString();
+	}
+
+	private static String toEvent(String name, long start, long end, boolean instant, int pid, int tid) {
+		StringBuilder sb = new StringBuilder(128);
+		sb.append("{\"name\":\"");
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\');
+			sb.append(c);
+		}
+		sb.append("\",\"cat\":\"call\",\"ph\":");
+		if (instant) {
+			sb.append("\"i\",\"s\":\"p\"");
+		} else {
+			sb.append("\"X\",\"dur\":");
+			appendMicros(sb, end - start);
+		}
+		sb.append(",\"ts\":");
+		appendMicros(sb, start);
+		sb.append(",\"pid\":").append(pid);
+		sb.append(",\"tid\":").append(tid);
+		sb.append('}');
+		return sb.toString();
+	}
+
+	/*Chrome wants microseconds, the fraction keeps the nanoseconds*/
+	private static void appendMicros(StringBuilder sb, long ns) {
+		if (ns < 0) {
+			sb.append('-');
+			ns = -ns;
+		}
+		sb.append(ns / 1000).append('.');
+		long frac = ns % 1000;
+		if (frac < 100)
+			sb.append('0');
+		if (frac < 10)
+			sb.append('0');
+		sb.append(frac);
+	}
+
+	private CallTrace() {
+	}
+
+	private static final AtomicLong mNext = new AtomicLong(0);
+	// ticket + 1 of the event in the slot, 0 while it is written
+	private static final AtomicLongArray mSeq = new AtomicLongArray(CAPACITY);
+	private static final AtomicReferenceArray<String> mName = new AtomicReferenceArray<String>(CAPACITY);
+	private static final AtomicLongArray mStart = new AtomicLongArray(CAPACITY);
+	private static final AtomicLongArray mEnd = new AtomicLongArray(CAPACITY);
+	// 1 for a mark
+	private static final AtomicIntegerArray mInstant = new AtomicIntegerArray(CAPACITY);
+	private static final AtomicIntegerArray mTid = new AtomicIntegerArray(CAPACITY);
+}
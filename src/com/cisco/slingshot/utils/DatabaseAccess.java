@@ -0,0 +1,252 @@
+package com.cisco.slingshot.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * One SQLite file of the app, opened and migrated once per process, for
+ * ContactDatabase and HistoryDatabase.
+ *
+ * The file is in WAL mode where the platform has it (API 11), readers then
+ * don't wait for the writer nor for each other. Reads take no lock of ours;
+ * writers serialize on {@link #getWriteLock()}, so there is one at a time.
+ * The hot lookups run as compiled statements kept by their SQL, and every
+ * query is timed: see {@link #getStats()}, slow ones are logged.
+ */
+public class DatabaseAccess {
+
+	private static final String LOG_TAG = "DatabaseAccess";
+
+	// queries slower than this are logged
+	private static final long SLOW_NS = 20 * 1000 * 1000;
+
+	/**
+	 * Layout of a file.
+	 */
+	public interface Schema {
+		public int getVersion();
+
+		/**
+		 * Bring the file to getVersion(), in a transaction. 0 for a new file.
+		 * Throw on failure, the transaction is then rolled back.
+		 */
+		public void onUpgrade(SQLiteDatabase db, int oldVersion);
+	}
+
+	/**
+	 * Open the file, migrating it first if its version isn't the schema's.
+	 * @return null if it can't be opened or migrated, the file is then left
+	 * at its old version for the next try
+	 */
+	public static DatabaseAccess open(Context context, String file, Schema schema) {
+		SQLiteDatabase db;
+		try {
+			db = context.openOrCreateDatabase(file, 0, null);
+		} catch (SQLiteException e) {
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+			return null;
+		}
+
+		final int version = db.getVersion();
+		if (version != schema.getVersion()) {
+			Util.S_Log.d(LOG_TAG, file + ": version " + version + " to " + schema.getVersion());
+			boolean migrated = false;
+			db.beginTransaction();
+			try {
+				schema.onUpgrade(db, version);
+				db.setVersion(schema.getVersion());
+				db.setTransactionSuccessful();
+				migrated = true;
+			} catch (SQLiteException e) {
+				Log.e(LOG_TAG, Log.getStackTraceString(e));
+			} finally {
+				db.endTransaction();
+			}
+			if (!migrated) {
+				// half migrated tables are no use to anybody
+				db.close();
+				return null;
+			}
+		}
+
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			if (!db.enableWriteAheadLogging())
+				Util.S_Log.d(LOG_TAG, file + ": no WAL");
+		}
+		return new DatabaseAccess(file, db);
+	}
+
+	private DatabaseAccess(String file, SQLiteDatabase db) {
+		mFile = file;
+		mDb = db;
+	}
+
+	public SQLiteDatabase getDatabase() {
+		return mDb;
+	}
+
+	/**
+	 * Held by every write, one writer at a time.
+	 */
+	public Object getWriteLock() {
+		return mWriteLock;
+	}
+
+	/**
+	 * The statement compiled for the sql, used under its own lock. Not from
+	 * inside a transaction: a reader holding the statement may be waiting for
+	 * the transaction to end.
+	 */
+	public SQLiteStatement getStatement(String sql) {
+		synchronized (mStatements) {
+			SQLiteStatement statement = mStatements.get(sql);
+			if (statement == null) {
+				statement = mDb.compileStatement(sql);
+				mStatements.put(sql, statement);
+			}
+			return statement;
+		}
+	}
+
+	/**
+	 * First column of the first row of a cached statement, null for no row if
+	 * the sql is a scalar subquery, see ContactDatabase.
+	 */
+	public String queryString(String sql, String... args) {
+		final long start = System.nanoTime();
+		SQLiteStatement statement = getStatement(sql);
+		try {
+			synchronized (statement) {
+				bind(statement, args);
+				return statement.simpleQueryForString();
+			}
+		} finally {
+			record(sql, start);
+		}
+	}
+
+	public long queryLong(String sql, String... args) {
+		final long start = System.nanoTime();
+		SQLiteStatement statement = getStatement(sql);
+		try {
+			synchronized (statement) {
+				bind(statement, args);
+				return statement.simpleQueryForLong();
+			}
+		} finally {
+			record(sql, start);
+		}
+	}
+
+	/**
+	 * The rows, with the first window read before returning, so the cost of
+	 * the query is paid and measured here rather than where it is scrolled.
+	 * @param name what the query is called in the stats
+	 */
+	public Cursor query(String name, String table, String[] columns, String selection, String[] selectionArgs,
+			String orderBy, String limit) {
+		final long start = System.nanoTime();
+		Cursor c = mDb.query(table, columns, selection, selectionArgs, null, null, orderBy, limit);
+		try {
+			c.getCount();
+		} catch (RuntimeException e) {
+			c.close();
+			throw e;
+		} finally {
+			record(name, start);
+		}
+		return c;
+	}
+
+	/**
+	 * Count a query or a write which was timed from start, System.nanoTime().
+	 */
+	public void record(String name, long start) {
+		final long ns = System.nanoTime() - start;
+		Stat stat;
+		synchronized (mStats) {
+			stat = mStats.get(name);
+			if (stat == null) {
+				stat = new Stat(name);
+				mStats.put(name, stat);
+			}
+			stat.count++;
+			stat.totalNs += ns;
+			if (ns > stat.maxNs)
+				stat.maxNs = ns;
+		}
+		if (ns > SLOW_NS)
+			Util.S_Log.d(LOG_TAG, mFile + ": " + (ns / 1000) + " us for " + name);
+	}
+
+	/**
+	 * One line per query: count, mean and max latency in us, slowest first.
+	 */
+	public List<String> getStats() {
+		ArrayList<Stat> stats;
+		synchronized (mStats) {
+			stats = new ArrayList<Stat>(mStats.size());
+			for (Stat s : mStats.values())
+				stats.add(new Stat(s));
+		}
+		Collections.sort(stats);
+		ArrayList<String> lines = new ArrayList<String>(stats.size());
+		for (Stat s : stats)
+			lines.add(mFile + " " + s);
+		return lines;
+	}
+
+	private static void bind(SQLiteStatement statement, String[] args) {
+		statement.clearBindings();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i] == null)
+				statement.bindNull(i + 1);
+			else
+				statement.bindString(i + 1, args[i]);
+		}
+	}
+
+	private static class Stat implements Comparable<Stat> {
+		Stat(String name) {
+			this.name = name;
+		}
+
+		Stat(Stat s) {
+			name = s.name;
+			count = s.count;
+			totalNs = s.totalNs;
+			maxNs = s.maxNs;
+		}
+
+		@Override
+		public int compareTo(Stat another) {
+			return (maxNs > another.maxNs) ? -1 : (maxNs == another.maxNs) ? 0 : 1;
+		}
+
+		@Override
+		public String toString() {
+			return count + "x mean " + (totalNs / count / 1000) + " max " + (maxNs / 1000) + " us: " + name;
+		}
+
+		final String name;
+		int count = 0;
+		long totalNs = 0;
+		long maxNs = 0;
+	}
+
+	private final String mFile;
+	private final SQLiteDatabase mDb;
+	private final Object mWriteLock = new Object();
+	private final HashMap<String, SQLiteStatement> mStatements = new HashMap<String, SQLiteStatement>();
+	private final HashMap<String, Stat> mStats = new HashMap<String, Stat>();
+}